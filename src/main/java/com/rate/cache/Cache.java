@@ -1,13 +1,19 @@
 package com.rate.cache;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.rate.context.ICallContext;
 import com.rate.context.ThreadLocalContext;
@@ -15,12 +21,29 @@ import com.rate.context.ThreadLocalContext;
 public class Cache
 {
   private CacheTimeManager timeManager;
-  private Map cacheMap;
+  private ConcurrentMap<CacheKey, CachePointer> cacheMap;
+  /** Live pointers grouped by the object class of the keys they are cached under. */
+  private ConcurrentMap<Class, Set<CachePointer>> classIndex;
+  private CacheEvictionPolicy policy;
+  /** Optional tier for entries evicted from the heap; null unless configured. */
+  private OffHeapTier offHeap;
+  /** Entries saved by a previous run, consulted on a miss until used; null if there is no snapshot. */
+  private CacheSnapshot snapshot;
+  /** Loads in progress, so concurrent misses on a key run its generator only once. */
+  private LoadCoalescer loads;
+  /** Hit, miss, load and eviction counts. */
+  private CacheStats stats;
   private Integer stackId;
   
   public Cache(Integer stackId)
   {
-    cacheMap = Collections.synchronizedMap(new HashMap());
+    cacheMap = new ConcurrentHashMap<CacheKey, CachePointer>();
+    classIndex = new ConcurrentHashMap<Class, Set<CachePointer>>();
+    policy = new CacheEvictionPolicy(CacheTimeManager.getCacheMaxSize());
+    offHeap = OffHeapTier.create();
+    snapshot = CacheSnapshot.open(CacheSnapshot.getFile(stackId));
+    loads = new LoadCoalescer();
+    stats = new CacheStats();
     timeManager = new CacheTimeManager(this);
     this.stackId = stackId;
   }
@@ -34,6 +57,12 @@ public class Cache
   {
     System.out.println("Clearing Cache..");
     cacheMap.clear();
+    classIndex.clear();
+    policy.clear();
+    if (offHeap != null)
+      offHeap.clear();
+    if (snapshot != null)
+      snapshot.clear();
     timeManager.flushAll();
   }
 
@@ -83,33 +112,71 @@ public class Cache
         return;
       }
 
-      CachePointer pointer = (CachePointer) cacheMap.get(primary.toString());
-      if (pointer != null)
-      {
-        pointer.setObject(object);
-      }
-      else
+      // the new object supersedes any copy moved off the heap or saved by a previous run
+      forgetCold(primary);
+      if (key != null)
+        forgetCold(key);
+
+      CachePointer pointer = null;
+      boolean added = false;
+
+      while (pointer == null)
       {
-        TimeList list = timeManager.getList(object);
-        pointer = new CachePointer(object, list);
-        pointer.addKey(primary);
-        
-        cacheMap.put(primary.toString(), pointer);
+        added = false;
+        CachePointer current = cacheMap.get(primary);
+        if (current == null)
+        {
+          CachePointer created = new CachePointer(object);
+          created.policyHash = primary.hashCode();
+          current = cacheMap.putIfAbsent(primary, created);
+          if (current == null)
+          {
+            current = created;
+            added = true;
+          }
+        }
+
+        synchronized (current)
+        {
+          if (current.isExpired())
+          {
+            // flushed between the lookup and the lock, so retry against a fresh pointer
+            cacheMap.remove(primary, current);
+            continue;
+          }
+
+          current.setObject(object);
+          current.addKey(primary);
+          index(primary, current);
+
+          CacheKey secondary = object.getSecondaryKey();
+          if (secondary != null)
+          {
+            current.addKey(secondary);
+            index(secondary, current);
+
+            cacheMap.put(secondary, current);
+          }
+          // Cache by supplied key
+          if ((key != null) && (cacheMap.putIfAbsent(key, current) == null))
+          {
+            current.addKey(key);
+            index(key, current);
+          }
+
+          pointer = current;
+        }
       }
-  
-      CacheKey secondary = object.getSecondaryKey();
-      if (secondary != null)
+
+      if (added)
       {
-        pointer.addKey(secondary);
-        
-        cacheMap.put(secondary.toString(), pointer);
+        timeManager.schedule(pointer);
+        flushEvicted(policy.onAdd(pointer, weigh(object)));
       }
-      // Cache by supplied key
-      if ((key != null) && (!cacheMap.containsKey(key.toString())))
+      else
       {
-        pointer.addKey(key);
-        
-        cacheMap.put(key.toString(), pointer);
+        // the replacement, or the same list grown since, may weigh more or less than what was there
+        flushEvicted(policy.onUpdate(pointer, weigh(object)));
       }
     }
   }
@@ -119,12 +186,102 @@ public class Cache
    * updated.
    */
   public CacheableObject get(CacheKey key) throws Exception
+  {
+    return get(key, null);
+  }
+
+  /**
+   * Looks up the object in the cacheMap and returns it if found. If not, loads it with the indicated generator, or the
+   * key's own generator if that is null, and caches it. Concurrent misses on the same key share a single load.
+   */
+  public CacheableObject get(CacheKey key, CacheableObject.ObjectGenerator generator) throws Exception
   {
     if (key == null)
     {
       return null;
     }
 
+    CacheableObject obj = lookup(key);
+
+    if (obj == null)
+    {
+      obj = load(key, generator);
+    }
+
+    return obj;
+  }
+
+  /**
+   * Returns the objects for all the keys, loading the ones not in the cache. Misses whose key has a
+   * BulkObjectGenerator are loaded together, one call per object class and generator; the rest are loaded one at a
+   * time as get() would. Keys with no object are left out of the result.
+   *
+   * @param keys
+   *          The keys to look up.
+   * @return The objects found, by key, in the order of the keys.
+   */
+  public Map<CacheKey, CacheableObject> getAll(Collection<CacheKey> keys) throws Exception
+  {
+    Map<CacheKey, CacheableObject> result = new LinkedHashMap<CacheKey, CacheableObject>();
+    Map<BulkLoad, List<CacheKey>> bulkLoads = new HashMap<BulkLoad, List<CacheKey>>();
+
+    Iterator<CacheKey> itr = keys.iterator();
+    while (itr.hasNext())
+    {
+      CacheKey key = itr.next();
+
+      if ((key == null) || result.containsKey(key))
+      {
+        continue;
+      }
+
+      CacheableObject obj = lookup(key);
+
+      if ((obj == null) && (key.getGenerator() instanceof CacheableObject.BulkObjectGenerator)
+          && (key.getScope() != CacheTimeManager.CALL))
+      {
+        BulkLoad bulkLoad = new BulkLoad(key.getObjectClass(), (CacheableObject.BulkObjectGenerator) key.getGenerator());
+        List<CacheKey> misses = bulkLoads.get(bulkLoad);
+
+        if (misses == null)
+        {
+          misses = new ArrayList<CacheKey>();
+          bulkLoads.put(bulkLoad, misses);
+        }
+
+        misses.add(key);
+
+        // keeps the result in the order of the keys
+        result.put(key, null);
+        continue;
+      }
+
+      if (obj == null)
+      {
+        obj = load(key, null);
+      }
+
+      result.put(key, obj);
+    }
+
+    Iterator<Map.Entry<BulkLoad, List<CacheKey>>> loads = bulkLoads.entrySet().iterator();
+    while (loads.hasNext())
+    {
+      Map.Entry<BulkLoad, List<CacheKey>> entry = loads.next();
+      generateAll(entry.getKey(), entry.getValue(), result);
+    }
+
+    result.values().removeAll(Collections.singleton(null));
+
+    return result;
+  }
+
+  /**
+   * Returns the object for the key if it is in the cacheMap, the call context, or one of the cold tiers, counting the
+   * hit or miss. Returns null on a miss.
+   */
+  private CacheableObject lookup(CacheKey key)
+  {
     CacheableObject obj = null;
     if (key.getScope() == CacheTimeManager.CALL)
     {
@@ -133,37 +290,226 @@ public class Cache
       {
         obj = (CacheableObject)callContext.getContextAttribute(key.toString());
         if ( obj != null )
+        {
+          stats.recordHit(key.getObjectClass(), key.getScope());
           return obj;
+        }
       }
     }
     
-    CachePointer item = (CachePointer) cacheMap.get(key.toString());
+    obj = getIfCached(key);
   
-    if ((item == null) || (item.getObject() == null))
+    if (obj == null)
     {
-      // if not found try to generate it then add it to cacheMap
-  
-      CacheableObject.ObjectGenerator gen = key.getGenerator();
-  
-      if (gen != null)
+      stats.recordMiss(key.getObjectClass(), key.getScope());
+
+      // the miss is counted against the primary key, which admission uses, once the object is found or loaded
+      obj = takeCold(key);
+      if (obj != null)
       {
-        obj = gen.regenerateObject(key.getObjectClass(), key.getCriteria());
-  
+        policy.onMiss(policyHash(key, obj));
+        put(key, obj);
+      }
+    }
+
+    return obj;
+  }
+
+  /**
+   * Returns the object for the key if it is in the cacheMap, counting the hit, or null without counting anything. The
+   * key is only compared, never kept, so a caller may reuse one key for many lookups.
+   */
+  CacheableObject getIfCached(CacheKey key)
+  {
+    CachePointer item = cacheMap.get(key);
+    CacheableObject obj = (item == null) ? null : item.getObject();
+
+    if (obj != null)
+    {
+      policy.onAccess(item);
+      stats.recordHit(key.getObjectClass(), obj.getCacheLongevity());
+
+      if (obj instanceof RefreshableCacheableObject)
+      {
+        refreshIfStale(item, (RefreshableCacheableObject) obj);
+      }
+    }
+
+    return obj;
+  }
+
+  /**
+   * Loads the object for a key that missed, with the indicated generator or the key's own, and caches it.
+   */
+  private CacheableObject load(final CacheKey key, CacheableObject.ObjectGenerator generator) throws Exception
+  {
+    final CacheableObject.ObjectGenerator gen = (generator != null) ? generator : key.getGenerator();
+    final boolean keyScope = (generator == null);
+
+    if (gen == null)
+    {
+      return null;
+    }
+
+    Callable<CacheableObject> loader = new Callable<CacheableObject>()
+    {
+      public CacheableObject call() throws Exception
+      {
+        return generate(key, gen, keyScope);
+      }
+    };
+
+    // call-scoped objects belong to the calling thread's context, so they are never shared
+    if (key.getScope() == CacheTimeManager.CALL)
+    {
+      return loader.call();
+    }
+
+    return loads.load(key, loader);
+  }
+
+  /**
+   * Queues a background reload of the object if it has been cached longer than its refresh interval. The caller keeps
+   * the current object meanwhile.
+   */
+  private void refreshIfStale(CachePointer item, RefreshableCacheableObject obj)
+  {
+    long refreshAfter = obj.getRefreshAfter();
+
+    if ((refreshAfter > 0) && ((System.currentTimeMillis() - item.getLoadTime()) >= refreshAfter)
+        && item.startRefresh())
+    {
+      if (!CacheRefresher.submit(this, item, obj))
+      {
+        item.endRefresh();
+      }
+    }
+  }
+
+  /**
+   * Reloads the object and swaps the new copy into the pointer, so every key of the entry sees it. Flushes the entry
+   * if the object no longer exists. If the reload fails, the current object stays until the next attempt. Called by
+   * the CacheRefresher.
+   */
+  protected void refresh(CachePointer item, RefreshableCacheableObject obj)
+  {
+    CacheableObject fresh;
+
+    try
+    {
+      fresh = obj.reload();
+    }
+    catch (Exception e)
+    {
+      System.out.println("Cannot refresh " + obj.getPrimaryKey() + ": " + e);
+      return;
+    }
+
+    if (fresh == null)
+    {
+      flush(item, false);
+    }
+    else if (item.refreshObject(obj, fresh))
+    {
+      // Call object regenerate so it can transfer any transient data
+      fresh.regenerate(obj);
+    }
+  }
+
+  /**
+   * Generates the object for the key and caches it.
+   *
+   * @param keyScope
+   *          Whether the object takes the key's scope, as lists built by the key's own generator do.
+   */
+  private CacheableObject generate(CacheKey key, CacheableObject.ObjectGenerator gen, boolean keyScope)
+      throws Exception
+  {
+    CacheableObject obj;
+    long start = System.nanoTime();
+
+    try
+    {
+      obj = gen.regenerateObject(key.getObjectClass(), key.getCriteria());
+    }
+    catch (Exception e)
+    {
+      stats.recordLoad(key.getObjectClass(), key.getScope(), System.nanoTime() - start, false);
+      throw e;
+    }
+
+    stats.recordLoad(key.getObjectClass(), (obj == null) ? key.getScope() : obj.getCacheLongevity(),
+        System.nanoTime() - start, true);
+    policy.onMiss(policyHash(key, obj));
+
+    if (obj != null)
+    {
+      if (keyScope)
+      {
+        // In case we are generating a list, set the scope define in the key
+        obj.setCacheLongevity(key.getScope());
+      }
+      put(key, obj);
+    }
+
+    return obj;
+  }
+
+  /**
+   * Loads the objects for keys of one class that share a BulkObjectGenerator in a single call, caches them and records
+   * them in the result. If the generator cannot load them in bulk, each is loaded on its own.
+   */
+  private void generateAll(BulkLoad bulkLoad, List<CacheKey> keys, Map<CacheKey, CacheableObject> result)
+      throws Exception
+  {
+    List<CacheCriteria> criteria = new ArrayList<CacheCriteria>(keys.size());
+    for (int i = 0; i < keys.size(); i++)
+    {
+      criteria.add(keys.get(i).getCriteria());
+    }
+
+    Map<CacheCriteria, CacheableObject> loaded;
+    byte scope = keys.get(0).getScope();
+    long start = System.nanoTime();
+
+    try
+    {
+      loaded = bulkLoad.generator.regenerateObjects(bulkLoad.objectClass, criteria);
+    }
+    catch (Exception e)
+    {
+      stats.recordLoad(bulkLoad.objectClass, scope, System.nanoTime() - start, false);
+      throw e;
+    }
+
+    if (loaded != null)
+    {
+      stats.recordLoad(bulkLoad.objectClass, scope, System.nanoTime() - start, true);
+    }
+
+    for (int i = 0; i < keys.size(); i++)
+    {
+      CacheKey key = keys.get(i);
+      CacheableObject obj;
+
+      if (loaded == null)
+      {
+        obj = load(key, null);
+      }
+      else
+      {
+        obj = loaded.get(key.getCriteria());
+        policy.onMiss(policyHash(key, obj));
+
         if (obj != null)
         {
-          // In case we are generating a list, set the scope define in the key
+          // as generate() does for objects built by the key's own generator
           obj.setCacheLongevity(key.getScope());
           put(key, obj);
-  
-          return obj;
         }
       }
-  
-      return null;
-    }
-    else
-    {      
-      return item.getObject();
+
+      result.put(key, obj);
     }
   }
 
@@ -178,7 +524,7 @@ public class Cache
     }
 
     // get original object
-    CachePointer item = (CachePointer) cacheMap.get(key.toString());
+    CachePointer item = cacheMap.get(key);
     CacheableObject object = item.getObject();
   
     // flush it
@@ -207,7 +553,7 @@ public class Cache
   	  return false;
   	}
   	
-    return cacheMap.containsKey(key.toString());
+    return cacheMap.containsKey(key);
   }
 
   /**
@@ -237,13 +583,16 @@ public class Cache
     }
     else
     {
-      flush((CachePointer) cacheMap.get(key.toString()), recursive);
+      forgetCold(key);
+
+      flush(cacheMap.get(key), recursive);
     }
   }
 
   /**
    * Flushes the object corresponding to the indicated pointer from the cacheMap. If recursive is set, it calls
-   * object.flush() to process recursively.
+   * object.flush() to process recursively. The keys are only removed while they still map to this pointer, so a
+   * concurrent put of a replacement is never lost, and a pointer is only ever flushed once.
    * 
    * @param pointer
    *          The pointer to flush from the cacheMap.
@@ -251,23 +600,57 @@ public class Cache
    *          Whether or not to flush recursively.
    */
   public void flush(CachePointer pointer, boolean recursive)
+  {
+    flush(pointer, recursive, CacheStats.EXPLICIT);
+  }
+
+  /**
+   * Flushes the pointer as flush(pointer, recursive) does, counting it as an eviction for the indicated cause.
+   *
+   * @param cause
+   *          CacheStats.EXPIRED, SIZE or EXPLICIT.
+   */
+  void flush(CachePointer pointer, boolean recursive, int cause)
   {
     if (pointer != null)
     {
-      Iterator it = pointer.getCacheKeys().iterator();
-  
-      while (it.hasNext())
+      CacheableObject object = null;
+      Class keyClass = null;
+
+      synchronized (pointer)
       {
-        Object object = it.next();
-        cacheMap.remove(object.toString());
+        if (pointer.isExpired())
+        {
+          return;
+        }
+
+        Iterator it = pointer.getCacheKeys().iterator();
+    
+        while (it.hasNext())
+        {
+          CacheKey key = (CacheKey) it.next();
+          cacheMap.remove(key, pointer);
+          unindex(key, pointer);
+
+          if (keyClass == null)
+          {
+            keyClass = key.getObjectClass();
+          }
+        }
+
+        object = pointer.fetchObject();
+
+        pointer.expire();
       }
+
+      timeManager.deschedule(pointer);
+      policy.onRemove(pointer);
+      stats.recordEviction(keyClass, (object == null) ? CacheTimeManager.SHORT : object.getCacheLongevity(), cause);
   
-      if ((recursive) && (pointer.getObject() != null))
+      if ((recursive) && (object != null))
       {
-        pointer.getObject().flush();
+        object.flush();
       }
-  
-      pointer.expire();
     }
   }
 
@@ -276,6 +659,233 @@ public class Cache
     timeManager.flush(requestHash);
   }
 
+  /**
+   * The object class and generator shared by keys that are loaded together.
+   */
+  private static class BulkLoad
+  {
+    final Class objectClass;
+
+    final CacheableObject.BulkObjectGenerator generator;
+
+    BulkLoad(Class objectClass, CacheableObject.BulkObjectGenerator generator)
+    {
+      this.objectClass = objectClass;
+      this.generator = generator;
+    }
+
+    public int hashCode()
+    {
+      return (31 * ((objectClass == null) ? 0 : objectClass.hashCode())) + generator.hashCode();
+    }
+
+    public boolean equals(Object other)
+    {
+      if (!(other instanceof BulkLoad))
+      {
+        return false;
+      }
+
+      BulkLoad o = (BulkLoad) other;
+      return (objectClass == o.objectClass) && generator.equals(o.generator);
+    }
+  }
+
+  /**
+   * Adds the pointer to the class index under the key's object class. Called while holding the pointer's lock so it
+   * cannot race with the pointer being flushed.
+   */
+  private void index(CacheKey key, CachePointer pointer)
+  {
+    Class cl = key.getObjectClass();
+    Set<CachePointer> pointers = classIndex.get(cl);
+    if (pointers == null)
+    {
+      Set<CachePointer> created = ConcurrentHashMap.<CachePointer> newKeySet();
+      pointers = classIndex.putIfAbsent(cl, created);
+      if (pointers == null)
+        pointers = created;
+    }
+    pointers.add(pointer);
+  }
+
+  private void unindex(CacheKey key, CachePointer pointer)
+  {
+    Set<CachePointer> pointers = classIndex.get(key.getObjectClass());
+    if (pointers != null)
+      pointers.remove(pointer);
+  }
+
+  /**
+   * Changes the maximum total weight of this cache (0 or less for unbounded), evicting whatever no longer fits.
+   */
+  protected void setMaximumSize(long maximum)
+  {
+    flushEvicted(policy.setMaximum(maximum));
+  }
+
+  /**
+   * Returns the total weight of the entries currently cached.
+   */
+  protected long getWeightedSize()
+  {
+    return policy.getWeightedSize();
+  }
+
+  /**
+   * Returns the hit, miss, load and eviction counts of this cache.
+   */
+  public CacheStats getStats()
+  {
+    return stats;
+  }
+
+  /**
+   * Returns the number of misses that waited for another thread to load the same key instead of loading it again.
+   */
+  public long getCoalescedLoadCount()
+  {
+    return loads.getCoalescedCount();
+  }
+
+  /**
+   * Applies hits buffered since the last write to the eviction policy. Called by the expiry timer.
+   */
+  protected void drainReads()
+  {
+    policy.drainReads();
+  }
+
+  /**
+   * Returns the object for the key from the off-heap tier or the startup snapshot, removing it from there, or null if
+   * neither has it.
+   */
+  private CacheableObject takeCold(CacheKey key)
+  {
+    CacheableObject obj = null;
+
+    if (offHeap != null)
+    {
+      obj = offHeap.take(key);
+    }
+
+    if ((obj == null) && (snapshot != null))
+    {
+      obj = snapshot.take(key, timeManager);
+    }
+
+    return obj;
+  }
+
+  /**
+   * Drops any copy of the key's object held outside the heap.
+   */
+  private void forgetCold(CacheKey key)
+  {
+    if (offHeap != null)
+    {
+      offHeap.remove(key);
+    }
+
+    if (snapshot != null)
+    {
+      snapshot.remove(key);
+    }
+  }
+
+  /**
+   * Writes the most recently used entries to this cache's snapshot file, if snapshots are configured.
+   */
+  protected void writeSnapshot()
+  {
+    File file = CacheSnapshot.getFile(stackId);
+    if (file == null)
+    {
+      return;
+    }
+
+    try
+    {
+      int count = CacheSnapshot.write(file, cacheMap.values(), CacheSnapshot.getMaxEntries());
+      System.out.println("Cache snapshot " + file + " written with " + count + " entries");
+    }
+    catch (IOException e)
+    {
+      System.out.println("Cannot write cache snapshot " + file + ": " + e);
+    }
+  }
+
+  /**
+   * Flushes entries the eviction policy chose to drop, moving them to the off-heap tier when there is one. Called after
+   * the policy lock is released.
+   */
+  private void flushEvicted(List<CachePointer> victims)
+  {
+    if (victims != null)
+    {
+      for (int i = 0; i < victims.size(); i++)
+      {
+        CachePointer victim = victims.get(i);
+
+        if (offHeap == null)
+        {
+          flush(victim, true, CacheStats.SIZE);
+          continue;
+        }
+
+        CacheableObject object;
+        Object[] keys;
+
+        synchronized (victim)
+        {
+          if (victim.isExpired())
+          {
+            continue;
+          }
+          object = victim.fetchObject();
+          keys = victim.getCacheKeys().toArray();
+        }
+
+        long deadline = (victim.timeToLive > 0) ? (victim.getLastAccessTime() + victim.timeToLive) : Long.MAX_VALUE;
+
+        flush(victim, true, CacheStats.SIZE);
+
+        if (object != null)
+        {
+          offHeap.put(keys, object, deadline);
+
+          // a replacement may have been cached while this one was being encoded
+          CacheKey primary = object.getPrimaryKey();
+          if ((primary != null) && cacheMap.containsKey(primary))
+          {
+            offHeap.remove(primary);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the hash the eviction policy tracks the object's entry by: that of its primary key, or of the key it was
+   * looked up by if there is no object or it has no primary key.
+   */
+  private static int policyHash(CacheKey key, CacheableObject object)
+  {
+    CacheKey primary = (object == null) ? null : object.getPrimaryKey();
+
+    return (primary != null) ? primary.hashCode() : key.hashCode();
+  }
+
+  private static int weigh(CacheableObject object)
+  {
+    if (object instanceof WeightedCacheableObject)
+    {
+      return Math.max(1, ((WeightedCacheableObject) object).getCacheWeight());
+    }
+
+    return 1;
+  }
+
   protected int size()
   {
     return cacheMap.size();
@@ -288,24 +898,19 @@ public class Cache
     if (cl == null)
       return list;
     
-    String classPrefixStr = cl.toString() + "@";
+    Set<CachePointer> pointers = classIndex.get(cl);
+    if (pointers == null)
+      return list;
     
-    Set<String> copyCacheMapKeys = new HashSet<String>(cacheMap.keySet());
-    for (String nextCacheKeyStr : copyCacheMapKeys)
+    Iterator<CachePointer> it = pointers.iterator();
+    while (it.hasNext())
     {
-      if (nextCacheKeyStr.startsWith(classPrefixStr))
-      {
-        CachePointer item = (CachePointer) this.cacheMap.get(nextCacheKeyStr);
-        if (item != null)
-        {
-          CacheableObject obj = item.getObject();
-          if (obj != null)
-            list.add(obj);
-        }
-      }
+      CacheableObject obj = it.next().getObject();
+      if (obj != null)
+        list.add(obj);
     }
     
     return list;
   }
   
-}
\ No newline at end of file
+}
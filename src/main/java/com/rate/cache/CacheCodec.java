@@ -0,0 +1,29 @@
+package com.rate.cache;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Compact binary encoding of a CacheableObject, used when an entry is moved out of the heap (see OffHeapTier). A codec
+ * is registered for a class with CacheCodecRegistry and also applies to its subclasses.
+ */
+public interface CacheCodec
+{
+  /**
+   * Writes the object. Throws IOException if the object holds something this codec cannot represent, in which case
+   * the object is simply not moved out of the heap.
+   */
+  public void encode(CacheableObject object, DataOutput out) throws IOException;
+
+  /**
+   * Reads back an object of the indicated class written by encode().
+   */
+  public CacheableObject decode(Class objectClass, DataInput in) throws IOException;
+
+  /**
+   * Returns a fingerprint of the encoded layout for the class. Data written under a different fingerprint (for example
+   * a snapshot taken before a deploy that changed the class) is not decoded.
+   */
+  public int getSchemaVersion(Class objectClass);
+}
@@ -0,0 +1,69 @@
+package com.rate.cache;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The CacheCodecs known to the cache, by class. Lookups walk up the superclasses, so registering a codec for a base
+ * class covers every subclass that does not have its own.
+ */
+public class CacheCodecRegistry
+{
+  private static final ConcurrentMap<Class, CacheCodec> codecs = new ConcurrentHashMap<Class, CacheCodec>();
+
+  /** Classes already resolved through their superclasses. Holds NONE for classes with no codec. */
+  private static final ConcurrentMap<Class, CacheCodec> resolved = new ConcurrentHashMap<Class, CacheCodec>();
+
+  private static final CacheCodec NONE = new CacheCodec()
+  {
+    public void encode(CacheableObject object, DataOutput out)
+    {
+    }
+
+    public CacheableObject decode(Class objectClass, DataInput in)
+    {
+      return null;
+    }
+
+    public int getSchemaVersion(Class objectClass)
+    {
+      return 0;
+    }
+  };
+
+  private CacheCodecRegistry()
+  {
+  }
+
+  public static void register(Class objectClass, CacheCodec codec)
+  {
+    codecs.put(objectClass, codec);
+    resolved.clear();
+  }
+
+  /**
+   * Returns the codec for the class or its nearest superclass, or null if there is none.
+   */
+  public static CacheCodec get(Class objectClass)
+  {
+    CacheCodec codec = resolved.get(objectClass);
+
+    if (codec == null)
+    {
+      for (Class cl = objectClass; (cl != null) && (codec == null); cl = cl.getSuperclass())
+      {
+        codec = codecs.get(cl);
+      }
+
+      if (codec == null)
+      {
+        codec = NONE;
+      }
+      resolved.put(objectClass, codec);
+    }
+
+    return (codec == NONE) ? null : codec;
+  }
+}
@@ -1,7 +1,15 @@
 package com.rate.cache;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.List;
 
+/**
+ * The values identifying a cached object. Whole numbers compare by value whatever their type, and so do strings holding
+ * one in its plain decimal form, so Integer 1, Long 1 and "1" find the same entry, as they did when keys were compared
+ * by their string form. Lists among the values compare element by element the same way.
+ */
 public class CacheCriteria implements Serializable
 {
   /**
@@ -55,6 +63,16 @@ public class CacheCriteria implements Serializable
     criteria = it;
   }
 
+  /**
+   * Replaces the only value of a criteria made with one, so a lookup key can be reused. Must never be called on the
+   * criteria of a key held by a cache.
+   */
+  void reuse(Object value)
+  {
+    criteria[0] = value;
+    hashValue = UNCALCULATED;
+  }
+
   /**
    * Returns the internally-used array of objects. Actually returns the array, not a copy. Changes made to the array
    * will result in undefined behavior, so that should never be done.
@@ -101,7 +119,7 @@ public class CacheCriteria implements Serializable
 
       for (int i = 0; i < criteria.length; ++i)
       {
-        value = (value * 31) + ((criteria[i] == null) ? (0) : (criteria[i].hashCode()));
+        value = (value * 31) + hashValue(criteria[i]);
       }
 
       return value;
@@ -110,7 +128,7 @@ public class CacheCriteria implements Serializable
 
   /**
    * Returns true if the other is this, or if it is the same class, both objects have non-null criteria, and the entries
-   * in the criteria arrays match.
+   * in the criteria arrays match as valuesEqual() compares them.
    */
   public boolean equals(Object other)
   {
@@ -129,13 +147,133 @@ public class CacheCriteria implements Serializable
 
       for (int i = 0; equal && (i < this.criteria.length); ++i)
       {
-        equal = (this.criteria[i] == null) ? (o.criteria[i] == null) : (this.criteria[i].equals(o.criteria[i]));
+        equal = valuesEqual(this.criteria[i], o.criteria[i]);
       }
 
       return equal;
     }
   }
 
+  /**
+   * Returns whether two values of criteria identify the same object: they are equal, or both are whole numbers with the
+   * same value, or both are lists whose elements match this way.
+   */
+  static boolean valuesEqual(Object a, Object b)
+  {
+    if (a == b)
+    {
+      return true;
+    }
+    if ((a == null) || (b == null))
+    {
+      return false;
+    }
+    if ((a.getClass() == b.getClass()) && !(a instanceof List))
+    {
+      return a.equals(b);
+    }
+    if ((a instanceof List) && (b instanceof List))
+    {
+      List la = (List) a;
+      List lb = (List) b;
+
+      if (la.size() != lb.size())
+      {
+        return false;
+      }
+
+      for (int i = 0; i < la.size(); i++)
+      {
+        if (!valuesEqual(la.get(i), lb.get(i)))
+        {
+          return false;
+        }
+      }
+
+      return true;
+    }
+    if (isWholeNumber(a) && isWholeNumber(b))
+    {
+      return wholeValue(a) == wholeValue(b);
+    }
+
+    return a.equals(b);
+  }
+
+  /**
+   * Returns a hash-code of the value consistent with valuesEqual().
+   */
+  static int hashValue(Object value)
+  {
+    if (value == null)
+    {
+      return 0;
+    }
+    if (value instanceof List)
+    {
+      List list = (List) value;
+      int hash = 1;
+
+      for (int i = 0; i < list.size(); i++)
+      {
+        hash = (hash * 31) + hashValue(list.get(i));
+      }
+
+      return hash;
+    }
+    if (isWholeNumber(value))
+    {
+      return Long.hashCode(wholeValue(value));
+    }
+
+    return value.hashCode();
+  }
+
+  private static boolean isWholeNumber(Object value)
+  {
+    if ((value instanceof Integer) || (value instanceof Long) || (value instanceof Short) || (value instanceof Byte))
+    {
+      return true;
+    }
+    if (!(value instanceof String))
+    {
+      return false;
+    }
+
+    String s = (String) value;
+    int start = (s.startsWith("-") && (s.length() > 1)) ? 1 : 0;
+
+    // the plain form only, as Long.toString() writes it, so "01" and "+1" stay strings
+    if ((s.length() == start) || (s.length() - start > 19) || ((s.charAt(start) == '0') && (s.length() > 1)))
+    {
+      return false;
+    }
+
+    for (int i = start; i < s.length(); i++)
+    {
+      char c = s.charAt(i);
+      if ((c < '0') || (c > '9'))
+      {
+        return false;
+      }
+    }
+
+    try
+    {
+      Long.parseLong(s);
+      return !"-0".equals(s);
+    }
+    catch (NumberFormatException e)
+    {
+      return false;
+    }
+  }
+
+  private static long wholeValue(Object value)
+  {
+    return (value instanceof String) ? Long.parseLong((String) value) : ((Number) value).longValue();
+  }
+
   public String toString()
   {
     if (criteria == null)
@@ -162,5 +300,13 @@ public class CacheCriteria implements Serializable
 
     return s.toString();
   }
-}
 
+  /**
+   * Transient fields come back as 0 rather than UNCALCULATED, which would otherwise be taken as a real hash-code.
+   */
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+  {
+    in.defaultReadObject();
+    hashValue = UNCALCULATED;
+  }
+}
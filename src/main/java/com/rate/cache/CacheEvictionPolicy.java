@@ -0,0 +1,479 @@
+package com.rate.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Size bound for a Cache, using the W-TinyLFU policy. New entries land in a small LRU window. Entries pushed out of the
+ * window go on probation in the main area, and are only allowed to stay if the FrequencySketch says they are used more
+ * often than the probation entry that would be evicted in their place. Probation entries that are used again are
+ * promoted to the protected area, which takes up most of the main area.
+ * <P>
+ * The maximum is a total weight: every entry weighs 1 unless its object implements WeightedCacheableObject. A maximum
+ * of 0 or less means unbounded; entries are still tracked so a bound can be applied later.
+ * </P>
+ * <P>
+ * All state is guarded by a single lock, which is never held while calling back into the cache. Methods that evict
+ * return the victims so the caller can flush them after the lock is released. Hits are not applied directly: they are
+ * logged in a ReadBuffer and replayed under the lock by the next write, by drainReads() from the expiry timer, or by a
+ * reader that finds its ring full and the lock free. A cache hit therefore never blocks and allocates nothing.
+ * </P>
+ */
+class CacheEvictionPolicy
+{
+  static final byte NONE = 0;
+
+  static final byte WINDOW = 1;
+
+  static final byte PROBATION = 2;
+
+  static final byte PROTECTED = 3;
+
+  /** Percentage of the maximum given to the admission window. */
+  private static final int WINDOW_PERCENT = 1;
+
+  /** Percentage of the main area given to the protected segment. */
+  private static final int PROTECTED_PERCENT = 80;
+
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private final FrequencySketch sketch = new FrequencySketch();
+
+  private final ReadBuffer readBuffer = new ReadBuffer();
+
+  private final PointerQueue window = new PointerQueue();
+
+  private final PointerQueue probation = new PointerQueue();
+
+  private final PointerQueue protectedQueue = new PointerQueue();
+
+  private long maximum;
+
+  private long windowMaximum;
+
+  private long protectedMaximum;
+
+  private long windowWeight;
+
+  private long protectedWeight;
+
+  private long weightedSize;
+
+  public CacheEvictionPolicy(long maximum)
+  {
+    setMaximum(maximum);
+  }
+
+  /**
+   * Changes the maximum weight, returning any entries that no longer fit.
+   */
+  public List<CachePointer> setMaximum(long maximum)
+  {
+    lock.lock();
+    try
+    {
+      readBuffer.drain(this);
+      this.maximum = maximum;
+
+      if (maximum > 0)
+      {
+        windowMaximum = Math.max(1, (maximum * WINDOW_PERCENT) / 100);
+        protectedMaximum = ((maximum - windowMaximum) * PROTECTED_PERCENT) / 100;
+        sketch.ensureCapacity(maximum);
+      }
+      else
+      {
+        windowMaximum = Long.MAX_VALUE;
+        protectedMaximum = Long.MAX_VALUE;
+      }
+
+      return evict();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  public long getMaximum()
+  {
+    return maximum;
+  }
+
+  public long getWeightedSize()
+  {
+    return weightedSize;
+  }
+
+  /**
+   * Starts tracking a newly cached pointer, returning the entries evicted to make room for it (which may include the
+   * pointer itself if it lost the admission check).
+   */
+  public List<CachePointer> onAdd(CachePointer pointer, int weight)
+  {
+    lock.lock();
+    try
+    {
+      readBuffer.drain(this);
+
+      // a pointer flushed before it got here must not be tracked, since its onRemove has already run
+      if (pointer.isExpired() || (pointer.policyQueue != NONE))
+      {
+        return null;
+      }
+
+      sketch.increment(pointer.policyHash);
+
+      pointer.policyWeight = weight;
+      pointer.policyQueue = WINDOW;
+      window.addLast(pointer);
+      windowWeight += weight;
+      weightedSize += weight;
+
+      return evict();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Changes the weight of a tracked pointer whose object was replaced or has grown, returning the entries evicted if it
+   * no longer fits (which may include the pointer itself).
+   */
+  public List<CachePointer> onUpdate(CachePointer pointer, int weight)
+  {
+    lock.lock();
+    try
+    {
+      readBuffer.drain(this);
+
+      int delta = weight - pointer.policyWeight;
+
+      if ((pointer.policyQueue == NONE) || (delta == 0))
+      {
+        return null;
+      }
+
+      pointer.policyWeight = weight;
+      weightedSize += delta;
+
+      if (pointer.policyQueue == WINDOW)
+      {
+        windowWeight += delta;
+      }
+      else if (pointer.policyQueue == PROTECTED)
+      {
+        protectedWeight += delta;
+        demoteProtected();
+      }
+
+      return evict();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Records a hit on the pointer in the read buffer. If the buffer is full and nobody else is draining it, drains it on
+   * this thread.
+   */
+  public void onAccess(CachePointer pointer)
+  {
+    if (!readBuffer.offer(pointer) && lock.tryLock())
+    {
+      try
+      {
+        readBuffer.drain(this);
+      }
+      finally
+      {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Applies the buffered hits. Called periodically so reads are reflected even when there are no writes.
+   */
+  public void drainReads()
+  {
+    if (lock.tryLock())
+    {
+      try
+      {
+        readBuffer.drain(this);
+      }
+      finally
+      {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Applies one buffered hit: bumps the frequency and moves the pointer within, or up to, the protected segment. Called
+   * by the ReadBuffer with the lock held. Pointers removed since the hit are ignored.
+   */
+  void applyAccess(CachePointer pointer)
+  {
+    switch (pointer.policyQueue)
+    {
+      case WINDOW:
+        sketch.increment(pointer.policyHash);
+        window.moveToBack(pointer);
+        break;
+
+      case PROBATION:
+        sketch.increment(pointer.policyHash);
+        probation.remove(pointer);
+        pointer.policyQueue = PROTECTED;
+        protectedQueue.addLast(pointer);
+        protectedWeight += pointer.policyWeight;
+        demoteProtected();
+        break;
+
+      case PROTECTED:
+        sketch.increment(pointer.policyHash);
+        protectedQueue.moveToBack(pointer);
+        break;
+
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Records a lookup that found nothing, so the key's frequency is known if it is cached afterwards. Skipped if another
+   * thread holds the lock.
+   */
+  public void onMiss(int hash)
+  {
+    if (!lock.tryLock())
+    {
+      return;
+    }
+
+    try
+    {
+      sketch.increment(hash);
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Stops tracking a pointer that has been flushed.
+   */
+  public void onRemove(CachePointer pointer)
+  {
+    lock.lock();
+    try
+    {
+      readBuffer.drain(this);
+      unlink(pointer);
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Drops every tracked pointer and the frequency history.
+   */
+  public void clear()
+  {
+    lock.lock();
+    try
+    {
+      readBuffer.drain(this);
+      while (window.head != null)
+        unlink(window.head);
+      while (probation.head != null)
+        unlink(probation.head);
+      while (protectedQueue.head != null)
+        unlink(protectedQueue.head);
+
+      sketch.clear();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Moves entries that overflow the window onto probation, then evicts until the total weight fits. Each round compares
+   * the newest probation entry (the candidate) against the oldest (the victim) and keeps the more frequently used one.
+   * Must be called with the lock held.
+   */
+  private List<CachePointer> evict()
+  {
+    while ((windowWeight > windowMaximum) && (window.head != null))
+    {
+      CachePointer pointer = window.head;
+      window.remove(pointer);
+      windowWeight -= pointer.policyWeight;
+      pointer.policyQueue = PROBATION;
+      probation.addLast(pointer);
+    }
+
+    List<CachePointer> victims = null;
+
+    while ((maximum > 0) && (weightedSize > maximum))
+    {
+      CachePointer victim = probation.head;
+      CachePointer candidate = probation.tail;
+      CachePointer evicted;
+
+      if (victim == null)
+      {
+        evicted = (protectedQueue.head != null) ? protectedQueue.head : window.head;
+      }
+      else if (victim == candidate)
+      {
+        evicted = victim;
+      }
+      else
+      {
+        evicted = admit(candidate, victim) ? victim : candidate;
+      }
+
+      if (evicted == null)
+      {
+        break;
+      }
+
+      unlink(evicted);
+
+      if (victims == null)
+      {
+        victims = new ArrayList<CachePointer>();
+      }
+      victims.add(evicted);
+    }
+
+    return victims;
+  }
+
+  /**
+   * Returns true if the candidate should be kept in place of the victim. A small random chance of admitting warm
+   * candidates that tie or lose stops a crafted key sequence from pinning the victim in place.
+   */
+  private boolean admit(CachePointer candidate, CachePointer victim)
+  {
+    int candidateFrequency = sketch.frequency(candidate.policyHash);
+    int victimFrequency = sketch.frequency(victim.policyHash);
+
+    if (candidateFrequency > victimFrequency)
+    {
+      return true;
+    }
+    else if (candidateFrequency <= 5)
+    {
+      return false;
+    }
+
+    return (ThreadLocalRandom.current().nextInt() & 127) == 0;
+  }
+
+  /**
+   * Moves the oldest protected entries back onto probation while the protected segment is over its share.
+   */
+  private void demoteProtected()
+  {
+    while ((protectedWeight > protectedMaximum) && (protectedQueue.head != null))
+    {
+      CachePointer pointer = protectedQueue.head;
+      protectedQueue.remove(pointer);
+      protectedWeight -= pointer.policyWeight;
+      pointer.policyQueue = PROBATION;
+      probation.addLast(pointer);
+    }
+  }
+
+  private void unlink(CachePointer pointer)
+  {
+    switch (pointer.policyQueue)
+    {
+      case WINDOW:
+        window.remove(pointer);
+        windowWeight -= pointer.policyWeight;
+        break;
+
+      case PROBATION:
+        probation.remove(pointer);
+        break;
+
+      case PROTECTED:
+        protectedQueue.remove(pointer);
+        protectedWeight -= pointer.policyWeight;
+        break;
+
+      default:
+        return;
+    }
+
+    weightedSize -= pointer.policyWeight;
+    pointer.policyQueue = NONE;
+  }
+
+  /**
+   * Doubly-linked list threaded through the policy fields of CachePointer, so moving an entry allocates nothing.
+   */
+  static class PointerQueue
+  {
+    CachePointer head;
+
+    CachePointer tail;
+
+    void addLast(CachePointer pointer)
+    {
+      pointer.policyPrev = tail;
+      pointer.policyNext = null;
+
+      if (tail == null)
+        head = pointer;
+      else
+        tail.policyNext = pointer;
+
+      tail = pointer;
+    }
+
+    void remove(CachePointer pointer)
+    {
+      CachePointer prev = pointer.policyPrev;
+      CachePointer next = pointer.policyNext;
+
+      if (prev == null)
+        head = next;
+      else
+        prev.policyNext = next;
+
+      if (next == null)
+        tail = prev;
+      else
+        next.policyPrev = prev;
+
+      pointer.policyPrev = null;
+      pointer.policyNext = null;
+    }
+
+    void moveToBack(CachePointer pointer)
+    {
+      if (pointer != tail)
+      {
+        remove(pointer);
+        addLast(pointer);
+      }
+    }
+  }
+}
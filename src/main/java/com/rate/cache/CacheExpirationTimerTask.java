@@ -1,20 +1,27 @@
 package com.rate.cache;
 
+import java.util.Iterator;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArraySet;
 
+/**
+ * Advances the timer wheels of every CacheTimeManager from a single daemon Timer thread, so the number of threads does
+ * not grow with the number of caches.
+ */
 class CacheExpirationTimerTask extends TimerTask
 {
+  /** How often the timer wheels are advanced, in milliseconds. */
+  private static final int INTERVAL = 1000;
+
+  private static CacheExpirationTimerTask instance;
+
   /** The Timer internally associated with this. */
   protected Timer timer;
 
-  /**
-   * 
-   * @uml.property name="timeManager"
-   * @uml.associationEnd inverse="cacheExpirationTimerTask:com.scholarone.cache.CacheTimeManager" multiplicity="(1 1)"
-   * 
-   */
-  private CacheTimeManager timeManager;
+  /** The time-managers whose wheels are advanced. */
+  private final Set<CacheTimeManager> timeManagers = new CopyOnWriteArraySet<CacheTimeManager>();
 
   /**
    * Default constructor.
@@ -23,14 +30,29 @@ class CacheExpirationTimerTask extends TimerTask
   {
   }
 
-  public CacheTimeManager getTimeManager()
+  /**
+   * Adds the time-manager to the shared task, starting the task on first use.
+   */
+  public static synchronized void register(CacheTimeManager timeManager)
   {
-    return timeManager;
+    if (instance == null)
+    {
+      instance = new CacheExpirationTimerTask();
+      instance.start(INTERVAL);
+    }
+
+    instance.timeManagers.add(timeManager);
   }
 
-  public void setTimeManager(CacheTimeManager timeManager)
+  /**
+   * Stops advancing the time-manager's wheel.
+   */
+  public static synchronized void unregister(CacheTimeManager timeManager)
   {
-    this.timeManager = timeManager;
+    if (instance != null)
+    {
+      instance.timeManagers.remove(timeManager);
+    }
   }
 
   /**
@@ -41,16 +63,34 @@ class CacheExpirationTimerTask extends TimerTask
    */
   public void start(int interval)
   {
-    timer = new Timer(true);
+    timer = new Timer("Cache expiry", true);
 
     timer.schedule(this, interval, interval);
   }
 
   /**
-   * Calls checkLists(now) on the time-manager.
+   * Calls checkLists(now) on each time-manager, advancing its timer wheel. A failure in one cache does not stop the
+   * others, or the timer: anything thrown out of run(), an Error included, would cancel the Timer and with it expiry for
+   * every cache.
    */
   public void run()
   {
-    timeManager.checkLists(System.currentTimeMillis());
+    long now = System.currentTimeMillis();
+    Iterator<CacheTimeManager> itr = timeManagers.iterator();
+
+    while (itr.hasNext())
+    {
+      CacheTimeManager timeManager = itr.next();
+
+      try
+      {
+        timeManager.checkLists(now);
+      }
+      catch (Throwable t)
+      {
+        System.out.println("Cache expiry failed: " + t);
+        t.printStackTrace();
+      }
+    }
   }
-}
\ No newline at end of file
+}
@@ -1,5 +1,7 @@
 package com.rate.cache;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
 public class CacheKey implements Serializable
@@ -103,6 +105,18 @@ public class CacheKey implements Serializable
     this.scope = scope;
   }
 
+  /**
+   * Makes this key identify another object, so a lookup key can be reused. The criteria must hold a single value. Must
+   * never be called on a key held by a cache.
+   */
+  void reuse(Class objectClass, Object value, byte scope)
+  {
+    this.objectClass = objectClass;
+    this.criteria.reuse(value);
+    this.scope = scope;
+    this.hashValue = 0;
+  }
+
   /**
    * Returns the class of the object this key identifies.
    */
@@ -180,7 +194,8 @@ public class CacheKey implements Serializable
 
   /**
    * Returns true if the other object is a CacheKey representing the same class and same id. If the id is null, then it
-   * returns true only if (other == this).
+   * returns true only if (other == this). The cached hash-codes are compared first so mismatched keys in the same cache
+   * bucket are rejected without walking the criteria.
    */
   public boolean equals(Object other)
   {
@@ -193,6 +208,11 @@ public class CacheKey implements Serializable
     {
       CacheKey otherKey = (CacheKey) other;
 
+      if (this.hashCode() != otherKey.hashCode())
+      {
+        return false;
+      }
+
       return ((this.criteria != null) && (this.objectClass.equals(otherKey.objectClass)) && (this.criteria
           .equals(otherKey.criteria)));
     }
@@ -216,4 +236,14 @@ public class CacheKey implements Serializable
   {
     this.scope = scope;
   }
+
+  /**
+   * The class hash-code is identity based, so a hash-code calculated in another VM means nothing here. Reset it so it
+   * is recalculated on first use.
+   */
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+  {
+    in.defaultReadObject();
+    hashValue = 0;
+  }
 }
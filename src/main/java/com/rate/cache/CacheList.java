@@ -5,19 +5,33 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
-
-public class CacheList extends AbstractList implements CacheableObject, Serializable
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A list whose cacheable elements are held by key and fetched from the cache on each get(), so the list does not pin
+ * them in memory. Elements whose primary key is a single Integer id are stored compactly, as an int for the shape of
+ * their key (class, generator and scope) and an int for the id, in parallel arrays; the key is rebuilt when the
+ * element is fetched. Other cacheable elements are held by a CacheableObjectHolder, and anything else is held as is.
+ */
+public class CacheList extends AbstractList implements WeightedCacheableObject, Serializable
 {
-  /** Increment for use in increasing the capacity. */
+  /** Smallest capacity allocated, and the unit the list is weighed in. */
   private static final int CAPACITY_INCREMENT = 16;
 
   /** A static count of how many lists have been created. */
   protected static int listCount = 0;
 
-  /** The objects held by this list. */
-  protected transient CacheableObjectHolder[] objects = null;
+  /** For each compact element, the id of its KeyTemplate; 0 for elements held in values. */
+  protected transient int[] templateIds = null;
+
+  /** For each compact element, the id in its key. */
+  protected transient int[] ids = null;
+
+  /** Elements that are not compact: a CacheableObjectHolder for cacheable ones, otherwise the element itself. */
+  protected transient Object[] values = null;
 
   /** The size of the list. */
   protected transient int size;
@@ -82,15 +96,7 @@ public class CacheList extends AbstractList implements CacheableObject, Serializ
   {
     this(collection.size());
 
-    int i = 0;
-    Iterator it = collection.iterator();
-
-    while (it.hasNext())
-    {
-      add(i, it.next());
-
-      i++;
-    }
+    addAll(collection);
   }
 
   // Javadocs from superclass.
@@ -101,31 +107,41 @@ public class CacheList extends AbstractList implements CacheableObject, Serializ
       throw new IndexOutOfBoundsException("Index " + index + " is out of range, is < 0 or >= " + size);
     }
 
-    CacheableObjectHolder cacheHolder = null;
     Object obj = null;
-    cacheHolder = objects[index];
 
-    // Object can not be found remove it from the list
-    if (cacheHolder == null)
-    {
-      remove(index);
-    }
-    else
+    try
     {
-      try
+      if (templateIds[index] != 0)
       {
-        obj = cacheHolder.getObject();
-      }
+        KeyTemplate template = KeyTemplate.get(templateIds[index]);
+        CacheManager cacheManager = CacheManager.getInstance();
 
-      // in this case, it's OK to just log the exception b/c if there was a
-      // persistence exception,
-      // it would have been thrown on the entire list (result set) not on an
-      // individual item
-      catch (Exception pe)
+        // a hit needs no key of its own; a miss builds one, as the cache keeps it, and loads with the key's generator
+        obj = cacheManager.getIfCached(template.lookupKey(ids[index]));
+
+        if (obj == null)
+        {
+          obj = cacheManager.get(template.createKey(ids[index]));
+        }
+      }
+      else if (values[index] instanceof CacheableObjectHolder)
       {
+        obj = ((CacheableObjectHolder) values[index]).getObject();
+      }
+      else
+      {
+        obj = values[index];
       }
     }
 
+    // in this case, it's OK to just log the exception b/c if there was a
+    // persistence exception,
+    // it would have been thrown on the entire list (result set) not on an
+    // individual item
+    catch (Exception pe)
+    {
+    }
+
     return obj;
   }
 
@@ -142,7 +158,7 @@ public class CacheList extends AbstractList implements CacheableObject, Serializ
   {
     Object result = get(index);
 
-    objects[index] = new CacheableObjectHolder(object);
+    store(index, object);
 
     return result;
   }
@@ -159,84 +175,106 @@ public class CacheList extends AbstractList implements CacheableObject, Serializ
 
     ensureCapacity(size + 1);
 
-    for (int i = size; i > index; --i)
+    if (index < size)
     {
-      objects[i] = objects[i - 1];
+      move(index, index + 1, size - index);
     }
 
-    objects[index] = new CacheableObjectHolder(element);
+    store(index, element);
 
     ++size;
   }
 
   /**
-   * Removes and returns the object at the specified position, shifting later objects forward.
+   * Appends all the elements of the collection in one pass, growing the list at most once.
    */
-  public Object remove(int index)
+  public boolean addAll(Collection collection)
   {
-    if ((index < 0) || (index >= size))
+    return addAll(size, collection);
+  }
+
+  /**
+   * Inserts all the elements of the collection at the specified position, shifting later objects back once rather than
+   * once per element.
+   */
+  public boolean addAll(int index, Collection collection)
+  {
+    if ((index < 0) || (index > size))
     {
-      throw new IndexOutOfBoundsException("Index " + index + " is out of range, is < 0 or >= " + size);
+      throw new IndexOutOfBoundsException("Index " + index + " is out of range, is < 0 or > " + size);
     }
 
-    Object result = null;
+    Object[] elements = collection.toArray();
+    int count = elements.length;
 
-    try
+    if (count == 0)
     {
-      if ((objects != null) && (objects[index] != null))
-      {
-        result = objects[index].getObject();
-      }
+      return false;
+    }
 
-      for (int i = index; i < (size - 1); ++i)
-      {
-        objects[i] = objects[i + 1];
-      }
+    ensureCapacity(size + count);
 
-      objects[size - 1] = null;
+    if (index < size)
+    {
+      move(index, index + count, size - index);
+    }
 
-      --size;
+    for (int i = 0; i < count; i++)
+    {
+      store(index + i, elements[i]);
     }
 
-    // in this case, it's OK to just log the exception b/c if there was a
-    // persistence exception,
-    // it would have been thrown on the entire list (result set) not on an
-    // individual item
-    catch (Exception pe)
+    size += count;
+
+    return true;
+  }
+
+  /**
+   * Removes and returns the object at the specified position, shifting later objects forward.
+   */
+  public Object remove(int index)
+  {
+    if ((index < 0) || (index >= size))
     {
+      throw new IndexOutOfBoundsException("Index " + index + " is out of range, is < 0 or >= " + size);
     }
 
+    Object result = get(index);
+
+    move(index + 1, index, size - index - 1);
+
+    --size;
+    release(size, size + 1);
+
     return result;
   }
 
   /**
    * Ensures that the capacity of this list is at least as large as newSize. Can be used to make adding a large number
-   * of new elements more efficient.
+   * of new elements more efficient. The capacity grows by half again each time, so building a list element by element
+   * copies it a logarithmic number of times.
    */
   public void ensureCapacity(int newSize)
   {
-    if ((objects == null) || (newSize > objects.length))
+    if ((values == null) || (newSize > values.length))
     {
-      // If newSize <= 0, round up. Also round anything less than increment.
-      newSize = Math.max(newSize, CAPACITY_INCREMENT);
-
-      // If newSize is not a multiple of CAPACITY_INCREMENT, round up.
-      if ((newSize % CAPACITY_INCREMENT) != 0)
-      {
-        newSize += (CAPACITY_INCREMENT - (newSize % CAPACITY_INCREMENT));
-      }
+      int capacity = (values == null) ? 0 : values.length;
+      capacity = Math.max(Math.max(newSize, CAPACITY_INCREMENT), capacity + (capacity >> 1));
 
-      CacheableObjectHolder[] newObjects = new CacheableObjectHolder[newSize];
+      int[] newTemplateIds = new int[capacity];
+      int[] newIds = new int[capacity];
+      Object[] newValues = new Object[capacity];
 
-      if (objects != null)
+      if (values != null)
       {
-        synchronized (objects)
-        {
-          System.arraycopy(objects, 0, newObjects, 0, objects.length);
-        }
+        System.arraycopy(templateIds, 0, newTemplateIds, 0, size);
+        System.arraycopy(ids, 0, newIds, 0, size);
+        System.arraycopy(values, 0, newValues, 0, size);
       }
 
-      objects = newObjects;
+      templateIds = newTemplateIds;
+      ids = newIds;
+      values = newValues;
     }
   }
 
@@ -255,17 +293,86 @@ public class CacheList extends AbstractList implements CacheableObject, Serializ
     {
       int diff = toIndex - fromIndex;
 
-      for (int i = fromIndex; i < (size - diff); ++i)
-      {
-        objects[i] = objects[i + diff];
-      }
+      move(toIndex, fromIndex, size - toIndex);
+      release(size - diff, size);
+
+      size -= diff;
+    }
+  }
 
-      for (int i = size - diff; i < size; ++i)
+  /**
+   * Returns the cache key the element at the index is held by, or null if it is not held by key.
+   */
+  protected CacheKey getKey(int index)
+  {
+    if (templateIds[index] != 0)
+    {
+      return KeyTemplate.get(templateIds[index]).createKey(ids[index]);
+    }
+
+    if (values[index] instanceof CacheableObjectHolder)
+    {
+      return ((CacheableObjectHolder) values[index]).getKey();
+    }
+
+    return null;
+  }
+
+  /**
+   * Stores the element at the index, compactly if its primary key allows. Cacheable elements are put in the cache, as
+   * they are held by key.
+   */
+  private void store(int index, Object element)
+  {
+    if ((element instanceof CacheableObject) && ((CacheableObject) element).isCacheable())
+    {
+      CacheableObject co = (CacheableObject) element;
+      CacheKey key = co.getPrimaryKey();
+      int template = (key == null) ? 0 : KeyTemplate.idOf(key);
+
+      if (template != 0)
       {
-        objects[i] = null;
+        CacheManager.getInstance().put(co);
+
+        templateIds[index] = template;
+        ids[index] = ((Integer) key.getCriteria().getCriteria()[0]).intValue();
+        values[index] = null;
+
+        return;
       }
 
-      size -= diff;
+      // also covers objects that get their key once saved
+      element = new CacheableObjectHolder(element);
+    }
+
+    templateIds[index] = 0;
+    ids[index] = 0;
+    values[index] = element;
+  }
+
+  /**
+   * Moves length elements from one position to another, as System.arraycopy() does.
+   */
+  private void move(int from, int to, int length)
+  {
+    if (length > 0)
+    {
+      System.arraycopy(templateIds, from, templateIds, to, length);
+      System.arraycopy(ids, from, ids, to, length);
+      System.arraycopy(values, from, values, to, length);
+    }
+  }
+
+  /**
+   * Clears the slots from fromIndex (inclusive) to toIndex (exclusive), so they do not hold on to elements.
+   */
+  private void release(int fromIndex, int toIndex)
+  {
+    for (int i = fromIndex; i < toIndex; i++)
+    {
+      templateIds[i] = 0;
+      ids[i] = 0;
+      values[i] = null;
     }
   }
 
@@ -343,6 +450,14 @@ public class CacheList extends AbstractList implements CacheableObject, Serializ
     this.refreshOnCacheUse = refreshOnCacheUse;
   }
 
+  /**
+   * Weighs the list by its slot array, one unit per capacity increment, so a long list is not counted as a single entry.
+   */
+  public int getCacheWeight()
+  {
+    return 1 + (size / CAPACITY_INCREMENT);
+  }
+
   /**
    * Implements flush() by calling clear(). Subclasses may wish to have this method call fluschChildren() instead.
    */
@@ -355,6 +470,38 @@ public class CacheList extends AbstractList implements CacheableObject, Serializ
   {
   }
 
+  /**
+   * Makes sure every cache-backed element is in the cache, loading the missing ones with CacheManager.getAll() so they
+   * are fetched in bulk rather than one at a time as get() reaches them. Called before walking the whole list.
+   */
+  public void loadAll()
+  {
+    ArrayList<CacheKey> keys = new ArrayList<CacheKey>(size);
+
+    for (int i = 0; i < size; ++i)
+    {
+      CacheKey key = getKey(i);
+
+      if (key != null)
+      {
+        keys.add(key);
+      }
+    }
+
+    if (keys.size() > 1)
+    {
+      try
+      {
+        CacheManager.getInstance().getAll(keys);
+      }
+
+      // get() loads each element again if this fails
+      catch (Exception pe)
+      {
+      }
+    }
+  }
+
   /**
    * Flushes all the children (those that are cacheable) from the cache and then clears the list. The recursive
    * parameter is passed on to the CacheManager when flushing.
@@ -368,9 +515,11 @@ public class CacheList extends AbstractList implements CacheableObject, Serializ
 
     for (int i = 0; i < size; ++i)
     {
-      if (objects[i].getKey() != null)
+      CacheKey key = getKey(i);
+
+      if (key != null)
       {
-        cacheManager.flush(objects[i].getKey(), recursive);
+        cacheManager.flush(key, recursive);
       }
     }
 
@@ -391,6 +540,8 @@ public class CacheList extends AbstractList implements CacheableObject, Serializ
     out.defaultWriteObject();
     out.writeInt(size);
 
+    loadAll();
+
     for (int i = 0; i < size; ++i)
     {
       out.writeObject(get(i));
@@ -421,4 +572,132 @@ public class CacheList extends AbstractList implements CacheableObject, Serializ
       add(in.readObject());
     }
   }
+
+  /**
+   * The shape of a primary key made of a single Integer id: the object class, generator and scope. Each distinct shape
+   * gets a small id, shared by all lists. The number of shapes is capped, in case some class hands out a new generator
+   * for every object; keys beyond the cap are simply not stored compactly.
+   */
+  private static class KeyTemplate
+  {
+    private static final int MAX_TEMPLATES = 1024;
+
+    private static final ConcurrentMap<KeyTemplate, Integer> templateIds = new ConcurrentHashMap<KeyTemplate, Integer>();
+
+    /** Templates by id - 1. Replaced, never changed, when a template is added. */
+    private static volatile KeyTemplate[] templates = new KeyTemplate[0];
+
+    /** A key per thread for looking elements up, reused so a hit allocates nothing but, for large ids, the id. */
+    private static final ThreadLocal<CacheKey> lookupKeys = new ThreadLocal<CacheKey>()
+    {
+      protected CacheKey initialValue()
+      {
+        return new CacheKey(Object.class, new CacheCriteria(new Object[1]));
+      }
+    };
+
+    final Class objectClass;
+
+    final CacheableObject.ObjectGenerator generator;
+
+    final byte scope;
+
+    KeyTemplate(Class objectClass, CacheableObject.ObjectGenerator generator, byte scope)
+    {
+      this.objectClass = objectClass;
+      this.generator = generator;
+      this.scope = scope;
+    }
+
+    /**
+     * Returns the id of the template for the key, or 0 if the key cannot be stored compactly.
+     */
+    static int idOf(CacheKey key)
+    {
+      if ((key.getClass() != CacheKey.class) || (key.getCriteria() == null))
+      {
+        return 0;
+      }
+
+      Object[] criteria = key.getCriteria().getCriteria();
+      if ((criteria == null) || (criteria.length != 1) || !(criteria[0] instanceof Integer))
+      {
+        return 0;
+      }
+
+      KeyTemplate template = new KeyTemplate(key.getObjectClass(), key.getGenerator(), key.getScope());
+      Integer id = templateIds.get(template);
+
+      return (id != null) ? id.intValue() : register(template);
+    }
+
+    private static synchronized int register(KeyTemplate template)
+    {
+      Integer id = templateIds.get(template);
+
+      if (id == null)
+      {
+        if (templates.length >= MAX_TEMPLATES)
+        {
+          return 0;
+        }
+
+        KeyTemplate[] grown = new KeyTemplate[templates.length + 1];
+        System.arraycopy(templates, 0, grown, 0, templates.length);
+        grown[templates.length] = template;
+
+        id = Integer.valueOf(grown.length);
+        templates = grown;
+        templateIds.put(template, id);
+      }
+
+      return id.intValue();
+    }
+
+    static KeyTemplate get(int id)
+    {
+      return templates[id - 1];
+    }
+
+    /**
+     * Returns this thread's lookup key, set to the id. Only for Cache.getIfCached(), which does not keep it; valid until
+     * the thread's next call.
+     */
+    CacheKey lookupKey(int id)
+    {
+      CacheKey key = lookupKeys.get();
+      key.reuse(objectClass, Integer.valueOf(id), scope);
+
+      return key;
+    }
+
+    CacheKey createKey(int id)
+    {
+      CacheKey key = new CacheKey(objectClass, new CacheCriteria(Integer.valueOf(id)), generator);
+      key.setScope(scope);
+
+      return key;
+    }
+
+    public int hashCode()
+    {
+      int hash = (objectClass == null) ? 0 : objectClass.hashCode();
+      hash = (hash * 31) + ((generator == null) ? 0 : generator.hashCode());
+
+      return (hash * 31) + scope;
+    }
+
+    public boolean equals(Object other)
+    {
+      if (!(other instanceof KeyTemplate))
+      {
+        return false;
+      }
+
+      KeyTemplate o = (KeyTemplate) other;
+
+      return (objectClass == o.objectClass) && (scope == o.scope)
+          && ((generator == null) ? (o.generator == null) : generator.equals(o.generator));
+    }
+  }
 }
\ No newline at end of file
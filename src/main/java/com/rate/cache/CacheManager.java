@@ -2,15 +2,20 @@ package com.rate.cache;
 
 import java.text.DateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import com.rate.configuration.CFactory;
 import com.rate.context.ICallContext;
 import com.rate.context.ThreadLocalContext;
 
@@ -22,22 +27,85 @@ public class CacheManager
    */
   public static final String NAME = "CACHE";
 
-  private static CacheManager instance;
+  private static volatile CacheManager instance;
 
-  private Hashtable<Integer, Cache> cacheMap;
+  /** Prefix of the properties giving a stack's own maximum cache weight, as in cache.quota.12=50000. */
+  public static final String QUOTA_PROPERTY_PREFIX = "cache.quota.";
+
+  /** The cache of each stack. Looked up without locking; creation is serialized on the map. */
+  private ConcurrentMap<Integer, Cache> cacheMap;
+
+  /** Maximum total weight of the caches of particular stacks, overriding CacheTimeManager.getCacheMaxSize(). */
+  private ConcurrentMap<Integer, Integer> quotas;
 
   protected CacheManager()
   {
-    cacheMap = new Hashtable<Integer, Cache>();
+    cacheMap = new ConcurrentHashMap<Integer, Cache>();
+    quotas = new ConcurrentHashMap<Integer, Integer>();
+
+    if (CacheSnapshot.getFile(Integer.valueOf(0)) != null)
+    {
+      startSnapshots();
+    }
   }
 
-  public synchronized static CacheManager getInstance()
+  /**
+   * Writes the cache snapshots periodically, and once more when the VM shuts down.
+   */
+  private void startSnapshots()
   {
-    if (instance == null)
+    long interval = CacheSnapshot.getInterval();
+
+    if (interval > 0)
     {
-      instance = new CacheManager();
+      Timer timer = new Timer("Cache snapshot writer", true);
+      timer.schedule(new TimerTask()
+      {
+        public void run()
+        {
+          writeSnapshots();
+        }
+      }, interval, interval);
     }
-    return instance;
+
+    Runtime.getRuntime().addShutdownHook(new Thread("Cache snapshot on shutdown")
+    {
+      public void run()
+      {
+        writeSnapshots();
+      }
+    });
+  }
+
+  /**
+   * Writes every cache's most recently used entries to its snapshot file.
+   */
+  public void writeSnapshots()
+  {
+    Iterator<Cache> itr = cacheMap.values().iterator();
+
+    while (itr.hasNext())
+    {
+      itr.next().writeSnapshot();
+    }
+  }
+
+  public static CacheManager getInstance()
+  {
+    CacheManager manager = instance;
+
+    if (manager == null)
+    {
+      synchronized (CacheManager.class)
+      {
+        if (instance == null)
+        {
+          instance = new CacheManager();
+        }
+        manager = instance;
+      }
+    }
+    return manager;
   }
 
   public Cache getCache()
@@ -51,10 +119,113 @@ public class CacheManager
         stackId = callContext.getStackId();
     }
     
-    if ( !cacheMap.containsKey(stackId) )
-      cacheMap.put(stackId, new Cache(stackId));
+    Cache cache = cacheMap.get(stackId);
+    if ( cache == null )
+      cache = createCache(stackId);
     
-    return cacheMap.get(stackId);
+    return cache;
+  }
+
+  /**
+   * Creates the cache for the stack, unless another thread got there first. Caches are created under the map's lock so
+   * a stack never gets two.
+   */
+  private Cache createCache(Integer stackId)
+  {
+    synchronized (cacheMap)
+    {
+      Cache cache = cacheMap.get(stackId);
+
+      if (cache == null)
+      {
+        cache = new Cache(stackId);
+
+        Integer quota = getQuota(stackId);
+        if (quota != null)
+        {
+          cache.setMaximumSize(quota.intValue());
+        }
+
+        cacheMap.put(stackId, cache);
+      }
+
+      return cache;
+    }
+  }
+
+  /**
+   * Clears and discards the cache of the stack, if it has one.
+   */
+  public void removeCache(Integer stackId)
+  {
+    Cache cache;
+
+    synchronized (cacheMap)
+    {
+      cache = cacheMap.remove(stackId);
+    }
+
+    if (cache != null)
+    {
+      cache.getTimeManager().stopTimer();
+      cache.clear();
+    }
+  }
+
+  /**
+   * Sets the maximum total weight of the stack's cache, evicting entries if it is already over. A quota of 0 or less
+   * removes the stack's quota, so it falls back to CacheTimeManager.getCacheMaxSize().
+   */
+  public void setQuota(Integer stackId, int quota)
+  {
+    if (quota > 0)
+    {
+      quotas.put(stackId, Integer.valueOf(quota));
+    }
+    else
+    {
+      quotas.remove(stackId);
+    }
+
+    Cache cache = cacheMap.get(stackId);
+    if (cache != null)
+    {
+      cache.setMaximumSize((quota > 0) ? quota : CacheTimeManager.getCacheMaxSize());
+    }
+  }
+
+  /**
+   * Returns the stack's quota set by setQuota() or the cache.quota.&lt;stackId&gt; property, or null if it has none.
+   */
+  public Integer getQuota(Integer stackId)
+  {
+    Integer quota = quotas.get(stackId);
+
+    if (quota == null)
+    {
+      try
+      {
+        String value = CFactory.instance().getProperty(QUOTA_PROPERTY_PREFIX + stackId);
+        if ((value != null) && (value.trim().length() > 0))
+        {
+          int configured = Integer.parseInt(value.trim());
+          if (configured > 0)
+          {
+            quota = Integer.valueOf(configured);
+            quotas.putIfAbsent(stackId, quota);
+          }
+        }
+      }
+      catch (IllegalStateException noConfig)
+      {
+      }
+      catch (NumberFormatException badValue)
+      {
+        System.out.println("Ignoring " + QUOTA_PROPERTY_PREFIX + stackId + ": " + badValue.getMessage());
+      }
+    }
+
+    return quota;
   }
   
   public synchronized void reset()
@@ -128,6 +299,42 @@ public class CacheManager
     return getCache().get(key);
   }
 
+  /**
+   * Returns the object for the key if it is already cached, counting the hit, or null without loading it or counting a
+   * miss. The key is not kept, so it may be a reused lookup key.
+   */
+  CacheableObject getIfCached(CacheKey key)
+  {
+    return getCache().getIfCached(key);
+  }
+
+  /**
+   * Returns the object corresponding to the input key, loading it with the generator and caching it if it is not in
+   * the cache. Threads that miss the same key at the same time wait for a single load.
+   *
+   * @param key
+   *          The CacheKey to look the object up for.
+   * @param generator
+   *          Loads the object on a miss; if null, the key's own generator is used.
+   */
+  public CacheableObject get(CacheKey key, CacheableObject.ObjectGenerator generator) throws Exception
+  {
+    return getCache().get(key, generator);
+  }
+
+  /**
+   * Returns the objects corresponding to the keys, loading the ones not in the cache. Misses are loaded in bulk where
+   * the key's generator supports it, so a list of cold objects costs one load per class rather than one per object.
+   *
+   * @param keys
+   *          The CacheKeys to look the objects up for.
+   * @return The objects found, by key, in the order of the keys.
+   */
+  public Map<CacheKey, CacheableObject> getAll(Collection<CacheKey> keys) throws Exception
+  {
+    return getCache().getAll(keys);
+  }
+
   /**
    * Looks in the cache for an object with a key that matches the key for the input object. Returns one if found.
    * Returns null if not. Does not add the object to the cache.
@@ -230,6 +437,82 @@ public class CacheManager
     return getCache().size();
   }
 
+  /**
+   * Applies a new maximum total weight to every cache without a quota of its own. See
+   * CacheTimeManager.setCacheMaxSize().
+   */
+  protected void setMaximumSize(int maximum)
+  {
+    Iterator<Map.Entry<Integer, Cache>> itr = cacheMap.entrySet().iterator();
+
+    while (itr.hasNext())
+    {
+      Map.Entry<Integer, Cache> entry = itr.next();
+
+      if (!quotas.containsKey(entry.getKey()))
+      {
+        entry.getValue().setMaximumSize(maximum);
+      }
+    }
+  }
+
+  /**
+   * Returns the total weight of the entries held in all caches.
+   */
+  public long getWeightedSize()
+  {
+    long total = 0;
+    Iterator<Cache> itr = cacheMap.values().iterator();
+
+    while (itr.hasNext())
+    {
+      total += itr.next().getWeightedSize();
+    }
+
+    return total;
+  }
+
+  /**
+   * Returns the hit, miss, load and eviction counts of the current stack's cache.
+   */
+  public CacheStats getStats()
+  {
+    return getCache().getStats();
+  }
+
+  /**
+   * Returns the hit, miss, load and eviction counts of all caches combined. The result is a copy and does not change
+   * afterwards.
+   */
+  public CacheStats getTotalStats()
+  {
+    CacheStats total = new CacheStats();
+    Iterator<Cache> itr = cacheMap.values().iterator();
+
+    while (itr.hasNext())
+    {
+      itr.next().getStats().addTo(total);
+    }
+
+    return total;
+  }
+
+  /**
+   * Returns the number of cache misses, across all caches, that waited for another thread's load of the same key.
+   */
+  public long getCoalescedLoadCount()
+  {
+    long total = 0;
+    Iterator<Cache> itr = cacheMap.values().iterator();
+
+    while (itr.hasNext())
+    {
+      total += itr.next().getCoalescedLoadCount();
+    }
+
+    return total;
+  }
+
   /**
    * Returns a list of string representations of the cachemap
    *
@@ -241,24 +524,28 @@ public class CacheManager
   {
     Map cacheMap = getCache().getCacheMap();
     List outputList = new ArrayList();
-    synchronized (getCache())
+    Set keys = cacheMap.keySet();
+    Iterator itr = keys.iterator();
+    String value = "";
+
+    while (itr.hasNext())
     {
-      Set keys = cacheMap.keySet();
-      Iterator itr = keys.iterator();
-      String value = "";
+      Object key = (Object) itr.next();
+      CachePointer pointer = (CachePointer) cacheMap.get(key);
 
-      while (itr.hasNext())
+      // the entry may have been flushed since the key was iterated
+      if (pointer == null)
       {
-        Object key = (Object) itr.next();
-        CachePointer pointer = (CachePointer) cacheMap.get(key);
-
-        value = DateFormat.getTimeInstance(DateFormat.LONG).format(new Date(pointer.getLastAccessTime())) + " "
-            + key.toString();
-        outputList.add(value);
-
-        Collections.sort(outputList);
+        continue;
       }
+
+      value = DateFormat.getTimeInstance(DateFormat.LONG).format(new Date(pointer.getLastAccessTime())) + " "
+          + key.toString();
+      outputList.add(value);
     }
+
+    Collections.sort(outputList);
+
     return outputList;
   }
 
@@ -273,23 +560,20 @@ public class CacheManager
   {
     Map outputMap = new HashMap();
     Map cacheMap = getCache().getCacheMap();
-    synchronized (getCache())
+    Iterator itr = cacheMap.entrySet().iterator();
+
+    while (itr.hasNext())
     {
-      Iterator itr = cacheMap.entrySet().iterator();
+      Map.Entry myEntry = (Map.Entry) itr.next();
+      CachePointer obj = (CachePointer) myEntry.getValue();
 
-      while (itr.hasNext())
+      try
       {
-        Map.Entry myEntry = (Map.Entry) itr.next();
-        CachePointer obj = (CachePointer) myEntry.getValue();
-
-        try
-        {
-          outputMap.put(obj.toString(), obj.fetchObject());
-        }
-        catch (Exception e)
-        {
-          // TODO: Handle exception. Since this is a developer only option don't know how to handle.
-        }
+        outputMap.put(obj.toString(), obj.fetchObject());
+      }
+      catch (Exception e)
+      {
+        // TODO: Handle exception. Since this is a developer only option don't know how to handle.
       }
     }
 
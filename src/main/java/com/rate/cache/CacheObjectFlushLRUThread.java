@@ -94,71 +94,14 @@ public class CacheObjectFlushLRUThread extends Thread
     }
   }
 
+  /**
+   * Reports the current cache weight to the MBean. Entries over cacheMaxSize are evicted by CacheEvictionPolicy as they
+   * are added, so this thread no longer has anything to flush.
+   */
   public void flushExcessConfigs()
   {
-//    try
-//    {
-//      CacheManager cacheManager = CacheManager.getInstance();
-//      Cache cache = cacheManager.getCache();
-//      Map cacheMap = cache.getCacheMap();
-//      if (cacheMap != null && cacheMap.size() > 0)
-//      {
-//        boolean overThreshHoldTriggered = false;
-//        DateFormat df = new SimpleDateFormat(dateFormat);
-//        String startTime = df.format(new Date());
-//        int cacheSize = 0;
-//        int threshHold = this.getCacheMaxSize().intValue() * ONE_MEGABYTE;
-//        Collection cacheCol = null;
-//        synchronized (cacheMap)
-//        {
-//          cacheCol = cacheMap.values();
-//        }
-//        Object[] cacheObjs = cacheCol.toArray();
-//        cacheCol = null;
-//        cacheSize = ObjectProfiler.sizeof(cacheObjs);
-//        cacheObjs = null;
-//        this.cacheMBean.updateLastCacheSize(cacheSize);
-//        while (cacheSize > threshHold)
-//        {
-//          overThreshHoldTriggered = true;
-//          log.debug("<overload>" + "<serverName>" + this.serverName + "</serverName>"
-//              + "<status>threshhold exceeded</status>" + "<cacheSize>" + cacheSize + "</cacheSize>" + "<threshHold>"
-//              + threshHold + "</threshHold>" + "</overLoad>");
-//          long overLimitAmount = cacheSize - threshHold;
-//          // Instead of recomputing the size of the entire cacheMap, just subtract the amount flushed
-//          // long totalFlushed =
-//          cacheManager.getTimeManager().flushLeastRecentlyUsed(overLimitAmount);
-//          cacheMap = cache.getCacheMap();
-//          synchronized (cacheMap)
-//          {
-//            cacheCol = cacheMap.values();
-//          }
-//          cacheObjs = cacheCol.toArray();
-//          cacheCol = null;
-//          cacheSize = ObjectProfiler.sizeof(cacheObjs);
-//          cacheObjs = null;
-//        }
-//        String endTime = df.format(new Date());
-//        String status = "ok";
-//        if (overThreshHoldTriggered)
-//        {
-//          status = "adjusted";
-//        }
-//        log.debug("<update>" + "<serverName>" + this.serverName + "</serverName>" + "<status>" + status + "</status>"
-//            + "<cacheSize>" + cacheSize + "</cacheSize>" + "<threshHold>" + threshHold + "</threshHold>"
-//            + "<startTime>" + startTime + "</startTime>" + "<endTime>" + endTime + "</endTime>" + "</update>");
-//      }
-//    }
-//    catch (java.util.ConcurrentModificationException cme)
-//    {
-//      log.error(this.serverName + ":Cache LRU", cme);
-//      throw cme;
-//    }
-//    catch (java.lang.NullPointerException npe)
-//    {
-//      log.error(this.serverName + ":Cache LRU", npe);
-//      throw npe;
-//    }
+    long cacheSize = CacheManager.getInstance().getWeightedSize();
+    this.cacheMBean.updateLastCacheSize((int) Math.min(cacheSize, Integer.MAX_VALUE));
   }
 
   /**
@@ -169,6 +112,7 @@ public class CacheObjectFlushLRUThread extends Thread
   {
     this.cacheMaxSize = cacheMaxSize;
     this.cacheMBean.updateCacheMaxSize(cacheMaxSize);
+    CacheTimeManager.setCacheMaxSize(cacheMaxSize.intValue());
   }
 
   /**
@@ -1,19 +1,32 @@
 package com.rate.cache;
 
-import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 public class CachePointer
 {
-  /** The minute during which this was last accessed. */
-  private int lastAccessMinute;
-
   /** Whether or not the object has ever been touched. */
-  private boolean untouched = true;
+  private volatile boolean untouched = true;
+
+  /** Access times closer together than this are not recorded, since the TimerWheel cannot tell them apart anyway. */
+  private static final long TOUCH_GRANULARITY = 1000;
+
+  private static final AtomicLongFieldUpdater<CachePointer> LAST_ACCESS_TIME = AtomicLongFieldUpdater.newUpdater(
+      CachePointer.class, "lastAccessTime");
+
+  /** The last access time (in milliseconds). Written with lazySet, so a touch costs an ordered store, not a fence. */
+  private volatile long lastAccessTime;
 
-  /** The last access time (in milliseconds) */
-  private long lastAccessTime;
+  private static final AtomicIntegerFieldUpdater<CachePointer> REFRESHING = AtomicIntegerFieldUpdater.newUpdater(
+      CachePointer.class, "refreshing");
+
+  /** When the object was loaded or last refreshed (in milliseconds). */
+  private volatile long loadTime;
+
+  /** 1 while a background refresh of the object is queued or running. */
+  private volatile int refreshing = 0;
 
   /**
    * 
@@ -21,7 +34,7 @@ public class CachePointer
    * @uml.associationEnd inverse="cachePointer:com.scholarone.cache.CacheableObject" multiplicity="(1 1)"
    * 
    */
-  private CacheableObject object;
+  private volatile CacheableObject object;
 
   /**
    * 
@@ -31,102 +44,95 @@ public class CachePointer
    */
   private HashSet cacheKeys;
 
-  /**
-   * 
-   * @uml.property name="timeList"
-   * @uml.associationEnd inverse="cachePointer:com.scholarone.cache.TimeList" multiplicity="(0 1)"
-   * 
-   */
-  private TimeList timeList;
-
-  /**
-   * 
-   * @uml.property name="cacheTouch"
-   * @uml.associationEnd inverse="cachePointer:com.scholarone.cache.CacheTouch" multiplicity="(0 -1)" ordering="ordered"
-   * 
-   */
-  private ArrayList touchList;
-
   /** The hash code of the request this object is tied too */
   private int requestHash = 0;
 
+  /** Whether this pointer has been flushed from the cache. An expired pointer is never reused. */
+  private volatile boolean expired = false;
+
+  /** Links and bookkeeping for the CacheEvictionPolicy queues. Guarded by the policy's lock. */
+  CachePointer policyPrev;
+
+  CachePointer policyNext;
+
+  byte policyQueue = CacheEvictionPolicy.NONE;
+
+  int policyWeight;
+
+  /** Hash of the primary key, used to look up the frequency of this entry. */
+  int policyHash;
+
+  /** Links for the TimerWheel bucket this is scheduled in. Guarded by the CacheTimeManager. */
+  CachePointer timerPrev;
+
+  CachePointer timerNext;
+
+  /** How long after the last access this expires, in milliseconds, or 0 if it never expires by time. */
+  long timeToLive;
+
   /**
-   * Default constructor (used only for serialization).
+   * Default constructor (used only for serialization and for TimerWheel sentinels).
    */
   protected CachePointer()
   {
-    this(null, null);
+    this(null);
   }
 
   /**
-   * Stores the object and requestHash internally, and adds this to the indicated list (if it is not null).
+   * Stores the object and requestHash internally.
    * 
    * @param object
    *          The object to point to.
-   * @param list
-   *          The TimeList this is associated with (can be null).
    * @param requestHash
    *          The current request hash
    */
-  public CachePointer(CacheableObject object, TimeList list, int requestHash)
+  public CachePointer(CacheableObject object, int requestHash)
   {
-    this(object, list);
+    this(object);
     this.requestHash = requestHash;
   }
 
   /**
-   * Standard constructor. Stores the object internally, and adds this to the indicated list (if it is not null).
+   * Standard constructor. Stores the object internally and records the first access. The pointer is scheduled for
+   * expiry by CacheTimeManager.schedule() once it is in the cache.
    * 
    * @param object
    *          The object to point to.
-   * @param list
-   *          The TimeList this is associated with (can be null).
    */
-  public CachePointer(CacheableObject object, TimeList list)
+  public CachePointer(CacheableObject object)
   {
-    this.timeList = list;
     this.object = object;
-    this.touchList = new ArrayList();
     this.cacheKeys = new HashSet();
+    this.loadTime = System.currentTimeMillis();
 
     touch();
   }
 
   /**
-   * Updates the access time. If the minute has changed, then adds this to the list again. If the
-   * object.isRefreshCacheOneUse() returns false, then it only updates the first time this method is called.
+   * Updates the access time. If the object.isRefreshCacheOnUse() returns false, then it only updates the first time
+   * this method is called. Nothing is allocated and no lock is taken; the TimerWheel reads the access time when the
+   * entry's bucket comes due. The time is only stored when it has moved on by at least TOUCH_GRANULARITY, so readers
+   * of a hot entry do not keep writing to the same cache line.
    */
   public void touch()
   {
     if (untouched)
     {
-      lastAccessTime = System.currentTimeMillis();
-      lastAccessMinute = TimeList.shrinkTime(lastAccessTime);
-
-      if (timeList != null)
-      {
-        CacheTouch touch = new CacheTouch(this, lastAccessMinute);
-        touchList.add(touch);
-        timeList.add(touch);
-      }
-
+      LAST_ACCESS_TIME.lazySet(this, System.currentTimeMillis());
       untouched = false;
     }
-    else if ((object == null) || (object.isRefreshCacheOnUse()))
+    else
     {
-      lastAccessTime = System.currentTimeMillis();
-
-      int now = TimeList.shrinkTime(lastAccessTime);
+      // read once, as a concurrent flush may clear it
+      CacheableObject current = object;
 
-      if (lastAccessMinute < now)
+      if ((current == null) || current.isRefreshCacheOnUse())
       {
-        lastAccessMinute = now;
+        long now = System.currentTimeMillis();
 
-        if (timeList != null)
+        if ((now - lastAccessTime) >= TOUCH_GRANULARITY)
         {
-          CacheTouch touch = new CacheTouch(this, lastAccessMinute);
-          touchList.add(touch);
-          timeList.add(touch);
+          LAST_ACCESS_TIME.lazySet(this, now);
         }
       }
     }
@@ -139,7 +145,7 @@ public class CachePointer
 
   public long getLastAccessMinute()
   {
-    return lastAccessMinute;
+    return lastAccessTime / 60000;
   }
 
   /**
@@ -165,42 +171,74 @@ public class CachePointer
   }
 
   /**
-   * Causes this object to expire. Drops all keys and the object. Should be called after removing the keys from the
-   * Cache.
+   * Returns when the object was loaded or last refreshed.
    */
-  public void expire()
+  public long getLoadTime()
   {
-    cacheKeys.clear();
+    return loadTime;
+  }
+
+  /**
+   * Claims the right to refresh the object in the background. Returns false if a refresh is already under way.
+   */
+  boolean startRefresh()
+  {
+    return REFRESHING.compareAndSet(this, 0, 1);
+  }
+
+  void endRefresh()
+  {
+    refreshing = 0;
+  }
 
-    if (timeList != null)
+  /**
+   * Replaces the object with a freshly loaded copy and resets the load time, unless the pointer has been flushed or its
+   * object has been changed since the refresh began.
+   *
+   * @return Whether the object was replaced.
+   */
+  synchronized boolean refreshObject(CacheableObject original, CacheableObject fresh)
+  {
+    if (expired || (object != original))
     {
-      for (int i = 0; i < touchList.size(); i++)
-      {
-        CacheTouch touch = (CacheTouch) touchList.get(i);
-        timeList.remove(touch);
-      }
+      return false;
     }
 
-    touchList.clear();
+    object = fresh;
+    loadTime = System.currentTimeMillis();
+
+    return true;
+  }
+
+  /**
+   * Causes this object to expire. Drops all keys and the object. Should be called after removing the keys from the
+   * Cache.
+   */
+  public synchronized void expire()
+  {
+    expired = true;
+
+    cacheKeys.clear();
+
     untouched = true;
 
     object = null;
   }
 
   /**
-   * This returns the object, without touching anything. Used for unit-testing.
+   * Returns true once this pointer has been flushed from the cache.
    */
-  public CacheableObject fetchObject()
+  public boolean isExpired()
   {
-    return object;
+    return expired;
   }
 
   /**
-   * Returns the time-list. Used for unit-testing.
+   * This returns the object, without touching anything. Used for unit-testing.
    */
-  protected TimeList fetchTimeList()
+  public CacheableObject fetchObject()
   {
-    return timeList;
+    return object;
   }
 
   /**
@@ -208,7 +246,7 @@ public class CachePointer
    */
   protected int fetchLastAccessMinute()
   {
-    return lastAccessMinute;
+    return (int) getLastAccessMinute();
   }
 
   protected boolean fetchUntouched()
@@ -249,4 +287,4 @@ public class CachePointer
   {
     this.requestHash = requestHash;
   }
-}
\ No newline at end of file
+}
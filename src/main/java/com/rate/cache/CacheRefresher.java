@@ -0,0 +1,123 @@
+package com.rate.cache;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.rate.configuration.CFactory;
+import com.rate.context.ICallContext;
+import com.rate.context.ThreadLocalContext;
+
+/**
+ * Reloads RefreshableCacheableObjects in the background. A small pool of daemon threads, sized by
+ * <code>cache.refresh.threads</code> (default 2), works through a queue bounded by <code>cache.refresh.queue</code>
+ * (default 1000). When the queue is full the refresh is skipped; the entry stays as it is and a later hit tries again.
+ */
+class CacheRefresher
+{
+  public static final String THREADS_PROPERTY = "cache.refresh.threads";
+
+  public static final String QUEUE_PROPERTY = "cache.refresh.queue";
+
+  private static ThreadPoolExecutor executor;
+
+  private CacheRefresher()
+  {
+  }
+
+  /**
+   * Queues the refresh of the object held by the pointer. Returns false if it could not be queued.
+   *
+   * @param cache
+   *          The cache holding the pointer.
+   * @param pointer
+   *          The entry to refresh, already claimed with startRefresh().
+   * @param object
+   *          The object to reload.
+   */
+  public static boolean submit(final Cache cache, final CachePointer pointer, final RefreshableCacheableObject object)
+  {
+    final ICallContext callContext = ThreadLocalContext.get();
+
+    try
+    {
+      getExecutor().execute(new Runnable()
+      {
+        public void run()
+        {
+          // the reload runs in the context of the caller that found the entry stale
+          ThreadLocalContext.set(callContext);
+
+          try
+          {
+            cache.refresh(pointer, object);
+          }
+          finally
+          {
+            pointer.endRefresh();
+            ThreadLocalContext.unset();
+          }
+        }
+      });
+    }
+    catch (RejectedExecutionException full)
+    {
+      return false;
+    }
+
+    return true;
+  }
+
+  private static synchronized ThreadPoolExecutor getExecutor()
+  {
+    if (executor == null)
+    {
+      int threads = getNumber(THREADS_PROPERTY, 2);
+      int queue = getNumber(QUEUE_PROPERTY, 1000);
+
+      executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queue),
+          new ThreadFactory()
+          {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r)
+            {
+              Thread thread = new Thread(r, "Cache refresher " + count.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+      executor.allowCoreThreadTimeOut(true);
+    }
+
+    return executor;
+  }
+
+  private static int getNumber(String key, int defaultValue)
+  {
+    try
+    {
+      String value = CFactory.instance().getProperty(key);
+      if ((value != null) && (value.trim().length() > 0))
+      {
+        int number = Integer.parseInt(value.trim());
+        if (number > 0)
+        {
+          return number;
+        }
+      }
+    }
+    catch (IllegalStateException noConfig)
+    {
+    }
+    catch (NumberFormatException badValue)
+    {
+      System.out.println("Ignoring " + key + ": " + badValue.getMessage());
+    }
+
+    return defaultValue;
+  }
+}
@@ -0,0 +1,627 @@
+package com.rate.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.rate.configuration.CFactory;
+
+/**
+ * A snapshot of the hottest cache entries in a local file, so a restarted node starts warm. The file holds a header
+ * (magic, format version, write time) followed by one length-prefixed record per entry: the object's class, the codec
+ * schema version, the scope, the last access time, the keys and the encoded value.
+ * <P>
+ * On startup the file is memory-mapped and only the keys are read. Values are decoded one at a time as the cache misses
+ * on their keys, and each record is used at most once. Records past their time to live, and records written with a
+ * different codec schema, are ignored.
+ * </P>
+ * <P>
+ * Enabled by setting <code>cache.snapshot.file</code>; each cache writes to that path suffixed with its stack id.
+ * <code>cache.snapshot.interval</code> is the number of seconds between writes (default 300) and
+ * <code>cache.snapshot.entries</code> the number of most recently used entries written (default 10000).
+ * </P>
+ */
+class CacheSnapshot
+{
+  public static final String FILE_PROPERTY = "cache.snapshot.file";
+
+  public static final String INTERVAL_PROPERTY = "cache.snapshot.interval";
+
+  public static final String ENTRIES_PROPERTY = "cache.snapshot.entries";
+
+  private static final int MAGIC = 0x52435348;
+
+  private static final short VERSION = 1;
+
+  private static final byte NULL = 0;
+
+  private static final byte INTEGER = 1;
+
+  private static final byte LONG = 2;
+
+  private static final byte STRING = 3;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final MappedByteBuffer buffer;
+
+  /** Records not yet used, by each of their keys. */
+  private final Map<CacheKey, Record> index = new HashMap<CacheKey, Record>();
+
+  private CacheSnapshot(MappedByteBuffer buffer)
+  {
+    this.buffer = buffer;
+  }
+
+  /**
+   * Returns the snapshot file for the stack, or null if snapshots are not configured.
+   */
+  public static File getFile(Integer stackId)
+  {
+    String name = getProperty(FILE_PROPERTY);
+
+    return (name.length() == 0) ? null : new File(name + "." + stackId);
+  }
+
+  public static long getInterval()
+  {
+    return getNumber(INTERVAL_PROPERTY, 300) * 1000L;
+  }
+
+  public static int getMaxEntries()
+  {
+    return (int) getNumber(ENTRIES_PROPERTY, 10000);
+  }
+
+  /**
+   * Maps the snapshot file and indexes its keys. Returns null if there is no file, or it cannot be read.
+   */
+  public static CacheSnapshot open(File file)
+  {
+    if ((file == null) || !file.isFile() || (file.length() == 0))
+    {
+      return null;
+    }
+
+    try
+    {
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      MappedByteBuffer buffer;
+
+      try
+      {
+        buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+      }
+      finally
+      {
+        // the mapping stays valid after the channel is closed
+        raf.close();
+      }
+
+      CacheSnapshot snapshot = new CacheSnapshot(buffer);
+      snapshot.readIndex();
+
+      System.out.println("Cache snapshot " + file + " has " + snapshot.index.size() + " keys");
+
+      return snapshot;
+    }
+    catch (Exception e)
+    {
+      System.out.println("Ignoring cache snapshot " + file + ": " + e);
+      return null;
+    }
+  }
+
+  /**
+   * Removes the record stored under the key and decodes its value. Returns null if there is none, it has outlived its
+   * time to live, or it cannot be decoded.
+   */
+  public CacheableObject take(CacheKey key, CacheTimeManager timeManager)
+  {
+    Record record;
+    byte[] bytes;
+
+    synchronized (this)
+    {
+      if (index.isEmpty())
+      {
+        return null;
+      }
+
+      record = index.get(key);
+      if (record == null)
+      {
+        return null;
+      }
+
+      unindex(record);
+
+      bytes = new byte[record.valueLength];
+      ByteBuffer source = buffer.duplicate();
+      source.position(record.valueOffset);
+      source.get(bytes);
+    }
+
+    CacheCodec codec = CacheCodecRegistry.get(record.objectClass);
+    if ((codec == null) || (codec.getSchemaVersion(record.objectClass) != record.schemaVersion))
+    {
+      return null;
+    }
+
+    try
+    {
+      CacheableObject object = codec.decode(record.objectClass, new DataInputStream(new ByteArrayInputStream(bytes)));
+      object.setCacheLongevity(record.scope);
+      long timeToLive = timeManager.getTimeToLive(object);
+
+      if ((timeToLive > 0) && (record.lastAccessTime + timeToLive < System.currentTimeMillis()))
+      {
+        return null;
+      }
+
+      return object;
+    }
+    catch (Exception e)
+    {
+      return null;
+    }
+  }
+
+  /**
+   * Forgets the record stored under the key, if any, because a newer value has been cached.
+   */
+  public synchronized void remove(CacheKey key)
+  {
+    if (!index.isEmpty())
+    {
+      Record record = index.get(key);
+      if (record != null)
+      {
+        unindex(record);
+      }
+    }
+  }
+
+  public synchronized void clear()
+  {
+    index.clear();
+  }
+
+  /**
+   * Writes the most recently used of the pointers to the file. The file is written under a temporary name and renamed
+   * into place, so a reader never sees a partial snapshot.
+   *
+   * @param file
+   *          The snapshot file.
+   * @param pointers
+   *          The pointers in the cache; may contain the same pointer more than once.
+   * @param maxEntries
+   *          The maximum number of entries to write.
+   * @return The number of entries written.
+   */
+  public static int write(File file, Collection<CachePointer> pointers, int maxEntries) throws IOException
+  {
+    IdentityHashMap<CachePointer, Boolean> distinct = new IdentityHashMap<CachePointer, Boolean>();
+    Iterator<CachePointer> it = pointers.iterator();
+
+    while (it.hasNext())
+    {
+      distinct.put(it.next(), Boolean.TRUE);
+    }
+
+    // access times keep moving, so sort on a copy taken now
+    Candidate[] sorted = new Candidate[distinct.size()];
+    Iterator<CachePointer> distinctIt = distinct.keySet().iterator();
+    for (int i = 0; i < sorted.length; i++)
+    {
+      CachePointer pointer = distinctIt.next();
+      sorted[i] = new Candidate(pointer, pointer.getLastAccessTime());
+    }
+
+    Arrays.sort(sorted, new Comparator<Candidate>()
+    {
+      public int compare(Candidate c1, Candidate c2)
+      {
+        return (c1.lastAccessTime > c2.lastAccessTime) ? -1 : ((c1.lastAccessTime < c2.lastAccessTime) ? 1 : 0);
+      }
+    });
+
+    File temp = new File(file.getPath() + ".tmp");
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 65536));
+    ByteArrayOutputStream record = new ByteArrayOutputStream(512);
+    DataOutputStream recordOut = new DataOutputStream(record);
+    int count = 0;
+
+    try
+    {
+      out.writeInt(MAGIC);
+      out.writeShort(VERSION);
+      out.writeLong(System.currentTimeMillis());
+
+      for (int i = 0; (i < sorted.length) && (count < maxEntries); i++)
+      {
+        record.reset();
+
+        if (writeRecord(sorted[i].pointer, sorted[i].lastAccessTime, recordOut))
+        {
+          recordOut.flush();
+          out.writeInt(record.size());
+          record.writeTo(out);
+          count++;
+        }
+      }
+    }
+    finally
+    {
+      out.close();
+    }
+
+    try
+    {
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (AtomicMoveNotSupportedException e)
+    {
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    return count;
+  }
+
+  /**
+   * Writes one pointer's record. Returns false, leaving partial output that the caller discards, if the entry has no
+   * codec or none of its keys can be written.
+   */
+  private static boolean writeRecord(CachePointer pointer, long lastAccessTime, DataOutputStream out)
+      throws IOException
+  {
+    CacheableObject object;
+    Object[] keys;
+
+    synchronized (pointer)
+    {
+      if (pointer.isExpired())
+      {
+        return false;
+      }
+      object = pointer.fetchObject();
+      keys = pointer.getCacheKeys().toArray();
+    }
+
+    if (object == null)
+    {
+      return false;
+    }
+
+    CacheCodec codec = CacheCodecRegistry.get(object.getClass());
+    if (codec == null)
+    {
+      return false;
+    }
+
+    List<CacheKey> writable = new ArrayList<CacheKey>(keys.length);
+    for (int i = 0; i < keys.length; i++)
+    {
+      if (isWritable((CacheKey) keys[i]))
+      {
+        writable.add((CacheKey) keys[i]);
+      }
+    }
+
+    if (writable.isEmpty())
+    {
+      return false;
+    }
+
+    ByteArrayOutputStream value = new ByteArrayOutputStream(256);
+    try
+    {
+      codec.encode(object, new DataOutputStream(value));
+    }
+    catch (IOException cannotEncode)
+    {
+      return false;
+    }
+
+    writeString(out, object.getClass().getName());
+    out.writeInt(codec.getSchemaVersion(object.getClass()));
+    out.writeByte(object.getCacheLongevity());
+    out.writeLong(lastAccessTime);
+    out.writeShort(writable.size());
+
+    for (int i = 0; i < writable.size(); i++)
+    {
+      CacheKey key = writable.get(i);
+      Object[] criteria = key.getCriteria().getCriteria();
+
+      writeString(out, key.getObjectClass().getName());
+      out.writeByte(key.getScope());
+      out.writeShort(criteria.length);
+
+      for (int j = 0; j < criteria.length; j++)
+      {
+        writeCriterion(out, criteria[j]);
+      }
+    }
+
+    out.writeInt(value.size());
+    value.writeTo(out);
+
+    return true;
+  }
+
+  /**
+   * Only plain CacheKeys with Integer, Long or String criteria are written; anything else may not compare equal after
+   * being read back.
+   */
+  private static boolean isWritable(CacheKey key)
+  {
+    if ((key.getClass() != CacheKey.class) || (key.getCriteria() == null)
+        || (key.getCriteria().getClass() != CacheCriteria.class) || (key.getCriteria().getCriteria() == null))
+    {
+      return false;
+    }
+
+    Object[] criteria = key.getCriteria().getCriteria();
+    for (int i = 0; i < criteria.length; i++)
+    {
+      Object value = criteria[i];
+      if ((value != null) && !(value instanceof Integer) && !(value instanceof Long) && !(value instanceof String))
+      {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static void writeCriterion(DataOutputStream out, Object value) throws IOException
+  {
+    if (value == null)
+    {
+      out.writeByte(NULL);
+    }
+    else if (value instanceof Integer)
+    {
+      out.writeByte(INTEGER);
+      out.writeInt(((Integer) value).intValue());
+    }
+    else if (value instanceof Long)
+    {
+      out.writeByte(LONG);
+      out.writeLong(((Long) value).longValue());
+    }
+    else
+    {
+      out.writeByte(STRING);
+      writeString(out, (String) value);
+    }
+  }
+
+  /**
+   * Reads the header and the keys of every record, leaving the values in the mapped file.
+   */
+  private void readIndex() throws IOException
+  {
+    ByteBuffer in = buffer.duplicate();
+
+    if ((in.remaining() < 14) || (in.getInt() != MAGIC))
+    {
+      throw new IOException("not a cache snapshot");
+    }
+
+    short version = in.getShort();
+    if (version != VERSION)
+    {
+      throw new IOException("unsupported snapshot version " + version);
+    }
+
+    in.getLong(); // write time
+
+    while (in.remaining() >= 4)
+    {
+      int length = in.getInt();
+      int end = in.position() + length;
+
+      if ((length < 0) || (end > in.limit()))
+      {
+        throw new IOException("truncated snapshot");
+      }
+
+      Record record = readRecord(in);
+      in.position(end);
+
+      if (record != null)
+      {
+        for (int i = 0; i < record.keys.length; i++)
+        {
+          index.put(record.keys[i], record);
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads a record's header and keys. Returns null if its class or a key class no longer exists.
+   */
+  private static Record readRecord(ByteBuffer in) throws IOException
+  {
+    Class objectClass = forName(readString(in));
+    int schemaVersion = in.getInt();
+    byte scope = in.get();
+    long lastAccessTime = in.getLong();
+    int keyCount = in.getShort();
+    CacheKey[] keys = new CacheKey[keyCount];
+    boolean valid = (objectClass != null);
+
+    for (int i = 0; i < keyCount; i++)
+    {
+      Class keyClass = forName(readString(in));
+      byte keyScope = in.get();
+      Object[] criteria = new Object[in.getShort()];
+
+      for (int j = 0; j < criteria.length; j++)
+      {
+        byte tag = in.get();
+
+        if (tag == INTEGER)
+          criteria[j] = Integer.valueOf(in.getInt());
+        else if (tag == LONG)
+          criteria[j] = Long.valueOf(in.getLong());
+        else if (tag == STRING)
+          criteria[j] = readString(in);
+        else if (tag != NULL)
+          throw new IOException("unknown criteria tag " + tag);
+      }
+
+      if (keyClass == null)
+      {
+        valid = false;
+      }
+      else
+      {
+        keys[i] = new CacheKey(keyClass, new CacheCriteria(criteria), keyScope);
+      }
+    }
+
+    int valueLength = in.getInt();
+    int valueOffset = in.position();
+
+    if (!valid)
+    {
+      return null;
+    }
+
+    return new Record(objectClass, schemaVersion, scope, lastAccessTime, keys, valueOffset, valueLength);
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException
+  {
+    byte[] bytes = value.getBytes(UTF8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(ByteBuffer in)
+  {
+    byte[] bytes = new byte[in.getInt()];
+    in.get(bytes);
+
+    return new String(bytes, UTF8);
+  }
+
+  private static Class forName(String name)
+  {
+    try
+    {
+      return Class.forName(name);
+    }
+    catch (ClassNotFoundException e)
+    {
+      return null;
+    }
+  }
+
+  private void unindex(Record record)
+  {
+    for (int i = 0; i < record.keys.length; i++)
+    {
+      if (index.get(record.keys[i]) == record)
+      {
+        index.remove(record.keys[i]);
+      }
+    }
+  }
+
+  private static String getProperty(String key)
+  {
+    try
+    {
+      String value = CFactory.instance().getProperty(key);
+      return (value == null) ? "" : value.trim();
+    }
+    catch (IllegalStateException noConfig)
+    {
+      return "";
+    }
+  }
+
+  private static long getNumber(String key, long defaultValue)
+  {
+    String value = getProperty(key);
+
+    try
+    {
+      return (value.length() == 0) ? defaultValue : Long.parseLong(value);
+    }
+    catch (NumberFormatException e)
+    {
+      System.out.println("Ignoring " + key + ": " + e.getMessage());
+      return defaultValue;
+    }
+  }
+
+  private static class Candidate
+  {
+    final CachePointer pointer;
+
+    final long lastAccessTime;
+
+    Candidate(CachePointer pointer, long lastAccessTime)
+    {
+      this.pointer = pointer;
+      this.lastAccessTime = lastAccessTime;
+    }
+  }
+
+  private static class Record
+  {
+    final Class objectClass;
+
+    final int schemaVersion;
+
+    final byte scope;
+
+    final long lastAccessTime;
+
+    final CacheKey[] keys;
+
+    final int valueOffset;
+
+    final int valueLength;
+
+    Record(Class objectClass, int schemaVersion, byte scope, long lastAccessTime, CacheKey[] keys, int valueOffset,
+        int valueLength)
+    {
+      this.objectClass = objectClass;
+      this.schemaVersion = schemaVersion;
+      this.scope = scope;
+      this.lastAccessTime = lastAccessTime;
+      this.keys = keys;
+      this.valueOffset = valueOffset;
+      this.valueLength = valueLength;
+    }
+  }
+}
@@ -0,0 +1,373 @@
+package com.rate.cache;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hit, miss, load and eviction counts for a Cache, kept in total, per scope and per object class of the CacheKey.
+ * Counters are LongAdders, so recording from many threads does not contend on a single memory location.
+ * <P>
+ * Hits are counted under the scope of the cached object, misses under the scope of the key, loads under the scope of
+ * the loaded object if there is one, and evictions under the scope of the evicted object.
+ * </P>
+ */
+public class CacheStats
+{
+  /** Eviction causes. */
+  public static final int EXPIRED = 0;
+
+  public static final int SIZE = 1;
+
+  public static final int EXPLICIT = 2;
+
+  public static final String[] CAUSE_NAMES = { "expired", "size", "explicit" };
+
+  /** Upper bounds, in milliseconds, of the load-time histogram buckets. A last bucket holds anything slower. */
+  public static final long[] LOAD_TIME_BOUNDS = { 1, 10, 100, 1000, 10000 };
+
+  private static final long NANOS_PER_MILLI = 1000000L;
+
+  private final Counters total = new Counters();
+
+  private final Counters[] scopes;
+
+  private final ConcurrentMap<Class, Counters> classes = new ConcurrentHashMap<Class, Counters>();
+
+  public CacheStats()
+  {
+    scopes = new Counters[CacheTimeManager.MAX_SCOPE_VALUE + 1];
+
+    for (int i = 0; i < scopes.length; i++)
+    {
+      scopes[i] = new Counters();
+    }
+  }
+
+  void recordHit(Class objectClass, byte scope)
+  {
+    total.hits.increment();
+    getScope(scope).hits.increment();
+    getClass(objectClass).hits.increment();
+  }
+
+  void recordMiss(Class objectClass, byte scope)
+  {
+    total.misses.increment();
+    getScope(scope).misses.increment();
+    getClass(objectClass).misses.increment();
+  }
+
+  /**
+   * Records a call to an ObjectGenerator.
+   *
+   * @param nanos
+   *          How long the load took.
+   * @param success
+   *          False if the generator threw an exception.
+   */
+  void recordLoad(Class objectClass, byte scope, long nanos, boolean success)
+  {
+    total.recordLoad(nanos, success);
+    getScope(scope).recordLoad(nanos, success);
+    getClass(objectClass).recordLoad(nanos, success);
+  }
+
+  void recordEviction(Class objectClass, byte scope, int cause)
+  {
+    total.evictions[cause].increment();
+    getScope(scope).evictions[cause].increment();
+    getClass(objectClass).evictions[cause].increment();
+  }
+
+  /**
+   * Returns the counts for the whole cache.
+   */
+  public Counters getTotal()
+  {
+    return total;
+  }
+
+  /**
+   * Returns the counts for one of the CacheTimeManager scopes.
+   */
+  public Counters getScope(byte scope)
+  {
+    return scopes[((scope < 0) || (scope >= scopes.length)) ? CacheTimeManager.SHORT : scope];
+  }
+
+  /**
+   * Returns the counts for each object class seen so far.
+   */
+  public Map<Class, Counters> getClasses()
+  {
+    return classes;
+  }
+
+  /**
+   * Adds these counts into the target, to combine the statistics of several caches.
+   */
+  public void addTo(CacheStats target)
+  {
+    total.addTo(target.total);
+
+    for (int i = 0; i < scopes.length; i++)
+    {
+      scopes[i].addTo(target.scopes[i]);
+    }
+
+    Iterator<Map.Entry<Class, Counters>> itr = classes.entrySet().iterator();
+    while (itr.hasNext())
+    {
+      Map.Entry<Class, Counters> entry = itr.next();
+      entry.getValue().addTo(target.getClass(entry.getKey()));
+    }
+  }
+
+  /**
+   * Returns a line per scope with activity, for the MBean.
+   */
+  public String[] describeScopes()
+  {
+    String[] lines = new String[scopes.length];
+    int count = 0;
+
+    for (int i = 0; i < scopes.length; i++)
+    {
+      if (scopes[i].getRequestCount() + scopes[i].getLoadCount() > 0)
+      {
+        lines[count++] = CacheTimeManager.convertLongevity((byte) i) + ": " + scopes[i];
+      }
+    }
+
+    String[] result = new String[count];
+    System.arraycopy(lines, 0, result, 0, count);
+
+    return result;
+  }
+
+  /**
+   * Returns a line per object class, sorted by class name, for the MBean.
+   */
+  public String[] describeClasses()
+  {
+    TreeMap<String, Counters> sorted = new TreeMap<String, Counters>();
+
+    Iterator<Map.Entry<Class, Counters>> itr = classes.entrySet().iterator();
+    while (itr.hasNext())
+    {
+      Map.Entry<Class, Counters> entry = itr.next();
+      sorted.put(entry.getKey().getName(), entry.getValue());
+    }
+
+    String[] result = new String[sorted.size()];
+    int i = 0;
+
+    Iterator<Map.Entry<String, Counters>> names = sorted.entrySet().iterator();
+    while (names.hasNext())
+    {
+      Map.Entry<String, Counters> entry = names.next();
+      result[i++] = entry.getKey() + ": " + entry.getValue();
+    }
+
+    return result;
+  }
+
+  private Counters getClass(Class objectClass)
+  {
+    if (objectClass == null)
+    {
+      objectClass = Object.class;
+    }
+
+    Counters counters = classes.get(objectClass);
+
+    if (counters == null)
+    {
+      Counters created = new Counters();
+      counters = classes.putIfAbsent(objectClass, created);
+      if (counters == null)
+      {
+        counters = created;
+      }
+    }
+
+    return counters;
+  }
+
+  /**
+   * The counts for one slice of the cache.
+   */
+  public static class Counters
+  {
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder loadSuccesses = new LongAdder();
+
+    private final LongAdder loadFailures = new LongAdder();
+
+    private final LongAdder loadNanos = new LongAdder();
+
+    private final LongAdder[] loadTimes = newAdders(LOAD_TIME_BOUNDS.length + 1);
+
+    private final LongAdder[] evictions = newAdders(CAUSE_NAMES.length);
+
+    void recordLoad(long nanos, boolean success)
+    {
+      if (success)
+      {
+        loadSuccesses.increment();
+      }
+      else
+      {
+        loadFailures.increment();
+      }
+
+      loadNanos.add(nanos);
+
+      long millis = nanos / NANOS_PER_MILLI;
+      int bucket = 0;
+      while ((bucket < LOAD_TIME_BOUNDS.length) && (millis >= LOAD_TIME_BOUNDS[bucket]))
+      {
+        bucket++;
+      }
+      loadTimes[bucket].increment();
+    }
+
+    void addTo(Counters target)
+    {
+      target.hits.add(hits.sum());
+      target.misses.add(misses.sum());
+      target.loadSuccesses.add(loadSuccesses.sum());
+      target.loadFailures.add(loadFailures.sum());
+      target.loadNanos.add(loadNanos.sum());
+
+      for (int i = 0; i < loadTimes.length; i++)
+      {
+        target.loadTimes[i].add(loadTimes[i].sum());
+      }
+      for (int i = 0; i < evictions.length; i++)
+      {
+        target.evictions[i].add(evictions[i].sum());
+      }
+    }
+
+    public long getHitCount()
+    {
+      return hits.sum();
+    }
+
+    public long getMissCount()
+    {
+      return misses.sum();
+    }
+
+    public long getRequestCount()
+    {
+      return getHitCount() + getMissCount();
+    }
+
+    /**
+     * Returns the fraction of requests that were hits, or 1.0 if there were no requests.
+     */
+    public double getHitRate()
+    {
+      long requests = getRequestCount();
+      return (requests == 0) ? 1.0 : ((double) getHitCount() / requests);
+    }
+
+    /**
+     * Returns the fraction of requests that were misses, or 0.0 if there were no requests.
+     */
+    public double getMissRate()
+    {
+      long requests = getRequestCount();
+      return (requests == 0) ? 0.0 : ((double) getMissCount() / requests);
+    }
+
+    public long getLoadSuccessCount()
+    {
+      return loadSuccesses.sum();
+    }
+
+    public long getLoadFailureCount()
+    {
+      return loadFailures.sum();
+    }
+
+    public long getLoadCount()
+    {
+      return getLoadSuccessCount() + getLoadFailureCount();
+    }
+
+    public long getTotalLoadTimeMillis()
+    {
+      return loadNanos.sum() / NANOS_PER_MILLI;
+    }
+
+    public double getAverageLoadMillis()
+    {
+      long loads = getLoadCount();
+      return (loads == 0) ? 0.0 : ((double) loadNanos.sum() / NANOS_PER_MILLI / loads);
+    }
+
+    /**
+     * Returns the number of loads in each bucket of LOAD_TIME_BOUNDS, plus one for loads slower than the last bound.
+     */
+    public long[] getLoadTimeHistogram()
+    {
+      long[] histogram = new long[loadTimes.length];
+
+      for (int i = 0; i < histogram.length; i++)
+      {
+        histogram[i] = loadTimes[i].sum();
+      }
+
+      return histogram;
+    }
+
+    /**
+     * Returns the number of entries removed for the cause: EXPIRED, SIZE or EXPLICIT.
+     */
+    public long getEvictionCount(int cause)
+    {
+      return evictions[cause].sum();
+    }
+
+    public String toString()
+    {
+      StringBuilder sb = new StringBuilder();
+
+      sb.append("hits=").append(getHitCount());
+      sb.append(" misses=").append(getMissCount());
+      sb.append(" hitRate=").append(Math.round(getHitRate() * 1000) / 10.0).append('%');
+      sb.append(" loads=").append(getLoadSuccessCount());
+      sb.append(" loadFailures=").append(getLoadFailureCount());
+      sb.append(" avgLoadMs=").append(Math.round(getAverageLoadMillis() * 10) / 10.0);
+
+      for (int i = 0; i < evictions.length; i++)
+      {
+        sb.append(' ').append(CAUSE_NAMES[i]).append('=').append(evictions[i].sum());
+      }
+
+      return sb.toString();
+    }
+
+    private static LongAdder[] newAdders(int count)
+    {
+      LongAdder[] adders = new LongAdder[count];
+
+      for (int i = 0; i < count; i++)
+      {
+        adders[i] = new LongAdder();
+      }
+
+      return adders;
+    }
+  }
+}
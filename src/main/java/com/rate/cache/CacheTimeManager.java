@@ -3,11 +3,12 @@ package com.rate.cache;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Collection;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Logger;
 
 import javax.management.ObjectName;
@@ -74,7 +75,7 @@ public class CacheTimeManager
     strings.add(PERMANENT_STRING);
   }
 
-  /** The number of states that are kept in lists. (PERMANENT has no list) */
+  /** The number of scopes with a time to live. (PERMANENT never expires by time) */
   private static final int NUM_LISTS = 5;
 
   /** Times to live for various cache levels, in minutes. */
@@ -84,7 +85,14 @@ public class CacheTimeManager
 
   private static CacheObjectFlushLRUThread flusher;
 
-  private TimeList[] lists;
+  /** Maximum total weight of each cache, or 0 for unbounded. Applied by CacheEvictionPolicy. */
+  private static int cacheMaxSize = 0;
+
+  /** Entries that expire after a period of disuse. Also the lock for scheduling. */
+  private TimerWheel wheel;
+
+  /** Entries tied to a request, keyed by the request hash. */
+  private ConcurrentMap<Integer, Set<CachePointer>> requestPointers;
 
   /**
    * Default constructor, only to be used for serialization.
@@ -131,12 +139,8 @@ public class CacheTimeManager
     }
 
     this.cache = cache;
-    lists = new TimeList[NUM_LISTS];
-
-    for (int i = 0; i < NUM_LISTS; ++i)
-    {
-      lists[i] = new TimeList();
-    }
+    wheel = new TimerWheel(System.currentTimeMillis());
+    requestPointers = new ConcurrentHashMap<Integer, Set<CachePointer>>();
 
     initTimer();
   }
@@ -161,6 +165,7 @@ public class CacheTimeManager
           getFlusher().stopLRUFlushing();
           setFlusher(null);
         }
+        setCacheMaxSize(cacheMaxSize.intValue());
         setFlusher(new CacheObjectFlushLRUThread(cacheMBean,cacheMaxSize,cacheLruRunFrequency,stopOnError));
         getFlusher().setName("Cache LRU Config Flusher");
         getFlusher().setDaemon(true);
@@ -172,6 +177,7 @@ public class CacheTimeManager
         if (getFlusher() != null) // also add - get status
           getFlusher().stopLRUFlushing();
         setFlusher(null);
+        setCacheMaxSize(0);
       }
     }
   }
@@ -245,200 +251,126 @@ public class CacheTimeManager
    */
   protected void initTimer()
   {
-    CacheExpirationTimerTask timer = new CacheExpirationTimerTask();
+    if (cache != null)
+    {
+      CacheExpirationTimerTask.register(this);
+    }
+  }
 
-    timer.setTimeManager(this);
-    timer.start(60000); // 1 minute.
+  /**
+   * Stops expiring entries for this cache.
+   */
+  protected void stopTimer()
+  {
+    CacheExpirationTimerTask.unregister(this);
   }
 
   /**
-   * Determines which TimeList the CacheableObject should be placed into.
+   * Returns how long the CacheableObject may go unused before it expires, in milliseconds. Returns 0 for objects that
+   * never expire by time (PERMANENT, and scopes outside SHORT..VERY_LONG).
    */
-  public TimeList getList(CacheableObject object)
+  public long getTimeToLive(CacheableObject object)
   {
     int which = object.getCacheLongevity();
 
-    which = Math.max(which, CALL); // Negative values get moved to "SHORT".
-
-    if (which < NUM_LISTS)
+    if ((which > CALL) && (which < NUM_LISTS))
     {
-      return lists[which];
+      return times[which] * 60000L;
     }
     else
     {
-      return null;
+      return 0;
     }
   }
 
   /**
-   * Checks all the lists,clearing entries entered before the indicated time. Handles synchronization internally.
-   *
-   * @param time
-   *          The time before which objects should be discarded.
+   * Schedules a pointer that has just been added to the cache for expiry, according to its object's longevity, and
+   * ties it to its request if it has one. A pointer flushed before this is called is left alone.
    */
-  public void checkLists(long time)
+  public void schedule(CachePointer pointer)
   {
-    System.out.println("Running CacheTimeManger.checkList()");
-    
-    if (cache != null)
+    CacheableObject object = pointer.fetchObject();
+    if (object == null)
+    {
+      return;
+    }
+
+    long timeToLive = getTimeToLive(object);
+
+    synchronized (wheel)
     {
-      synchronized (cache)
+      if (pointer.isExpired() || (pointer.timerNext != null))
       {
-        // exclude objects cached at request scope
-        for (int ind = 1; ind < NUM_LISTS; ++ind)
-        {
-          long when = time - (times[ind] * TimeList.SCALE);
+        return;
+      }
 
-          checkList(ind, when);
-        }
+      pointer.timeToLive = timeToLive;
+      if (timeToLive > 0)
+      {
+        wheel.schedule(pointer, pointer.getLastAccessTime() + timeToLive);
       }
     }
-  }
 
-  /**
-   * Checks the indicated list, clearing entries entered before the indicated time. Should only be called from within a
-   * <code>synchronized(cache)</code> block.
-   *
-   * @param ind
-   *          Which list to check.
-   * @param when
-   *          The time before which objects should be discarded.
-   */
-  protected void checkList(int ind, long when)
-  {
-    synchronized(lists[ind])
+    if (pointer.getRequestHash() != 0)
     {
-      ArrayList results = lists[ind].clearBefore(when);
-      
-      if ( results.size() > 0 )
+      Integer requestHash = Integer.valueOf(pointer.getRequestHash());
+      Set<CachePointer> pointers = requestPointers.get(requestHash);
+      if (pointers == null)
       {
-        System.out.println(strings.get(ind) + " list evicting " + results.size() + " items");
-        if ( ind == 3 )
-        {
-          Iterator it = results.iterator();
-
-          while (it.hasNext())
-          {
-            CachePointer ptr = (CachePointer) it.next();
-            System.out.println(ptr.getObject());
-          }
-        }
-        flush(results);
+        Set<CachePointer> created = ConcurrentHashMap.<CachePointer> newKeySet();
+        pointers = requestPointers.putIfAbsent(requestHash, created);
+        if (pointers == null)
+          pointers = created;
       }
+      pointers.add(pointer);
     }
   }
 
   /**
-   * This methods will remove enough items from the cache to lower
-   * the total size of items in the cache by the overLimitAmount.
-   * First all the TimeLists are combined into one, then it is sorted.
-   * As the oldest items is removed, its size is calculated, the
-   * item is flushed from cache, and its size is added to the total
-   * number bytes removed until the goal is reached.
-   *
-   * Should only be called from within a <code>synchronized(cache)</code>
-   * block.
-   *
-   * @param overLimitAmount a long giving the amount the
-   * cache has exceeded the configurable limit set.
+   * Stops tracking a pointer that has been flushed from the cache.
    */
-  public long flushLeastRecentlyUsed(long overLimitAmount)
+  public void deschedule(CachePointer pointer)
   {
-    long totalFlushed = 0;
-//    if (cache != null)
-//    {
-//      //Should only be called from within a <code>synchronized(cache)</code> block.
-//      //synchronized (cache.getCacheMap())
-//      //{
-//        TimeList allTimeLists = combineTouchLists();
-//
-//        Date now = new Date();
-//        while (totalFlushed < overLimitAmount && allTimeLists.size() > 0)
-//        {
-//          CachePointer lru = allTimeLists.getLeastRecentlyUsed();
-//          if (lru != null)
-//          {
-//            Object obj = lru.fetchObject();
-//            if (obj != null && obj.getClass() != null && obj.getClass().getName() != null)
-//            {
-//              long sizeLru = ObjectProfiler.sizeof(obj);
-//              Date date = new Date(lru.getLastAccessTime());
-//              long diff = now.getTime() - date.getTime();
-//              String dateStr = df.format(date);
-//              //String objName = obj.getClass().getName();
-//              log.debug(
-//                "<evicted>"+
-//                  "<objectClass>"+obj.getClass().getName()+"</objectClass>"+
-//                  "<objectSize>"+sizeLru+"</objectSize>"+
-//                  "<lastAccessed>"+dateStr+"</lastAccessed>"+
-//                  "<objectAge>"+getDateDiffString(diff)+"</objectAge>"+
-//                "</evicted>"
-//              );
-//              cache.flush(lru, true);
-//              totalFlushed += sizeLru;
-//            }
-//            else
-//            {
-//              cache.flush(lru, true);
-//            }
-//          }
-//        }
-//      //}
-//    }
-    return totalFlushed;
-//
-  }
+    synchronized (wheel)
+    {
+      wheel.deschedule(pointer);
+    }
 
-  /**
-   * A comparator for use in Collections.sort to put the cache
-   * TimeLists into order by the last access time.
-   *
-   * @author John Black
-   *
-   */
-  class compareCacheTimes implements Comparator
-  {
-    public int compare(Object o1, Object o2)
+    if (pointer.getRequestHash() != 0)
     {
-      int result = 0;
-      if (o1 instanceof CacheTouch && o2 instanceof CacheTouch)
-      {
-        if (((CacheTouch)o1).getPointer().getLastAccessTime() < ((CacheTouch)o2).getPointer().getLastAccessTime())
-        {
-          result = -1;
-        }
-        if (((CacheTouch)o1).getPointer().getLastAccessTime() > ((CacheTouch)o2).getPointer().getLastAccessTime())
-        {
-          result = 1;
-        }
-      }
-      return result;
+      Set<CachePointer> pointers = requestPointers.get(Integer.valueOf(pointer.getRequestHash()));
+      if (pointers != null)
+        pointers.remove(pointer);
     }
   }
 
   /**
-   * This method combines and sorts all the values in all the TimeLists
-   * for the cache, thens sorts the resulting list by last access
-   * time. When complete it returns a new TimeList
+   * Advances the timer wheel to the indicated time and flushes the entries that have gone unused for longer than their
+   * time to live. Only the wheel buckets that came due since the last call are visited, and the expired entries are
+   * flushed after the wheel is released, so neither readers nor writers wait on the sweep.
    *
-   * @return TimeList linked list containing all the items in the cache
-   * order by last access time.
+   * @param time
+   *          The current time.
    */
-  public TimeList combineTouchLists()
+  public void checkLists(long time)
   {
-    TimeList allTimeLists = new TimeList();
-    LinkedList list = new LinkedList();
-    
-    // exclude objects cached at request scope
-    for (int ind = 1; ind < NUM_LISTS; ++ind)
+    if (cache != null)
     {
-      list.addAll(lists[ind].getContents());
-    }
-    Collections.sort(list, new compareCacheTimes());
-    allTimeLists.addAll(list);
-    
-    return allTimeLists;
+      cache.drainReads();
+
+      ArrayList<CachePointer> results = new ArrayList<CachePointer>();
+
+      synchronized (wheel)
+      {
+        wheel.advance(time, results);
+      }
 
+      if (results.size() > 0)
+      {
+        System.out.println("Cache expiring " + results.size() + " items");
+        flush(results);
+      }
+    }
   }
 
   /**
@@ -506,14 +438,14 @@ public class CacheTimeManager
     return result;
   }
 
-  private void flush(ArrayList results)
+  private void flush(Collection<CachePointer> results)
   {
     Iterator it = results.iterator();
 
     while (it.hasNext())
     {
       CachePointer ptr = (CachePointer) it.next();
-      cache.flush(ptr, true);
+      cache.flush(ptr, true, CacheStats.EXPIRED);
     }
   }
 
@@ -527,24 +459,24 @@ public class CacheTimeManager
   {
     if (cache != null)
     {
-      synchronized (cache)
+      Set<CachePointer> results = requestPointers.remove(Integer.valueOf(requestHash));
+      if (results != null)
       {
-        ArrayList results = lists[0].clearFor(requestHash);
         flush(results);
       }
     }
   }
 
   /**
-   * Clears all the lists. Should only be called from within a <code>synchronized(cache)</code> block. /**
+   * Unschedules everything. Called when the cache is cleared.
    */
   public void flushAll()
   {
-    // exclude objects cached at request scope
-    for (int i = 1; i < NUM_LISTS; ++i)
+    synchronized (wheel)
     {
-      lists[i].flush();
+      wheel.clear();
     }
+    requestPointers.clear();
   }
 
   /**
@@ -556,6 +488,14 @@ public class CacheTimeManager
     return strings.indexOf(String.valueOf(longevity).toUpperCase());
   }
 
+  /**
+   * Converts the internally-used longevity value to its name, or returns the number if there is no such value.
+   */
+  public static String convertLongevity(byte longevity)
+  {
+    return ((longevity >= 0) && (longevity < strings.size())) ? (String) strings.get(longevity) : String.valueOf(longevity);
+  }
+
   /**
    * @param flusher the flusher to set
    */
@@ -571,4 +511,25 @@ public class CacheTimeManager
   {
     return flusher;
   }
+
+  /**
+   * Sets the maximum total weight of each cache and applies it to the caches already created. Entries weigh 1 unless
+   * they implement WeightedCacheableObject; 0 or less means unbounded. Eviction happens as entries are added, not on the
+   * flusher thread.
+   *
+   * @param maxSize the maximum weight per cache
+   */
+  public static void setCacheMaxSize(int maxSize)
+  {
+    cacheMaxSize = Math.max(0, maxSize);
+    CacheManager.getInstance().setMaximumSize(cacheMaxSize);
+  }
+
+  /**
+   * @return the maximum total weight of each cache, or 0 for unbounded
+   */
+  public static int getCacheMaxSize()
+  {
+    return cacheMaxSize;
+  }
 }
@@ -1,5 +1,8 @@
 package com.rate.cache;
 
+import java.util.Collection;
+import java.util.Map;
+
 public interface CacheableObject
 {
   /**
@@ -63,4 +66,23 @@ public interface CacheableObject
      */
     public CacheableObject regenerateObject(Class objectClass, CacheCriteria criteria) throws Exception;
   }
+
+  /**
+   * An ObjectGenerator that can also restore many objects of one class at once, for Cache.getAll().
+   */
+  public static interface BulkObjectGenerator extends ObjectGenerator
+  {
+    /**
+     * Restores the objects of the specified class identified by each of the criteria.
+     * 
+     * @param objectClass
+     *          The class of the objects to be restored.
+     * @param criteria
+     *          The criteria of each object to restore.
+     * @return The objects restored, by criteria, leaving out any that do not exist; or null if these objects cannot be
+     *         restored in bulk, in which case they are restored one at a time.
+     */
+    public Map<CacheCriteria, CacheableObject> regenerateObjects(Class objectClass, Collection<CacheCriteria> criteria)
+        throws Exception;
+  }
 }
@@ -0,0 +1,165 @@
+package com.rate.cache;
+
+/**
+ * A count-min sketch of how often keys have been seen, used by the eviction policy to decide whether a new entry is
+ * worth more than the one it would push out. Each long holds sixteen 4-bit counters and every key hashes to four of
+ * them; the estimate is the smallest of the four. Once enough increments have been recorded all counters are halved,
+ * so the history ages and old favourites do not keep their place forever.
+ * <P>
+ * Not thread-safe. Guarded by the lock of the owning CacheEvictionPolicy.
+ * </P>
+ */
+class FrequencySketch
+{
+  private static final long[] SEED = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+      0xcbf29ce484222325L };
+
+  private static final long RESET_MASK = 0x7777777777777777L;
+
+  private static final long ONE_MASK = 0x1111111111111111L;
+
+  /** The largest table that will be allocated, regardless of the configured maximum. */
+  private static final int MAXIMUM_TABLE_SIZE = 1 << 24;
+
+  private long[] table;
+
+  private int tableMask;
+
+  /** The number of increments after which the counters are halved. */
+  private int sampleSize;
+
+  /** The number of increments since the counters were last halved. */
+  private int size;
+
+  public FrequencySketch()
+  {
+    ensureCapacity(16);
+  }
+
+  /**
+   * Sizes the table for roughly the indicated number of entries. Never shrinks an existing table, so previously recorded
+   * frequencies are only lost when the table has to grow.
+   *
+   * @param maximum
+   *          The number of entries the cache is expected to hold.
+   */
+  public void ensureCapacity(long maximum)
+  {
+    int wanted = (int) Math.min(Math.max(maximum, 16), MAXIMUM_TABLE_SIZE);
+
+    if ((table != null) && (table.length >= wanted))
+    {
+      return;
+    }
+
+    int length = Integer.highestOneBit(wanted - 1) << 1;
+    table = new long[length];
+    tableMask = length - 1;
+    sampleSize = 10 * length;
+    size = 0;
+  }
+
+  /**
+   * Returns the estimated number of times the hash has been seen, between 0 and 15.
+   */
+  public int frequency(int hashCode)
+  {
+    int hash = spread(hashCode);
+    int start = (hash & 3) << 2;
+    int frequency = Integer.MAX_VALUE;
+
+    for (int i = 0; i < 4; i++)
+    {
+      int index = indexOf(hash, i);
+      int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+      frequency = Math.min(frequency, count);
+    }
+
+    return frequency;
+  }
+
+  /**
+   * Records one more occurrence of the hash, ageing the whole sketch when the sample size is reached.
+   */
+  public void increment(int hashCode)
+  {
+    int hash = spread(hashCode);
+    int start = (hash & 3) << 2;
+    boolean added = false;
+
+    for (int i = 0; i < 4; i++)
+    {
+      int index = indexOf(hash, i);
+      added |= incrementAt(index, start + i);
+    }
+
+    if (added && (++size == sampleSize))
+    {
+      reset();
+    }
+  }
+
+  /**
+   * Forgets everything recorded so far.
+   */
+  public void clear()
+  {
+    for (int i = 0; i < table.length; i++)
+    {
+      table[i] = 0L;
+    }
+    size = 0;
+  }
+
+  /**
+   * Increments the counter at slot j of table[i], unless it is already saturated.
+   */
+  private boolean incrementAt(int i, int j)
+  {
+    int offset = j << 2;
+    long mask = (0xfL << offset);
+
+    if ((table[i] & mask) != mask)
+    {
+      table[i] += (1L << offset);
+      return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Halves every counter. Odd counters lose their remainder, which is subtracted from the running size.
+   */
+  private void reset()
+  {
+    int count = 0;
+
+    for (int i = 0; i < table.length; i++)
+    {
+      count += Long.bitCount(table[i] & ONE_MASK);
+      table[i] = (table[i] >>> 1) & RESET_MASK;
+    }
+
+    size = (size - (count >>> 2)) >>> 1;
+  }
+
+  private int indexOf(int hash, int i)
+  {
+    long value = (hash + SEED[i]) * SEED[i];
+    value += (value >>> 32);
+
+    return ((int) value) & tableMask;
+  }
+
+  /**
+   * Mixes the bits of a hash-code, since CacheKey hash-codes are often small sequential ids.
+   */
+  private static int spread(int x)
+  {
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+
+    return (x >>> 16) ^ x;
+  }
+}
@@ -146,6 +146,102 @@ public class JmxCacheTimeManager implements JmxCacheTimeManagerMBean
     this.threadStatus = threadStatus;
   }
 
+  public Long getCoalescedLoads()
+  {
+    return Long.valueOf(CacheManager.getInstance().getCoalescedLoadCount());
+  }
+
+  public Long getHitCount()
+  {
+    return Long.valueOf(getTotals().getHitCount());
+  }
+
+  public Long getMissCount()
+  {
+    return Long.valueOf(getTotals().getMissCount());
+  }
+
+  public Double getHitRate()
+  {
+    return Double.valueOf(getTotals().getHitRate());
+  }
+
+  public Long getLoadSuccessCount()
+  {
+    return Long.valueOf(getTotals().getLoadSuccessCount());
+  }
+
+  public Long getLoadFailureCount()
+  {
+    return Long.valueOf(getTotals().getLoadFailureCount());
+  }
+
+  public Double getAverageLoadMillis()
+  {
+    return Double.valueOf(getTotals().getAverageLoadMillis());
+  }
+
+  public String getLoadTimeHistogram()
+  {
+    long[] histogram = getTotals().getLoadTimeHistogram();
+    StringBuilder sb = new StringBuilder();
+
+    for (int i = 0; i < histogram.length; i++)
+    {
+      if (i > 0)
+      {
+        sb.append(' ');
+      }
+
+      if (i < CacheStats.LOAD_TIME_BOUNDS.length)
+      {
+        sb.append("<").append(CacheStats.LOAD_TIME_BOUNDS[i]).append("ms=");
+      }
+      else
+      {
+        sb.append(">=").append(CacheStats.LOAD_TIME_BOUNDS[i - 1]).append("ms=");
+      }
+      sb.append(histogram[i]);
+    }
+
+    return sb.toString();
+  }
+
+  public Long getExpiredCount()
+  {
+    return Long.valueOf(getTotals().getEvictionCount(CacheStats.EXPIRED));
+  }
+
+  public Long getSizeEvictionCount()
+  {
+    return Long.valueOf(getTotals().getEvictionCount(CacheStats.SIZE));
+  }
+
+  public Long getExplicitFlushCount()
+  {
+    return Long.valueOf(getTotals().getEvictionCount(CacheStats.EXPLICIT));
+  }
+
+  public Long getEstimatedWeight()
+  {
+    return Long.valueOf(CacheManager.getInstance().getWeightedSize());
+  }
+
+  public String[] getScopeStatistics()
+  {
+    return CacheManager.getInstance().getTotalStats().describeScopes();
+  }
+
+  public String[] getClassStatistics()
+  {
+    return CacheManager.getInstance().getTotalStats().describeClasses();
+  }
+
+  private CacheStats.Counters getTotals()
+  {
+    return CacheManager.getInstance().getTotalStats().getTotal();
+  }
+
   
   /**
    * @param cacheLruRunFrequency the cacheLruRunFrequency to set
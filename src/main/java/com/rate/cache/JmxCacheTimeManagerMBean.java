@@ -34,6 +34,76 @@ public interface JmxCacheTimeManagerMBean extends PersistentMBean
   public Integer getLastCacheSize();
 
   public String getThreadStatus();
+
+  /**
+   * @return the number of cache misses that waited for another thread's load of the same key
+   */
+  public Long getCoalescedLoads();
+
+  /**
+   * @return the number of cache hits, across all caches
+   */
+  public Long getHitCount();
+
+  /**
+   * @return the number of cache misses, across all caches
+   */
+  public Long getMissCount();
+
+  /**
+   * @return the fraction of lookups that were hits
+   */
+  public Double getHitRate();
+
+  /**
+   * @return the number of objects loaded on a miss
+   */
+  public Long getLoadSuccessCount();
+
+  /**
+   * @return the number of loads that threw an exception
+   */
+  public Long getLoadFailureCount();
+
+  /**
+   * @return the average time taken by a load, in milliseconds
+   */
+  public Double getAverageLoadMillis();
+
+  /**
+   * @return the number of loads taking under 1, 10, 100, 1000 and 10000 milliseconds, and longer
+   */
+  public String getLoadTimeHistogram();
+
+  /**
+   * @return the number of entries that expired by time
+   */
+  public Long getExpiredCount();
+
+  /**
+   * @return the number of entries evicted to keep the cache within its maximum size
+   */
+  public Long getSizeEvictionCount();
+
+  /**
+   * @return the number of entries flushed explicitly
+   */
+  public Long getExplicitFlushCount();
+
+  /**
+   * @return the estimated total weight of the cached entries
+   */
+  public Long getEstimatedWeight();
+
+  /**
+   * @return a line of statistics for each cache scope
+   */
+  public String[] getScopeStatistics();
+
+  /**
+   * @return a line of statistics for each class of cached object
+   */
+  public String[] getClassStatistics();
   
   /**
    * @param cacheMaxSize the cacheMaxSize to set
@@ -0,0 +1,140 @@
+package com.rate.cache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Makes sure only one thread at a time loads the object for a given CacheKey. The first thread to miss a key runs the
+ * loader; threads that miss the same key while it is running wait for it and get the same object, or the same
+ * exception, instead of running the loader again.
+ * <P>
+ * A thread that is already running a load, and so may be holding other callers up, never waits for another thread's
+ * load: it runs the loader itself. Otherwise two loads that each need the other's key, on two threads, would wait for
+ * each other forever.
+ * </P>
+ * <P>
+ * A loader must not ask the cache for the key it is loading; it would wait on itself. Such a call fails instead.
+ * Generators that go through a finder to load an object should pass useCache=false, as PrimaryKeyGenerator does.
+ * </P>
+ */
+class LoadCoalescer
+{
+  private final ConcurrentMap<CacheKey, Load> loads = new ConcurrentHashMap<CacheKey, Load>();
+
+  /** Number of callers that waited for another thread's load instead of loading. */
+  private final AtomicLong coalesced = new AtomicLong();
+
+  /** The number of loads the current thread is running, nested within each other. */
+  private static final ThreadLocal<int[]> depth = new ThreadLocal<int[]>()
+  {
+    protected int[] initialValue()
+    {
+      return new int[1];
+    }
+  };
+
+  /**
+   * Runs the loader for the key, or waits for the load already running for it.
+   *
+   * @param key
+   *          The key being loaded.
+   * @param loader
+   *          Loads the object, and caches it if it should be cached.
+   * @return The object loaded, which may be null.
+   */
+  public CacheableObject load(CacheKey key, Callable<CacheableObject> loader) throws Exception
+  {
+    Load load = new Load(loader);
+    Load running = loads.putIfAbsent(key, load);
+
+    if (running == null)
+    {
+      try
+      {
+        load.run();
+      }
+      finally
+      {
+        loads.remove(key, load);
+      }
+
+      return load.getResult();
+    }
+
+    if (running.runner == Thread.currentThread())
+    {
+      throw new IllegalStateException("Recursive load of " + key);
+    }
+
+    if (depth.get()[0] > 0)
+    {
+      return loader.call();
+    }
+
+    coalesced.incrementAndGet();
+
+    return running.getResult();
+  }
+
+  public long getCoalescedCount()
+  {
+    return coalesced.get();
+  }
+
+  private static class Load extends FutureTask<CacheableObject>
+  {
+    /** The thread running the loader, once it has started. */
+    volatile Thread runner;
+
+    Load(Callable<CacheableObject> loader)
+    {
+      super(loader);
+    }
+
+    public void run()
+    {
+      runner = Thread.currentThread();
+      int[] count = depth.get();
+      count[0]++;
+
+      try
+      {
+        super.run();
+      }
+      finally
+      {
+        count[0]--;
+      }
+    }
+
+    /**
+     * Waits for the load and returns its object, rethrowing whatever the loader threw.
+     */
+    CacheableObject getResult() throws Exception
+    {
+      try
+      {
+        return get();
+      }
+      catch (ExecutionException e)
+      {
+        Throwable cause = e.getCause();
+
+        if (cause instanceof Exception)
+        {
+          throw (Exception) cause;
+        }
+        if (cause instanceof Error)
+        {
+          throw (Error) cause;
+        }
+
+        throw e;
+      }
+    }
+  }
+}
@@ -0,0 +1,277 @@
+package com.rate.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.rate.configuration.CFactory;
+
+/**
+ * Second cache tier holding entries evicted from the heap in a direct ByteBuffer, so they stay out of the garbage
+ * collector's way. Entries are encoded with the CacheCodec registered for their class and appended to the buffer as a
+ * circular log. When the log wraps, the oldest entries are overwritten and dropped. A hit removes the entry and hands
+ * the object back to the Cache, which puts it back on the heap.
+ * <P>
+ * Enabled by setting <code>cache.offheap.megabytes</code> to a positive value.
+ * </P>
+ */
+class OffHeapTier
+{
+  public static final String SIZE_PROPERTY = "cache.offheap.megabytes";
+
+  private static final int ONE_MEGABYTE = 1048576;
+
+  private final ByteBuffer buffer;
+
+  private final int capacity;
+
+  /** Where the next entry will be written. */
+  private int writePosition = 0;
+
+  /** Live entries by every key they were cached under. */
+  private final Map<CacheKey, Entry> index = new HashMap<CacheKey, Entry>();
+
+  /** Every entry written, oldest first, including ones since removed from the index. */
+  private final ArrayDeque<Entry> log = new ArrayDeque<Entry>();
+
+  public OffHeapTier(int capacity)
+  {
+    this.capacity = capacity;
+    this.buffer = ByteBuffer.allocateDirect(capacity);
+  }
+
+  /**
+   * Creates the tier configured by cache.offheap.megabytes, or returns null if it is not configured.
+   */
+  public static OffHeapTier create()
+  {
+    int megabytes = 0;
+
+    try
+    {
+      String value = CFactory.instance().getProperty(SIZE_PROPERTY);
+      if ((value != null) && (value.trim().length() > 0))
+      {
+        megabytes = Integer.parseInt(value.trim());
+      }
+    }
+    catch (IllegalStateException noConfig)
+    {
+    }
+    catch (NumberFormatException badValue)
+    {
+      System.out.println("Ignoring " + SIZE_PROPERTY + ": " + badValue.getMessage());
+    }
+
+    if ((megabytes <= 0) || (megabytes > (Integer.MAX_VALUE / ONE_MEGABYTE)))
+    {
+      return null;
+    }
+
+    return new OffHeapTier(megabytes * ONE_MEGABYTE);
+  }
+
+  /**
+   * Encodes the object and stores it under each of the keys. Does nothing if there is no codec for the object's class,
+   * the codec cannot encode it, or it is too large for the tier.
+   *
+   * @param keys
+   *          The keys the object was cached under.
+   * @param object
+   *          The object to store.
+   * @param deadline
+   *          The time after which the entry is no longer valid, or Long.MAX_VALUE if it never expires.
+   */
+  public void put(Object[] keys, CacheableObject object, long deadline)
+  {
+    CacheCodec codec = CacheCodecRegistry.get(object.getClass());
+    if ((codec == null) || (keys.length == 0))
+    {
+      return;
+    }
+
+    byte[] bytes;
+
+    try
+    {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream(256);
+      DataOutputStream out = new DataOutputStream(bos);
+      codec.encode(object, out);
+      out.flush();
+      bytes = bos.toByteArray();
+    }
+    catch (IOException e)
+    {
+      return;
+    }
+
+    if (bytes.length > capacity)
+    {
+      return;
+    }
+
+    synchronized (this)
+    {
+      int position = reserve(bytes.length);
+
+      ByteBuffer target = buffer.duplicate();
+      target.position(position);
+      target.put(bytes);
+
+      Entry entry = new Entry(object.getClass(), position, bytes.length, deadline, keys);
+      log.addLast(entry);
+
+      for (int i = 0; i < keys.length; i++)
+      {
+        Entry previous = index.put((CacheKey) keys[i], entry);
+        if ((previous != null) && (previous != entry))
+        {
+          unindex(previous);
+        }
+      }
+    }
+  }
+
+  /**
+   * Removes and decodes the entry stored under the key. Returns null if there is none, it has passed its deadline, or
+   * it cannot be decoded.
+   */
+  public CacheableObject take(CacheKey key)
+  {
+    Entry entry;
+    byte[] bytes;
+
+    synchronized (this)
+    {
+      if (index.isEmpty())
+      {
+        return null;
+      }
+
+      entry = index.get(key);
+      if (entry == null)
+      {
+        return null;
+      }
+
+      unindex(entry);
+
+      if (entry.deadline < System.currentTimeMillis())
+      {
+        return null;
+      }
+
+      bytes = new byte[entry.length];
+      ByteBuffer source = buffer.duplicate();
+      source.position(entry.offset);
+      source.get(bytes);
+    }
+
+    try
+    {
+      return CacheCodecRegistry.get(entry.objectClass).decode(entry.objectClass,
+          new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+    catch (IOException e)
+    {
+      return null;
+    }
+  }
+
+  /**
+   * Drops the entry stored under the key, if any.
+   */
+  public synchronized void remove(CacheKey key)
+  {
+    if (!index.isEmpty())
+    {
+      Entry entry = index.get(key);
+      if (entry != null)
+      {
+        unindex(entry);
+      }
+    }
+  }
+
+  public synchronized void clear()
+  {
+    index.clear();
+    log.clear();
+    writePosition = 0;
+  }
+
+  public synchronized int size()
+  {
+    return index.size();
+  }
+
+  /**
+   * Finds room for length bytes at the write position, wrapping to the start of the buffer if needed, and drops the
+   * oldest entries that the write will overwrite. Returns the offset to write at.
+   */
+  private int reserve(int length)
+  {
+    int position = writePosition;
+
+    if (position + length > capacity)
+    {
+      // the rest of the previous lap is abandoned
+      while (!log.isEmpty() && (log.peekFirst().offset >= position))
+      {
+        unindex(log.removeFirst());
+      }
+      position = 0;
+    }
+
+    while (!log.isEmpty() && (log.peekFirst().offset >= position) && (log.peekFirst().offset < position + length))
+    {
+      unindex(log.removeFirst());
+    }
+
+    writePosition = position + length;
+
+    return position;
+  }
+
+  /**
+   * Removes every key of the entry from the index, provided the key still refers to this entry.
+   */
+  private void unindex(Entry entry)
+  {
+    for (int i = 0; i < entry.keys.length; i++)
+    {
+      if (index.get(entry.keys[i]) == entry)
+      {
+        index.remove(entry.keys[i]);
+      }
+    }
+  }
+
+  private static class Entry
+  {
+    final Class objectClass;
+
+    final int offset;
+
+    final int length;
+
+    final long deadline;
+
+    final Object[] keys;
+
+    Entry(Class objectClass, int offset, int length, long deadline, Object[] keys)
+    {
+      this.objectClass = objectClass;
+      this.offset = offset;
+      this.length = length;
+      this.deadline = deadline;
+      this.keys = keys;
+    }
+  }
+}
@@ -0,0 +1,115 @@
+package com.rate.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A log of cache hits waiting to be applied to the CacheEvictionPolicy. Readers append the pointer they hit to one of
+ * several small ring buffers, picked by thread, so a hit costs a compare-and-set and an ordered store rather than a
+ * lock. When a ring is full the hit is simply dropped: the policy only needs a sample of the access pattern.
+ * <P>
+ * offer() may be called by any thread. drain() must only be called by one thread at a time, which the policy ensures
+ * by holding its lock.
+ * </P>
+ */
+class ReadBuffer
+{
+  /** Number of slots in each ring. Must be a power of two. */
+  private static final int RING_SIZE = 16;
+
+  private static final int RING_MASK = RING_SIZE - 1;
+
+  private final Ring[] rings;
+
+  private final int ringMask;
+
+  public ReadBuffer()
+  {
+    int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1) << 1;
+
+    rings = new Ring[stripes];
+    ringMask = stripes - 1;
+
+    for (int i = 0; i < stripes; i++)
+    {
+      rings[i] = new Ring();
+    }
+  }
+
+  /**
+   * Records a hit on the pointer. Returns false if the calling thread's ring was full, in which case the caller may want
+   * to drain.
+   */
+  public boolean offer(CachePointer pointer)
+  {
+    long id = Thread.currentThread().getId();
+    int hash = (int) (id ^ (id >>> 32)) * 0x9e3779b9;
+
+    return rings[(hash >>> 16) & ringMask].offer(pointer);
+  }
+
+  /**
+   * Hands every buffered hit to the policy. Called with the policy lock held.
+   */
+  public void drain(CacheEvictionPolicy policy)
+  {
+    for (int i = 0; i < rings.length; i++)
+    {
+      rings[i].drain(policy);
+    }
+  }
+
+  /**
+   * A single-consumer ring. The write counter is claimed with a CAS; the read counter is only written by the drainer.
+   */
+  private static class Ring
+  {
+    private final AtomicReferenceArray<CachePointer> buffer = new AtomicReferenceArray<CachePointer>(RING_SIZE);
+
+    private final AtomicLong writeCounter = new AtomicLong();
+
+    private volatile long readCounter;
+
+    boolean offer(CachePointer pointer)
+    {
+      long head = readCounter;
+      long tail = writeCounter.get();
+
+      if ((tail - head) >= RING_SIZE)
+      {
+        return false;
+      }
+
+      // losing the race to another reader just drops this hit
+      if (writeCounter.compareAndSet(tail, tail + 1))
+      {
+        buffer.lazySet((int) (tail & RING_MASK), pointer);
+      }
+
+      return true;
+    }
+
+    void drain(CacheEvictionPolicy policy)
+    {
+      long head = readCounter;
+      long tail = writeCounter.get();
+
+      for (; head < tail; head++)
+      {
+        int index = (int) (head & RING_MASK);
+        CachePointer pointer = buffer.get(index);
+
+        if (pointer == null)
+        {
+          // claimed but not yet published; pick it up on the next drain
+          break;
+        }
+
+        buffer.lazySet(index, null);
+        policy.applyAccess(pointer);
+      }
+
+      readCounter = head;
+    }
+  }
+}
@@ -0,0 +1,21 @@
+package com.rate.cache;
+
+/**
+ * A CacheableObject that can be reloaded in the background once it has been cached for a while. When a cache hit finds
+ * the object older than getRefreshAfter(), the hit returns it as it is and a CacheRefresher reloads it, so readers of a
+ * hot entry never wait for the load.
+ */
+public interface RefreshableCacheableObject extends CacheableObject
+{
+  /**
+   * Returns how long after it is loaded, in milliseconds, the object should be refreshed on its next use, or 0 if it
+   * should never be.
+   */
+  public long getRefreshAfter();
+
+  /**
+   * Loads a new copy of this object from its persisted state without going through the cache. Returns null if it no
+   * longer exists.
+   */
+  public CacheableObject reload() throws Exception;
+}
@@ -0,0 +1,204 @@
+package com.rate.cache;
+
+import java.util.List;
+
+/**
+ * A hierarchical timing wheel holding the CachePointers that expire after a period of disuse. Each level is a ring of
+ * buckets covering a power-of-two span of milliseconds: about a second per bucket at the finest level, then about a
+ * minute, an hour and a day and a half, with a single overflow bucket above that. Scheduling and removal are O(1)
+ * because each bucket is a circular doubly-linked list threaded through the pointers themselves, with a sentinel
+ * pointer as its head.
+ * <P>
+ * Touching an entry does not move it. When its bucket comes due the deadline is recomputed from the last access time,
+ * and the entry is either handed back as expired or rescheduled into the bucket for its new deadline. Coarse buckets
+ * cascade into finer ones the same way, so each advance only walks the buckets that have come due since the last one.
+ * </P>
+ * <P>
+ * Not thread-safe. Guarded by the owning CacheTimeManager.
+ * </P>
+ */
+class TimerWheel
+{
+  /** Number of buckets in each level. */
+  static final int[] BUCKETS = { 64, 64, 32, 4, 1 };
+
+  /** Milliseconds covered by one bucket of each level, plus an upper bound for the overflow level. */
+  static final long[] SPANS = { 1L << 10, 1L << 16, 1L << 22, 1L << 27, 1L << 29, 1L << 29 };
+
+  /** Bit shift turning a time into a tick count for each level. */
+  static final int[] SHIFT = { 10, 16, 22, 27, 29 };
+
+  private final CachePointer[][] wheel;
+
+  /** The time, in milliseconds, the wheel was last advanced to. */
+  private long time;
+
+  public TimerWheel(long time)
+  {
+    this.time = time;
+    this.wheel = new CachePointer[BUCKETS.length][];
+
+    for (int i = 0; i < BUCKETS.length; i++)
+    {
+      wheel[i] = new CachePointer[BUCKETS[i]];
+
+      for (int j = 0; j < BUCKETS[i]; j++)
+      {
+        CachePointer sentinel = new CachePointer();
+        sentinel.timerPrev = sentinel;
+        sentinel.timerNext = sentinel;
+        wheel[i][j] = sentinel;
+      }
+    }
+  }
+
+  /**
+   * Adds the pointer to the bucket for the indicated deadline. Deadlines already passed go in the current bucket, so
+   * they come due once the wheel advances past it.
+   */
+  public void schedule(CachePointer pointer, long deadline)
+  {
+    CachePointer sentinel = findBucket(Math.max(deadline, time));
+    CachePointer last = sentinel.timerPrev;
+
+    pointer.timerPrev = last;
+    pointer.timerNext = sentinel;
+    last.timerNext = pointer;
+    sentinel.timerPrev = pointer;
+  }
+
+  /**
+   * Removes the pointer from its bucket, if it is scheduled.
+   */
+  public void deschedule(CachePointer pointer)
+  {
+    if (pointer.timerNext != null)
+    {
+      pointer.timerPrev.timerNext = pointer.timerNext;
+      pointer.timerNext.timerPrev = pointer.timerPrev;
+      pointer.timerPrev = null;
+      pointer.timerNext = null;
+    }
+  }
+
+  /**
+   * Advances the wheel to the indicated time, collecting the pointers whose deadline has passed into expired. Entries
+   * that were used since they were scheduled, and entries in coarse buckets that are not yet due, are rescheduled.
+   *
+   * @param now
+   *          The current time in milliseconds.
+   * @param expired
+   *          Receives the pointers that should be flushed.
+   */
+  public void advance(long now, List<CachePointer> expired)
+  {
+    long previous = time;
+    time = now;
+
+    for (int i = 0; i < SHIFT.length; i++)
+    {
+      long previousTicks = previous >>> SHIFT[i];
+      long currentTicks = now >>> SHIFT[i];
+      long delta = currentTicks - previousTicks;
+
+      if (delta <= 0)
+      {
+        break;
+      }
+
+      expire(i, previousTicks, delta, expired);
+    }
+  }
+
+  /**
+   * Unlinks every scheduled pointer.
+   */
+  public void clear()
+  {
+    for (int i = 0; i < wheel.length; i++)
+    {
+      for (int j = 0; j < wheel[i].length; j++)
+      {
+        CachePointer sentinel = wheel[i][j];
+        CachePointer pointer = sentinel.timerNext;
+
+        while (pointer != sentinel)
+        {
+          CachePointer next = pointer.timerNext;
+          pointer.timerPrev = null;
+          pointer.timerNext = null;
+          pointer = next;
+        }
+
+        sentinel.timerPrev = sentinel;
+        sentinel.timerNext = sentinel;
+      }
+    }
+  }
+
+  /**
+   * Empties the buckets of one level that came due between the previous tick and now, including the bucket the
+   * previous tick was in.
+   */
+  private void expire(int level, long previousTicks, long delta, List<CachePointer> expired)
+  {
+    CachePointer[] buckets = wheel[level];
+    int mask = buckets.length - 1;
+    int steps = (int) Math.min(1 + delta, buckets.length);
+    int start = (int) (previousTicks & mask);
+    int end = start + steps;
+
+    for (int i = start; i < end; i++)
+    {
+      CachePointer sentinel = buckets[i & mask];
+      CachePointer pointer = sentinel.timerNext;
+      sentinel.timerPrev = sentinel;
+      sentinel.timerNext = sentinel;
+
+      while (pointer != sentinel)
+      {
+        CachePointer next = pointer.timerNext;
+        pointer.timerPrev = null;
+        pointer.timerNext = null;
+
+        if (!pointer.isExpired())
+        {
+          long deadline = pointer.getLastAccessTime() + pointer.timeToLive;
+
+          if (deadline - time > 0)
+          {
+            schedule(pointer, deadline);
+          }
+          else
+          {
+            expired.add(pointer);
+          }
+        }
+
+        pointer = next;
+      }
+    }
+  }
+
+  /**
+   * Returns the sentinel of the bucket the deadline falls into, using the finest level whose span covers it.
+   */
+  private CachePointer findBucket(long deadline)
+  {
+    long duration = deadline - time;
+    int overflow = wheel.length - 1;
+
+    for (int i = 0; i < overflow; i++)
+    {
+      if (duration < SPANS[i + 1])
+      {
+        long ticks = deadline >>> SHIFT[i];
+        int index = (int) (ticks & (wheel[i].length - 1));
+
+        return wheel[i][index];
+      }
+    }
+
+    return wheel[overflow][0];
+  }
+}
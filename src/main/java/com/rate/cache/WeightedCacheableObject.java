@@ -0,0 +1,14 @@
+package com.rate.cache;
+
+/**
+ * Optional interface for cached objects that are noticeably larger than a typical entry. When a maximum cache size is
+ * configured it is a total weight, and objects that do not implement this weigh 1.
+ */
+public interface WeightedCacheableObject extends CacheableObject
+{
+  /**
+   * Returns the relative weight of this object, in units of a typical single cached object. Read once, when the object
+   * is first cached. Values below 1 are treated as 1.
+   */
+  public int getCacheWeight();
+}
@@ -1,10 +1,18 @@
 package com.rate.callApi;
 
+import com.rate.tool.IngestionScheduler;
 import com.rate.tool.ReadUrlUtil;
 
 public class callApi {
 
+	/**
+	 * Polls the minute line of each symbol given, once a minute, or reads csbr once if none are given.
+	 */
 	public static void main(String[] args) throws Exception {
+		if (args.length > 0) {
+			IngestionScheduler.main(args);
+			return;
+		}
 		String url = "https://stock.finance.sina.com.cn/usstock/api/jsonp_v2.php/var%20t1csbr=/US_MinlineNService.getMinline?symbol=csbr&day=1";
 		ReadUrlUtil ru = new ReadUrlUtil();
 		ru.analysis(url);
@@ -4,8 +4,57 @@ import java.sql.Timestamp;
 
 public class TwentyMinHighOrLow {
 private Integer stockId;
+private String name;
 private Timestamp added;
 private Integer id;
 private Double high;
 private Double low;
+
+	public Integer getStockId() {
+		return stockId;
+	}
+
+	public void setStockId(Integer stockId) {
+		this.stockId = stockId;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public Timestamp getAdded() {
+		return added;
+	}
+
+	public void setAdded(Timestamp added) {
+		this.added = added;
+	}
+
+	public Integer getId() {
+		return id;
+	}
+
+	public void setId(Integer id) {
+		this.id = id;
+	}
+
+	public Double getHigh() {
+		return high;
+	}
+
+	public void setHigh(Double high) {
+		this.high = high;
+	}
+
+	public Double getLow() {
+		return low;
+	}
+
+	public void setLow(Double low) {
+		this.low = low;
+	}
 }
@@ -1,28 +1,30 @@
 package com.rate.persistence;
 
-import java.beans.PropertyDescriptor;
 import java.io.Serializable;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.sql.Timestamp;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Vector;
 import java.util.logging.Logger;
 
 import com.rate.cache.CacheCriteria;
 import com.rate.cache.CacheKey;
 import com.rate.cache.CacheableObject;
+import com.rate.cache.RefreshableCacheableObject;
 import com.rate.constants.Constants;
 import com.rate.persistence.helpers.Attribute;
+import com.rate.persistence.helpers.PropertyAccessor;
 import com.rate.persistence.validator.BasePersistenceValidator;
 import com.rate.persistence.valueobject.GenericPersistenceStrategy;
 import com.rate.persistence.valueobject.PrimaryKeyGenerator;
 import com.rate.persistence.valueobject.ValueObjectConfiguration;
 import com.rate.persistence.valueobject.ValueObjectList;
+import com.rate.persistence.valueobject.WriteBehindQueue;
 
-public class ValueObject extends Object implements Cloneable, Comparable, Serializable, CacheableObject
+public class ValueObject extends Object implements Cloneable, Comparable, Serializable, RefreshableCacheableObject
 {
   public static final byte CLIENT = 0;
 
@@ -70,6 +72,9 @@ public class ValueObject extends Object implements Cloneable, Comparable, Serial
 
   public static final String FIND_BY_PRIMARY_KEY = "findByPrimaryKey";
 
+  /** Optional finder taking a comma-separated list of ids, used to load many objects in one call. */
+  public static final String FIND_BY_PRIMARY_KEYS = "findByPrimaryKeys";
+
   public static final String DEFAULT_SAVE = "save";
 
   static final long serialVersionUID = -6222883795609458276L;
@@ -144,7 +149,9 @@ public class ValueObject extends Object implements Cloneable, Comparable, Serial
 
   /**
    * This method causes the object to save itself, according to its Configuration and the specified PersistenceStrategy.
-   * Always calls strategt.save, whether this is modified or not. If (strategy == null), uses the strategy for this.
+   * Always calls strategt.save, whether this is modified or not. If (strategy == null), uses the strategy for this. If
+   * the Configuration declares write_behind, the save is queued on the WriteBehindQueue and written later instead,
+   * unless a TransactionContext is open on this thread, whose commit or rollback must include the save.
    * 
    * @param userId
    *          The user id to be used to indicate by whom this object was added/modified.
@@ -173,6 +180,73 @@ public class ValueObject extends Object implements Cloneable, Comparable, Serial
       }
     }
 
+    prepareSave(userId, methodName);
+
+    // queued saves are written in batches by the writers, outside any transaction; once the queue stops, save here
+    ValueObjectConfiguration config = getConfiguration();
+    if ((config != null) && config.isWriteBehind() && (TransactionContext.getCurrentHandle() == null)
+        && WriteBehindQueue.getInstance().enqueue(this, methodName, strategy))
+    {
+      return;
+    }
+
+    strategy.save(this, methodName);
+  }
+
+  public static int saveAll(List objects, Integer userId) throws Exception
+  {
+    return saveAll(objects, userId, DEFAULT_SAVE, getDefaultStrategy());
+  }
+
+  /**
+   * Saves the modified objects in the list, which must all be of one class, in as few calls to the database as the
+   * strategy allows. Each object is validated and marked as added or modified by the user as save() does. If
+   * (strategy == null), uses the default strategy.
+   * 
+   * @param objects
+   *          The objects to save. Objects that are not modified are skipped.
+   * @param userId
+   *          The user id to be used to indicate by whom the objects were added/modified.
+   * @param methodName
+   *          The name of the method to use for saving.
+   * @param strategy
+   *          The persistence strategy to use for saving.
+   * @return The number of objects saved.
+   */
+  public static int saveAll(List objects, Integer userId, String methodName, GenericPersistenceStrategy strategy)
+      throws Exception
+  {
+    if (strategy == null)
+    {
+      strategy = getDefaultStrategy();
+
+      if (strategy == null)
+      {
+        throw new Exception("Cannot save without a persistence strategy");
+      }
+    }
+
+    List<ValueObject> modified = new ArrayList<ValueObject>(objects.size());
+
+    for (int i = 0; i < objects.size(); i++)
+    {
+      ValueObject object = (ValueObject) objects.get(i);
+
+      if ((object != null) && (object.mode != CLIENT) && object.isModified())
+      {
+        object.prepareSave(userId, methodName);
+        modified.add(object);
+      }
+    }
+
+    return modified.isEmpty() ? 0 : strategy.batchUpdate(null, modified, methodName);
+  }
+
+  /**
+   * Checks this object may be saved with the method, and sets it as added or modified by the user.
+   */
+  private void prepareSave(Integer userId, String methodName) throws Exception
+  {
     if ( this.getConfiguration() != null )
     {
       ArrayList<String> validators = this.getConfiguration().getValidatorList();
@@ -205,8 +279,6 @@ public class ValueObject extends Object implements Cloneable, Comparable, Serial
       // have to set to null so sproc will work!
       setAddedBy(null);
     }
-
-    strategy.save(this, methodName);
   }
 
   public Object clone() throws CloneNotSupportedException
@@ -374,23 +446,16 @@ public class ValueObject extends Object implements Cloneable, Comparable, Serial
 
       try
       {
-        PropertyDescriptor pd = attr.getPropertyDescriptor();
+        PropertyAccessor accessor = attr.getAccessor();
 
-        if (pd == null)
+        if (accessor == null)
         {
           continue;
         }
 
-        Method readMethod = pd.getReadMethod();
-        Method writeMethod = pd.getWriteMethod();
+        value = accessor.get(object);
 
-        Object[] readArgs = {};
-
-        value = readMethod.invoke(object, readArgs);
-
-        Object[] writeArgs = { value };
-
-        writeMethod.invoke(this, writeArgs);
+        accessor.set(this, value);
       }
       catch (InvocationTargetException ite)
       {
@@ -599,6 +664,26 @@ public class ValueObject extends Object implements Cloneable, Comparable, Serial
     return (configuration != null) && (Boolean.TRUE.equals(configuration.getCacheRefreshOnUse()));
   }
 
+  public long getRefreshAfter()
+  {
+    ValueObjectConfiguration configuration = getConfiguration();
+    return ((configuration == null) || (getId() == null)) ? 0 : configuration.getCacheRefreshAfter();
+  }
+
+  /**
+   * Reloads this object by primary key, bypassing the cache.
+   */
+  public CacheableObject reload() throws Exception
+  {
+    if ((mode == CLIENT) || (getId() == null)) return null;
+
+    Vector criteria = new Vector();
+    criteria.add(getId());
+
+    return ValueObjectFactory.getInstance().findObjectByCriteria(getClass().getName(), criteria, FIND_BY_PRIMARY_KEY,
+        null, false);
+  }
+
   /**
    * When a ValueObject is in a ValueObjectList, the list maintains three internal maps of its objects.
    * The maps are keyed by id, name and the results of getMapKey.  This allows a custom keys to be generated
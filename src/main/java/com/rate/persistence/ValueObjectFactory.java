@@ -5,13 +5,18 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Vector;
 
+import com.rate.cache.CacheCodecRegistry;
+import com.rate.cache.CacheCriteria;
 import com.rate.cache.CacheKey;
 import com.rate.cache.CacheManager;
 import com.rate.cache.CacheTimeManager;
+import com.rate.cache.CacheableObject;
 import com.rate.persistence.validator.BasePersistenceValidator;
 import com.rate.persistence.valueobject.GenericPersistenceStrategy;
+import com.rate.persistence.valueobject.ValueObjectCodec;
 import com.rate.persistence.valueobject.ValueObjectConfiguration;
 import com.rate.persistence.valueobject.ValueObjectConfigurationReader;
+import com.rate.persistence.valueobject.ValueObjectCursor;
 import com.rate.persistence.valueobject.ValueObjectList;
 import com.rate.persistence.valueobject.ValueObjectListGenerator;
 
@@ -45,6 +50,9 @@ public class ValueObjectFactory
   {
     configCache = new HashMap(100); // start with a good-sized cache
     strategyCache = new HashMap(5);
+
+    // lets cached ValueObjects be moved off the heap when that tier is configured
+    CacheCodecRegistry.register(ValueObject.class, new ValueObjectCodec());
   }
 
   public synchronized void flush()
@@ -221,7 +229,7 @@ public class ValueObjectFactory
    * Finds a single object of type typeName matching the given criteria, using the finder method name given. Goes one
    * level deep, will initialize sub-objects from additional result sets
    */
-  public ValueObject findObjectByCriteria(String typeName, Vector criteria, String finderName, String strategyClassName, boolean useCache)
+  public ValueObject findObjectByCriteria(String typeName, final Vector criteria, final String finderName, String strategyClassName, boolean useCache)
       throws Exception, Exception
   {
     ValueObject obj = null;
@@ -230,7 +238,7 @@ public class ValueObjectFactory
     CacheManager cacheManager = CacheManager.getInstance();
 
     
-    ValueObjectConfiguration config = getObjectConfiguration(typeName);
+    final ValueObjectConfiguration config = getObjectConfiguration(typeName);
     if (strategyClassName == null)
     {
       strategyClassName = ValueObject.DEFAULT_STRATEGY_CLASS_NAME;
@@ -254,14 +262,22 @@ public class ValueObjectFactory
       {
       }
   
-      obj = (ValueObject) cacheManager.get(key);
-      
-      if (obj == null)
-      {
-        GenericPersistenceStrategy strategy = createStrategy(strategyClassName);
+      final GenericPersistenceStrategy strategy = createStrategy(strategyClassName);
 
+      if (key == null)
+      {
         obj = strategy.loadObject(config, criteria, finderName);
-        cacheManager.put(key, obj);
+      }
+      else
+      {
+        // concurrent misses on the same key share one load
+        obj = (ValueObject) cacheManager.get(key, new CacheableObject.ObjectGenerator()
+        {
+          public CacheableObject regenerateObject(Class objectClass, CacheCriteria cacheCriteria) throws Exception
+          {
+            return strategy.loadObject(config, criteria, finderName);
+          }
+        });
       }
     }
     else
@@ -432,7 +448,8 @@ public class ValueObjectFactory
    *          Which caching scope (REQUEST, SHORT, MEDIUM ... )
    * @param strategyClassName
    *          What persistence strategy to use to retrieve the list, stored procedure, xml, hybrid, etc.           
-   * @return A ValueObjectList containing the items.
+   * @return A ValueObjectList containing the items. If useCache is true it is a FrozenValueObjectList, which cannot be
+   *         changed.
    */
   public ValueObjectList findListByCriteria(String typeName, Vector criteria, String finderName, boolean useCache,
       byte scope, String strategyClassName) throws Exception, Exception
@@ -468,6 +485,8 @@ public class ValueObjectFactory
 
       if (useCache)
       {
+        // a cached list is shared by every caller, so it is frozen: read without locks, and never changed
+        list = list.freeze();
         key.setGenerator(ValueObjectListGenerator.getInstance());
         list.setCacheLongevity(key.getScope());
         CacheManager.getInstance().put(key, list);
@@ -501,4 +520,61 @@ public class ValueObjectFactory
     
     return list;
   }
+
+  /**
+   * Returns a cursor over the objects of type typeName matching the given criteria, using the finder method name given,
+   * that maps each row only as it is read. For results too large to hold in a list. The objects are neither cached nor
+   * collected; close the cursor when done with it. The rows are streamed one at a time, so the connection can run no
+   * other statement until the cursor is closed; see ValueObjectCursor.
+   * 
+   * @param typeName
+   *          The name of the type of object to be found.
+   * @param criteria
+   *          The criteria to use to find the object.
+   * @param finderName
+   *          The name of the finderMethod to find the objects with.
+   * @return A ValueObjectCursor over the items.
+   */
+  public ValueObjectCursor streamByCriteria(String typeName, Vector criteria, String finderName) throws Exception
+  {
+    return streamByCriteria(null, typeName, criteria, finderName, ValueObjectCursor.DEFAULT_FETCH_SIZE, null);
+  }
+
+  /**
+   * Returns a cursor over the objects of type typeName matching the given criteria, using the finder method name given,
+   * that maps each row only as it is read.
+   * 
+   * @param con
+   *          The connection to use, or null to use the current transaction's connection or open one for the cursor.
+   *          A connection passed in is not closed with the cursor.
+   * @param typeName
+   *          The name of the type of object to be found.
+   * @param criteria
+   *          The criteria to use to find the object.
+   * @param finderName
+   *          The name of the finderMethod to find the objects with.
+   * @param fetchSize
+   *          The number of rows to fetch from the database at a time, or ValueObjectCursor.DEFAULT_FETCH_SIZE to stream
+   *          them one at a time. MySQL buffers the whole result of a stored procedure for any positive size; see
+   *          ValueObjectCursor.
+   * @param strategyClassName
+   *          The name of the class of the persistence strategy for this method, or null for the default.
+   * @return A ValueObjectCursor over the items.
+   */
+  public ValueObjectCursor streamByCriteria(Connection con, String typeName, Vector criteria, String finderName,
+      int fetchSize, String strategyClassName) throws Exception
+  {
+    ValueObjectConfiguration config = getObjectConfiguration(typeName);
+    GenericPersistenceStrategy strategy = null;
+    if (strategyClassName == null)
+    {
+      strategy = ValueObject.getDefaultStrategy();
+    }
+    else
+    {
+      strategy = createStrategy(strategyClassName);
+    }
+
+    return strategy.openCursor(con, config, criteria, finderName, fetchSize);
+  }
 }
@@ -42,6 +42,9 @@ public class Attribute implements Serializable, Cloneable
 
   private PropertyDescriptor pd = null;
 
+  /** Compiled from pd on first use. Immutable, so safe to share without locking; rebuilt after deserialization. */
+  private transient PropertyAccessor accessor = null;
+
   private String parentKey = null;
 
   private Class parentType = null;
@@ -232,6 +235,23 @@ public class Attribute implements Serializable, Cloneable
     return pd;
   }
 
+  /**
+   * Returns the compiled accessor of the property, or null if there is no such property. Used instead of the
+   * PropertyDescriptor's methods when reading and writing values.
+   */
+  public PropertyAccessor getAccessor()
+  {
+    PropertyAccessor result = accessor;
+
+    if (result == null)
+    {
+      result = PropertyAccessor.compile(getPropertyDescriptor());
+      accessor = result;
+    }
+
+    return result;
+  }
+
   private void setConversionHint()
   {
     // these are the types that require conversion
@@ -0,0 +1,313 @@
+package com.rate.persistence.helpers;
+
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Reads and writes one bean property without going through Method.invoke(). Compiled once from the property's
+ * PropertyDescriptor: for public classes with an object-typed property the getter and setter are bound with
+ * LambdaMetafactory into small generated classes that call them directly; otherwise they are MethodHandles adapted to
+ * take and return Object. Either way there is no argument array, no access check and no boxing of the call on each use.
+ * <P>
+ * Behaves like Method.invoke(): a null bean is a NullPointerException; a bean of the wrong class, a value of the wrong
+ * type, or null for a primitive, is an IllegalArgumentException; a boxed primitive is widened to a wider primitive
+ * property; anything thrown by the getter or setter is wrapped in an InvocationTargetException; and a missing getter or
+ * setter is an IllegalAccessException.
+ * </P>
+ */
+public class PropertyAccessor
+{
+  /** Reads a property; implemented by the generated getter classes. */
+  public static interface Getter
+  {
+    public Object get(Object bean) throws Throwable;
+  }
+
+  /** Writes a property; implemented by the generated setter classes. */
+  public static interface Setter
+  {
+    public void set(Object bean, Object value) throws Throwable;
+  }
+
+  /** The boxed primitives in the order Method.invoke() widens them; nothing widens to char. */
+  private static final Class[] WIDENING = { Byte.class, Short.class, Character.class, Integer.class, Long.class,
+      Float.class, Double.class };
+
+  private final String name;
+
+  /** The property type, boxed if primitive, to check values against. */
+  private final Class valueType;
+
+  private final boolean primitive;
+
+  private final Getter getter;
+
+  private final Setter setter;
+
+  /** The classes declaring the getter and setter, to check beans against. */
+  private final Class readClass;
+
+  private final Class writeClass;
+
+  private PropertyAccessor(PropertyDescriptor pd, Getter getter, Setter setter)
+  {
+    this.name = pd.getName();
+    this.valueType = box(pd.getPropertyType());
+    this.primitive = pd.getPropertyType().isPrimitive();
+    this.getter = getter;
+    this.setter = setter;
+    this.readClass = (getter == null) ? null : pd.getReadMethod().getDeclaringClass();
+    this.writeClass = (setter == null) ? null : pd.getWriteMethod().getDeclaringClass();
+  }
+
+  /**
+   * Compiles an accessor for the property, or returns null if the descriptor is null or has neither getter nor
+   * setter, or if they cannot be bound.
+   */
+  public static PropertyAccessor compile(PropertyDescriptor pd)
+  {
+    if ((pd == null) || (pd.getPropertyType() == null))
+    {
+      return null;
+    }
+
+    try
+    {
+      Getter getter = (pd.getReadMethod() == null) ? null : compileGetter(pd.getReadMethod());
+      Setter setter = (pd.getWriteMethod() == null) ? null : compileSetter(pd.getWriteMethod());
+
+      if ((getter == null) && (setter == null))
+      {
+        return null;
+      }
+
+      return new PropertyAccessor(pd, getter, setter);
+    }
+    catch (IllegalAccessException iae)
+    {
+      return null;
+    }
+  }
+
+  /**
+   * Returns the property's value on the bean.
+   */
+  public Object get(Object bean) throws IllegalAccessException, InvocationTargetException
+  {
+    if (getter == null)
+    {
+      throw new IllegalAccessException("Property " + name + " has no read method");
+    }
+
+    checkBean(readClass, bean);
+
+    try
+    {
+      return getter.get(bean);
+    }
+    catch (Throwable t)
+    {
+      throw new InvocationTargetException(t);
+    }
+  }
+
+  /**
+   * Sets the property's value on the bean.
+   */
+  public void set(Object bean, Object value) throws IllegalAccessException, InvocationTargetException
+  {
+    if (setter == null)
+    {
+      throw new IllegalAccessException("Property " + name + " has no write method");
+    }
+
+    checkBean(writeClass, bean);
+
+    if ((value == null) ? primitive : !valueType.isInstance(value))
+    {
+      value = widen(value);
+    }
+
+    try
+    {
+      setter.set(bean, value);
+    }
+    catch (Throwable t)
+    {
+      throw new InvocationTargetException(t);
+    }
+  }
+
+  public boolean isReadable()
+  {
+    return getter != null;
+  }
+
+  public boolean isWritable()
+  {
+    return setter != null;
+  }
+
+  /**
+   * Fails as Method.invoke() does for a bean the method cannot be called on, rather than in the call.
+   */
+  private static void checkBean(Class declaring, Object bean)
+  {
+    if (!declaring.isInstance(bean))
+    {
+      if (bean == null)
+      {
+        throw new NullPointerException();
+      }
+      throw new IllegalArgumentException("object is not an instance of declaring class");
+    }
+  }
+
+  /**
+   * Widens a boxed primitive to the property's primitive type, as Method.invoke() would, e.g. an Integer to a long.
+   */
+  private Object widen(Object value)
+  {
+    int from = -1;
+    int to = -1;
+
+    for (int i = 0; primitive && (value != null) && (i < WIDENING.length); i++)
+    {
+      if (WIDENING[i] == value.getClass())
+      {
+        from = i;
+      }
+      if (WIDENING[i] == valueType)
+      {
+        to = i;
+      }
+    }
+
+    if ((from < 0) || (from >= to) || (valueType == Character.class))
+    {
+      throw new IllegalArgumentException("argument type mismatch");
+    }
+
+    Number number = (value instanceof Character) ? Integer.valueOf(((Character) value).charValue()) : (Number) value;
+
+    if (valueType == Short.class)
+    {
+      return Short.valueOf(number.shortValue());
+    }
+    if (valueType == Integer.class)
+    {
+      return Integer.valueOf(number.intValue());
+    }
+    if (valueType == Long.class)
+    {
+      return Long.valueOf(number.longValue());
+    }
+    if (valueType == Float.class)
+    {
+      return Float.valueOf(number.floatValue());
+    }
+    return Double.valueOf(number.doubleValue());
+  }
+
+  private static Getter compileGetter(Method method) throws IllegalAccessException
+  {
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    MethodHandle handle = lookup.unreflect(method);
+
+    if (isLinkable(method) && !method.getReturnType().isPrimitive())
+    {
+      try
+      {
+        CallSite site = LambdaMetafactory.metafactory(lookup, "get", MethodType.methodType(Getter.class),
+            MethodType.methodType(Object.class, Object.class), handle, handle.type());
+
+        return (Getter) site.getTarget().invoke();
+      }
+      catch (Throwable notLinked)
+      {
+        // fall back to the handle
+      }
+    }
+
+    final MethodHandle adapted = handle.asType(MethodType.methodType(Object.class, Object.class));
+
+    return new Getter()
+    {
+      public Object get(Object bean) throws Throwable
+      {
+        return adapted.invokeExact(bean);
+      }
+    };
+  }
+
+  private static Setter compileSetter(Method method) throws IllegalAccessException
+  {
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    MethodHandle handle = lookup.unreflect(method);
+
+    if (isLinkable(method) && !method.getParameterTypes()[0].isPrimitive())
+    {
+      try
+      {
+        CallSite site = LambdaMetafactory.metafactory(lookup, "set", MethodType.methodType(Setter.class),
+            MethodType.methodType(void.class, Object.class, Object.class), handle,
+            handle.type().changeReturnType(void.class));
+
+        return (Setter) site.getTarget().invoke();
+      }
+      catch (Throwable notLinked)
+      {
+        // fall back to the handle
+      }
+    }
+
+    final MethodHandle adapted = handle.asType(MethodType.methodType(void.class, Object.class, Object.class));
+
+    return new Setter()
+    {
+      public void set(Object bean, Object value) throws Throwable
+      {
+        adapted.invokeExact(bean, value);
+      }
+    };
+  }
+
+  /**
+   * Whether a generated class can call the method: it and its class must be public, and its class visible from here.
+   */
+  private static boolean isLinkable(Method method)
+  {
+    Class declaring = method.getDeclaringClass();
+
+    if (!Modifier.isPublic(method.getModifiers()) || !Modifier.isPublic(declaring.getModifiers()))
+    {
+      return false;
+    }
+
+    try
+    {
+      return Class.forName(declaring.getName(), false, PropertyAccessor.class.getClassLoader()) == declaring;
+    }
+    catch (ClassNotFoundException notVisible)
+    {
+      return false;
+    }
+  }
+
+  private static Class box(Class type)
+  {
+    if (!type.isPrimitive())
+    {
+      return type;
+    }
+
+    return MethodType.methodType(type).wrap().returnType();
+  }
+}
@@ -0,0 +1,244 @@
+package com.rate.persistence.valueobject;
+
+import java.io.ObjectStreamException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.rate.persistence.ValueObject;
+
+/**
+ * A read-only snapshot of a ValueObjectList, for loaded results that are only read. The elements are held directly
+ * rather than through the cache, and ids are indexed once in an IntIndexMap, so get() and findById() take no lock and
+ * findById() does not box. Created with ValueObjectList.freeze().
+ * <P>
+ * Methods that would change the list throw UnsupportedOperationException, and so do the maps from getMapById() and
+ * getMapByName(). The elements themselves can still be changed. A frozen list is serialized as an ordinary
+ * ValueObjectList.
+ * </P>
+ */
+public class FrozenValueObjectList extends ValueObjectList
+{
+  private static final long serialVersionUID = 1L;
+
+  private final transient Object[] elements;
+
+  /** Index of the last element with each id. */
+  private final transient IntIndexMap idIndex;
+
+  /** Built on first use. Racing threads may each build one; they are equal. */
+  private transient volatile Map<Integer, Object> mapById;
+
+  private transient volatile Map<String, Object> mapByName;
+
+  protected FrozenValueObjectList(Object[] elements)
+  {
+    super(0);
+
+    this.elements = elements;
+    this.idIndex = new IntIndexMap(elements.length);
+
+    for (int i = 0; i < elements.length; i++)
+    {
+      if (elements[i] instanceof ValueObject)
+      {
+        Integer id = ((ValueObject) elements[i]).getId();
+
+        if (id != null)
+        {
+          idIndex.put(id.intValue(), i);
+        }
+      }
+    }
+  }
+
+  public Object get(int index)
+  {
+    if ((index < 0) || (index >= elements.length))
+    {
+      throw new IndexOutOfBoundsException("Index " + index + " is out of range, is < 0 or >= " + elements.length);
+    }
+
+    return elements[index];
+  }
+
+  public int size()
+  {
+    return elements.length;
+  }
+
+  /**
+   * Returns the element with the id, or null if there is none.
+   */
+  public ValueObject findById(int id)
+  {
+    int index = idIndex.get(id);
+
+    return (index < 0) ? null : (ValueObject) elements[index];
+  }
+
+  public Object findById(Integer id)
+  {
+    return (id == null) ? null : findById(id.intValue());
+  }
+
+  public Object findByName(String name)
+  {
+    return getMapByName().get(name);
+  }
+
+  /**
+   * Returns the elements by id. Unlike the synchronized map of a ValueObjectList, this one is unmodifiable, and
+   * findById() does not read it.
+   */
+  public Map getMapById()
+  {
+    Map<Integer, Object> map = mapById;
+
+    if (map == null)
+    {
+      HashMap<Integer, Object> byId = new HashMap<Integer, Object>(elements.length * 2);
+
+      for (int i = 0; i < elements.length; i++)
+      {
+        if ((elements[i] instanceof ValueObject) && (((ValueObject) elements[i]).getId() != null))
+        {
+          byId.put(((ValueObject) elements[i]).getId(), elements[i]);
+        }
+      }
+
+      map = Collections.unmodifiableMap(byId);
+      mapById = map;
+    }
+
+    return map;
+  }
+
+  /**
+   * Returns the elements by name. Unmodifiable, like getMapById().
+   */
+  public Map getMapByName()
+  {
+    Map<String, Object> map = mapByName;
+
+    if (map == null)
+    {
+      HashMap<String, Object> byName = new HashMap<String, Object>(elements.length * 2);
+
+      for (int i = 0; i < elements.length; i++)
+      {
+        if (elements[i] instanceof ValueObject)
+        {
+          String name = ((ValueObject) elements[i]).getName();
+
+          if ((name != null) && (name.trim().length() > 0))
+          {
+            byName.put(name, elements[i]);
+          }
+        }
+      }
+
+      map = Collections.unmodifiableMap(byName);
+      mapByName = map;
+    }
+
+    return map;
+  }
+
+  public boolean isAnyModified()
+  {
+    for (int i = 0; i < elements.length; i++)
+    {
+      if ((elements[i] instanceof ValueObject) && ((ValueObject) elements[i]).isModified())
+      {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Returns this list, which is already frozen.
+   */
+  public FrozenValueObjectList freeze()
+  {
+    return this;
+  }
+
+  /**
+   * Does nothing: the elements are held directly, not through the cache.
+   */
+  public void loadAll()
+  {
+  }
+
+  /**
+   * Does nothing, so flushing the list from the cache leaves other readers' snapshot intact.
+   */
+  public void flush()
+  {
+  }
+
+  public int getCacheWeight()
+  {
+    return 1 + (elements.length / 16);
+  }
+
+  public Object set(int index, Object element)
+  {
+    throw new UnsupportedOperationException("List is frozen");
+  }
+
+  public boolean add(Object element)
+  {
+    throw new UnsupportedOperationException("List is frozen");
+  }
+
+  public void add(int index, Object element)
+  {
+    throw new UnsupportedOperationException("List is frozen");
+  }
+
+  public Object remove(int index)
+  {
+    throw new UnsupportedOperationException("List is frozen");
+  }
+
+  public boolean remove(Object o)
+  {
+    throw new UnsupportedOperationException("List is frozen");
+  }
+
+  public boolean addAll(Collection collection)
+  {
+    throw new UnsupportedOperationException("List is frozen");
+  }
+
+  public boolean addAll(int index, Collection collection)
+  {
+    throw new UnsupportedOperationException("List is frozen");
+  }
+
+  protected void removeRange(int fromIndex, int toIndex)
+  {
+    throw new UnsupportedOperationException("List is frozen");
+  }
+
+  public void sort()
+  {
+    throw new UnsupportedOperationException("List is frozen");
+  }
+
+  public void move(ValueObject object, Integer moveDirection, int moves)
+  {
+    throw new UnsupportedOperationException("List is frozen");
+  }
+
+  private Object writeReplace() throws ObjectStreamException
+  {
+    return new ValueObjectList(Arrays.asList(elements));
+  }
+}
@@ -2,6 +2,7 @@ package com.rate.persistence.valueobject;
 
 import java.io.Serializable;
 import java.sql.Connection;
+import java.util.List;
 import java.util.Vector;
 
 import com.rate.persistence.ValueObject;
@@ -25,10 +26,49 @@ public abstract class GenericPersistenceStrategy implements Serializable
   public abstract ValueObjectList loadList(Connection con, ValueObjectConfiguration config, Vector keys, String methodName)
       throws Exception;
 
+  /**
+   * openCursor returns a multi-row ResultSet as a ValueObjectCursor, which reads each row only when it is asked for.
+   * Strategies that cannot stream do not override this and throw an Exception.
+   * 
+   * @param fetchSize
+   *          The number of rows to fetch from the database at a time, as a hint to the driver, or 0 for the driver's
+   *          default.
+   */
+  public ValueObjectCursor openCursor(Connection con, ValueObjectConfiguration config, Vector keys, String methodName,
+      int fetchSize) throws Exception
+  {
+    throw new Exception(getClass().getName() + " cannot stream results of " + config.getTypeName() + "." + methodName);
+  }
+
   public abstract void save(ValueObject object) throws Exception;
 
   public abstract void save(ValueObject object, String methodName) throws Exception;
 
+  /**
+   * Saves the modified objects in the list with the indicated method, returning how many were saved. Strategies that
+   * cannot save in batches do not override this and save the objects one at a time.
+   * 
+   * @param con
+   *          The connection to use, or null to use the current transaction's connection or open one.
+   */
+  public int batchUpdate(Connection con, List objects, String methodName) throws Exception
+  {
+    int saved = 0;
+
+    for (int i = 0; i < objects.size(); i++)
+    {
+      ValueObject object = (ValueObject) objects.get(i);
+
+      if ((object != null) && object.isModified())
+      {
+        save(object, methodName);
+        saved++;
+      }
+    }
+
+    return saved;
+  }
+
   public abstract Integer copy(ValueObjectConfiguration config, Vector criteria) throws Exception;
 
   protected abstract Object convertReadObject(Object value, Attribute attr) throws Exception;
@@ -0,0 +1,127 @@
+package com.rate.persistence.valueobject;
+
+/**
+ * Maps int keys to int indexes without boxing, using open addressing with linear probing. Built once and then only
+ * read, so it may be shared between threads once published. The table doubles whenever it would become more than half
+ * full.
+ */
+class IntIndexMap
+{
+  private int[] keys;
+
+  /** Index + 1 for each slot, so that 0 marks an empty slot. */
+  private int[] values;
+
+  private int mask;
+
+  /** The number of keys mapped. */
+  private int size;
+
+  /**
+   * Creates a map with room for the expected number of keys at a load factor of at most one half.
+   */
+  public IntIndexMap(int expected)
+  {
+    int capacity = Integer.highestOneBit(Math.max(2, expected) * 2 - 1) << 1;
+
+    keys = new int[capacity];
+    values = new int[capacity];
+    mask = capacity - 1;
+  }
+
+  /**
+   * Maps the key to the index, replacing any index it was already mapped to.
+   */
+  public void put(int key, int index)
+  {
+    int slot = slot(key);
+
+    while ((values[slot] != 0) && (keys[slot] != key))
+    {
+      slot = (slot + 1) & mask;
+    }
+
+    if (values[slot] == 0)
+    {
+      if ((size + 1) * 2 > keys.length)
+      {
+        resize();
+        put(key, index);
+        return;
+      }
+
+      size++;
+    }
+
+    keys[slot] = key;
+    values[slot] = index + 1;
+  }
+
+  /**
+   * Returns the index the key is mapped to, or -1 if it is not mapped.
+   */
+  public int get(int key)
+  {
+    int slot = slot(key);
+
+    while (values[slot] != 0)
+    {
+      if (keys[slot] == key)
+      {
+        return values[slot] - 1;
+      }
+
+      slot = (slot + 1) & mask;
+    }
+
+    return -1;
+  }
+
+  /**
+   * Returns the number of keys mapped.
+   */
+  public int size()
+  {
+    return size;
+  }
+
+  /**
+   * Doubles the table, putting every key back in its new slot.
+   */
+  private void resize()
+  {
+    int[] oldKeys = keys;
+    int[] oldValues = values;
+    int capacity = oldKeys.length * 2;
+
+    keys = new int[capacity];
+    values = new int[capacity];
+    mask = capacity - 1;
+
+    for (int i = 0; i < oldKeys.length; i++)
+    {
+      if (oldValues[i] != 0)
+      {
+        int slot = slot(oldKeys[i]);
+
+        while (values[slot] != 0)
+        {
+          slot = (slot + 1) & mask;
+        }
+
+        keys[slot] = oldKeys[i];
+        values[slot] = oldValues[i];
+      }
+    }
+  }
+
+  /**
+   * Returns the slot the key's probe starts at. Package-private so tests can pick keys that collide.
+   */
+  int slot(int key)
+  {
+    int hash = key * 0x9e3779b9;
+
+    return (hash ^ (hash >>> 16)) & mask;
+  }
+}
@@ -1,6 +1,10 @@
 package com.rate.persistence.valueobject;
 
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Vector;
 import java.util.logging.Logger;
 
@@ -9,8 +13,11 @@ import com.rate.cache.CacheableObject;
 import com.rate.persistence.ValueObject;
 import com.rate.persistence.ValueObjectFactory;
 
-public class PrimaryKeyGenerator implements CacheableObject.ObjectGenerator, Serializable
+public class PrimaryKeyGenerator implements CacheableObject.BulkObjectGenerator, Serializable
 {
+  /** Most ids passed to one findByPrimaryKeys call. */
+  private static final int MAX_IDS_PER_CALL = 500;
+
   /** Singleton instance of this class. */
   private static PrimaryKeyGenerator instance;
 
@@ -57,9 +64,84 @@ public class PrimaryKeyGenerator implements CacheableObject.ObjectGenerator, Ser
 
       ValueObjectFactory factory = ValueObjectFactory.getInstance();
 
-      object = factory.findObjectByCriteria(objectClass.getName(), inputs, ValueObject.FIND_BY_PRIMARY_KEY);
+      // the cache is already loading this key; going through it again would count the miss twice and wait on itself
+      object = factory.findObjectByCriteria(objectClass.getName(), inputs, ValueObject.FIND_BY_PRIMARY_KEY, false);
     }
 
     return object;
   }
+
+  /**
+   * Looks up the ValueObjects of the specified class for all the criteria with the class's findByPrimaryKeys finder,
+   * which takes a comma-separated list of ids, in calls of up to MAX_IDS_PER_CALL ids. Returns null if the class has no
+   * such finder, so the objects are looked up one at a time instead. None of the mappings shipped here (Stock.xml)
+   * declares one yet, so this only takes effect once a class's XML adds the finder and its stored procedure.
+   */
+  public Map<CacheCriteria, CacheableObject> regenerateObjects(Class objectClass, Collection<CacheCriteria> criteria)
+      throws Exception
+  {
+    if ((objectClass == null) || !ValueObject.class.isAssignableFrom(objectClass))
+    {
+      return null;
+    }
+
+    ValueObjectFactory factory = ValueObjectFactory.getInstance();
+    ValueObjectConfiguration config = factory.getObjectConfiguration(objectClass);
+
+    if ((config == null) || !config.hasFinderMethod(ValueObject.FIND_BY_PRIMARY_KEYS))
+    {
+      return null;
+    }
+
+    Map<Object, CacheCriteria> criteriaById = new HashMap<Object, CacheCriteria>();
+    Iterator<CacheCriteria> itr = criteria.iterator();
+
+    while (itr.hasNext())
+    {
+      CacheCriteria c = itr.next();
+      Object[] keys = c.getCriteria();
+
+      if ((keys.length > 0) && (keys[0] != null))
+      {
+        criteriaById.put(keys[0], c);
+      }
+    }
+
+    Map<CacheCriteria, CacheableObject> objects = new HashMap<CacheCriteria, CacheableObject>();
+    Iterator<Object> ids = criteriaById.keySet().iterator();
+
+    while (ids.hasNext())
+    {
+      StringBuilder idList = new StringBuilder();
+
+      for (int count = 0; (count < MAX_IDS_PER_CALL) && ids.hasNext(); count++)
+      {
+        if (count > 0)
+        {
+          idList.append(',');
+        }
+        idList.append(ids.next());
+      }
+
+      Vector inputs = new Vector();
+      inputs.add(idList.toString());
+
+      // the objects are cached one by one under their primary keys, so the list itself is never cached
+      ValueObjectList list = factory.findListByCriteria(objectClass.getName(), inputs, ValueObject.FIND_BY_PRIMARY_KEYS,
+          false);
+
+      for (int i = 0; i < list.size(); i++)
+      {
+        ValueObject vo = (ValueObject) list.get(i);
+        CacheCriteria c = (vo == null) ? null : criteriaById.get(vo.getId());
+
+        if (c != null)
+        {
+          objects.put(c, vo);
+        }
+      }
+    }
+
+    return objects;
+  }
 }
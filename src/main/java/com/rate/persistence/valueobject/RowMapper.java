@@ -0,0 +1,247 @@
+package com.rate.persistence.valueobject;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentMap;
+
+import com.rate.persistence.ValueObject;
+import com.rate.persistence.ValueObjectFactory;
+import com.rate.persistence.helpers.Attribute;
+import com.rate.persistence.helpers.PropertyAccessor;
+
+/**
+ * Maps the rows of result sets of one shape, a configuration and a column list, to ValueObjects. Built the first time
+ * that shape is read and kept on the configuration, so later result sets skip matching columns to attributes and
+ * picking how to read them. Columns of type Integer, Long, Double, Float, String and Timestamp are read with the typed
+ * getter and wasNull() and set straight through the attribute's accessor; the rest go through the persistence's
+ * generic read and conversion. Objects are created through a constructor handle.
+ */
+final class RowMapper
+{
+  private static final int GENERIC = 0;
+
+  private static final int INTEGER = 1;
+
+  private static final int LONG = 2;
+
+  private static final int DOUBLE = 3;
+
+  private static final int FLOAT = 4;
+
+  private static final int STRING = 5;
+
+  private static final int TIMESTAMP = 6;
+
+  private final ValueObjectConfiguration config;
+
+  /** Column names and attributes by 1-based column index. */
+  private final String[] columnNames;
+
+  private final Attribute[] attributes;
+
+  private final PropertyAccessor[] accessors;
+
+  private final int[] readers;
+
+  private final MethodHandle constructor;
+
+  private RowMapper(ValueObjectConfiguration config, String[] columnNames) throws Exception
+  {
+    this.config = config;
+    this.columnNames = columnNames;
+
+    attributes = new Attribute[columnNames.length];
+    accessors = new PropertyAccessor[columnNames.length];
+    readers = new int[columnNames.length];
+
+    for (int i = 1; i < columnNames.length; i++)
+    {
+      attributes[i] = config.getAttributeByColumn(columnNames[i]);
+
+      // if I don't have an attribute that matches this column name
+      // then don't try to set it
+      if (attributes[i] == null)
+      {
+        throw new Exception("SQLPersistence.readResultSet - no value found for column name " + columnNames[i]);
+      }
+
+      accessors[i] = attributes[i].getAccessor();
+      readers[i] = (accessors[i] == null) ? GENERIC : getReader(attributes[i].getTypeName());
+    }
+
+    MethodHandle handle = null;
+    try
+    {
+      handle = MethodHandles.publicLookup().findConstructor(config.getType(), MethodType.methodType(void.class))
+          .asType(MethodType.methodType(Object.class));
+    }
+    catch (NoSuchMethodException noConstructor)
+    {
+      // left to ValueObjectFactory, which reports it
+    }
+    catch (IllegalAccessException notPublic)
+    {
+    }
+    constructor = handle;
+  }
+
+  /**
+   * Returns the mapper for the result set's shape, building it if this shape has not been read before.
+   */
+  static RowMapper forResultSet(ResultSet rs, ValueObjectConfiguration config) throws Exception
+  {
+    ResultSetMetaData rsmd = rs.getMetaData();
+    int colCount = rsmd.getColumnCount();
+    String[] columnNames = new String[colCount + 1]; // 1-based, as in the result set
+    StringBuilder key = new StringBuilder();
+
+    for (int i = 1; i <= colCount; i++)
+    {
+      columnNames[i] = rsmd.getColumnName(i);
+      key.append(columnNames[i]).append(',');
+    }
+
+    ConcurrentMap<String, RowMapper> mappers = config.getRowMappers();
+    RowMapper mapper = mappers.get(key.toString());
+
+    if (mapper == null)
+    {
+      mapper = new RowMapper(config, columnNames);
+      mappers.putIfAbsent(key.toString(), mapper);
+    }
+
+    return mapper;
+  }
+
+  int getColumnCount()
+  {
+    return columnNames.length - 1;
+  }
+
+  /**
+   * Returns the column names by 1-based index. Not to be changed.
+   */
+  String[] getColumnNames()
+  {
+    return columnNames;
+  }
+
+  /**
+   * Creates an empty object of the configuration's type.
+   */
+  ValueObject newObject() throws Exception
+  {
+    if (constructor == null)
+    {
+      return ValueObjectFactory.getInstance().createObjectFromConfig(config);
+    }
+
+    ValueObject newOb;
+    try
+    {
+      Object created = constructor.invokeExact();
+      newOb = (ValueObject) created;
+    }
+    catch (Throwable t)
+    {
+      throw new Exception("Cannot create ValueObject: " + t.toString());
+    }
+
+    // from this point on the object will have a reference to its config
+    newOb.setConfiguration(config);
+
+    return newOb;
+  }
+
+  /**
+   * Reads the column of the current row into the object, and returns the value read.
+   */
+  Object mapColumn(SQLPersistence persistence, ResultSet rs, ValueObject object, int index) throws Exception
+  {
+    Object value;
+
+    switch (readers[index])
+    {
+      case INTEGER:
+      {
+        int v = rs.getInt(index);
+        value = rs.wasNull() ? null : Integer.valueOf(v);
+        break;
+      }
+      case LONG:
+      {
+        long v = rs.getLong(index);
+        value = rs.wasNull() ? null : Long.valueOf(v);
+        break;
+      }
+      case DOUBLE:
+      {
+        double v = rs.getDouble(index);
+        value = rs.wasNull() ? null : Double.valueOf(v);
+        break;
+      }
+      case FLOAT:
+      {
+        float v = rs.getFloat(index);
+        value = rs.wasNull() ? null : Float.valueOf(v);
+        break;
+      }
+      case STRING:
+        value = rs.getString(index);
+        break;
+      case TIMESTAMP:
+        value = rs.getTimestamp(index);
+        break;
+      default:
+        value = persistence.getObjectFromResultSetSmartMemory(rs, index);
+        persistence.setObjectValue(object, attributes[index], value);
+        return value;
+    }
+
+    try
+    {
+      accessors[index].set(object, value);
+    }
+    catch (Exception e)
+    {
+      throw new Exception("Cannot set value " + attributes[index].getName() + " on object "
+          + object.getClass().getName() + " Reason = " + e.toString(), e);
+    }
+
+    return value;
+  }
+
+  private static int getReader(String typeName)
+  {
+    if ("java.lang.Integer".equals(typeName))
+    {
+      return INTEGER;
+    }
+    if ("java.lang.Long".equals(typeName))
+    {
+      return LONG;
+    }
+    if ("java.lang.Double".equals(typeName))
+    {
+      return DOUBLE;
+    }
+    if ("java.lang.Float".equals(typeName))
+    {
+      return FLOAT;
+    }
+    if ("java.lang.String".equals(typeName))
+    {
+      return STRING;
+    }
+    if ("java.sql.Timestamp".equals(typeName))
+    {
+      return TIMESTAMP;
+    }
+
+    return GENERIC;
+  }
+}
@@ -1,19 +1,16 @@
 package com.rate.persistence.valueobject;
 
-import java.beans.PropertyDescriptor;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.sql.Blob;
 import java.sql.Clob;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
@@ -27,9 +24,9 @@ import com.rate.cache.CacheManager;
 import com.rate.context.DataSource;
 import com.rate.persistence.ConnectionManager;
 import com.rate.persistence.ValueObject;
-import com.rate.persistence.ValueObjectFactory;
 import com.rate.persistence.helpers.Attribute;
 import com.rate.persistence.helpers.FieldFormaterRegistry;
+import com.rate.persistence.helpers.PropertyAccessor;
 
 public abstract class SQLPersistence extends GenericPersistenceStrategy
 {
@@ -263,41 +260,22 @@ public abstract class SQLPersistence extends GenericPersistenceStrategy
     
     try
     {
-      ResultSetMetaData rsmd = rs.getMetaData();
-      int colCount = rsmd.getColumnCount();
-      colNames = new String[colCount + 1]; // over allocate by one to account for the 1-based index in resultset
-      Attribute[] attributes = new Attribute[colCount + 1];
+      RowMapper mapper = RowMapper.forResultSet(rs, config);
+      int colCount = mapper.getColumnCount();
+      colNames = mapper.getColumnNames();
 
-      for (i = 1; i <= colCount; i++)
-      {
-        colNames[i] = rsmd.getColumnName(i);
-        attributes[i] = config.getAttributeByColumn(colNames[i]);
-
-        // if I don't have an attribute that matches this column name
-        // then don't try to set it
-        if (attributes[i] == null)
-        {
-          String err = "SQLPersistence.readResultSet - no value found for column name " + colNames[i];
-
-          throw new Exception(err);
-        }
-      }
-
-      ValueObjectFactory vof = ValueObjectFactory.getInstance();
       int err_count = 0;
       
       while (rs.next())
       {
-        newOb = vof.createObjectFromConfig(config);
+        newOb = mapper.newObject();
 
         try 
         {
           // column numbers are 1-based
           for (i = 1; i <= colCount; i++)
           {
-//          value = rs.getObject(i);
-          value = getObjectFromResultSetSmartMemory(rs, i);
-            setObjectValue(newOb, attributes[i], value);
+            value = mapper.mapColumn(this, rs, newOb, i);
           }
           
           // object is now in sync with database
@@ -495,24 +473,20 @@ public abstract class SQLPersistence extends GenericPersistenceStrategy
   {
     try
     {
-      PropertyDescriptor pd = attr.getPropertyDescriptor();
+      PropertyAccessor accessor = attr.getAccessor();
 
-      if (pd == null)
+      if (accessor == null)
       {
         throw new Exception("Unable to get PropertyDescriptor for attribute " + attr.getName()
             + " of object " + object.getClass().getName());
       }
 
-      Method method = pd.getWriteMethod();
-
       if (attr.needsConversion())
       {
         value = convertReadObject(value, attr);
       }
 
-      Object[] args = { value };
-
-      method.invoke(object, args);
+      accessor.set(object, value);
     }
     catch (InvocationTargetException ite)
     {
@@ -584,22 +558,14 @@ public abstract class SQLPersistence extends GenericPersistenceStrategy
     
     try
     {
-      PropertyDescriptor pd = attr.getPropertyDescriptor();
-      if (pd == null)
+      PropertyAccessor accessor = attr.getAccessor();
+      if (accessor == null)
       {        
         throw new Exception("Unable to get PropertyDescriptor for attribute " + attr.getName()
             + " of object " + object.getClass().getName());
       }
 
-      Method method = pd.getReadMethod();
-
-      if (!method.getDeclaringClass().isInstance(object))
-      {
-      }
-
-      Object[] args = {};
-
-      value = method.invoke(object, args);
+      value = accessor.get(object);
 
       value = convertWriteObject(value, attr);
       if(attr.isWrapper())value = getFormatedValue(attr.getFormat(), value);
@@ -1,5 +1,6 @@
 package com.rate.persistence.valueobject;
 
+import java.sql.BatchUpdateException;
 import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
@@ -10,6 +11,7 @@ import java.sql.SQLWarning;
 import java.sql.Statement;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -27,6 +29,11 @@ import com.rate.persistence.helpers.StoredProcedure;
 
 public class StoredProcedurePersistence extends SQLPersistence
 {
+  /** Property holding the number of calls batchUpdate sends to the database at once. */
+  public static final String BATCH_SIZE_PROPERTY = "persistence.batch.size";
+
+  public static final int DEFAULT_BATCH_SIZE = 500;
+
   private static ValueObject lastFailedObject = null;
 
   private static String DRIVER_FLAVOR_DB2_LEGACY_8_2_DRIVER_VERSION_STRING_PREFIX = "08.02";
@@ -489,6 +496,57 @@ public class StoredProcedurePersistence extends SQLPersistence
     return results;
   }
 
+  /**
+   * Executes the finder and returns a cursor over its result set, reading no rows yet. Only finders with a single result
+   * set can be streamed; nested lists need every row to assemble children, so use loadList() for those. A fetch size of
+   * 0 leaves the driver's default; any other value, including MySQL's Integer.MIN_VALUE, is passed to the driver.
+   */
+  public ValueObjectCursor openCursor(Connection con, ValueObjectConfiguration config, Vector keys, String methodName,
+      int fetchSize) throws Exception
+  {
+    FinderMethod finder = config.getFinderMethod(methodName);
+    StoredProcedure sp = finder.getStoredProcedure();
+
+    if (sp.getResultConfigs().size() != 1)
+    {
+      throw new Exception("StoredProcedurePersistence.openCursor - " + sp.getName()
+          + " returns nested result sets, which cannot be streamed");
+    }
+
+    CallableStatement statement = null;
+
+    try
+    {
+      String sqlStatement = createStatement(sp);
+
+      statement = initializeStatement(con, sp, sqlStatement, keys);
+
+      if (fetchSize != 0)
+      {
+        statement.setFetchSize(fetchSize);
+      }
+
+      boolean hasResultSet = statement.execute();
+      displaySQLWarnings(statement);
+
+      ResultSet rs = hasResultSet ? statement.getResultSet() : null;
+
+      if ((rs != null) && (fetchSize != 0))
+      {
+        rs.setFetchSize(fetchSize);
+      }
+
+      return new ValueObjectCursor(this, config, methodName, statement, rs, (con == null));
+    }
+    catch (SQLException se)
+    {
+      closeStatement((con == null), statement);
+
+      throw new Exception("Error in StoredProcedurePersistence.openCursor - " + getSPErrString(se, sp, keys) + ": "
+          + se.toString(), se);
+    }
+  }
+
   public Integer copy(ValueObjectConfiguration config, Vector keys) throws Exception
   {
     return (copy(null, config, keys));
@@ -620,12 +678,7 @@ public class StoredProcedurePersistence extends SQLPersistence
       }
 
       // object is now in sync with database
-      object.setIsModified(false);
-      object.setIsDeleted(false);
-      object.setAddedBy(null);
-      object.setModifiedBy(null);
-      object.setDeletedBy(null);
-      cache(object);
+      markSaved(object);
     }
     catch (SQLException se)
     {
@@ -668,84 +721,345 @@ public class StoredProcedurePersistence extends SQLPersistence
 
   public void batchUpdate(ValueObjectList list) throws Exception
   {
-    batchUpdate(list, "save");
+    batchUpdate(list, ValueObject.DEFAULT_SAVE);
   }
 
   /**
-   * Used to save a list of objects in one DB call. Uses the JDBC batchUpdate call to make repeated calls to the
-   * contained object's save stored proc.
+   * Used to save a list of objects in as few DB calls as possible. Uses the JDBC batchUpdate call to make repeated calls
+   * to the contained object's save stored proc, in batches of the size given by the persistence.batch.size property.
    * 
    * @param list
-   * @param containedClassName
    * @param methodName
    * @throws Exception
    */
   public void batchUpdate(ValueObjectList list, String methodName) throws Exception
   {
-    // first get the object configuration
-    ValueObjectConfiguration voc = null;
-    StoredProcedure sp = null;
-    SaveMethod saver = null;
-    CallableStatement statement = null;
-    String sqlStatement = null;
+    batchUpdate(null, list, methodName);
+  }
 
-    try
+  /**
+   * Saves the modified objects in the list in batches of the size given by the persistence.batch.size property.
+   */
+  public int batchUpdate(Connection con, List objects, String methodName) throws Exception
+  {
+    return batchUpdate(con, objects, methodName, getBatchSize());
+  }
+
+  /**
+   * Saves the modified objects in the list, which must all be of one class, with the stored procedure of the indicated
+   * method, sending batchSize calls to the database at a time. A procedure with INOUT arguments cannot be batched, as
+   * JDBC returns no out parameters from a batch, so it is called once per object on the one statement instead, and the
+   * values returned are set on each object.
+   * <P>
+   * Outside a transaction each batch is committed on its own, and its objects are marked saved and cached once it is.
+   * Within a transaction, or on a connection passed in, nothing is committed here, and objects are marked saved and
+   * cached as each batch runs, as save() does.
+   * </P>
+   * <P>
+   * If any call fails, the batches after it are not sent, the objects that were saved are marked so, and an Exception
+   * is thrown naming each failed call. The objects not saved are still modified, so they can be saved again.
+   * </P>
+   * 
+   * @param con
+   *          The connection to use, or null to use the current transaction's connection or open one.
+   * @param objects
+   *          The objects to save. Objects that are not modified are skipped.
+   * @param methodName
+   *          The name of the method to use for saving the objects.
+   * @param batchSize
+   *          The most calls to send to the database at once.
+   * @return The number of objects saved.
+   */
+  public int batchUpdate(Connection con, List objects, String methodName, int batchSize) throws Exception
+  {
+    lastFailedObject = null;
+
+    List<ValueObject> modified = new ArrayList<ValueObject>(objects.size());
+
+    for (int i = 0; i < objects.size(); i++)
     {
-      Iterator it = list.iterator();
-      while (it.hasNext())
-      {
-        ValueObject object = (ValueObject) it.next();
-        if (!object.isModified()) continue;
+      ValueObject object = (ValueObject) objects.get(i);
 
-        // this set up only gets called the first time
-        if (voc == null)
+      if ((object != null) && object.isModified())
+      {
+        if (!modified.isEmpty() && (object.getClass() != modified.get(0).getClass()))
         {
-          voc = object.getConfiguration();
-          saver = voc.getSaveMethod(methodName);
-          sp = saver.getStoredProcedure();
-          sqlStatement = createStatement(sp);
-          statement = initBatchStatement(sp, sqlStatement);
+          throw new Exception("StoredProcedurePersistence.batchUpdate - cannot save " + object.getClass().getName()
+              + " in a batch of " + modified.get(0).getClass().getName());
         }
 
-        // add a new set of arguments for each element
-        Vector args = this.initializeArguments(object, sp.getArguments());
-        setStatementInputParameters(statement, sp.getArguments(), args);
-        statement.addBatch();
+        modified.add(object);
       }
+    }
 
-      // execute the statement
-      statement.executeBatch();
-      displaySQLWarnings(statement);
+    if (modified.isEmpty())
+    {
+      return 0;
+    }
 
-      // set any values returned from an INOUT parameter
-      // for (int i = 0; i < params.size(); i++)
-      // {
-      // Attribute attr = (Attribute)params.get(i);
-      //
-      // if (attr.isInOut())
-      // {
-      // setObjectValue(object, attr.getColumnName(), statement.getObject(i + 1));
-      // }
-      // }
+    SaveMethod saver = modified.get(0).getConfiguration().getSaveMethod(methodName);
+    StoredProcedure sp = saver.getStoredProcedure();
+    boolean inOut = !sp.getInOutArguments().isEmpty();
+    int chunkSize = Math.max(1, batchSize);
 
-      // object is now in sync with database
-      // object.setIsModified(false);
-      // cache(object);
+    List<ValueObject> failed = new ArrayList<ValueObject>();
+    Connection connection = con;
+    CallableStatement statement = null;
+    boolean commit = false;
+    int saved = 0;
+
+    long startTime = System.currentTimeMillis();
+
+    try
+    {
+      if (connection == null)
+      {
+        connection = openConnection();
+      }
+
+      // a connection of our own, outside any transaction, is committed a batch at a time
+      commit = (con == null) && connection.getAutoCommit();
+      if (commit)
+      {
+        connection.setAutoCommit(false);
+      }
 
+      statement = initBatchStatement(connection, sp, createStatement(sp));
+
+      for (int from = 0; (from < modified.size()) && failed.isEmpty(); from += chunkSize)
+      {
+        List<ValueObject> chunk = modified.subList(from, Math.min(from + chunkSize, modified.size()));
+        boolean[] done = inOut ? executeEach(statement, sp, chunk, failed) : executeBatch(statement, sp, chunk, failed,
+            commit);
+
+        if (commit)
+        {
+          connection.commit();
+        }
+
+        // objects are now in sync with database
+        for (int i = 0; i < done.length; i++)
+        {
+          if (done[i])
+          {
+            markSaved(chunk.get(i));
+            saved++;
+          }
+        }
+      }
     }
     catch (SQLException se)
     {
+      if (commit)
+      {
+        try
+        {
+          connection.rollback();
+        }
+        catch (SQLException ignore)
+        {
+        }
+      }
+
       StringBuffer s = new StringBuffer();
       if ( se.getSQLState() != null && se.getSQLState().equalsIgnoreCase("42815") && se.getErrorCode() == -4461 )
         s.append("TYPE 4 driver issue - ");
-      s.append("Error in batchUpdate");
-      
+      s.append("Error in StoredProcedurePersistence.batchUpdate - " + sp.getName() + " after " + saved + " of "
+          + modified.size() + " saved: " + se.getMessage());
+
+      throw new Exception(s.toString());
     }
     finally
     {
       // close connections
-      closeStatement(true, statement);
+      if (statement != null)
+      {
+        closeStatement((con == null), statement);
+      }
+      else if (con == null)
+      {
+        closeConnection(connection);
+      }
+    }
+
+    long duration = System.currentTimeMillis() - startTime;
+    displayProcedureTiming(sp.getName() + " x " + modified.size(), duration);
+
+    if (!failed.isEmpty())
+    {
+      lastFailedObject = failed.get(0);
+
+      StringBuffer s = new StringBuffer();
+      s.append("Error in StoredProcedurePersistence.batchUpdate - " + failed.size() + " failed, "
+          + (modified.size() - saved - failed.size()) + " not sent, " + saved + " of " + modified.size() + " saved:");
+
+      for (int i = 0; i < failed.size(); i++)
+      {
+        s.append(" " + getSPErrString(null, sp, initializeArguments(failed.get(i), sp.getArguments())));
+      }
+
+      throw new Exception(s.toString());
+    }
+
+    return saved;
+  }
+
+  /**
+   * Sends the calls for a chunk of objects as one batch. If the batch fails, returns which calls the driver reports
+   * succeeded and adds the objects of those that failed to the failed list; calls the driver did not run are neither. A
+   * batch that deadlocks is rolled back and sent again, up to RETRY times, when this commits its own batches.
+   */
+  private boolean[] executeBatch(CallableStatement statement, StoredProcedure sp, List<ValueObject> chunk,
+      List<ValueObject> failed, boolean canRetry) throws Exception
+  {
+    boolean[] done = new boolean[chunk.size()];
+    int retry_count = 0;
+
+    while (true)
+    {
+      // add a new set of arguments for each element
+      for (int i = 0; i < chunk.size(); i++)
+      {
+        Vector args = this.initializeArguments(chunk.get(i), sp.getArguments());
+        setStatementInputParameters(statement, sp.getArguments(), args);
+        statement.addBatch();
+      }
+
+      try
+      {
+        statement.executeBatch();
+        displaySQLWarnings(statement);
+
+        Arrays.fill(done, true);
+
+        return done;
+      }
+      catch (BatchUpdateException bue)
+      {
+        statement.clearBatch();
+
+        // Deadlock or Timeout
+        if (canRetry && "40001".equalsIgnoreCase(bue.getSQLState()) && (retry_count < RETRY))
+        {
+          retry_count++;
+          statement.getConnection().rollback();
+          System.out.println("Retry #" + retry_count + " - " + sp.getName() + " batch of " + chunk.size());
+          continue;
+        }
+
+        int[] counts = bue.getUpdateCounts();
+        int run = (counts == null) ? 0 : Math.min(counts.length, chunk.size());
+
+        for (int i = 0; i < run; i++)
+        {
+          done[i] = (counts[i] != Statement.EXECUTE_FAILED);
+          if (!done[i])
+          {
+            failed.add(chunk.get(i));
+          }
+        }
+
+        // a driver that stops at the first failure reports only the calls before it
+        if (run < chunk.size())
+        {
+          failed.add(chunk.get(run));
+        }
+
+        System.out.println("**** " + sp.getName() + " batch of " + chunk.size() + ": " + bue.getMessage());
+
+        return done;
+      }
+    }
+  }
+
+  /**
+   * Calls the procedure once for each object of a chunk, on the one statement, setting the values returned from INOUT
+   * parameters on each. Adds the objects whose call fails to the failed list.
+   */
+  private boolean[] executeEach(CallableStatement statement, StoredProcedure sp, List<ValueObject> chunk,
+      List<ValueObject> failed) throws Exception
+  {
+    boolean[] done = new boolean[chunk.size()];
+    Vector params = sp.getInOutArguments();
+
+    for (int i = 0; i < chunk.size(); i++)
+    {
+      ValueObject object = chunk.get(i);
+
+      try
+      {
+        Vector args = this.initializeArguments(object, sp.getArguments());
+        setStatementInputParameters(statement, sp.getArguments(), args);
+
+        // register any out parameters, declared as INOUT in XML
+        for (int j = 0; j < params.size(); j++)
+        {
+          Attribute attr = (Attribute) params.get(j);
+          int index = sp.getArguments().indexOf(attr);
+          statement.registerOutParameter(index + 1, javaClass2SQLType(attr.getTypeName()));
+        }
+
+        executeUpdate(statement);
+
+        // set any values returned from an INOUT parameter
+        for (int j = 0; j < params.size(); j++)
+        {
+          Attribute attr = (Attribute) params.get(j);
+          int index = sp.getArguments().indexOf(attr);
+          setObjectValue(object, attr.getColumnName(), statement.getObject(index + 1));
+        }
+
+        done[i] = true;
+      }
+      catch (SQLException se)
+      {
+        failed.add(object);
+        System.out.println("**** " + sp.getName() + ": " + se.getMessage());
+      }
+    }
+
+    return done;
+  }
+
+  /**
+   * Marks a saved object as in sync with the database, and caches it.
+   */
+  protected void markSaved(ValueObject object)
+  {
+    object.setIsModified(false);
+    object.setIsDeleted(false);
+    object.setAddedBy(null);
+    object.setModifiedBy(null);
+    object.setDeletedBy(null);
+    cache(object);
+  }
+
+  /**
+   * Returns the number of calls sent to the database in one batch, from the persistence.batch.size property.
+   */
+  private static int getBatchSize()
+  {
+    try
+    {
+      String value = CFactory.instance().getProperty(BATCH_SIZE_PROPERTY);
+      if ((value != null) && (value.trim().length() > 0))
+      {
+        int size = Integer.parseInt(value.trim());
+        if (size > 0)
+        {
+          return size;
+        }
+      }
+    }
+    catch (IllegalStateException noConfig)
+    {
     }
+    catch (NumberFormatException badValue)
+    {
+      System.out.println("Ignoring " + BATCH_SIZE_PROPERTY + ": " + badValue.getMessage());
+    }
+
+    return DEFAULT_BATCH_SIZE;
   }
 
   protected void executeUpdate(CallableStatement statement) throws SQLException
@@ -815,17 +1129,12 @@ public class StoredProcedurePersistence extends SQLPersistence
   }
 
   /**
-   * Initializes a statement from a list of query criteria
+   * Prepares the statement each batch is added to, on the connection given
    */
-  protected CallableStatement initBatchStatement(StoredProcedure sp, String statementStr) throws SQLException
+  protected CallableStatement initBatchStatement(Connection con, StoredProcedure sp, String statementStr)
+      throws SQLException
   {
-    CallableStatement statement = null;
-    Connection connection = null;
-
-    connection = openConnection();
-    statement = connection.prepareCall(statementStr);
-
-    return statement;
+    return con.prepareCall(statementStr);
   }
 
   private String createStatement(StoredProcedure sp)
@@ -0,0 +1,334 @@
+package com.rate.persistence.valueobject;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.rate.cache.CacheCodec;
+import com.rate.cache.CacheableObject;
+import com.rate.persistence.ValueObject;
+
+/**
+ * CacheCodec for ValueObjects. Writes every bean property with both a getter and a setter whose type is a number,
+ * boolean, String, date or BigDecimal, each as a one-byte type tag followed by the value, then the deleted flag.
+ * Properties of other types (child lists, configuration) are not written and are lazily reloaded as usual. Decoded
+ * objects are marked unmodified.
+ */
+public class ValueObjectCodec implements CacheCodec
+{
+  private static final byte NULL = 0;
+
+  private static final byte INTEGER = 1;
+
+  private static final byte LONG = 2;
+
+  private static final byte DOUBLE = 3;
+
+  private static final byte FLOAT = 4;
+
+  private static final byte SHORT = 5;
+
+  private static final byte BYTE = 6;
+
+  private static final byte BOOLEAN = 7;
+
+  private static final byte STRING = 8;
+
+  private static final byte TIMESTAMP = 9;
+
+  private static final byte SQL_DATE = 10;
+
+  private static final byte DATE = 11;
+
+  private static final byte BIG_DECIMAL = 12;
+
+  private static final String UTF8 = "UTF-8";
+
+  /** The encodable properties of each class, in a fixed order. */
+  private static final ConcurrentMap<Class, PropertyDescriptor[]> properties =
+      new ConcurrentHashMap<Class, PropertyDescriptor[]>();
+
+  public void encode(CacheableObject object, DataOutput out) throws IOException
+  {
+    ValueObject vo = (ValueObject) object;
+    PropertyDescriptor[] pds = getProperties(vo.getClass());
+
+    for (int i = 0; i < pds.length; i++)
+    {
+      Object value;
+
+      try
+      {
+        value = pds[i].getReadMethod().invoke(vo);
+      }
+      catch (Exception e)
+      {
+        throw new IOException("Cannot read " + pds[i].getName() + " of " + vo.getClass().getName() + ": " + e);
+      }
+
+      writeValue(out, value);
+    }
+
+    out.writeBoolean(vo.isDeleted());
+  }
+
+  public CacheableObject decode(Class objectClass, DataInput in) throws IOException
+  {
+    ValueObject vo;
+
+    try
+    {
+      vo = (ValueObject) ((Class<?>) objectClass).getDeclaredConstructor().newInstance();
+    }
+    catch (Exception e)
+    {
+      throw new IOException("Cannot create " + objectClass.getName() + ": " + e);
+    }
+
+    PropertyDescriptor[] pds = getProperties(objectClass);
+
+    for (int i = 0; i < pds.length; i++)
+    {
+      Object value = readValue(in);
+
+      try
+      {
+        if ((value != null) || !pds[i].getPropertyType().isPrimitive())
+        {
+          pds[i].getWriteMethod().invoke(vo, value);
+        }
+      }
+      catch (Exception e)
+      {
+        throw new IOException("Cannot set " + pds[i].getName() + " of " + objectClass.getName() + ": " + e);
+      }
+    }
+
+    vo.setIsDeleted(in.readBoolean());
+    vo.setIsModified(false);
+
+    return vo;
+  }
+
+  /**
+   * Hashes the names and types of the encoded properties, which is all the layout depends on.
+   */
+  public int getSchemaVersion(Class objectClass)
+  {
+    PropertyDescriptor[] pds;
+
+    try
+    {
+      pds = getProperties(objectClass);
+    }
+    catch (IOException e)
+    {
+      return 0;
+    }
+
+    int version = 1;
+    for (int i = 0; i < pds.length; i++)
+    {
+      version = (version * 31) + pds[i].getName().hashCode();
+      version = (version * 31) + pds[i].getPropertyType().getName().hashCode();
+    }
+
+    return version;
+  }
+
+  private static PropertyDescriptor[] getProperties(Class objectClass) throws IOException
+  {
+    PropertyDescriptor[] pds = properties.get(objectClass);
+
+    if (pds == null)
+    {
+      BeanInfo info;
+
+      try
+      {
+        info = Introspector.getBeanInfo(objectClass);
+      }
+      catch (IntrospectionException e)
+      {
+        throw new IOException("Cannot introspect " + objectClass.getName() + ": " + e);
+      }
+
+      ArrayList<PropertyDescriptor> list = new ArrayList<PropertyDescriptor>();
+      PropertyDescriptor[] all = info.getPropertyDescriptors();
+
+      for (int i = 0; i < all.length; i++)
+      {
+        Method read = all[i].getReadMethod();
+        Method write = all[i].getWriteMethod();
+
+        if ((read != null) && (write != null) && isEncodable(all[i].getPropertyType()))
+        {
+          list.add(all[i]);
+        }
+      }
+
+      pds = list.toArray(new PropertyDescriptor[list.size()]);
+      properties.putIfAbsent(objectClass, pds);
+    }
+
+    return pds;
+  }
+
+  private static boolean isEncodable(Class type)
+  {
+    if (type == null)
+    {
+      return false;
+    }
+
+    if (type.isPrimitive())
+    {
+      return (type != Character.TYPE) && (type != Void.TYPE);
+    }
+
+    return (type == Integer.class) || (type == Long.class) || (type == Double.class) || (type == Float.class)
+        || (type == Short.class) || (type == Byte.class) || (type == Boolean.class) || (type == String.class)
+        || (type == BigDecimal.class) || Date.class.isAssignableFrom(type);
+  }
+
+  private static void writeValue(DataOutput out, Object value) throws IOException
+  {
+    if (value == null)
+    {
+      out.writeByte(NULL);
+    }
+    else if (value instanceof Integer)
+    {
+      out.writeByte(INTEGER);
+      out.writeInt(((Integer) value).intValue());
+    }
+    else if (value instanceof Long)
+    {
+      out.writeByte(LONG);
+      out.writeLong(((Long) value).longValue());
+    }
+    else if (value instanceof Double)
+    {
+      out.writeByte(DOUBLE);
+      out.writeDouble(((Double) value).doubleValue());
+    }
+    else if (value instanceof Float)
+    {
+      out.writeByte(FLOAT);
+      out.writeFloat(((Float) value).floatValue());
+    }
+    else if (value instanceof Short)
+    {
+      out.writeByte(SHORT);
+      out.writeShort(((Short) value).shortValue());
+    }
+    else if (value instanceof Byte)
+    {
+      out.writeByte(BYTE);
+      out.writeByte(((Byte) value).byteValue());
+    }
+    else if (value instanceof Boolean)
+    {
+      out.writeByte(BOOLEAN);
+      out.writeBoolean(((Boolean) value).booleanValue());
+    }
+    else if (value instanceof String)
+    {
+      out.writeByte(STRING);
+      writeString(out, (String) value);
+    }
+    else if (value instanceof Timestamp)
+    {
+      out.writeByte(TIMESTAMP);
+      out.writeLong(((Timestamp) value).getTime());
+      out.writeInt(((Timestamp) value).getNanos());
+    }
+    else if (value instanceof java.sql.Date)
+    {
+      out.writeByte(SQL_DATE);
+      out.writeLong(((java.sql.Date) value).getTime());
+    }
+    else if (value instanceof Date)
+    {
+      out.writeByte(DATE);
+      out.writeLong(((Date) value).getTime());
+    }
+    else if (value instanceof BigDecimal)
+    {
+      out.writeByte(BIG_DECIMAL);
+      writeString(out, value.toString());
+    }
+    else
+    {
+      throw new IOException("Cannot encode value of type " + value.getClass().getName());
+    }
+  }
+
+  private static Object readValue(DataInput in) throws IOException
+  {
+    byte tag = in.readByte();
+
+    switch (tag)
+    {
+      case NULL:
+        return null;
+      case INTEGER:
+        return Integer.valueOf(in.readInt());
+      case LONG:
+        return Long.valueOf(in.readLong());
+      case DOUBLE:
+        return Double.valueOf(in.readDouble());
+      case FLOAT:
+        return Float.valueOf(in.readFloat());
+      case SHORT:
+        return Short.valueOf(in.readShort());
+      case BYTE:
+        return Byte.valueOf(in.readByte());
+      case BOOLEAN:
+        return Boolean.valueOf(in.readBoolean());
+      case STRING:
+        return readString(in);
+      case TIMESTAMP:
+        Timestamp timestamp = new Timestamp(in.readLong());
+        timestamp.setNanos(in.readInt());
+        return timestamp;
+      case SQL_DATE:
+        return new java.sql.Date(in.readLong());
+      case DATE:
+        return new Date(in.readLong());
+      case BIG_DECIMAL:
+        return new BigDecimal(readString(in));
+      default:
+        throw new IOException("Unknown value tag " + tag);
+    }
+  }
+
+  /**
+   * Strings are written as a length and UTF-8 bytes, since writeUTF() is limited to 64K.
+   */
+  private static void writeString(DataOutput out, String value) throws IOException
+  {
+    byte[] bytes = value.getBytes(UTF8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInput in) throws IOException
+  {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+
+    return new String(bytes, UTF8);
+  }
+}
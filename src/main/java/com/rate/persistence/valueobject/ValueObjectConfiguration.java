@@ -3,6 +3,8 @@ package com.rate.persistence.valueobject;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.rate.cache.CacheManager;
 import com.rate.persistence.ValueObjectFactory;
@@ -50,9 +52,18 @@ public class ValueObjectConfiguration implements Serializable
   private byte cacheScope;
 
   private Boolean cacheRefreshOnUse = Boolean.TRUE;
+
+  /** Milliseconds after loading that a cached object is reloaded in the background on its next use; 0 for never. */
+  private long cacheRefreshAfter = 0;
   
   private boolean useHybridStrategy = false;
 
+  /** Whether saves are queued and written in the background by the WriteBehindQueue. */
+  private boolean writeBehind = false;
+
+  /** Row mappers by the column list of the result sets they read. Dropped when a column's attribute changes. */
+  private transient volatile ConcurrentMap<String, RowMapper> rowMappers;
+
   public ValueObjectConfiguration(Class objClass)
   {
     attributeNameList = new ArrayList();
@@ -134,6 +145,26 @@ public class ValueObjectConfiguration implements Serializable
     return cacheRefreshOnUse;
   }
 
+  /**
+   * Sets the refresh interval from the cache_refresh_after attribute, in seconds.
+   */
+  public void setCacheRefreshAfter(String seconds)
+  {
+    try
+    {
+      cacheRefreshAfter = Math.max(0, Long.parseLong(seconds.trim()) * 1000);
+    }
+    catch (NumberFormatException e)
+    {
+      cacheRefreshAfter = 0;
+    }
+  }
+
+  public long getCacheRefreshAfter()
+  {
+    return cacheRefreshAfter;
+  }
+
   public Attribute getAttribute(String name)
   {
     return (Attribute) attributeMap.get(name);
@@ -186,6 +217,7 @@ public class ValueObjectConfiguration implements Serializable
 
     attributeMap.put(name, attr);
     attributeColMap.put(columnName, attr);
+    rowMappers = null;
 
     if (attributeNameList.indexOf(name) < 0)
     {
@@ -193,6 +225,19 @@ public class ValueObjectConfiguration implements Serializable
     }
   }  
 
+  ConcurrentMap<String, RowMapper> getRowMappers()
+  {
+    ConcurrentMap<String, RowMapper> mappers = rowMappers;
+
+    if (mappers == null)
+    {
+      mappers = new ConcurrentHashMap<String, RowMapper>();
+      rowMappers = mappers;
+    }
+
+    return mappers;
+  }
+
   public FinderMethod getFinderMethod(String name) throws Exception
   {
     if (!finderMethodMap.containsKey(name))
@@ -203,6 +248,11 @@ public class ValueObjectConfiguration implements Serializable
     return (FinderMethod) finderMethodMap.get(name);
   }
 
+  public boolean hasFinderMethod(String name)
+  {
+    return finderMethodMap.containsKey(name);
+  }
+
   public SaveMethod getSaveMethod(String name) throws Exception
   {
     if (!saveMethodMap.containsKey(name))
@@ -411,6 +461,22 @@ public class ValueObjectConfiguration implements Serializable
     return Boolean.valueOf(useHybridStrategy);
   }
 
+  /**
+   * @param writeBehind whether saves are queued and written in the background
+   */
+  public void setWriteBehind(Boolean writeBehind)
+  {
+    this.writeBehind = writeBehind.booleanValue();
+  }
+
+  /**
+   * @return whether saves are queued and written in the background
+   */
+  public boolean isWriteBehind()
+  {
+    return writeBehind;
+  }
+
   /**
    * @param distributionList the distributionList to set
    */
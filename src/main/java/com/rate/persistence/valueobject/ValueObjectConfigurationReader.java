@@ -214,10 +214,18 @@ public class ValueObjectConfigurationReader
         {
           config.setCacheRefreshOnUse(Boolean.valueOf(attrs.getValue(i)));
         }
+        else if (attrs.getLocalName(i).equals("cache_refresh_after"))
+        {
+          config.setCacheRefreshAfter(attrs.getValue(i));
+        }
         else if (attrs.getLocalName(i).equals("hybridStrategy"))
         {
           config.setUseHybridStrategy(Boolean.valueOf(attrs.getValue(i)));
         }
+        else if (attrs.getLocalName(i).equals("write_behind"))
+        {
+          config.setWriteBehind(Boolean.valueOf(attrs.getValue(i)));
+        }
 
       }
     }
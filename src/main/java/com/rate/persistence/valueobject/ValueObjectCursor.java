@@ -0,0 +1,250 @@
+package com.rate.persistence.valueobject;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.rate.persistence.TransactionContext;
+import com.rate.persistence.TransactionHandle;
+import com.rate.persistence.ValueObject;
+import com.rate.persistence.validator.BasePersistenceValidator;
+
+/**
+ * Reads the rows of a finder's result set one at a time, mapping each to a ValueObject only when it is asked for. The
+ * objects are not put in the cache. Created by ValueObjectFactory.streamByCriteria().
+ * <P>
+ * Memory stays bounded only if the driver streams the result. MySQL Connector/J reads the whole result into memory
+ * for any positive fetch size unless the URL sets <code>useCursorFetch=true</code>, and even then its server-side
+ * cursors only serve prepared SELECTs, never the result of a CALL; every finder is a stored procedure. So the default
+ * fetch size is Integer.MIN_VALUE, which Connector/J takes as a request to stream row by row. While a cursor streams,
+ * its connection can run no other statement, and closing it early reads and discards the rows left. Drivers that
+ * refuse a negative fetch size need a positive one passed to streamByCriteria().
+ * </P>
+ * <P>
+ * The statement, and the connection if the cursor opened it, are held until the last row is read or close() is called,
+ * whichever comes first; always close the cursor, or the stream from stream(), when done with it. A connection passed
+ * in, or the connection of the caller's TransactionContext, is left open for its owner, and the transaction must not
+ * end while the cursor is still being read.
+ * </P>
+ * <P>
+ * Errors reading a row close the cursor and are thrown as IllegalStateExceptions, as an Iterator cannot throw checked
+ * exceptions.
+ * </P>
+ */
+public class ValueObjectCursor implements Iterator<ValueObject>, Closeable
+{
+  /** The fetch size when none is given: Connector/J's row-by-row streaming; see above. */
+  public static final int DEFAULT_FETCH_SIZE = Integer.MIN_VALUE;
+
+  private final SQLPersistence persistence;
+
+  private final ValueObjectConfiguration config;
+
+  private final String finderName;
+
+  private Statement statement;
+
+  private ResultSet rs;
+
+  private final boolean closeConnection;
+
+  private RowMapper mapper;
+
+  /** Whether rs is on a row that has not been returned yet. */
+  private boolean ready;
+
+  private boolean closed;
+
+  private int count;
+
+  /**
+   * @param closeConnection
+   *          Whether the statement's connection was opened for this cursor, and so is to be closed with it.
+   */
+  ValueObjectCursor(SQLPersistence persistence, ValueObjectConfiguration config, String finderName,
+      Statement statement, ResultSet rs, boolean closeConnection) throws SQLException
+  {
+    this.persistence = persistence;
+    this.config = config;
+    this.finderName = finderName;
+    this.statement = statement;
+    this.rs = rs;
+
+    // a connection shared with the caller's transaction stays open, whichever thread closes the cursor
+    TransactionHandle txHandle = TransactionContext.getCurrentHandle();
+    Connection txConnection = (txHandle == null) ? null : txHandle.getConnection();
+    this.closeConnection = closeConnection && (statement.getConnection() != txConnection);
+
+    if (rs == null)
+    {
+      close();
+    }
+  }
+
+  public boolean hasNext()
+  {
+    if (ready)
+    {
+      return true;
+    }
+
+    if (closed)
+    {
+      return false;
+    }
+
+    try
+    {
+      ready = rs.next();
+    }
+    catch (SQLException se)
+    {
+      throw fail(se);
+    }
+
+    if (!ready)
+    {
+      close();
+    }
+
+    return ready;
+  }
+
+  public ValueObject next()
+  {
+    if (!hasNext())
+    {
+      throw new NoSuchElementException();
+    }
+
+    ready = false;
+
+    ValueObject object;
+    int i = 0;
+
+    try
+    {
+      if (mapper == null)
+      {
+        mapper = RowMapper.forResultSet(rs, config);
+      }
+
+      object = mapper.newObject();
+
+      // column numbers are 1-based
+      for (i = 1; i <= mapper.getColumnCount(); i++)
+      {
+        mapper.mapColumn(persistence, rs, object, i);
+      }
+    }
+    catch (Exception e)
+    {
+      String column = ((mapper != null) && (i >= 1)) ? ", Column name = " + mapper.getColumnNames()[i] : "";
+
+      throw fail(new Exception("Error loading object type " + config.getTypeName() + " at row " + (count + 1)
+          + column + ", " + e.toString(), e));
+    }
+
+    // object is now in sync with database
+    object.setIsModified(false);
+    count++;
+
+    validate(object);
+
+    return object;
+  }
+
+  public void remove()
+  {
+    throw new UnsupportedOperationException("ValueObjectCursor is read-only");
+  }
+
+  /**
+   * Returns the number of objects read so far.
+   */
+  public int getCount()
+  {
+    return count;
+  }
+
+  /**
+   * Returns a sequential stream of the remaining objects. Closing the stream closes this cursor.
+   */
+  public Stream<ValueObject> stream()
+  {
+    Stream<ValueObject> stream = StreamSupport.stream(
+        Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false);
+
+    return stream.onClose(new Runnable()
+    {
+      public void run()
+      {
+        close();
+      }
+    });
+  }
+
+  /**
+   * Releases the result set and statement, and the connection if the cursor opened it. Safe to call more than once.
+   */
+  public void close()
+  {
+    if (closed)
+    {
+      return;
+    }
+
+    closed = true;
+    ready = false;
+
+    try
+    {
+      if (rs != null)
+      {
+        rs.close();
+      }
+    }
+    catch (SQLException se)
+    {
+      System.out.println("**** " + se.getMessage());
+    }
+
+    persistence.closeStatement(closeConnection, statement);
+
+    rs = null;
+    statement = null;
+  }
+
+  private IllegalStateException fail(Exception e)
+  {
+    close();
+
+    return new IllegalStateException("Error reading result set: " + e.getMessage(), e);
+  }
+
+  private void validate(ValueObject object)
+  {
+    ArrayList<String> validators = config.getValidatorList();
+
+    for (String validatorName : validators)
+    {
+      BasePersistenceValidator validator = BasePersistenceValidator.getValidator(validatorName);
+      if ((validator != null) && !validator.validate(object))
+      {
+        close();
+
+        throw new IllegalStateException("Persistence Security Violation: " + object.getClass().getName() + " using "
+            + finderName);
+      }
+    }
+  }
+}
@@ -242,6 +242,9 @@ public class ValueObjectList extends CacheList implements Serializable
   }
 
   /**
+   * Returns the elements by id, in a synchronized map that findById() reads. A FrozenValueObjectList returns an
+   * unmodifiable map instead.
+   *
    * @return java.util.Map
    */
   public synchronized Map getMapById()
@@ -250,6 +253,7 @@ public class ValueObjectList extends CacheList implements Serializable
     {
       // start off with correct initial size to speed up
       mapByID = Collections.synchronizedMap(new HashMap(size()));
+      loadAll();
         
       for (int i = 0; i < size(); i++)
       {
@@ -284,6 +288,7 @@ public class ValueObjectList extends CacheList implements Serializable
     {
       // start off with correct initial size to speed up
       mapByName = Collections.synchronizedMap(new HashMap(size()));
+      loadAll();
   
       for (int i = 0; i < size(); i++)
       {
@@ -407,6 +412,37 @@ public class ValueObjectList extends CacheList implements Serializable
     }
   }
 
+  /**
+   * Returns a read-only snapshot of this list, with every element loaded and indexed by id, that can be read without
+   * locking. Later changes to this list do not affect the snapshot.
+   */
+  public synchronized FrozenValueObjectList freeze()
+  {
+    loadAll();
+
+    Object[] elements = new Object[size()];
+    int count = 0;
+
+    for (int i = 0; i < size(); i++)
+    {
+      Object element = get(i);
+
+      if (element != null)
+      {
+        elements[count++] = element;
+      }
+    }
+
+    if (count < elements.length)
+    {
+      Object[] trimmed = new Object[count];
+      System.arraycopy(elements, 0, trimmed, 0, count);
+      elements = trimmed;
+    }
+
+    return new FrozenValueObjectList(elements);
+  }
+
   public synchronized Object findById(Integer id)
   {
     Object o = null;
@@ -452,6 +488,7 @@ public class ValueObjectList extends CacheList implements Serializable
   public synchronized Object clone()
   {
     ValueObjectList clone = new ValueObjectList();
+    loadAll();
 
     try
     {
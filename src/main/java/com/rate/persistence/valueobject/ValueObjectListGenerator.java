@@ -49,6 +49,12 @@ public class ValueObjectListGenerator implements CacheableObject.ObjectGenerator
               .getInstance();
 
           list = factory.findListByCriteria(typeName, inputs, method, false);
+
+          // goes back in the cache in place of a frozen list, so it is frozen too
+          if (list != null)
+          {
+            list = list.freeze();
+          }
         }
         catch (Exception e)
         {
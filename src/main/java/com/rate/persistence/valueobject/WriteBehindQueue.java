@@ -0,0 +1,663 @@
+package com.rate.persistence.valueobject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.rate.configuration.CFactory;
+import com.rate.persistence.ValueObject;
+
+/**
+ * Holds the saves of objects whose configuration declares write_behind="true", and writes them from background
+ * threads with the strategy's batchUpdate. Saves are keyed by class, save method and id, or by the object itself while
+ * its id is null or 0, as save() treats both as new, so saving an object again before it is written only replaces the
+ * pending save: the last write wins. Saves made inside a TransactionContext are not queued, as they must commit or roll
+ * back with the transaction.
+ * <P>
+ * Each save queues a copy of the object, its clone() taken when save() is called, so the object can go on changing
+ * without a half-changed object being written; changes made after save() are written by the next save(). The copy is
+ * what is written, and so what the strategy caches. Once a new object's copy is written, the id it was given is set
+ * on the object, and the object is marked unmodified unless it has been saved again since. clone() is shallow, so
+ * objects and lists it refers to are shared and must not be changed until the save is written.
+ * </P>
+ * <P>
+ * Each key always goes to the same writer, so saves of one object are written in order. A writer waits until its
+ * oldest save is persistence.writebehind.interval millis old, or it has a full batch, then writes up to
+ * persistence.batch.size saves at once. The queue holds at most persistence.writebehind.capacity saves; a save that
+ * finds it full waits for room. Everything queued is written before the JVM exits, or on stop().
+ * </P>
+ * <P>
+ * A save that fails is logged and counted, and its object is left modified, so it is written by its next save.
+ * </P>
+ */
+public class WriteBehindQueue
+{
+  public static final String CAPACITY_PROPERTY = "persistence.writebehind.capacity";
+
+  public static final String WRITERS_PROPERTY = "persistence.writebehind.writers";
+
+  public static final String INTERVAL_PROPERTY = "persistence.writebehind.interval";
+
+  /** Singleton instance of this class. */
+  private static WriteBehindQueue instance;
+
+  private final Partition[] partitions;
+
+  private final Thread[] writers;
+
+  /**
+   * The latest entry queued for each object, until it has been written. An object is only marked unmodified once its
+   * latest save has been written, so one saved again while an earlier save is being written stays modified.
+   */
+  private final Map<ValueObject, Entry> latest = new IdentityHashMap<ValueObject, Entry>();
+
+  private final int batchSize;
+
+  private final long interval;
+
+  private volatile boolean running = true;
+
+  /** The number of flush() calls waiting, during which writers do not wait for the interval. */
+  private final AtomicInteger flushing = new AtomicInteger();
+
+  private final AtomicLong queuedCount = new AtomicLong();
+
+  private final AtomicLong coalescedCount = new AtomicLong();
+
+  private final AtomicLong writtenCount = new AtomicLong();
+
+  private final AtomicLong failureCount = new AtomicLong();
+
+  private final AtomicLong blockedCount = new AtomicLong();
+
+  private final AtomicLong blockedTime = new AtomicLong();
+
+  private volatile long lastLag = 0;
+
+  private final AtomicLong maxLag = new AtomicLong();
+
+  /**
+   * Constructor is protected so class can be a singleton.
+   *
+   * @param capacity
+   *          The most saves held at once, shared between the writers.
+   * @param writerCount
+   *          The number of writer threads.
+   * @param batchSize
+   *          The most saves written in one call to the strategy.
+   * @param interval
+   *          How long, in millis, a save may wait for more to be written with it.
+   */
+  protected WriteBehindQueue(int capacity, int writerCount, int batchSize, long interval)
+  {
+    this.batchSize = Math.max(1, batchSize);
+    this.interval = Math.max(0, interval);
+
+    partitions = new Partition[Math.max(1, writerCount)];
+    writers = new Thread[partitions.length];
+
+    for (int i = 0; i < partitions.length; i++)
+    {
+      final Partition partition = new Partition(Math.max(1, capacity / partitions.length));
+      partitions[i] = partition;
+
+      writers[i] = new Thread(new Runnable()
+      {
+        public void run()
+        {
+          write(partition);
+        }
+      }, "Write-behind writer " + (i + 1));
+      writers[i].setDaemon(true);
+      writers[i].start();
+    }
+
+    Runtime.getRuntime().addShutdownHook(new Thread("Write-behind flush")
+    {
+      public void run()
+      {
+        WriteBehindQueue.this.stop();
+      }
+    });
+  }
+
+  /**
+   * Returns the single instance of this class, starting it with the sizes configured the first time.
+   */
+  public static synchronized WriteBehindQueue getInstance()
+  {
+    if (instance == null)
+    {
+      instance = new WriteBehindQueue((int) getNumber(CAPACITY_PROPERTY, 10000), (int) getNumber(WRITERS_PROPERTY, 2),
+          (int) getNumber(StoredProcedurePersistence.BATCH_SIZE_PROPERTY, StoredProcedurePersistence.DEFAULT_BATCH_SIZE),
+          getNumber(INTERVAL_PROPERTY, 1000));
+    }
+
+    return instance;
+  }
+
+  /**
+   * Queues the save of an object that is ready to be saved, or replaces the save already queued for it. Waits while
+   * the queue is full.
+   *
+   * @return Whether the save was queued; false once the queue has stopped, in which case the caller saves the object.
+   */
+  public boolean enqueue(ValueObject object, String methodName, GenericPersistenceStrategy strategy) throws Exception
+  {
+    ValueObject copy = (ValueObject) object.clone();
+    Key key = new Key(object, methodName);
+    Partition partition = partitions[(key.hashCode() & 0x7fffffff) % partitions.length];
+
+    synchronized (partition)
+    {
+      Entry entry = partition.entries.get(key);
+
+      if ((entry != null) && running)
+      {
+        synchronized (latest)
+        {
+          if ((entry.object != object) && (latest.get(entry.object) == entry))
+          {
+            latest.remove(entry.object);
+          }
+          latest.put(object, entry);
+        }
+
+        entry.object = object;
+        entry.copy = copy;
+        entry.strategy = strategy;
+        coalescedCount.incrementAndGet();
+
+        return true;
+      }
+
+      if (running && (partition.entries.size() >= partition.capacity))
+      {
+        long start = System.currentTimeMillis();
+        blockedCount.incrementAndGet();
+
+        try
+        {
+          while (running && (partition.entries.size() >= partition.capacity))
+          {
+            partition.wait();
+          }
+        }
+        catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+          throw new Exception("Interrupted waiting to queue the save of " + object.getClass().getName());
+        }
+        finally
+        {
+          blockedTime.addAndGet(System.currentTimeMillis() - start);
+        }
+      }
+
+      if (!running)
+      {
+        return false;
+      }
+
+      entry = new Entry(object, copy, methodName, strategy);
+      partition.entries.put(key, entry);
+      synchronized (latest)
+      {
+        latest.put(object, entry);
+      }
+      queuedCount.incrementAndGet();
+      partition.notifyAll();
+    }
+
+    return true;
+  }
+
+  /**
+   * Writes every save queued, waiting until they have been written.
+   */
+  public void flush() throws InterruptedException
+  {
+    flushing.incrementAndGet();
+
+    try
+    {
+      for (int i = 0; i < partitions.length; i++)
+      {
+        Partition partition = partitions[i];
+
+        synchronized (partition)
+        {
+          partition.notifyAll();
+
+          while ((!partition.entries.isEmpty() || partition.writing) && writers[i].isAlive())
+          {
+            partition.wait(100);
+          }
+        }
+      }
+    }
+    finally
+    {
+      flushing.decrementAndGet();
+    }
+  }
+
+  /**
+   * Writes every save queued and stops the writers. Saves made after this are not queued.
+   */
+  public void stop()
+  {
+    running = false;
+
+    for (int i = 0; i < partitions.length; i++)
+    {
+      synchronized (partitions[i])
+      {
+        partitions[i].notifyAll();
+      }
+    }
+
+    for (int i = 0; i < writers.length; i++)
+    {
+      try
+      {
+        writers[i].join();
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  private void write(Partition partition)
+  {
+    while (true)
+    {
+      List<Entry> batch = new ArrayList<Entry>();
+
+      synchronized (partition)
+      {
+        try
+        {
+          while (running && (flushing.get() == 0) && (partition.entries.size() < batchSize))
+          {
+            if (partition.entries.isEmpty())
+            {
+              partition.wait();
+            }
+            else
+            {
+              long wait = partition.entries.values().iterator().next().queued + interval
+                  - System.currentTimeMillis();
+
+              if (wait <= 0)
+              {
+                break;
+              }
+
+              partition.wait(wait);
+            }
+          }
+        }
+        catch (InterruptedException e)
+        {
+          return;
+        }
+
+        if (partition.entries.isEmpty())
+        {
+          if (!running)
+          {
+            return;
+          }
+          continue;
+        }
+
+        Iterator<Entry> it = partition.entries.values().iterator();
+
+        while (it.hasNext() && (batch.size() < batchSize))
+        {
+          batch.add(it.next());
+          it.remove();
+        }
+
+        partition.writing = true;
+        partition.notifyAll();
+      }
+
+      try
+      {
+        write(batch);
+      }
+      finally
+      {
+        synchronized (partition)
+        {
+          partition.writing = false;
+          partition.notifyAll();
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes a batch of saves, with one batchUpdate for each class, save method and strategy in it.
+   */
+  private void write(List<Entry> batch)
+  {
+    Map<List<Object>, List<ValueObject>> groups = new LinkedHashMap<List<Object>, List<ValueObject>>();
+    long oldest = Long.MAX_VALUE;
+
+    for (int i = 0; i < batch.size(); i++)
+    {
+      Entry entry = batch.get(i);
+      List<Object> group = Arrays.asList(new Object[] { entry.strategy, entry.copy.getClass(), entry.methodName });
+      List<ValueObject> objects = groups.get(group);
+
+      if (objects == null)
+      {
+        objects = new ArrayList<ValueObject>();
+        groups.put(group, objects);
+      }
+
+      // copied before an earlier save of the new object was written, which has since given the object its id
+      if (isNew(entry.copy) && !isNew(entry.object))
+      {
+        entry.copy.setId(entry.object.getId());
+      }
+
+      objects.add(entry.copy);
+      oldest = Math.min(oldest, entry.queued);
+    }
+
+    Iterator<Map.Entry<List<Object>, List<ValueObject>>> it = groups.entrySet().iterator();
+
+    while (it.hasNext())
+    {
+      Map.Entry<List<Object>, List<ValueObject>> group = it.next();
+      GenericPersistenceStrategy strategy = (GenericPersistenceStrategy) group.getKey().get(0);
+      String methodName = (String) group.getKey().get(2);
+      List<ValueObject> objects = group.getValue();
+
+      try
+      {
+        writtenCount.addAndGet(strategy.batchUpdate(null, objects, methodName));
+      }
+      catch (Exception e)
+      {
+        int failed = 0;
+        for (int i = 0; i < objects.size(); i++)
+        {
+          if (objects.get(i).isModified()) failed++;
+        }
+
+        writtenCount.addAndGet(objects.size() - failed);
+        failureCount.addAndGet(failed);
+        System.out.println("Write-behind of " + failed + " " + group.getKey().get(1) + " failed: " + e.getMessage());
+      }
+    }
+
+    synchronized (latest)
+    {
+      for (int i = 0; i < batch.size(); i++)
+      {
+        Entry entry = batch.get(i);
+        boolean written = !entry.copy.isModified();
+
+        if (written && isNew(entry.object) && !isNew(entry.copy))
+        {
+          entry.object.setId(entry.copy.getId());
+        }
+
+        // saved again while this was written, the object stays modified for the newer save
+        if (latest.get(entry.object) == entry)
+        {
+          latest.remove(entry.object);
+
+          if (written)
+          {
+            entry.object.setIsModified(false);
+          }
+        }
+      }
+    }
+
+    long lag = System.currentTimeMillis() - oldest;
+    lastLag = lag;
+
+    long max = maxLag.get();
+    while ((lag > max) && !maxLag.compareAndSet(max, lag))
+    {
+      max = maxLag.get();
+    }
+  }
+
+  /**
+   * Returns the number of saves waiting to be written.
+   */
+  public int getQueueSize()
+  {
+    int size = 0;
+
+    for (int i = 0; i < partitions.length; i++)
+    {
+      synchronized (partitions[i])
+      {
+        size += partitions[i].entries.size();
+      }
+    }
+
+    return size;
+  }
+
+  /**
+   * Returns how long, in millis, the oldest save waiting has been queued, or 0 if none is.
+   */
+  public long getOldestAge()
+  {
+    long oldest = Long.MAX_VALUE;
+
+    for (int i = 0; i < partitions.length; i++)
+    {
+      synchronized (partitions[i])
+      {
+        if (!partitions[i].entries.isEmpty())
+        {
+          oldest = Math.min(oldest, partitions[i].entries.values().iterator().next().queued);
+        }
+      }
+    }
+
+    return (oldest == Long.MAX_VALUE) ? 0 : System.currentTimeMillis() - oldest;
+  }
+
+  /**
+   * Returns how long, in millis, the oldest save of the last batch written waited from being queued to being written.
+   */
+  public long getLastLag()
+  {
+    return lastLag;
+  }
+
+  /**
+   * Returns the longest any batch's oldest save has waited to be written, in millis.
+   */
+  public long getMaxLag()
+  {
+    return maxLag.get();
+  }
+
+  /**
+   * Returns the number of saves queued, not counting those that replaced a save already queued.
+   */
+  public long getQueuedCount()
+  {
+    return queuedCount.get();
+  }
+
+  /**
+   * Returns the number of saves that replaced a save already queued for the same object.
+   */
+  public long getCoalescedCount()
+  {
+    return coalescedCount.get();
+  }
+
+  /**
+   * Returns the number of objects written.
+   */
+  public long getWrittenCount()
+  {
+    return writtenCount.get();
+  }
+
+  /**
+   * Returns the number of objects whose write failed.
+   */
+  public long getFailureCount()
+  {
+    return failureCount.get();
+  }
+
+  /**
+   * Returns the number of saves that waited because the queue was full.
+   */
+  public long getBlockedCount()
+  {
+    return blockedCount.get();
+  }
+
+  /**
+   * Returns the total time, in millis, saves have waited because the queue was full.
+   */
+  public long getBlockedTime()
+  {
+    return blockedTime.get();
+  }
+
+  /**
+   * Whether save() treats the object as new: its id is null or 0.
+   */
+  private static boolean isNew(ValueObject object)
+  {
+    Integer id = object.getId();
+
+    return (id == null) || (id.intValue() == 0);
+  }
+
+  private static long getNumber(String key, long defaultValue)
+  {
+    try
+    {
+      String value = CFactory.instance().getProperty(key);
+      if ((value != null) && (value.trim().length() > 0))
+      {
+        return Long.parseLong(value.trim());
+      }
+    }
+    catch (IllegalStateException noConfig)
+    {
+    }
+    catch (NumberFormatException badValue)
+    {
+      System.out.println("Ignoring " + key + ": " + badValue.getMessage());
+    }
+
+    return defaultValue;
+  }
+
+  /**
+   * The saves queued for one writer, oldest first.
+   */
+  private static class Partition
+  {
+    final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>();
+
+    final int capacity;
+
+    /** Whether the writer is writing saves it has taken out of entries. */
+    boolean writing = false;
+
+    Partition(int capacity)
+    {
+      this.capacity = capacity;
+    }
+  }
+
+  private static class Entry
+  {
+    /** The object saved. */
+    ValueObject object;
+
+    /** The copy of it taken by the save, which is what is written. */
+    ValueObject copy;
+
+    final String methodName;
+
+    GenericPersistenceStrategy strategy;
+
+    /** When the first save of this key was queued; later saves that replace it keep its place and time. */
+    final long queued = System.currentTimeMillis();
+
+    Entry(ValueObject object, ValueObject copy, String methodName, GenericPersistenceStrategy strategy)
+    {
+      this.object = object;
+      this.copy = copy;
+      this.methodName = methodName;
+      this.strategy = strategy;
+    }
+  }
+
+  /**
+   * Identifies the saves that replace each other: class, save method and id, or the object itself while its id is null
+   * or 0.
+   */
+  private static final class Key
+  {
+    private final Class type;
+
+    private final String methodName;
+
+    private final Integer id;
+
+    private final ValueObject object;
+
+    Key(ValueObject object, String methodName)
+    {
+      this.type = object.getClass();
+      this.methodName = methodName;
+      this.id = isNew(object) ? null : object.getId();
+      this.object = (id == null) ? object : null;
+    }
+
+    public boolean equals(Object o)
+    {
+      if (!(o instanceof Key))
+      {
+        return false;
+      }
+
+      Key other = (Key) o;
+
+      if ((type != other.type) || !methodName.equals(other.methodName))
+      {
+        return false;
+      }
+
+      return (id == null) ? (object == other.object) : id.equals(other.id);
+    }
+
+    public int hashCode()
+    {
+      return (id == null) ? System.identityHashCode(object) : (type.hashCode() * 31 + id.hashCode());
+    }
+  }
+}
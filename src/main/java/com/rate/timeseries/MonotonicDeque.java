@@ -0,0 +1,93 @@
+package com.rate.timeseries;
+
+/**
+ * The running maximum (or minimum) of a sliding time window. Holds only the ticks that can still become the extreme:
+ * each one later and lower (or higher) than the one before it, so the extreme is always at the head. Each tick is
+ * added and removed at most once, so a tick costs O(1) amortized. Primitive ring buffers, grown by doubling. Not
+ * thread-safe.
+ */
+class MonotonicDeque
+{
+  private final boolean max;
+
+  private long[] times = new long[16];
+
+  private double[] values = new double[16];
+
+  private int head;
+
+  private int size;
+
+  MonotonicDeque(boolean max)
+  {
+    this.max = max;
+  }
+
+  /**
+   * Adds a value, dropping the values it supersedes. Times must not decrease.
+   */
+  void add(long time, double value)
+  {
+    while ((size > 0) && (max ? (last() <= value) : (last() >= value)))
+    {
+      size--;
+    }
+
+    if (size == times.length)
+    {
+      grow();
+    }
+
+    int index = (head + size) & (times.length - 1);
+    times[index] = time;
+    values[index] = value;
+    size++;
+  }
+
+  /**
+   * Drops the values at or before the time.
+   */
+  void expire(long time)
+  {
+    while ((size > 0) && (times[head] <= time))
+    {
+      head = (head + 1) & (times.length - 1);
+      size--;
+    }
+  }
+
+  boolean isEmpty()
+  {
+    return size == 0;
+  }
+
+  /**
+   * Returns the extreme of the window, or NaN if it is empty.
+   */
+  double get()
+  {
+    return (size == 0) ? Double.NaN : values[head];
+  }
+
+  private double last()
+  {
+    return values[(head + size - 1) & (times.length - 1)];
+  }
+
+  private void grow()
+  {
+    long[] newTimes = new long[times.length * 2];
+    double[] newValues = new double[values.length * 2];
+
+    for (int i = 0; i < size; i++)
+    {
+      int index = (head + i) & (times.length - 1);
+      newTimes[i] = times[index];
+      newValues[i] = values[index];
+    }
+
+    times = newTimes;
+    values = newValues;
+    head = 0;
+  }
+}
@@ -0,0 +1,206 @@
+package com.rate.timeseries;
+
+import java.sql.Timestamp;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.rate.configuration.CFactory;
+import com.rate.entity.TwentyMinHighOrLow;
+
+/**
+ * Keeps the rolling high and low price of each symbol over a window of <code>timeseries.highlow.minutes</code>
+ * (default 20), fed tick by tick as the minute line is parsed. Each time a tick changes a symbol's high or low, a
+ * TwentyMinHighOrLow with the new values is passed to the listener. Ticks not after a symbol's last tick are ignored.
+ * <P>
+ * The window of each symbol is a pair of MonotonicDeques, so a tick costs O(1) amortized whatever the window's length,
+ * and no history is read back.
+ * </P>
+ */
+public class RollingHighLow
+{
+  public static final String WINDOW_PROPERTY = "timeseries.highlow.minutes";
+
+  private static final int DEFAULT_WINDOW_MINUTES = 20;
+
+  /**
+   * Receives the records emitted.
+   */
+  public static interface Listener
+  {
+    public void highOrLow(TwentyMinHighOrLow record);
+  }
+
+  private final long window;
+
+  private final Listener listener;
+
+  private final ConcurrentMap<String, Window> windows = new ConcurrentHashMap<String, Window>();
+
+  /**
+   * Creates an operator with the configured window.
+   */
+  public RollingHighLow(Listener listener)
+  {
+    this(getWindowMinutes() * 60000L, listener);
+  }
+
+  /**
+   * @param window
+   *          The length of the window, in millis. A tick stays in the window until a tick this much later arrives.
+   * @param listener
+   *          Receives the records emitted; may be null if the values are only read with getHigh() and getLow().
+   */
+  public RollingHighLow(long window, Listener listener)
+  {
+    if (window <= 0)
+    {
+      throw new IllegalArgumentException("Window must be positive: " + window);
+    }
+
+    this.window = window;
+    this.listener = listener;
+  }
+
+  /**
+   * Adds a tick to the symbol's window.
+   * 
+   * @param stockId
+   *          The id set on the records emitted for the symbol; may be null.
+   * @return The record emitted, or null if the tick did not change the high or low.
+   */
+  public TwentyMinHighOrLow tick(String symbol, Integer stockId, long time, double price)
+  {
+    Window stockWindow = windows.get(symbol);
+
+    if (stockWindow == null)
+    {
+      Window created = new Window();
+
+      stockWindow = windows.putIfAbsent(symbol, created);
+      if (stockWindow == null)
+      {
+        stockWindow = created;
+      }
+    }
+
+    TwentyMinHighOrLow record = stockWindow.tick(symbol, stockId, time, price);
+
+    if ((record != null) && (listener != null))
+    {
+      listener.highOrLow(record);
+    }
+
+    return record;
+  }
+
+  /**
+   * Returns the symbol's current high, or NaN if no ticks have been seen for it.
+   */
+  public double getHigh(String symbol)
+  {
+    Window stockWindow = windows.get(symbol);
+
+    return (stockWindow == null) ? Double.NaN : stockWindow.getHigh();
+  }
+
+  /**
+   * Returns the symbol's current low, or NaN if no ticks have been seen for it.
+   */
+  public double getLow(String symbol)
+  {
+    Window stockWindow = windows.get(symbol);
+
+    return (stockWindow == null) ? Double.NaN : stockWindow.getLow();
+  }
+
+  public long getWindow()
+  {
+    return window;
+  }
+
+  private static int getWindowMinutes()
+  {
+    try
+    {
+      String value = CFactory.instance().getProperty(WINDOW_PROPERTY);
+      if ((value != null) && (value.trim().length() > 0))
+      {
+        int minutes = Integer.parseInt(value.trim());
+        if (minutes > 0)
+        {
+          return minutes;
+        }
+      }
+    }
+    catch (IllegalStateException noConfig)
+    {
+    }
+    catch (NumberFormatException badValue)
+    {
+      System.out.println("Ignoring " + WINDOW_PROPERTY + ": " + badValue.getMessage());
+    }
+
+    return DEFAULT_WINDOW_MINUTES;
+  }
+
+  /**
+   * The window of one symbol.
+   */
+  private class Window
+  {
+    private final MonotonicDeque highs = new MonotonicDeque(true);
+
+    private final MonotonicDeque lows = new MonotonicDeque(false);
+
+    private long lastTime = Long.MIN_VALUE;
+
+    private double high = Double.NaN;
+
+    private double low = Double.NaN;
+
+    synchronized TwentyMinHighOrLow tick(String symbol, Integer stockId, long time, double price)
+    {
+      if (time <= lastTime)
+      {
+        return null;
+      }
+
+      lastTime = time;
+
+      highs.add(time, price);
+      lows.add(time, price);
+      highs.expire(time - window);
+      lows.expire(time - window);
+
+      double newHigh = highs.get();
+      double newLow = lows.get();
+
+      if ((newHigh == high) && (newLow == low))
+      {
+        return null;
+      }
+
+      high = newHigh;
+      low = newLow;
+
+      TwentyMinHighOrLow record = new TwentyMinHighOrLow();
+      record.setName(symbol);
+      record.setStockId(stockId);
+      record.setAdded(new Timestamp(time));
+      record.setHigh(Double.valueOf(high));
+      record.setLow(Double.valueOf(low));
+
+      return record;
+    }
+
+    synchronized double getHigh()
+    {
+      return high;
+    }
+
+    synchronized double getLow()
+    {
+      return low;
+    }
+  }
+}
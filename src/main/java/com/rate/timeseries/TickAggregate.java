@@ -0,0 +1,124 @@
+package com.rate.timeseries;
+
+/**
+ * Open, high, low, close, volume and volume-weighted average price of the ticks in a time range. Built by passing it to
+ * a scan as the visitor; TickSeries.aggregate() does this for a whole range or for each interval of a range.
+ */
+public class TickAggregate implements TickVisitor
+{
+  private final long start;
+
+  private int count;
+
+  private long firstTime;
+
+  private long lastTime;
+
+  private double open;
+
+  private double close;
+
+  private double high = Double.NaN;
+
+  private double low = Double.NaN;
+
+  private double volume;
+
+  private double priceVolume;
+
+  /**
+   * @param start
+   *          The start of the range aggregated, in epoch millis.
+   */
+  public TickAggregate(long start)
+  {
+    this.start = start;
+  }
+
+  public void tick(long time, double price, double volume)
+  {
+    if (count == 0)
+    {
+      firstTime = time;
+      open = price;
+      high = price;
+      low = price;
+    }
+    else
+    {
+      high = Math.max(high, price);
+      low = Math.min(low, price);
+    }
+
+    count++;
+    lastTime = time;
+    close = price;
+    this.volume += volume;
+    priceVolume += price * volume;
+  }
+
+  public long getStart()
+  {
+    return start;
+  }
+
+  public int getCount()
+  {
+    return count;
+  }
+
+  public long getFirstTime()
+  {
+    return firstTime;
+  }
+
+  public long getLastTime()
+  {
+    return lastTime;
+  }
+
+  public double getOpen()
+  {
+    return open;
+  }
+
+  public double getClose()
+  {
+    return close;
+  }
+
+  /**
+   * Returns the highest price, or NaN if there were no ticks.
+   */
+  public double getHigh()
+  {
+    return high;
+  }
+
+  /**
+   * Returns the lowest price, or NaN if there were no ticks.
+   */
+  public double getLow()
+  {
+    return low;
+  }
+
+  public double getVolume()
+  {
+    return volume;
+  }
+
+  /**
+   * Returns the volume-weighted average price, or NaN if no volume was traded.
+   */
+  public double getVwap()
+  {
+    return (volume > 0) ? priceVolume / volume : Double.NaN;
+  }
+
+  public String toString()
+  {
+    return "TickAggregate[start=" + start + ", count=" + count + ", open=" + open + ", high=" + high + ", low=" + low
+        + ", close=" + close + ", volume=" + volume + "]";
+  }
+}
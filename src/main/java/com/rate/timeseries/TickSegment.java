@@ -0,0 +1,94 @@
+package com.rate.timeseries;
+
+/**
+ * A fixed-size chunk of a TickSeries, holding ticks in primitive columns in time order. Only appended to, by one thread
+ * at a time; the size is volatile and written after the columns, so readers see every tick below the size they read
+ * without locking.
+ */
+class TickSegment
+{
+  final long[] times;
+
+  final double[] prices;
+
+  final double[] volumes;
+
+  private volatile int size;
+
+  TickSegment(int capacity)
+  {
+    times = new long[capacity];
+    prices = new double[capacity];
+    volumes = new double[capacity];
+  }
+
+  /**
+   * Appends a tick. The caller checks that the segment is not full and that the time is after the last one.
+   */
+  void append(long time, double price, double volume)
+  {
+    int index = size;
+
+    times[index] = time;
+    prices[index] = price;
+    volumes[index] = volume;
+
+    size = index + 1;
+  }
+
+  int size()
+  {
+    return size;
+  }
+
+  boolean isFull()
+  {
+    return size == times.length;
+  }
+
+  int capacity()
+  {
+    return times.length;
+  }
+
+  /**
+   * Visits the ticks with from <= time < to among the first count ticks, and returns how many were visited.
+   */
+  int scan(int count, long from, long to, TickVisitor visitor)
+  {
+    int visited = 0;
+
+    for (int i = indexOf(count, from); (i < count) && (times[i] < to); i++)
+    {
+      visitor.tick(times[i], prices[i], volumes[i]);
+      visited++;
+    }
+
+    return visited;
+  }
+
+  /**
+   * Returns the index of the first of the first count ticks at or after the time, or count if there is none.
+   */
+  private int indexOf(int count, long time)
+  {
+    int low = 0;
+    int high = count;
+
+    while (low < high)
+    {
+      int mid = (low + high) >>> 1;
+
+      if (times[mid] < time)
+      {
+        low = mid + 1;
+      }
+      else
+      {
+        high = mid;
+      }
+    }
+
+    return low;
+  }
+}
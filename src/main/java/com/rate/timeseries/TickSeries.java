@@ -0,0 +1,237 @@
+package com.rate.timeseries;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The ticks of one symbol, in time order, held in a chain of fixed-size TickSegments. Appends are synchronized and
+ * must be in strictly increasing time; scans take no lock and see every tick appended before they started.
+ * <P>
+ * A tick costs 24 bytes of columns, against several hundred for a Stock with its boxed fields, so months of minute
+ * data fit in memory. Old data is dropped a segment at a time with trimBefore().
+ * </P>
+ */
+public class TickSeries
+{
+  private final String symbol;
+
+  private final int segmentSize;
+
+  /** Replaced, never changed, when a segment is added or trimmed. */
+  private volatile TickSegment[] segments = new TickSegment[0];
+
+  public TickSeries(String symbol, int segmentSize)
+  {
+    if (segmentSize <= 0)
+    {
+      throw new IllegalArgumentException("Segment size must be positive: " + segmentSize);
+    }
+
+    this.symbol = symbol;
+    this.segmentSize = segmentSize;
+  }
+
+  public String getSymbol()
+  {
+    return symbol;
+  }
+
+  /**
+   * Appends a tick, unless its time is not after the last tick's, as happens when the same minutes are read again.
+   * 
+   * @return Whether the tick was appended.
+   */
+  public synchronized boolean append(long time, double price, double volume)
+  {
+    TickSegment[] current = segments;
+    TickSegment last = (current.length == 0) ? null : current[current.length - 1];
+
+    if ((last != null) && (time <= last.times[last.size() - 1]))
+    {
+      return false;
+    }
+
+    if ((last == null) || last.isFull())
+    {
+      // filled before it is published, so readers never see an empty segment
+      TickSegment added = new TickSegment(segmentSize);
+      added.append(time, price, volume);
+
+      TickSegment[] grown = new TickSegment[current.length + 1];
+      System.arraycopy(current, 0, grown, 0, current.length);
+      grown[current.length] = added;
+
+      segments = grown;
+
+      return true;
+    }
+
+    last.append(time, price, volume);
+
+    return true;
+  }
+
+  /**
+   * Returns the number of ticks held.
+   */
+  public int size()
+  {
+    TickSegment[] current = segments;
+    int size = 0;
+
+    for (int i = 0; i < current.length; i++)
+    {
+      size += current[i].size();
+    }
+
+    return size;
+  }
+
+  /**
+   * Returns the time of the first tick held, or Long.MIN_VALUE if there are none.
+   */
+  public long getFirstTime()
+  {
+    TickSegment[] current = segments;
+
+    return (current.length == 0) ? Long.MIN_VALUE : current[0].times[0];
+  }
+
+  /**
+   * Returns the time of the last tick held, or Long.MIN_VALUE if there are none.
+   */
+  public long getLastTime()
+  {
+    TickSegment[] current = segments;
+
+    if (current.length == 0)
+    {
+      return Long.MIN_VALUE;
+    }
+
+    TickSegment last = current[current.length - 1];
+
+    return last.times[last.size() - 1];
+  }
+
+  /**
+   * Visits the ticks with from <= time < to, in time order.
+   * 
+   * @return The number of ticks visited.
+   */
+  public int scan(long from, long to, TickVisitor visitor)
+  {
+    TickSegment[] current = segments;
+    int visited = 0;
+
+    for (int i = 0; i < current.length; i++)
+    {
+      TickSegment segment = current[i];
+      int count = segment.size();
+
+      if (segment.times[0] >= to)
+      {
+        break;
+      }
+
+      if (segment.times[count - 1] >= from)
+      {
+        visited += segment.scan(count, from, to, visitor);
+      }
+    }
+
+    return visited;
+  }
+
+  /**
+   * Aggregates the ticks with from <= time < to.
+   */
+  public TickAggregate aggregate(long from, long to)
+  {
+    TickAggregate aggregate = new TickAggregate(from);
+
+    scan(from, to, aggregate);
+
+    return aggregate;
+  }
+
+  /**
+   * Aggregates the ticks with from <= time < to into bars of the interval, starting at from. Intervals without ticks
+   * are left out.
+   */
+  public List<TickAggregate> aggregate(final long from, long to, final long interval)
+  {
+    if (interval <= 0)
+    {
+      throw new IllegalArgumentException("Interval must be positive: " + interval);
+    }
+
+    final List<TickAggregate> bars = new ArrayList<TickAggregate>();
+
+    scan(from, to, new TickVisitor()
+    {
+      private TickAggregate bar;
+
+      public void tick(long time, double price, double volume)
+      {
+        long start = from + (((time - from) / interval) * interval);
+
+        if ((bar == null) || (bar.getStart() != start))
+        {
+          bar = new TickAggregate(start);
+          bars.add(bar);
+        }
+
+        bar.tick(time, price, volume);
+      }
+    });
+
+    return bars;
+  }
+
+  /**
+   * Drops the segments whose ticks are all before the time. Ticks before it that share a segment with later ones are
+   * kept.
+   * 
+   * @return The number of ticks dropped.
+   */
+  public synchronized int trimBefore(long time)
+  {
+    TickSegment[] current = segments;
+    int drop = 0;
+    int dropped = 0;
+
+    // the last segment is kept, so appends can still check against its last time
+    while ((drop < current.length - 1) && (current[drop].times[current[drop].size() - 1] < time))
+    {
+      dropped += current[drop].size();
+      drop++;
+    }
+
+    if (drop > 0)
+    {
+      TickSegment[] trimmed = new TickSegment[current.length - drop];
+      System.arraycopy(current, drop, trimmed, 0, trimmed.length);
+
+      segments = trimmed;
+    }
+
+    return dropped;
+  }
+
+  /**
+   * Returns the bytes allocated to the columns, counting unused capacity in the last segment.
+   */
+  public long getEstimatedBytes()
+  {
+    TickSegment[] current = segments;
+    long bytes = 0;
+
+    for (int i = 0; i < current.length; i++)
+    {
+      bytes += current[i].capacity() * 24L;
+    }
+
+    return bytes;
+  }
+}
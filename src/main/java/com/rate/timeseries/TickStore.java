@@ -0,0 +1,240 @@
+package com.rate.timeseries;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.rate.configuration.CFactory;
+
+/**
+ * Holds a TickSeries for each symbol. Series are created on the first append, with segments of
+ * <code>timeseries.segment.size</code> ticks (default 2048, about five trading days of minutes). As ticks are
+ * appended, segments whose ticks are all older than <code>timeseries.retention.hours</code> (default 168, a week)
+ * before the newest tick of the symbol are dropped; 0 keeps every tick.
+ */
+public class TickStore
+{
+  public static final String SEGMENT_SIZE_PROPERTY = "timeseries.segment.size";
+
+  private static final int DEFAULT_SEGMENT_SIZE = 2048;
+
+  public static final String RETENTION_PROPERTY = "timeseries.retention.hours";
+
+  private static final long DEFAULT_RETENTION_HOURS = 168;
+
+  private static volatile TickStore instance;
+
+  private final ConcurrentMap<String, TickSeries> seriesBySymbol = new ConcurrentHashMap<String, TickSeries>();
+
+  private final int segmentSize;
+
+  /** How long, in millis, ticks are kept before the newest of their symbol; 0 for ever. */
+  private final long retention;
+
+  /**
+   * Creates a store whose series use segments of the given number of ticks, and keep every tick.
+   */
+  public TickStore(int segmentSize)
+  {
+    this(segmentSize, 0);
+  }
+
+  /**
+   * Creates a store whose series use segments of the given number of ticks, and keep ticks for the given millis before
+   * the newest of their symbol, or for ever if that is 0.
+   */
+  public TickStore(int segmentSize, long retention)
+  {
+    this.segmentSize = segmentSize;
+    this.retention = Math.max(0, retention);
+  }
+
+  /**
+   * Returns the store shared by the application.
+   */
+  public static TickStore getInstance()
+  {
+    if (instance == null)
+    {
+      synchronized (TickStore.class)
+      {
+        if (instance == null)
+        {
+          instance = new TickStore(getSegmentSize(), getRetentionHours() * 60 * 60 * 1000);
+        }
+      }
+    }
+
+    return instance;
+  }
+
+  /**
+   * Returns the series of the symbol, or null if nothing has been appended for it.
+   */
+  public TickSeries getSeries(String symbol)
+  {
+    return seriesBySymbol.get(symbol);
+  }
+
+  /**
+   * Returns the series of the symbol, creating it if need be.
+   */
+  public TickSeries getOrCreateSeries(String symbol)
+  {
+    TickSeries series = seriesBySymbol.get(symbol);
+
+    if (series == null)
+    {
+      TickSeries created = new TickSeries(symbol, segmentSize);
+
+      series = seriesBySymbol.putIfAbsent(symbol, created);
+      if (series == null)
+      {
+        series = created;
+      }
+    }
+
+    return series;
+  }
+
+  /**
+   * Appends a tick to the symbol's series, dropping the segments of the series that have passed the retention.
+   * 
+   * @return Whether the tick was appended; false if it is not after the last tick held for the symbol.
+   */
+  public boolean append(String symbol, long time, double price, double volume)
+  {
+    TickSeries series = getOrCreateSeries(symbol);
+    boolean appended = series.append(time, price, volume);
+
+    // only the first segment is checked unless it is old, so this is cheap on every append
+    if (appended && (retention > 0) && (series.getFirstTime() < time - retention))
+    {
+      series.trimBefore(time - retention);
+    }
+
+    return appended;
+  }
+
+  /**
+   * Visits the symbol's ticks with from <= time < to, in time order.
+   * 
+   * @return The number of ticks visited.
+   */
+  public int scan(String symbol, long from, long to, TickVisitor visitor)
+  {
+    TickSeries series = getSeries(symbol);
+
+    return (series == null) ? 0 : series.scan(from, to, visitor);
+  }
+
+  /**
+   * Aggregates the symbol's ticks with from <= time < to.
+   */
+  public TickAggregate aggregate(String symbol, long from, long to)
+  {
+    TickSeries series = getSeries(symbol);
+
+    return (series == null) ? new TickAggregate(from) : series.aggregate(from, to);
+  }
+
+  /**
+   * Aggregates the symbol's ticks with from <= time < to into bars of the interval. Intervals without ticks are left
+   * out.
+   */
+  public List<TickAggregate> aggregate(String symbol, long from, long to, long interval)
+  {
+    TickSeries series = getSeries(symbol);
+
+    return (series == null) ? Collections.<TickAggregate> emptyList() : series.aggregate(from, to, interval);
+  }
+
+  public Set<String> getSymbols()
+  {
+    return Collections.unmodifiableSet(seriesBySymbol.keySet());
+  }
+
+  /**
+   * Drops, from every series, the segments whose ticks are all before the time.
+   * 
+   * @return The number of ticks dropped.
+   */
+  public int trimBefore(long time)
+  {
+    int dropped = 0;
+
+    for (TickSeries series : seriesBySymbol.values())
+    {
+      dropped += series.trimBefore(time);
+    }
+
+    return dropped;
+  }
+
+  /**
+   * Returns the bytes allocated to the columns of every series.
+   */
+  public long getEstimatedBytes()
+  {
+    long bytes = 0;
+
+    for (TickSeries series : seriesBySymbol.values())
+    {
+      bytes += series.getEstimatedBytes();
+    }
+
+    return bytes;
+  }
+
+  private static long getRetentionHours()
+  {
+    try
+    {
+      String value = CFactory.instance().getProperty(RETENTION_PROPERTY);
+      if ((value != null) && (value.trim().length() > 0))
+      {
+        long hours = Long.parseLong(value.trim());
+        if (hours >= 0)
+        {
+          return hours;
+        }
+      }
+    }
+    catch (IllegalStateException noConfig)
+    {
+    }
+    catch (NumberFormatException badValue)
+    {
+      System.out.println("Ignoring " + RETENTION_PROPERTY + ": " + badValue.getMessage());
+    }
+
+    return DEFAULT_RETENTION_HOURS;
+  }
+
+  private static int getSegmentSize()
+  {
+    try
+    {
+      String value = CFactory.instance().getProperty(SEGMENT_SIZE_PROPERTY);
+      if ((value != null) && (value.trim().length() > 0))
+      {
+        int size = Integer.parseInt(value.trim());
+        if (size > 0)
+        {
+          return size;
+        }
+      }
+    }
+    catch (IllegalStateException noConfig)
+    {
+    }
+    catch (NumberFormatException badValue)
+    {
+      System.out.println("Ignoring " + SEGMENT_SIZE_PROPERTY + ": " + badValue.getMessage());
+    }
+
+    return DEFAULT_SEGMENT_SIZE;
+  }
+}
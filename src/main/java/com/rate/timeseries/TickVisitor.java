@@ -0,0 +1,19 @@
+package com.rate.timeseries;
+
+/**
+ * Receives the ticks of a range scan, in time order.
+ */
+public interface TickVisitor
+{
+  /**
+   * Called once for each tick in the range.
+   * 
+   * @param time
+   *          The time of the tick, in epoch millis.
+   * @param price
+   *          The price at that time.
+   * @param volume
+   *          The volume traded in the tick.
+   */
+  public void tick(long time, double price, double volume);
+}
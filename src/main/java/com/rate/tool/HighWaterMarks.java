@@ -0,0 +1,161 @@
+package com.rate.tool;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.rate.configuration.CFactory;
+
+/**
+ * The time of the last tick stored for each symbol, so a poll only handles the ticks after it. Held in memory and
+ * saved to a local properties file, <code>ingestion.highwater.file</code> (default highwater.properties), so a restart
+ * carries on where it stopped. The file is written to a temporary file and moved into place, so a crash never leaves
+ * it half written.
+ */
+public class HighWaterMarks {
+
+	public static final String FILE_PROPERTY = "ingestion.highwater.file";
+
+	private static final String DEFAULT_FILE = "highwater.properties";
+
+	private final File file;
+
+	private final ConcurrentMap<String, AtomicLong> marks = new ConcurrentHashMap<String, AtomicLong>();
+
+	private volatile boolean dirty;
+
+	/**
+	 * Loads the marks from the configured file.
+	 */
+	public HighWaterMarks() {
+		this(new File(getFileName()));
+	}
+
+	/**
+	 * Loads the marks from the file, if it exists.
+	 */
+	public HighWaterMarks(File file) {
+		this.file = file;
+
+		if (file.exists()) {
+			Properties properties = new Properties();
+
+			try {
+				InputStream in = new FileInputStream(file);
+				try {
+					properties.load(in);
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				System.out.println("Could not read " + file + ": " + e.getMessage());
+			}
+
+			for (Iterator itr = properties.entrySet().iterator(); itr.hasNext();) {
+				Map.Entry entry = (Map.Entry) itr.next();
+
+				try {
+					marks.put((String) entry.getKey(), new AtomicLong(Long.parseLong(((String) entry.getValue()).trim())));
+				} catch (NumberFormatException badValue) {
+					System.out.println("Ignoring high-water mark of " + entry.getKey() + ": " + badValue.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the time of the last tick stored for the symbol, or Long.MIN_VALUE if none has been.
+	 */
+	public long get(String symbol) {
+		AtomicLong mark = marks.get(symbol);
+
+		return (mark == null) ? Long.MIN_VALUE : mark.get();
+	}
+
+	/**
+	 * Moves the symbol's mark up to the time, unless it is already there or later.
+	 */
+	public void advance(String symbol, long time) {
+		AtomicLong mark = marks.get(symbol);
+
+		if (mark == null) {
+			AtomicLong created = new AtomicLong(Long.MIN_VALUE);
+
+			mark = marks.putIfAbsent(symbol, created);
+			if (mark == null) {
+				mark = created;
+			}
+		}
+
+		long current;
+		while ((current = mark.get()) < time) {
+			if (mark.compareAndSet(current, time)) {
+				dirty = true;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Writes the marks to the file if they have moved since they were last written.
+	 */
+	public synchronized void save() throws IOException {
+		if (!dirty) {
+			return;
+		}
+		dirty = false;
+
+		Properties properties = new Properties();
+		for (Iterator<Map.Entry<String, AtomicLong>> itr = marks.entrySet().iterator(); itr.hasNext();) {
+			Map.Entry<String, AtomicLong> entry = itr.next();
+			properties.setProperty(entry.getKey(), Long.toString(entry.getValue().get()));
+		}
+
+		File directory = file.getAbsoluteFile().getParentFile();
+		File temp = File.createTempFile(file.getName(), ".tmp", directory);
+
+		try {
+			OutputStream out = new FileOutputStream(temp);
+			try {
+				properties.store(out, "Time of the last tick stored for each symbol, in epoch millis");
+			} finally {
+				out.close();
+			}
+
+			try {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException notAtomic) {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			dirty = true;
+			temp.delete();
+			throw e;
+		}
+	}
+
+	private static String getFileName() {
+		try {
+			String value = CFactory.instance().getProperty(FILE_PROPERTY);
+			if ((value != null) && (value.trim().length() > 0)) {
+				return value.trim();
+			}
+		} catch (IllegalStateException noConfig) {
+		}
+
+		return DEFAULT_FILE;
+	}
+}
@@ -0,0 +1,493 @@
+package com.rate.tool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Polls the minute line of many symbols concurrently. Each symbol is fetched on its own interval by a bounded pool of
+ * fetch threads, with at most a set number of fetches to one host at a time. A fetch parses the response into a batch,
+ * and the batches go through bounded queues to writer threads that pass each tick to the sink, each symbol always to
+ * the same writer. When the writers fall behind, the queues fill and fetchers wait on them, and symbols whose previous fetch has not finished skip their turn,
+ * so work never piles up without bound.
+ * <P>
+ * The URL of a symbol is the template formatted with the symbol, so a local stub server can stand in for the feed.
+ * </P>
+ */
+public class IngestionScheduler {
+
+	public static final String SINA_URL_TEMPLATE = "https://stock.finance.sina.com.cn/usstock/api/jsonp_v2.php/var%%20t1%1$s=/US_MinlineNService.getMinline?symbol=%1$s&day=1";
+
+	private final String urlTemplate;
+
+	private final MinuteLineParser.Handler sink;
+
+	private int fetchThreads = 8;
+
+	private int hostLimit = 4;
+
+	private int writerThreads = 2;
+
+	private int queueCapacity = 100;
+
+	private int timeout = 10000;
+
+	private HighWaterMarks marks;
+
+	private ScheduledExecutorService timer;
+
+	private ThreadPoolExecutor fetchers;
+
+	private Thread[] writers;
+
+	/** One queue per writer; a symbol always goes to the same writer, so its ticks are written in order. */
+	private List<BlockingQueue<TickBatch>> queues;
+
+	private volatile boolean stopping;
+
+	/** Released when stop() has finished; the threads are daemons, so this is what keeps a caller waiting. */
+	private volatile CountDownLatch stopped;
+
+	private final ConcurrentMap<String, Semaphore> hostPermits = new ConcurrentHashMap<String, Semaphore>();
+
+	private final ConcurrentMap<String, AtomicBoolean> inFlight = new ConcurrentHashMap<String, AtomicBoolean>();
+
+	private final AtomicLong fetchCount = new AtomicLong();
+
+	private final AtomicLong failureCount = new AtomicLong();
+
+	private final AtomicLong skipCount = new AtomicLong();
+
+	private final AtomicLong tickCount = new AtomicLong();
+
+	/**
+	 * @param urlTemplate
+	 *            The URL to fetch, with %1$s where the symbol goes.
+	 * @param sink
+	 *            Receives every tick, on the writer threads. Must be thread-safe if there is more than one writer. A
+	 *            BatchingHandler is flushed after each response's ticks.
+	 */
+	public IngestionScheduler(String urlTemplate, MinuteLineParser.Handler sink) {
+		this.urlTemplate = urlTemplate;
+		this.sink = sink;
+	}
+
+	/**
+	 * Polls each symbol given once a minute until the JVM is shut down, then writes what was already fetched.
+	 */
+	public static void main(String[] args) throws Exception {
+		HighWaterMarks marks = new HighWaterMarks();
+		ReadUrlUtil sink = new ReadUrlUtil();
+		sink.setHighWaterMarks(marks);
+		final IngestionScheduler scheduler = new IngestionScheduler(SINA_URL_TEMPLATE, sink);
+		scheduler.setHighWaterMarks(marks);
+		scheduler.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				try {
+					scheduler.stop(10000);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}, "Ingestion shutdown"));
+		for (int i = 0; i < args.length; i++) {
+			scheduler.addSymbol(args[i], 60000);
+		}
+		scheduler.awaitTermination();
+	}
+
+	/**
+	 * Sets the number of threads fetching at once across all hosts. Default 8.
+	 */
+	public void setFetchThreads(int fetchThreads) {
+		this.fetchThreads = fetchThreads;
+	}
+
+	/**
+	 * Sets the number of fetches from one host at once. Default 4.
+	 */
+	public void setHostLimit(int hostLimit) {
+		this.hostLimit = hostLimit;
+	}
+
+	/**
+	 * Sets the number of threads passing ticks to the sink. Default 2.
+	 */
+	public void setWriterThreads(int writerThreads) {
+		this.writerThreads = writerThreads;
+	}
+
+	/**
+	 * Sets the number of parsed batches that may wait for the writers, shared between them. Default 100.
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * Sets the connect and read timeout of a fetch, in millis. Default 10000.
+	 */
+	public void setTimeout(int timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Skips, while parsing, the ticks up to each symbol's mark, and saves the marks after each batch is written. The
+	 * sink moves the marks up as it stores ticks.
+	 */
+	public void setHighWaterMarks(HighWaterMarks marks) {
+		this.marks = marks;
+	}
+
+	/**
+	 * Starts the threads. Set the sizes first.
+	 */
+	public synchronized void start() {
+		if (timer != null) {
+			throw new IllegalStateException("Already started");
+		}
+
+		stopping = false;
+		stopped = new CountDownLatch(1);
+		queues = new ArrayList<BlockingQueue<TickBatch>>(writerThreads);
+		for (int i = 0; i < writerThreads; i++) {
+			queues.add(new ArrayBlockingQueue<TickBatch>(Math.max(1, queueCapacity / writerThreads)));
+		}
+		timer = new ScheduledThreadPoolExecutor(1, threadFactory("Ingestion timer"));
+		// fetches queue only while threads are busy; a symbol has at most one fetch queued or running
+		fetchers = new ThreadPoolExecutor(fetchThreads, fetchThreads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(Math.max(queueCapacity, fetchThreads)), threadFactory("Ingestion fetcher"));
+		fetchers.allowCoreThreadTimeOut(true);
+
+		writers = new Thread[writerThreads];
+		final ThreadPoolExecutor pool = fetchers;
+		for (int i = 0; i < writers.length; i++) {
+			final BlockingQueue<TickBatch> queue = queues.get(i);
+			writers[i] = new Thread(new Runnable() {
+				public void run() {
+					write(queue, pool);
+				}
+			}, "Ingestion writer " + (i + 1));
+			writers[i].setDaemon(true);
+			writers[i].start();
+		}
+	}
+
+	/**
+	 * Fetches the symbol now and then every interval until stop().
+	 */
+	public void addSymbol(final String symbol, long interval) {
+		inFlight.putIfAbsent(symbol, new AtomicBoolean());
+
+		timer.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				schedule(symbol);
+			}
+		}, 0, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops fetching, lets the writers finish the batches already fetched, and waits for them up to the time given.
+	 * Fetches still running then are not cut off: the writers stay up until the last of them has handed over its batch,
+	 * and write it after this returns.
+	 *
+	 * @return Whether everything fetched was written in time.
+	 */
+	public boolean stop(long wait) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + wait;
+		CountDownLatch latch;
+
+		synchronized (this) {
+			if (timer == null) {
+				return true;
+			}
+			latch = stopped;
+			timer.shutdownNow();
+			fetchers.shutdown();
+		}
+
+		stopping = true;
+		boolean done = fetchers.awaitTermination(wait, TimeUnit.MILLISECONDS);
+
+		for (int i = 0; i < writers.length; i++) {
+			writers[i].join(Math.max(1, deadline - System.currentTimeMillis()));
+			done &= !writers[i].isAlive();
+		}
+
+		synchronized (this) {
+			timer = null;
+		}
+		latch.countDown();
+
+		return done;
+	}
+
+	/**
+	 * Waits until stop() has finished, or returns at once if the scheduler was never started.
+	 */
+	public void awaitTermination() throws InterruptedException {
+		CountDownLatch current = stopped;
+		if (current != null) {
+			current.await();
+		}
+	}
+
+	private void schedule(final String symbol) {
+		final AtomicBoolean busy = inFlight.get(symbol);
+
+		if (!busy.compareAndSet(false, true)) {
+			skipCount.incrementAndGet();
+			return;
+		}
+
+		try {
+			fetchers.execute(new Runnable() {
+				public void run() {
+					try {
+						fetch(symbol);
+					} finally {
+						busy.set(false);
+					}
+				}
+			});
+		} catch (RejectedExecutionException full) {
+			busy.set(false);
+			skipCount.incrementAndGet();
+		}
+	}
+
+	private void fetch(String symbol) {
+		TickBatch batch = new TickBatch(marks);
+		Semaphore permits = null;
+
+		try {
+			URL url = new URL(String.format(urlTemplate, symbol));
+			permits = getPermits(url);
+			permits.acquire();
+
+			URLConnection connection = url.openConnection();
+			connection.setConnectTimeout(timeout);
+			connection.setReadTimeout(timeout);
+
+			InputStream is = connection.getInputStream();
+			try {
+				PARSERS.get().parse(is, batch);
+			} finally {
+				is.close();
+			}
+		} catch (InterruptedException interrupted) {
+			Thread.currentThread().interrupt();
+			return;
+		} catch (Exception e) {
+			failureCount.incrementAndGet();
+			System.out.println("Fetching " + symbol + " failed: " + e);
+			return;
+		} finally {
+			if (permits != null) {
+				permits.release();
+			}
+		}
+
+		fetchCount.incrementAndGet();
+
+		if (batch.count == 0) {
+			return;
+		}
+
+		try {
+			// blocks while the writer is behind
+			queues.get((symbol.hashCode() & 0x7fffffff) % queues.size()).put(batch);
+		} catch (InterruptedException interrupted) {
+			Thread.currentThread().interrupt();
+			failureCount.incrementAndGet();
+			System.out.println("Dropped " + batch.count + " ticks of " + symbol + ": interrupted waiting for a writer");
+		}
+	}
+
+	private Semaphore getPermits(URL url) {
+		String host = url.getHost() + ":" + url.getPort();
+		Semaphore permits = hostPermits.get(host);
+
+		if (permits == null) {
+			Semaphore created = new Semaphore(hostLimit);
+			permits = hostPermits.putIfAbsent(host, created);
+			if (permits == null) {
+				permits = created;
+			}
+		}
+
+		return permits;
+	}
+
+	private void write(BlockingQueue<TickBatch> queue, ThreadPoolExecutor pool) {
+		while (true) {
+			// read before polling: once the fetchers have terminated, every batch they put is already in the queue
+			boolean finished = stopping && pool.isTerminated();
+			TickBatch batch;
+
+			try {
+				batch = queue.poll(100, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException interrupted) {
+				return;
+			}
+
+			if (batch == null) {
+				if (finished) {
+					return;
+				}
+				continue;
+			}
+
+			for (int i = 0; i < batch.count; i++) {
+				try {
+					sink.tick(batch.name, batch.times[i], batch.volumes[i], batch.prices[i]);
+					tickCount.incrementAndGet();
+				} catch (Exception e) {
+					failureCount.incrementAndGet();
+					System.out.println("Writing " + batch.name + " failed: " + e);
+				}
+			}
+
+			if (sink instanceof MinuteLineParser.BatchingHandler) {
+				try {
+					((MinuteLineParser.BatchingHandler) sink).flush();
+				} catch (Exception e) {
+					failureCount.incrementAndGet();
+					System.out.println("Writing " + batch.name + " failed: " + e);
+				}
+			}
+
+			if (marks != null) {
+				try {
+					marks.save();
+				} catch (IOException e) {
+					System.out.println("Saving high-water marks failed: " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of responses fetched and parsed.
+	 */
+	public long getFetchCount() {
+		return fetchCount.get();
+	}
+
+	/**
+	 * Returns the number of fetches and ticks that failed.
+	 */
+	public long getFailureCount() {
+		return failureCount.get();
+	}
+
+	/**
+	 * Returns the number of turns skipped because the symbol's previous fetch had not finished or the pool was full.
+	 */
+	public long getSkipCount() {
+		return skipCount.get();
+	}
+
+	/**
+	 * Returns the number of ticks passed to the sink.
+	 */
+	public long getTickCount() {
+		return tickCount.get();
+	}
+
+	/**
+	 * Returns the number of batches waiting for a writer.
+	 */
+	public int getQueueSize() {
+		List<BlockingQueue<TickBatch>> current = queues;
+		int size = 0;
+		for (int i = 0; (current != null) && (i < current.size()); i++) {
+			size += current.get(i).size();
+		}
+		return size;
+	}
+
+	private static ThreadFactory threadFactory(final String name) {
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, name + " " + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	private static final ThreadLocal<MinuteLineParser> PARSERS = new ThreadLocal<MinuteLineParser>() {
+		protected MinuteLineParser initialValue() {
+			return new MinuteLineParser();
+		}
+	};
+
+	/**
+	 * The ticks of one response, in primitive columns.
+	 */
+	private static class TickBatch implements MinuteLineParser.IncrementalHandler {
+		final HighWaterMarks marks;
+
+		String name;
+
+		int count;
+
+		long[] times = new long[512];
+
+		double[] volumes = new double[512];
+
+		double[] prices = new double[512];
+
+		TickBatch(HighWaterMarks marks) {
+			this.marks = marks;
+		}
+
+		public long getLastTime(String name) {
+			return (marks == null) ? Long.MIN_VALUE : marks.get(name);
+		}
+
+		public void tick(String name, long time, double volume, double price) {
+			this.name = name;
+
+			if (count == times.length) {
+				int capacity = count * 2;
+				long[] newTimes = new long[capacity];
+				double[] newVolumes = new double[capacity];
+				double[] newPrices = new double[capacity];
+				System.arraycopy(times, 0, newTimes, 0, count);
+				System.arraycopy(volumes, 0, newVolumes, 0, count);
+				System.arraycopy(prices, 0, newPrices, 0, count);
+				times = newTimes;
+				volumes = newVolumes;
+				prices = newPrices;
+			}
+
+			times[count] = time;
+			volumes[count] = volume;
+			prices[count] = price;
+			count++;
+		}
+	}
+}
@@ -0,0 +1,333 @@
+package com.rate.tool;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Calendar;
+
+/**
+ * Parses the Sina minute-line JSONP response straight from the byte stream. The response looks like
+ * <code>var t1csbr=("2020-01-02 09:30:00,1200,x,10.5;...")</code>: records separated by ';' and fields by ','. Field
+ * 0 is the time, "yyyy-MM-dd HH:mm:ss" in local time, field 1 the volume and field 3 the price; a record holding only
+ * a time is skipped. Each field is copied into a small reused buffer and parsed there, so no Strings are made except
+ * the name. With an IncrementalHandler, records already stored are skipped after their time is read. Not thread-safe;
+ * use one per thread.
+ */
+public class MinuteLineParser {
+
+	/**
+	 * Receives each tick parsed.
+	 */
+	public static interface Handler {
+		public void tick(String name, long time, double volume, double price) throws Exception;
+	}
+
+	/**
+	 * A Handler that has already stored the ticks up to some time. Records up to that time are skipped once their time
+	 * is read, without parsing the rest of them.
+	 */
+	public static interface IncrementalHandler extends Handler {
+		/**
+		 * Returns the time of the last tick already stored for the name, or Long.MIN_VALUE if there is none.
+		 */
+		public long getLastTime(String name);
+	}
+
+	/**
+	 * A Handler that holds ticks back to store them together. Whoever passes it ticks calls flush() on the same thread
+	 * once a response has been passed.
+	 */
+	public static interface BatchingHandler extends Handler {
+		/**
+		 * Stores the ticks held back by this thread.
+		 */
+		public void flush() throws Exception;
+	}
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	private static final int TIMESTAMP_LENGTH = "yyyy-MM-dd HH:mm:ss".length();
+
+	private static final double[] POWERS_OF_TEN = new double[23];
+
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+
+	private final byte[] buffer = new byte[8192];
+
+	private final byte[] field = new byte[64];
+
+	private InputStream in;
+
+	private int position;
+
+	private int limit;
+
+	private final Calendar calendar = Calendar.getInstance();
+
+	/** The hour last converted to millis, as yyyyMMddHH, and the millis at its start. */
+	private long lastHour = -1;
+
+	private long lastHourMillis;
+
+	/**
+	 * Parses a whole response. The name is what comes between the sixth character and the '=', as in "csbr" in
+	 * <code>var t1csbr=</code>.
+	 *
+	 * @return The name.
+	 */
+	public String parse(InputStream in, Handler handler) throws Exception {
+		start(in);
+
+		StringBuilder name = new StringBuilder();
+		int b;
+		for (int i = 0; ((b = read()) != -1) && (b != '='); i++) {
+			if (i >= 6) {
+				name.append((char) b);
+			}
+		}
+
+		while ((b != -1) && (b != '"')) {
+			b = read();
+		}
+
+		if (b == -1) {
+			throw new Exception("No minute-line body in response");
+		}
+
+		String result = name.toString();
+		parseRecords(result, handler);
+
+		return result;
+	}
+
+	/**
+	 * Parses the records alone, as found between the quotes of a response, up to a '"' or the end of the stream.
+	 */
+	public void parseBody(InputStream in, String name, Handler handler) throws Exception {
+		start(in);
+		parseRecords(name, handler);
+	}
+
+	/**
+	 * Parses the records of a body already read into a String.
+	 */
+	public void parseBody(String body, String name, Handler handler) throws Exception {
+		parseBody(new ByteArrayInputStream(body.getBytes(ASCII)), name, handler);
+	}
+
+	private void start(InputStream in) {
+		this.in = in;
+		position = 0;
+		limit = 0;
+	}
+
+	private void parseRecords(String name, Handler handler) throws Exception {
+		long after = (handler instanceof IncrementalHandler) ? ((IncrementalHandler) handler).getLastTime(name)
+				: Long.MIN_VALUE;
+		int index = 0;
+		int length = 0;
+		long time = 0;
+		double volume = 0;
+		double price = 0;
+
+		while (true) {
+			int b = read();
+
+			if ((b == ',') || (b == ';') || (b == '"') || (b == -1)) {
+				if (index == 0) {
+					if ((b != ',') && (length == 0)) {
+						// an empty record, as after a trailing ';'
+						if (b == ';') {
+							continue;
+						}
+						return;
+					}
+					time = parseTimestamp(length);
+
+					if ((time <= after) && (b == ',')) {
+						b = skipRecord();
+						if (b != ';') {
+							return;
+						}
+						length = 0;
+						continue;
+					}
+				}
+				else if (index == 1) {
+					volume = parseNumber(length);
+				}
+				else if (index == 3) {
+					price = parseNumber(length);
+				}
+
+				if (b == ',') {
+					index++;
+				}
+				else {
+					// a record with only its time is a minute with no trade, and has no tick
+					if (index > 0) {
+						if (index < 3) {
+							throw new Exception("Minute-line record has " + (index + 1) + " fields, needs 4");
+						}
+
+						handler.tick(name, time, volume, price);
+					}
+
+					if (b != ';') {
+						return;
+					}
+					index = 0;
+				}
+
+				length = 0;
+			}
+			else if (length < field.length) {
+				field[length++] = (byte) b;
+			}
+			else {
+				throw new Exception("Minute-line field longer than " + field.length + " bytes");
+			}
+		}
+	}
+
+	/**
+	 * Skips to the end of the record, and returns the ';' that ends it, or the '"' or -1 that ends the body.
+	 */
+	private int skipRecord() throws IOException {
+		int b;
+		do {
+			b = read();
+		} while ((b != ';') && (b != '"') && (b != -1));
+
+		return b;
+	}
+
+	private int read() throws IOException {
+		if (position == limit) {
+			limit = in.read(buffer, 0, buffer.length);
+			position = 0;
+
+			if (limit <= 0) {
+				limit = 0;
+				return -1;
+			}
+		}
+
+		return buffer[position++] & 0xff;
+	}
+
+	/**
+	 * Parses a "yyyy-MM-dd HH:mm:ss" time in the field, in the default time zone, to epoch millis. Ticks come in order,
+	 * so the start of the hour is only worked out with a Calendar when the hour changes.
+	 */
+	long parseTimestamp(int length) throws Exception {
+		if ((length != TIMESTAMP_LENGTH) || (field[4] != '-') || (field[7] != '-') || (field[10] != ' ')
+				|| (field[13] != ':') || (field[16] != ':')) {
+			throw new Exception("Unparseable time: " + new String(field, 0, length, ASCII));
+		}
+
+		int year = digits(0, 4, length);
+		int month = digits(5, 2, length);
+		int day = digits(8, 2, length);
+		int hour = digits(11, 2, length);
+		int minute = digits(14, 2, length);
+		int second = digits(17, 2, length);
+
+		if ((month < 1) || (month > 12) || (day < 1) || (day > 31) || (hour > 23) || (minute > 59) || (second > 59)) {
+			throw new Exception("Unparseable time: " + new String(field, 0, length, ASCII));
+		}
+
+		long hourKey = (((year * 100L) + month) * 100 + day) * 100 + hour;
+
+		if (hourKey != lastHour) {
+			calendar.clear();
+			calendar.set(year, month - 1, day, hour, 0, 0);
+
+			lastHourMillis = calendar.getTimeInMillis();
+			lastHour = hourKey;
+		}
+
+		return lastHourMillis + (minute * 60000L) + (second * 1000L);
+	}
+
+	private int digits(int offset, int count, int length) throws Exception {
+		int value = 0;
+
+		for (int i = offset; i < offset + count; i++) {
+			int digit = field[i] - '0';
+
+			if ((digit < 0) || (digit > 9)) {
+				throw new Exception("Unparseable time: " + new String(field, 0, length, ASCII));
+			}
+			value = (value * 10) + digit;
+		}
+
+		return value;
+	}
+
+	/**
+	 * Parses a decimal number in the field. Plain decimals of up to 15 significant digits, which is all the feed sends,
+	 * are worked out exactly as digits / 10^scale; anything else goes to Double.parseDouble().
+	 */
+	double parseNumber(int length) throws Exception {
+		int start = 0;
+		int end = length;
+
+		while ((start < end) && (field[start] == ' ')) {
+			start++;
+		}
+		while ((end > start) && (field[end - 1] == ' ')) {
+			end--;
+		}
+
+		int i = start;
+		boolean negative = false;
+
+		if ((i < end) && ((field[i] == '-') || (field[i] == '+'))) {
+			negative = field[i] == '-';
+			i++;
+		}
+
+		long digits = 0;
+		int count = 0;
+		int scale = 0;
+		boolean point = false;
+		boolean plain = i < end;
+
+		for (; plain && (i < end); i++) {
+			int b = field[i];
+
+			if ((b >= '0') && (b <= '9')) {
+				digits = (digits * 10) + (b - '0');
+				count++;
+				if (point) {
+					scale++;
+				}
+			}
+			else if ((b == '.') && !point) {
+				point = true;
+			}
+			else {
+				plain = false;
+			}
+		}
+
+		if (plain && (count > 0) && (count <= 15)) {
+			double value = (scale == 0) ? digits : digits / POWERS_OF_TEN[scale];
+			return negative ? -value : value;
+		}
+
+		try {
+			return Double.parseDouble(new String(field, start, end - start, ASCII));
+		}
+		catch (NumberFormatException badNumber) {
+			throw new Exception("Unparseable number: " + new String(field, 0, length, ASCII));
+		}
+	}
+}
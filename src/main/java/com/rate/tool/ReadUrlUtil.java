@@ -1,44 +1,94 @@
 package com.rate.tool;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.URL;
 import java.nio.charset.Charset;
 import java.sql.Timestamp;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 
 import com.rate.entity.Stock;
+import com.rate.entity.TwentyMinHighOrLow;
+import com.rate.persistence.ValueObject;
+import com.rate.timeseries.RollingHighLow;
+import com.rate.timeseries.TickStore;
 
 import net.sf.json.JSONException;
 
-public class ReadUrlUtil {
+public class ReadUrlUtil implements MinuteLineParser.IncrementalHandler, MinuteLineParser.BatchingHandler {
+
+	private final MinuteLineParser parser = new MinuteLineParser();
+
+	private RollingHighLow highLow;
+
+	private HighWaterMarks marks;
+
+	/**
+	 * The times of ticks saved past their symbol's mark, because an earlier tick of the symbol failed and holds the mark
+	 * back. They are skipped when read again, until the mark passes them.
+	 */
+	private final ConcurrentMap<String, ConcurrentSkipListSet<Long>> savedPastMark = new ConcurrentHashMap<String, ConcurrentSkipListSet<Long>>();
+
+	/** The ticks each thread has read and not yet saved. */
+	private final ThreadLocal<List<Stock>> pending = new ThreadLocal<List<Stock>>() {
+		protected List<Stock> initialValue() {
+			return new ArrayList<Stock>();
+		}
+	};
 
 	public static void main(String[] args) throws Exception{
 		String url = "https://stock.finance.sina.com.cn/usstock/api/jsonp_v2.php/var%20t1csbr=/US_MinlineNService.getMinline?symbol=csbr&day=1";
 		ReadUrlUtil ru = new ReadUrlUtil();
+		ru.setHighLow(new RollingHighLow(new RollingHighLow.Listener() {
+			public void highOrLow(TwentyMinHighOrLow record) {
+				System.out.println(record.getName() + " " + record.getAdded() + " high " + record.getHigh() + " low " + record.getLow());
+			}
+		}));
 		ru.analysis(url);
 	}
 	
+	/**
+	 * Feeds each tick parsed to the operator, which keeps the rolling high and low of each stock.
+	 */
+	public void setHighLow(RollingHighLow highLow) {
+		this.highLow = highLow;
+	}
+
+	/**
+	 * Only stores ticks after each symbol's mark, and moves the mark up to the last tick of the symbol saved on each
+	 * flush. Without marks every tick read is stored.
+	 */
+	public void setHighWaterMarks(HighWaterMarks marks) {
+		this.marks = marks;
+	}
+
 	public void analysis(String url) throws Exception {
-		String json = readJsonFromUrl(url);
-		String name = json.substring(6, json.indexOf("="));
-		String body = json.substring(json.indexOf("\"") + 1, json.lastIndexOf("\""));
-		getData(body, name);
+		InputStream is = new URL(url).openStream();
+		try {
+			parser.parse(is, this);
+		} finally {
+			is.close();
+		}
+		flush();
 	}
 	
 	public static String readJsonFromUrl(String url) throws IOException, JSONException {
 		InputStream is = new URL(url).openStream();
 		try {
-			BufferedReader rd = new BufferedReader(new InputStreamReader(is, Charset.forName("UTF-8")));
+			Reader rd = new InputStreamReader(is, Charset.forName("UTF-8"));
 			StringBuilder sb = new StringBuilder();
-			int cp;
-			while ((cp = rd.read()) != -1) {
-				sb.append((char) cp);
+			char[] chars = new char[8192];
+			int count;
+			while ((count = rd.read(chars)) != -1) {
+				sb.append(chars, 0, count);
 			}
 			String jsonText = sb.toString();
 			return jsonText;
@@ -48,24 +98,102 @@ public class ReadUrlUtil {
 	}
 
 	public void getData(String json, String name) throws Exception {
-		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd hh:mm:ss");
-		String[] dataList = json.split(";");
-		Stock stock = null;
-		Date parsedDate = null;
-		Timestamp timestamp = null;
-
-		for (String data : dataList) {
-			String[] elements = data.split(",");
-			stock = new Stock();
-			stock.setName(name);
-			stock.setPrice(Double.valueOf(elements[3]));
-			stock.setVolume(Double.valueOf(elements[1]));
-			stock.setStockId(1);
-			parsedDate = dateFormat.parse(elements[0]);
-			timestamp = new java.sql.Timestamp(parsedDate.getTime());
-			stock.setAddedDate(timestamp);
-			stock.save(1);
-			System.out.println(elements[0]+","+elements[1]+","+elements[3]);
+		parser.parseBody(json, name, this);
+		flush();
+	}
+
+	public long getLastTime(String name) {
+		return (marks == null) ? Long.MIN_VALUE : marks.get(name);
+	}
+
+	/**
+	 * Reads one tick of the minute line, holding it back to be saved on the next flush. A tick read again after its save
+	 * failed is saved again, but only goes to the tick store and the rolling high and low the first time.
+	 */
+	public void tick(String name, long time, double volume, double price) throws Exception {
+		if ((time <= getLastTime(name)) || isSavedPastMark(name, time)) {
+			return;
+		}
+		Stock stock = new Stock();
+		stock.setName(name);
+		stock.setPrice(Double.valueOf(price));
+		stock.setVolume(Double.valueOf(volume));
+		stock.setStockId(1);
+		Timestamp timestamp = new Timestamp(time);
+		stock.setAddedDate(timestamp);
+		// the store refuses a time it already holds, so a tick read again is not counted twice
+		boolean first = TickStore.getInstance().append(name, time, price, volume);
+		if ((highLow != null) && first) {
+			highLow.tick(name, stock.getStockId(), time, price);
+		}
+		// a new tick is not in the database yet
+		stock.setIsModified(true);
+		pending.get().add(stock);
+	}
+
+	/**
+	 * Saves the ticks this thread has read, a batch of calls at a time, and moves each symbol's mark up to its last tick
+	 * saved. A symbol's mark stops before its first tick that failed, so that tick is read again on the next poll; the
+	 * ticks of the symbol saved after it are remembered and skipped when read again, so they are not inserted twice.
+	 * That memory is not kept across a restart.
+	 */
+	public void flush() throws Exception {
+		List<Stock> stocks = pending.get();
+		if (stocks.isEmpty()) {
+			return;
+		}
+		try {
+			save(stocks);
+		} finally {
+			if (marks != null) {
+				Set<String> failed = new HashSet<String>();
+				for (int i = 0; i < stocks.size(); i++) {
+					Stock stock = stocks.get(i);
+					String name = stock.getName();
+					long time = stock.getAddedDate().getTime();
+					if (stock.isModified()) {
+						failed.add(name);
+					} else if (failed.contains(name)) {
+						rememberSavedPastMark(name, time);
+					} else {
+						marks.advance(name, time);
+						forgetSavedUpToMark(name);
+					}
+				}
+				marks.save();
+			}
+			stocks.clear();
+		}
+	}
+
+	/**
+	 * Saves the ticks, clearing the modified flag of each one saved.
+	 */
+	protected void save(List<Stock> stocks) throws Exception {
+		ValueObject.saveAll(stocks, 1);
+	}
+
+	private boolean isSavedPastMark(String name, long time) {
+		Set<Long> saved = savedPastMark.get(name);
+		return (saved != null) && saved.contains(Long.valueOf(time));
+	}
+
+	private void rememberSavedPastMark(String name, long time) {
+		ConcurrentSkipListSet<Long> saved = savedPastMark.get(name);
+		if (saved == null) {
+			ConcurrentSkipListSet<Long> created = new ConcurrentSkipListSet<Long>();
+			saved = savedPastMark.putIfAbsent(name, created);
+			if (saved == null) {
+				saved = created;
+			}
+		}
+		saved.add(Long.valueOf(time));
+	}
+
+	private void forgetSavedUpToMark(String name) {
+		ConcurrentSkipListSet<Long> saved = savedPastMark.get(name);
+		if (saved != null) {
+			saved.headSet(Long.valueOf(marks.get(name)), true).clear();
 		}
 	}
 }
@@ -0,0 +1,164 @@
+package com.rate.cache;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Get and put throughput of the Cache against the store it replaced: one synchronized HashMap keyed by the string
+ * form of each key, with every call locking the whole map. Run main() to measure both from 1 to 64 threads:
+ * <P>
+ * <code>mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt</code>, then
+ * <code>java -cp target/test-classes:target/classes:$(cat cp.txt) com.rate.cache.CacheBenchmark</code>
+ * </P>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheBenchmark
+{
+  private static final int KEYS = 1 << 14;
+
+  private static final int[] THREADS = { 1, 2, 4, 8, 16, 32, 64 };
+
+  @Param({ "cache", "synchronizedMap" })
+  public String store;
+
+  private Store impl;
+
+  private CacheKey[] keys;
+
+  private TestObject[] objects;
+
+  @Setup
+  public void setUp()
+  {
+    impl = "cache".equals(store) ? new CacheStore() : new SynchronizedMapStore();
+    keys = new CacheKey[KEYS];
+    objects = new TestObject[KEYS];
+
+    for (int i = 0; i < KEYS; i++)
+    {
+      keys[i] = TestObject.key(i);
+      objects[i] = new TestObject(i);
+      impl.put(objects[i]);
+    }
+  }
+
+  /**
+   * A per-thread xorshift, so picking a key neither contends nor allocates.
+   */
+  @State(Scope.Thread)
+  public static class Position
+  {
+    int seed = (int) System.nanoTime() | 1;
+
+    int next()
+    {
+      seed ^= seed << 13;
+      seed ^= seed >>> 17;
+      seed ^= seed << 5;
+
+      return seed & (KEYS - 1);
+    }
+  }
+
+  @Benchmark
+  public Object get(Position position) throws Exception
+  {
+    return impl.get(keys[position.next()]);
+  }
+
+  @Benchmark
+  public void put(Position position)
+  {
+    impl.put(objects[position.next()]);
+  }
+
+  public static void main(String[] args) throws Exception
+  {
+    for (int i = 0; i < THREADS.length; i++)
+    {
+      Options options = new OptionsBuilder().include(CacheBenchmark.class.getSimpleName()).threads(THREADS[i]).build();
+      new Runner(options).run();
+    }
+  }
+
+  private interface Store
+  {
+    Object get(CacheKey key) throws Exception;
+
+    void put(CacheableObject object);
+  }
+
+  private static class CacheStore implements Store
+  {
+    private final Cache cache = new Cache(Integer.valueOf(0));
+
+    public Object get(CacheKey key) throws Exception
+    {
+      return cache.get(key);
+    }
+
+    public void put(CacheableObject object)
+    {
+      cache.put(null, object);
+    }
+  }
+
+  /**
+   * The store as it was: a pointer per object under the string form of its primary and secondary keys.
+   */
+  private static class SynchronizedMapStore implements Store
+  {
+    private final Map<String, CachePointer> map = Collections.synchronizedMap(new HashMap<String, CachePointer>());
+
+    public Object get(CacheKey key)
+    {
+      CachePointer pointer = map.get(key.toString());
+
+      return (pointer == null) ? null : pointer.getObject();
+    }
+
+    public void put(CacheableObject object)
+    {
+      String primary = object.getPrimaryKey().toString();
+
+      synchronized (map)
+      {
+        CachePointer pointer = map.get(primary);
+
+        if (pointer == null)
+        {
+          pointer = new CachePointer(object);
+          map.put(primary, pointer);
+        }
+        else
+        {
+          pointer.setObject(object);
+        }
+
+        map.put(object.getSecondaryKey().toString(), pointer);
+      }
+    }
+  }
+}
@@ -0,0 +1,192 @@
+package com.rate.cache;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+
+import junit.framework.TestCase;
+
+public class CacheConcurrencyTest extends TestCase
+{
+  private static final int THREADS = 8;
+
+  private static final int IDS = 32;
+
+  private static final int OPERATIONS = 20000;
+
+  private Cache cache;
+
+  protected void setUp()
+  {
+    cache = new Cache(Integer.valueOf(0));
+  }
+
+  public void testPutGetFlushFromManyThreads() throws Exception
+  {
+    final CyclicBarrier start = new CyclicBarrier(THREADS);
+    final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+    Thread[] threads = new Thread[THREADS];
+
+    for (int t = 0; t < THREADS; t++)
+    {
+      final long seed = t;
+
+      threads[t] = new Thread()
+      {
+        public void run()
+        {
+          Random random = new Random(seed);
+
+          try
+          {
+            start.await();
+
+            for (int i = 0; i < OPERATIONS; i++)
+            {
+              int id = random.nextInt(IDS);
+
+              switch (random.nextInt(5))
+              {
+                case 0:
+                case 1:
+                  cache.put(null, new TestObject(id));
+                  break;
+                case 2:
+                  TestObject found = (TestObject) cache.get(TestObject.key(id));
+                  assertTrue((found == null) || (found.id == id));
+                  break;
+                case 3:
+                  found = (TestObject) cache.get(TestObject.codeKey(id));
+                  assertTrue((found == null) || (found.id == id));
+                  break;
+                default:
+                  cache.flush(random.nextBoolean() ? TestObject.key(id) : TestObject.codeKey(id), false);
+              }
+            }
+          }
+          catch (Throwable e)
+          {
+            failures.add(e);
+          }
+        }
+      };
+      threads[t].start();
+    }
+
+    for (int t = 0; t < THREADS; t++)
+    {
+      threads[t].join();
+    }
+
+    assertEquals(Collections.<Throwable> emptyList(), failures);
+    assertConsistent();
+  }
+
+  /**
+   * A pointer flushed between put's lookup and its lock is left expired in the map; put must replace it rather than
+   * store the object in it.
+   */
+  public void testPutReplacesPointerFlushedBeforeItsLock() throws Exception
+  {
+    TestObject first = new TestObject(1);
+    CachePointer stale = new CachePointer(first);
+    stale.expire();
+    putPointer(TestObject.key(1), stale);
+
+    TestObject second = new TestObject(1);
+    cache.put(null, second);
+
+    CachePointer pointer = (CachePointer) cache.getCacheMap().get(TestObject.key(1));
+    assertNotSame(stale, pointer);
+    assertFalse(pointer.isExpired());
+    assertSame(second, cache.get(TestObject.key(1)));
+    assertSame(second, cache.get(TestObject.codeKey(1)));
+    assertConsistent();
+  }
+
+  public void testPutKeepsOnePointerForAllKeys() throws Exception
+  {
+    TestObject object = new TestObject(7);
+    CacheKey callerKey = new CacheKey(TestObject.class, "seven");
+    cache.put(callerKey, object);
+
+    Map map = cache.getCacheMap();
+    assertSame(map.get(TestObject.key(7)), map.get(TestObject.codeKey(7)));
+    assertSame(map.get(TestObject.key(7)), map.get(callerKey));
+
+    cache.flush(callerKey, true);
+    assertEquals(0, map.size());
+    assertEquals(1, object.getFlushCount());
+    assertEquals(0, cache.getAllCacheableObjectsForClass(TestObject.class).size());
+  }
+
+  public void testClassIndexFollowsPutAndFlush() throws Exception
+  {
+    for (int id = 0; id < IDS; id++)
+    {
+      cache.put(null, new TestObject(id));
+    }
+    assertEquals(IDS, cache.getAllCacheableObjectsForClass(TestObject.class).size());
+
+    for (int id = 0; id < IDS; id += 2)
+    {
+      cache.flush(TestObject.codeKey(id), false);
+    }
+    assertEquals(IDS / 2, cache.getAllCacheableObjectsForClass(TestObject.class).size());
+    assertConsistent();
+  }
+
+  @SuppressWarnings("unchecked")
+  private void putPointer(CacheKey key, CachePointer pointer)
+  {
+    cache.getCacheMap().put(key, pointer);
+  }
+
+  /**
+   * Checks every key maps to a live pointer that lists it, every live pointer has its primary and secondary keys, and
+   * the class index holds exactly the live pointers.
+   */
+  private void assertConsistent() throws Exception
+  {
+    Map<CachePointer, Boolean> live = new IdentityHashMap<CachePointer, Boolean>();
+    Iterator it = cache.getCacheMap().entrySet().iterator();
+
+    while (it.hasNext())
+    {
+      Map.Entry entry = (Map.Entry) it.next();
+      CachePointer pointer = (CachePointer) entry.getValue();
+
+      assertFalse("expired pointer left under " + entry.getKey(), pointer.isExpired());
+      assertTrue(pointer.getCacheKeys().contains(entry.getKey()));
+      live.put(pointer, Boolean.TRUE);
+    }
+
+    for (CachePointer pointer : live.keySet())
+    {
+      TestObject object = (TestObject) pointer.fetchObject();
+      assertSame(pointer, cache.getCacheMap().get(TestObject.key(object.id)));
+      assertSame(pointer, cache.getCacheMap().get(TestObject.codeKey(object.id)));
+    }
+
+    Set<CachePointer> indexed = getIndex().get(TestObject.class);
+    assertEquals(live.keySet(), (indexed == null) ? Collections.<CachePointer> emptySet()
+        : new HashSet<CachePointer>(indexed));
+  }
+
+  @SuppressWarnings("unchecked")
+  private Map<Class, Set<CachePointer>> getIndex() throws Exception
+  {
+    Field field = Cache.class.getDeclaredField("classIndex");
+    field.setAccessible(true);
+
+    return (Map<Class, Set<CachePointer>>) field.get(cache);
+  }
+}
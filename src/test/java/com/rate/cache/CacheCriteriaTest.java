@@ -0,0 +1,56 @@
+package com.rate.cache;
+
+import java.util.Arrays;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+public class CacheCriteriaTest extends TestCase
+{
+  public void testWholeNumbersOfAnyTypeFindTheSameKey()
+  {
+    CacheKey integer = new CacheKey(TestObject.class, Integer.valueOf(1));
+
+    assertSameKey(integer, new CacheKey(TestObject.class, Long.valueOf(1)));
+    assertSameKey(integer, new CacheKey(TestObject.class, Short.valueOf((short) 1)));
+    assertSameKey(integer, new CacheKey(TestObject.class, "1"));
+    assertSameKey(new CacheKey(TestObject.class, Integer.valueOf(-42)), new CacheKey(TestObject.class, "-42"));
+  }
+
+  public void testOnlyThePlainDecimalFormIsANumber()
+  {
+    CacheKey one = new CacheKey(TestObject.class, Integer.valueOf(1));
+
+    assertFalse(one.equals(new CacheKey(TestObject.class, "01")));
+    assertFalse(one.equals(new CacheKey(TestObject.class, "+1")));
+    assertFalse(one.equals(new CacheKey(TestObject.class, "1.0")));
+    assertFalse(one.equals(new CacheKey(TestObject.class, Double.valueOf(1))));
+    assertFalse(new CacheKey(TestObject.class, Integer.valueOf(0)).equals(new CacheKey(TestObject.class, "-0")));
+    assertFalse(one.equals(new CacheKey(TestObject.class, "99999999999999999999")));
+  }
+
+  public void testListsCompareElementByElement()
+  {
+    Vector<Object> ints = new Vector<Object>(Arrays.<Object> asList(Integer.valueOf(5), "name"));
+    Vector<Object> longs = new Vector<Object>(Arrays.<Object> asList(Long.valueOf(5), "name"));
+
+    assertSameKey(new CacheKey(TestObject.class, new Object[] { "finder", ints }),
+        new CacheKey(TestObject.class, new Object[] { "finder", longs }));
+    assertFalse(new CacheKey(TestObject.class, new Object[] { "finder", ints }).equals(
+        new CacheKey(TestObject.class, new Object[] { "finder", new Vector<Object>(ints.subList(0, 1)) })));
+  }
+
+  public void testOtherValuesStillCompareByEquals()
+  {
+    assertSameKey(new CacheKey(TestObject.class, "abc"), new CacheKey(TestObject.class, "abc"));
+    assertFalse(new CacheKey(TestObject.class, "abc").equals(new CacheKey(TestObject.class, "abd")));
+    assertFalse(new CacheKey(TestObject.class, Integer.valueOf(1)).equals(new CacheKey(String.class, Integer.valueOf(1))));
+  }
+
+  private static void assertSameKey(CacheKey a, CacheKey b)
+  {
+    assertEquals(a, b);
+    assertEquals(b, a);
+    assertEquals(a.hashCode(), b.hashCode());
+  }
+}
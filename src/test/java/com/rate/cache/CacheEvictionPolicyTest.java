@@ -0,0 +1,193 @@
+package com.rate.cache;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class CacheEvictionPolicyTest extends TestCase
+{
+  /** With a maximum of 100 the window holds 1 and the protected segment 79. */
+  private static final int MAXIMUM = 100;
+
+  private CacheEvictionPolicy policy;
+
+  protected void setUp()
+  {
+    policy = new CacheEvictionPolicy(MAXIMUM);
+  }
+
+  public void testNewEntriesLandInTheWindow()
+  {
+    CachePointer first = pointer(1);
+
+    assertNull(policy.onAdd(first, 1));
+    assertEquals(CacheEvictionPolicy.WINDOW, first.policyQueue);
+    assertEquals(1, policy.getWeightedSize());
+  }
+
+  public void testWindowOverflowMovesTheOldestOntoProbation()
+  {
+    CachePointer first = pointer(1);
+    CachePointer second = pointer(2);
+    policy.onAdd(first, 1);
+    policy.onAdd(second, 1);
+
+    assertEquals(CacheEvictionPolicy.PROBATION, first.policyQueue);
+    assertEquals(CacheEvictionPolicy.WINDOW, second.policyQueue);
+  }
+
+  public void testAHitOnProbationPromotesToProtected()
+  {
+    CachePointer first = pointer(1);
+    policy.onAdd(first, 1);
+    policy.onAdd(pointer(2), 1);
+
+    hit(first);
+
+    assertEquals(CacheEvictionPolicy.PROTECTED, first.policyQueue);
+  }
+
+  public void testProtectedOverflowDemotesTheOldestToProbation()
+  {
+    CachePointer[] pointers = new CachePointer[81];
+
+    for (int i = 0; i < pointers.length; i++)
+    {
+      pointers[i] = pointer(i);
+      policy.onAdd(pointers[i], 1);
+    }
+
+    // all but the newest are on probation; promoting 80 overfills the protected share of 79 by one
+    for (int i = 0; i < 80; i++)
+    {
+      hit(pointers[i]);
+    }
+
+    assertEquals(CacheEvictionPolicy.PROBATION, pointers[0].policyQueue);
+    for (int i = 1; i < 80; i++)
+    {
+      assertEquals(CacheEvictionPolicy.PROTECTED, pointers[i].policyQueue);
+    }
+    assertEquals(CacheEvictionPolicy.WINDOW, pointers[80].policyQueue);
+  }
+
+  public void testEvictsFromProbationOnceFull()
+  {
+    List<CachePointer> victims = null;
+
+    for (int i = 0; i <= MAXIMUM; i++)
+    {
+      assertNull(victims);
+      victims = policy.onAdd(pointer(i), 1);
+    }
+
+    assertEquals(1, victims.size());
+    assertEquals(CacheEvictionPolicy.NONE, victims.get(0).policyQueue);
+    assertEquals(MAXIMUM, policy.getWeightedSize());
+  }
+
+  public void testAdmitsTheCandidateOnlyIfUsedMoreOftenThanTheVictim()
+  {
+    CachePointer[] pointers = new CachePointer[MAXIMUM];
+    for (int i = 0; i < MAXIMUM; i++)
+    {
+      pointers[i] = pointer(i);
+      policy.onAdd(pointers[i], 1);
+    }
+
+    // a key missed often before it is cached beats the oldest probation entry, which was seen once
+    for (int i = 0; i < 4; i++)
+    {
+      policy.onMiss(1000);
+    }
+    CachePointer popular = pointer(1000);
+    policy.onAdd(popular, 1);
+    CachePointer newcomer = pointer(1001);
+
+    assertEquals(Arrays.asList(pointers[0]), policy.onAdd(newcomer, 1));
+    assertEquals(CacheEvictionPolicy.PROBATION, popular.policyQueue);
+
+    // one seen no more often than the victim is turned away instead
+    assertEquals(Arrays.asList(newcomer), policy.onAdd(pointer(1002), 1));
+    assertEquals(CacheEvictionPolicy.PROBATION, pointers[1].policyQueue);
+  }
+
+  public void testEvictsProtectedWhenProbationIsEmpty()
+  {
+    CachePointer first = pointer(1);
+    CachePointer second = pointer(2);
+    CachePointer third = pointer(3);
+    policy.onAdd(first, 1);
+    policy.onAdd(second, 1);
+    hit(first);
+    policy.onAdd(third, 1);
+    hit(second);
+
+    assertEquals(CacheEvictionPolicy.PROTECTED, first.policyQueue);
+    assertEquals(CacheEvictionPolicy.PROTECTED, second.policyQueue);
+    assertEquals(CacheEvictionPolicy.WINDOW, third.policyQueue);
+
+    assertEquals(Arrays.asList(first, second), policy.setMaximum(1));
+    assertEquals(CacheEvictionPolicy.WINDOW, third.policyQueue);
+    assertEquals(1, policy.getWeightedSize());
+  }
+
+  public void testReweighingEvictsWhatNoLongerFits()
+  {
+    CachePointer big = pointer(1);
+    policy.onAdd(big, 1);
+    policy.onAdd(pointer(2), 1);
+
+    assertNull(policy.onUpdate(big, 50));
+    assertEquals(51, policy.getWeightedSize());
+
+    List<CachePointer> victims = policy.onUpdate(big, MAXIMUM);
+    assertEquals(Arrays.asList(big), victims);
+    assertEquals(1, policy.getWeightedSize());
+  }
+
+  public void testRemovedAndExpiredPointersAreNotTracked()
+  {
+    CachePointer removed = pointer(1);
+    policy.onAdd(removed, 5);
+    policy.onRemove(removed);
+
+    assertEquals(CacheEvictionPolicy.NONE, removed.policyQueue);
+    assertEquals(0, policy.getWeightedSize());
+    assertNull(policy.onUpdate(removed, 7));
+
+    CachePointer expired = pointer(2);
+    expired.expire();
+    assertNull(policy.onAdd(expired, 1));
+    assertEquals(0, policy.getWeightedSize());
+  }
+
+  /**
+   * The bound must keep more of a skewed workload cached than plain LRU does once it is disturbed by scans.
+   */
+  public void testHitRatioBeatsLruOnAScannedTrace() throws Exception
+  {
+    int[] trace = HitRatioReplay.generateTrace(200000, 20000, 0.9, 42);
+
+    double lru = HitRatioReplay.replayLru(trace, 1000);
+    double tinyLfu = HitRatioReplay.replayCache(trace, 1000);
+
+    assertTrue("W-TinyLFU " + tinyLfu + " vs LRU " + lru, tinyLfu > lru);
+  }
+
+  private void hit(CachePointer pointer)
+  {
+    policy.onAccess(pointer);
+    policy.drainReads();
+  }
+
+  private static CachePointer pointer(int id)
+  {
+    // a fixed hash, as key hash-codes include the identity hash of the class and would vary from run to run
+    CachePointer pointer = new CachePointer(new TestObject(id));
+    pointer.policyHash = id;
+
+    return pointer;
+  }
+}
@@ -0,0 +1,121 @@
+package com.rate.cache;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class CacheListTest extends TestCase
+{
+  private final AtomicInteger loads = new AtomicInteger();
+
+  /** Loads ids below 1000; the rest do not exist. */
+  private final CacheableObject.ObjectGenerator generator = new CacheableObject.ObjectGenerator()
+  {
+    public CacheableObject regenerateObject(Class objectClass, CacheCriteria criteria)
+    {
+      loads.incrementAndGet();
+      int id = ((Integer) criteria.getCriteria()[0]).intValue();
+
+      return (id < 1000) ? new LoadedObject(id) : null;
+    }
+  };
+
+  protected void setUp()
+  {
+    CacheManager.getInstance().reset();
+  }
+
+  public void testHitsComeFromTheCache() throws Exception
+  {
+    CacheList list = new CacheList();
+    LoadedObject first = new LoadedObject(1);
+    LoadedObject large = new LoadedObject(500);
+    list.add(first);
+    list.add(large);
+
+    long hits = hits();
+    assertSame(first, list.get(0));
+    assertSame(large, list.get(1));
+    assertSame(large, list.get(1));
+
+    assertEquals(hits + 3, hits());
+    assertEquals(0, loads.get());
+  }
+
+  public void testAFlushedElementIsLoadedOnce() throws Exception
+  {
+    CacheList list = new CacheList();
+    list.add(new LoadedObject(7));
+    CacheManager.getInstance().flush(loadedKey(7), false);
+
+    LoadedObject loaded = (LoadedObject) list.get(0);
+    assertEquals(7, loaded.id);
+    assertEquals(1, loads.get());
+
+    assertSame(loaded, list.get(0));
+    assertEquals(1, loads.get());
+  }
+
+  public void testAnElementThatNoLongerExistsIsLoadedOnce() throws Exception
+  {
+    CacheList list = new CacheList();
+    list.add(new LoadedObject(5000));
+    CacheManager.getInstance().flush(loadedKey(5000), false);
+
+    assertNull(list.get(0));
+    assertEquals(1, loads.get());
+  }
+
+  public void testTheLookupKeyIsNeverCached() throws Exception
+  {
+    CacheList list = new CacheList();
+    for (int i = 0; i < 3; i++)
+    {
+      list.add(new LoadedObject(i));
+      CacheManager.getInstance().flush(loadedKey(i), false);
+    }
+
+    for (int i = 0; i < 3; i++)
+    {
+      list.get(i);
+    }
+
+    // were the reused key stored, the entries would all answer to the id it was last set to
+    for (int i = 0; i < 3; i++)
+    {
+      assertEquals(i, ((LoadedObject) list.get(i)).id);
+    }
+    assertEquals(3, loads.get());
+  }
+
+  private CacheKey loadedKey(int id)
+  {
+    return new CacheKey(LoadedObject.class, new CacheCriteria(Integer.valueOf(id)), generator);
+  }
+
+  private static long hits()
+  {
+    return CacheManager.getInstance().getCache().getStats().getTotal().getHitCount();
+  }
+
+  /**
+   * A TestObject whose primary key carries the test's generator, so the list can reload it.
+   */
+  private class LoadedObject extends TestObject
+  {
+    LoadedObject(int id)
+    {
+      super(id);
+    }
+
+    public CacheKey getPrimaryKey()
+    {
+      return loadedKey(id);
+    }
+
+    public CacheKey getSecondaryKey()
+    {
+      return null;
+    }
+  }
+}
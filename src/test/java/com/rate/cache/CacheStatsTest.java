@@ -0,0 +1,175 @@
+package com.rate.cache;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class CacheStatsTest extends TestCase
+{
+  private static final int THREADS = 8;
+
+  private Cache cache;
+
+  private final AtomicInteger loads = new AtomicInteger();
+
+  private final CacheableObject.ObjectGenerator generator = new CacheableObject.ObjectGenerator()
+  {
+    public CacheableObject regenerateObject(Class objectClass, CacheCriteria criteria)
+    {
+      loads.incrementAndGet();
+
+      return new TestObject(((Integer) criteria.getCriteria()[0]).intValue());
+    }
+  };
+
+  protected void setUp()
+  {
+    cache = new Cache(Integer.valueOf(0));
+  }
+
+  public void testAColdGetIsOneMissAndOneLoad() throws Exception
+  {
+    CacheKey key = TestObject.key(1);
+    assertNotNull(cache.get(key, generator));
+
+    CacheStats.Counters total = cache.getStats().getTotal();
+    assertEquals(1, loads.get());
+    assertEquals(1, total.getMissCount());
+    assertEquals(0, total.getHitCount());
+    assertEquals(1, total.getLoadSuccessCount());
+    assertEquals(0, total.getLoadFailureCount());
+    assertEquals(1, cache.getStats().getClasses().get(TestObject.class).getMissCount());
+
+    // one increment for the miss, one for the entry being added
+    CachePointer pointer = (CachePointer) cache.getCacheMap().get(key);
+    assertEquals(2, sketch().frequency(pointer.policyHash));
+
+    cache.get(key, generator);
+    assertEquals(1, total.getHitCount());
+    assertEquals(1, total.getMissCount());
+    assertEquals(1, total.getLoadCount());
+  }
+
+  public void testAColdGetWithTheKeysGeneratorIsOneMissAndOneLoad() throws Exception
+  {
+    CacheKey key = TestObject.key(1);
+    key.setGenerator(generator);
+    assertNotNull(cache.get(key));
+
+    CacheStats.Counters total = cache.getStats().getTotal();
+    assertEquals(1, loads.get());
+    assertEquals(1, total.getMissCount());
+    assertEquals(1, total.getLoadCount());
+  }
+
+  public void testConcurrentColdGetsAreOneMissEachAndOneLoad() throws Exception
+  {
+    final CacheKey key = TestObject.key(1);
+    final CacheableObject.ObjectGenerator slow = new CacheableObject.ObjectGenerator()
+    {
+      public CacheableObject regenerateObject(Class objectClass, CacheCriteria criteria) throws Exception
+      {
+        // held until the other threads have missed too
+        long deadline = System.currentTimeMillis() + 10000;
+        while ((cache.getCoalescedLoadCount() < THREADS - 1) && (System.currentTimeMillis() < deadline))
+        {
+          Thread.sleep(1);
+        }
+
+        return generator.regenerateObject(objectClass, criteria);
+      }
+    };
+    Thread[] threads = new Thread[THREADS];
+
+    for (int i = 0; i < THREADS; i++)
+    {
+      threads[i] = new Thread()
+      {
+        public void run()
+        {
+          try
+          {
+            cache.get(key, slow);
+          }
+          catch (Exception e)
+          {
+            e.printStackTrace();
+          }
+        }
+      };
+      threads[i].start();
+    }
+
+    for (int i = 0; i < THREADS; i++)
+    {
+      threads[i].join(10000);
+    }
+
+    CacheStats.Counters total = cache.getStats().getTotal();
+    assertEquals(1, loads.get());
+    assertEquals(THREADS, total.getMissCount());
+    assertEquals(1, total.getLoadCount());
+  }
+
+  public void testAFailedLoadIsOneMissAndOneFailure() throws Exception
+  {
+    try
+    {
+      cache.get(TestObject.key(1), new CacheableObject.ObjectGenerator()
+      {
+        public CacheableObject regenerateObject(Class objectClass, CacheCriteria criteria) throws Exception
+        {
+          throw new Exception("no such row");
+        }
+      });
+      fail();
+    }
+    catch (Exception e)
+    {
+      assertEquals("no such row", e.getMessage());
+    }
+
+    CacheStats.Counters total = cache.getStats().getTotal();
+    assertEquals(1, total.getMissCount());
+    assertEquals(0, total.getLoadSuccessCount());
+    assertEquals(1, total.getLoadFailureCount());
+  }
+
+  public void testAGeneratorAskingForItsOwnKeyFailsOnce() throws Exception
+  {
+    final CacheKey key = TestObject.key(1);
+
+    try
+    {
+      cache.get(key, new CacheableObject.ObjectGenerator()
+      {
+        public CacheableObject regenerateObject(Class objectClass, CacheCriteria criteria) throws Exception
+        {
+          return cache.get(key, this);
+        }
+      });
+      fail("recursive load was allowed");
+    }
+    catch (IllegalStateException e)
+    {
+      // expected
+    }
+
+    // the nested get missed too, but only the outer load ran
+    CacheStats.Counters total = cache.getStats().getTotal();
+    assertEquals(2, total.getMissCount());
+    assertEquals(1, total.getLoadFailureCount());
+    assertEquals(0, total.getLoadSuccessCount());
+  }
+
+  private FrequencySketch sketch() throws Exception
+  {
+    Field policy = Cache.class.getDeclaredField("policy");
+    policy.setAccessible(true);
+    Field sketch = CacheEvictionPolicy.class.getDeclaredField("sketch");
+    sketch.setAccessible(true);
+
+    return (FrequencySketch) sketch.get(policy.get(cache));
+  }
+}
@@ -0,0 +1,80 @@
+package com.rate.cache;
+
+import junit.framework.TestCase;
+
+public class FrequencySketchTest extends TestCase
+{
+  private FrequencySketch sketch;
+
+  protected void setUp()
+  {
+    sketch = new FrequencySketch();
+    sketch.ensureCapacity(1024);
+  }
+
+  public void testCountsIncrements()
+  {
+    assertEquals(0, sketch.frequency(7));
+
+    for (int i = 1; i <= 5; i++)
+    {
+      sketch.increment(7);
+      assertEquals(i, sketch.frequency(7));
+    }
+  }
+
+  public void testCountersSaturateAtFifteen()
+  {
+    for (int i = 0; i < 40; i++)
+    {
+      sketch.increment(7);
+    }
+
+    assertEquals(15, sketch.frequency(7));
+  }
+
+  public void testCountersAgeOutOnReset()
+  {
+    for (int i = 0; i < 15; i++)
+    {
+      sketch.increment(7);
+    }
+
+    // other keys fill the sample; the sketch halves every counter once it is reached
+    int other = 1000;
+    while ((sketch.frequency(7) == 15) && (other < 1000000))
+    {
+      sketch.increment(other++);
+    }
+
+    // saturated counters halve to exactly 7; the sample is ten increments per table slot
+    assertEquals(7, sketch.frequency(7));
+    assertTrue("reset after " + (other - 1000) + " increments", other - 1000 <= 2 * 10 * 1024);
+  }
+
+  public void testClearForgetsEverything()
+  {
+    for (int i = 0; i < 100; i++)
+    {
+      sketch.increment(i);
+    }
+
+    sketch.clear();
+
+    for (int i = 0; i < 100; i++)
+    {
+      assertEquals(0, sketch.frequency(i));
+    }
+  }
+
+  public void testOnlyGrowingForgetsHistory()
+  {
+    sketch.increment(7);
+    sketch.ensureCapacity(512);
+    assertEquals(1, sketch.frequency(7));
+
+    sketch.ensureCapacity(1 << 16);
+    sketch.increment(7);
+    assertEquals(1, sketch.frequency(7));
+  }
+}
@@ -0,0 +1,227 @@
+package com.rate.cache;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Replays a key trace against a Cache bounded by its W-TinyLFU policy and against a plain LRU of the same size, the
+ * bound the cache used to be meant to have, and prints the hit ratio of each. Run it as
+ * <P>
+ * <code>java -cp target/test-classes:target/classes com.rate.cache.HitRatioReplay [trace file] [size ...]</code>
+ * </P>
+ * <P>
+ * A trace file has one request per line; the first field of each line is the key, read as a number if it is one and
+ * hashed otherwise. Without a file a trace is generated: Zipf-distributed lookups over a fixed set of keys, broken up
+ * by scans of keys that are never asked for again, which is what pushes the hot keys out of an LRU.
+ * </P>
+ */
+public class HitRatioReplay
+{
+  private static final int[] DEFAULT_SIZES = { 500, 1000, 5000, 10000 };
+
+  public static void main(String[] args) throws Exception
+  {
+    int[] trace;
+    int first = 0;
+
+    if ((args.length > 0) && !isNumber(args[0]))
+    {
+      trace = readTrace(args[0]);
+      first = 1;
+    }
+    else
+    {
+      trace = generateTrace(2000000, 100000, 0.9, 1);
+    }
+
+    int[] sizes = DEFAULT_SIZES;
+    if (args.length > first)
+    {
+      sizes = new int[args.length - first];
+      for (int i = first; i < args.length; i++)
+      {
+        sizes[i - first] = Integer.parseInt(args[i]);
+      }
+    }
+
+    System.out.println(trace.length + " requests");
+    System.out.println("size      LRU  W-TinyLFU");
+
+    for (int i = 0; i < sizes.length; i++)
+    {
+      System.out.println(String.format("%-6d %6.2f%% %9.2f%%", sizes[i], 100 * replayLru(trace, sizes[i]),
+          100 * replayCache(trace, sizes[i])));
+    }
+
+    System.exit(0);
+  }
+
+  /**
+   * Reads a trace file, one request per line.
+   */
+  static int[] readTrace(String fileName) throws IOException
+  {
+    BufferedReader reader = new BufferedReader(new FileReader(fileName));
+    int[] trace = new int[1024];
+    int count = 0;
+
+    try
+    {
+      String line;
+      while ((line = reader.readLine()) != null)
+      {
+        line = line.trim();
+        if (line.length() == 0)
+        {
+          continue;
+        }
+
+        int end = 0;
+        while ((end < line.length()) && !Character.isWhitespace(line.charAt(end)) && (line.charAt(end) != ','))
+        {
+          end++;
+        }
+        String key = line.substring(0, end);
+
+        if (count == trace.length)
+        {
+          int[] grown = new int[count * 2];
+          System.arraycopy(trace, 0, grown, 0, count);
+          trace = grown;
+        }
+        trace[count++] = isNumber(key) ? Long.valueOf(key).hashCode() : key.hashCode();
+      }
+    }
+    finally
+    {
+      reader.close();
+    }
+
+    int[] result = new int[count];
+    System.arraycopy(trace, 0, result, 0, count);
+
+    return result;
+  }
+
+  /**
+   * Generates requests for keys 0 to keys-1 with Zipf frequencies of the skew given, except that one request in ten is
+   * part of a scan over keys seen only once.
+   */
+  static int[] generateTrace(int requests, int keys, double skew, long seed)
+  {
+    double[] cumulative = new double[keys];
+    double total = 0;
+
+    for (int i = 0; i < keys; i++)
+    {
+      total += 1 / Math.pow(i + 1, skew);
+      cumulative[i] = total;
+    }
+
+    Random random = new Random(seed);
+    int[] trace = new int[requests];
+    int scanKey = keys;
+
+    for (int i = 0; i < requests; i++)
+    {
+      // scans come in runs of 100, so they sweep through a cache rather than trickle
+      if ((i / 100) % 10 == 9)
+      {
+        trace[i] = scanKey++;
+        continue;
+      }
+
+      double target = random.nextDouble() * total;
+      int low = 0;
+      int high = keys - 1;
+
+      while (low < high)
+      {
+        int middle = (low + high) >>> 1;
+        if (cumulative[middle] < target)
+          low = middle + 1;
+        else
+          high = middle;
+      }
+
+      trace[i] = low;
+    }
+
+    return trace;
+  }
+
+  /**
+   * Returns the hit ratio of an LRU holding at most size keys.
+   */
+  static double replayLru(int[] trace, final int size)
+  {
+    Map<Integer, Boolean> lru = new LinkedHashMap<Integer, Boolean>(size * 2, 0.75f, true)
+    {
+      protected boolean removeEldestEntry(Map.Entry<Integer, Boolean> eldest)
+      {
+        return size() > size;
+      }
+    };
+    int hits = 0;
+
+    for (int i = 0; i < trace.length; i++)
+    {
+      Integer key = Integer.valueOf(trace[i]);
+
+      if (lru.get(key) != null)
+      {
+        hits++;
+      }
+      else
+      {
+        lru.put(key, Boolean.TRUE);
+      }
+    }
+
+    return (double) hits / trace.length;
+  }
+
+  /**
+   * Returns the hit ratio of a Cache bounded to size entries, loading every miss through Cache.get().
+   */
+  static double replayCache(int[] trace, int size) throws Exception
+  {
+    Cache cache = new Cache(Integer.valueOf(0));
+    cache.setMaximumSize(size);
+
+    final int[] loads = new int[1];
+    CacheableObject.ObjectGenerator generator = new CacheableObject.ObjectGenerator()
+    {
+      public CacheableObject regenerateObject(Class objectClass, CacheCriteria criteria)
+      {
+        loads[0]++;
+
+        return new TestObject(((Integer) criteria.getCriteria()[0]).intValue());
+      }
+    };
+
+    for (int i = 0; i < trace.length; i++)
+    {
+      cache.get(TestObject.key(trace[i]), generator);
+    }
+
+    return (double) (trace.length - loads[0]) / trace.length;
+  }
+
+  private static boolean isNumber(String s)
+  {
+    try
+    {
+      Long.parseLong(s);
+      return true;
+    }
+    catch (NumberFormatException e)
+    {
+      return false;
+    }
+  }
+}
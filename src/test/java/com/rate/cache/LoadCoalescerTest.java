@@ -0,0 +1,230 @@
+package com.rate.cache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class LoadCoalescerTest extends TestCase
+{
+  private static final int THREADS = 8;
+
+  private LoadCoalescer coalescer;
+
+  protected void setUp()
+  {
+    coalescer = new LoadCoalescer();
+  }
+
+  public void testConcurrentMissesShareOneLoad() throws Exception
+  {
+    final TestObject loaded = new TestObject(1);
+    final AtomicInteger calls = new AtomicInteger();
+
+    Object[] results = loadConcurrently(new Callable<CacheableObject>()
+    {
+      public CacheableObject call() throws Exception
+      {
+        calls.incrementAndGet();
+        awaitWaiters();
+
+        return loaded;
+      }
+    });
+
+    assertEquals(1, calls.get());
+    assertEquals(THREADS - 1, coalescer.getCoalescedCount());
+    for (int i = 0; i < THREADS; i++)
+    {
+      assertSame(loaded, results[i]);
+    }
+  }
+
+  public void testEveryWaiterGetsTheLoadersException() throws Exception
+  {
+    final Exception failure = new Exception("load failed");
+    final AtomicInteger calls = new AtomicInteger();
+
+    Object[] results = loadConcurrently(new Callable<CacheableObject>()
+    {
+      public CacheableObject call() throws Exception
+      {
+        calls.incrementAndGet();
+        awaitWaiters();
+
+        throw failure;
+      }
+    });
+
+    assertEquals(1, calls.get());
+    for (int i = 0; i < THREADS; i++)
+    {
+      assertSame(failure, results[i]);
+    }
+  }
+
+  public void testTheNextMissLoadsAgain() throws Exception
+  {
+    final AtomicInteger calls = new AtomicInteger();
+    Callable<CacheableObject> loader = new Callable<CacheableObject>()
+    {
+      public CacheableObject call()
+      {
+        return new TestObject(calls.incrementAndGet());
+      }
+    };
+
+    coalescer.load(TestObject.key(1), loader);
+    coalescer.load(TestObject.key(1), loader);
+
+    assertEquals(2, calls.get());
+    assertEquals(0, coalescer.getCoalescedCount());
+  }
+
+  public void testALoaderAskingForItsOwnKeyFails() throws Exception
+  {
+    final CacheKey key = TestObject.key(1);
+
+    try
+    {
+      coalescer.load(key, new Callable<CacheableObject>()
+      {
+        public CacheableObject call() throws Exception
+        {
+          return coalescer.load(key, this);
+        }
+      });
+      fail("recursive load was allowed");
+    }
+    catch (IllegalStateException e)
+    {
+      // expected
+    }
+
+    // the failed load is not left behind for the next caller
+    assertNotNull(coalescer.load(key, new Callable<CacheableObject>()
+    {
+      public CacheableObject call()
+      {
+        return new TestObject(1);
+      }
+    }));
+  }
+
+  public void testNestedLoadsOfEachOthersKeysDoNotDeadlock() throws Exception
+  {
+    final CacheKey first = TestObject.key(1);
+    final CacheKey second = TestObject.key(2);
+    final Object lock = new Object();
+    final int[] started = new int[1];
+
+    // each load waits until both have started, then asks for the other's key
+    Thread[] threads = new Thread[2];
+    final Object[] results = new Object[2];
+    final CacheKey[] keys = { first, second };
+
+    for (int i = 0; i < threads.length; i++)
+    {
+      final int index = i;
+      threads[i] = new Thread()
+      {
+        public void run()
+        {
+          try
+          {
+            results[index] = coalescer.load(keys[index], new Callable<CacheableObject>()
+            {
+              public CacheableObject call() throws Exception
+              {
+                synchronized (lock)
+                {
+                  started[0]++;
+                  lock.notifyAll();
+                  while (started[0] < 2)
+                  {
+                    lock.wait();
+                  }
+                }
+
+                final int other = 1 - index;
+
+                return coalescer.load(keys[other], new Callable<CacheableObject>()
+                {
+                  public CacheableObject call()
+                  {
+                    return new TestObject(other + 1);
+                  }
+                });
+              }
+            });
+          }
+          catch (Exception e)
+          {
+            results[index] = e;
+          }
+        }
+      };
+      threads[i].start();
+    }
+
+    for (int i = 0; i < threads.length; i++)
+    {
+      threads[i].join(10000);
+      assertFalse("deadlocked", threads[i].isAlive());
+    }
+
+    assertEquals(2, ((TestObject) results[0]).id);
+    assertEquals(1, ((TestObject) results[1]).id);
+  }
+
+  /**
+   * Runs the loader for one key on THREADS threads at once, and returns what each got: an object or an exception.
+   */
+  private Object[] loadConcurrently(final Callable<CacheableObject> loader) throws InterruptedException
+  {
+    final CacheKey key = TestObject.key(1);
+    final Object[] results = new Object[THREADS];
+    Thread[] threads = new Thread[THREADS];
+
+    for (int i = 0; i < THREADS; i++)
+    {
+      final int index = i;
+      threads[i] = new Thread()
+      {
+        public void run()
+        {
+          try
+          {
+            results[index] = coalescer.load(key, loader);
+          }
+          catch (Exception e)
+          {
+            results[index] = e;
+          }
+        }
+      };
+      threads[i].start();
+    }
+
+    for (int i = 0; i < THREADS; i++)
+    {
+      threads[i].join(10000);
+      assertFalse("load did not finish", threads[i].isAlive());
+    }
+
+    return results;
+  }
+
+  /**
+   * Holds the load until every other thread has found it running and is waiting for it.
+   */
+  private void awaitWaiters() throws InterruptedException
+  {
+    long deadline = System.currentTimeMillis() + 10000;
+
+    while ((coalescer.getCoalescedCount() < THREADS - 1) && (System.currentTimeMillis() < deadline))
+    {
+      Thread.sleep(1);
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package com.rate.cache;
+
+/**
+ * A cacheable object for the cache tests, identified by an int id, with a secondary key by code and an optional weight.
+ */
+class TestObject implements WeightedCacheableObject
+{
+  final int id;
+
+  final int weight;
+
+  private byte scope = CacheTimeManager.SHORT;
+
+  private volatile int flushCount;
+
+  TestObject(int id)
+  {
+    this(id, 1);
+  }
+
+  TestObject(int id, int weight)
+  {
+    this.id = id;
+    this.weight = weight;
+  }
+
+  static CacheKey key(int id)
+  {
+    return new CacheKey(TestObject.class, Integer.valueOf(id));
+  }
+
+  static CacheKey codeKey(int id)
+  {
+    return new CacheKey(TestObject.class, new Object[] { "code", Integer.valueOf(id) });
+  }
+
+  public byte getCacheLongevity()
+  {
+    return scope;
+  }
+
+  public void setCacheLongevity(byte scope)
+  {
+    this.scope = scope;
+  }
+
+  public boolean isCacheable()
+  {
+    return true;
+  }
+
+  public CacheKey getPrimaryKey()
+  {
+    return key(id);
+  }
+
+  public CacheKey getSecondaryKey()
+  {
+    return codeKey(id);
+  }
+
+  public void flush()
+  {
+    flushCount++;
+  }
+
+  int getFlushCount()
+  {
+    return flushCount;
+  }
+
+  public void regenerate(CacheableObject obj)
+  {
+  }
+
+  public boolean isRefreshCacheOnUse()
+  {
+    return true;
+  }
+
+  public int getCacheWeight()
+  {
+    return weight;
+  }
+
+  public String toString()
+  {
+    return "TestObject[" + id + "]";
+  }
+}
@@ -0,0 +1,244 @@
+package com.rate.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TimerWheelTest extends TestCase
+{
+  /** An arbitrary start that is not aligned to any bucket. */
+  private static final long START = 1700000000123L;
+
+  private static final long SECOND = 1000;
+
+  private static final long MINUTE = 60 * SECOND;
+
+  private static final long HOUR = 60 * MINUTE;
+
+  private static final long DAY = 24 * HOUR;
+
+  private final List<CachePointer> expired = new ArrayList<CachePointer>();
+
+  public void testExpiresOnTheBoundaryOfItsBucket()
+  {
+    // aligned to a finest-level bucket, so the deadline is the first millisecond of bucket 3
+    TimerWheel wheel = new TimerWheel(0);
+    TestPointer pointer = schedule(wheel, 0, 3 * 1024);
+
+    wheel.advance(3 * 1024 - 1, expired);
+    assertTrue(expired.isEmpty());
+
+    wheel.advance(3 * 1024, expired);
+    assertEquals(1, expired.size());
+    assertSame(pointer, expired.get(0));
+    assertNull(pointer.timerNext);
+  }
+
+  public void testDeadlineInsideABucketIsRescheduledNotExpiredEarly()
+  {
+    TimerWheel wheel = new TimerWheel(0);
+    TestPointer pointer = schedule(wheel, 0, 3 * 1024 + 1);
+
+    // the bucket comes due a millisecond before the deadline; the entry goes back in the wheel
+    wheel.advance(3 * 1024, expired);
+    assertTrue(expired.isEmpty());
+    assertNotNull(pointer.timerNext);
+
+    wheel.advance(4 * 1024 - 1, expired);
+    assertTrue(expired.isEmpty());
+
+    wheel.advance(4 * 1024, expired);
+    assertEquals(1, expired.size());
+  }
+
+  public void testSecondsExpireWithinOneBucket()
+  {
+    assertExpiresOnTime(5 * SECOND, SECOND / 4);
+    assertExpiresOnTime(63 * SECOND, SECOND / 4);
+  }
+
+  public void testMinutesCascadeIntoSeconds()
+  {
+    assertExpiresOnTime(10 * MINUTE, SECOND);
+  }
+
+  public void testHoursCascadeThroughEveryLevel()
+  {
+    assertExpiresOnTime(2 * HOUR, SECOND);
+  }
+
+  public void testDaysCascadeThroughEveryLevel()
+  {
+    assertExpiresOnTime(DAY, 5 * SECOND);
+  }
+
+  public void testOverflowCascades()
+  {
+    assertExpiresOnTime(7 * DAY, 30 * SECOND);
+  }
+
+  public void testUseMovesTheDeadline()
+  {
+    TimerWheel wheel = new TimerWheel(START);
+    TestPointer pointer = schedule(wheel, START, 5 * SECOND);
+
+    wheel.advance(START + 3 * SECOND, expired);
+    pointer.accessTime = START + 3 * SECOND;
+
+    // the original bucket comes due, the new deadline has not
+    wheel.advance(START + 7 * SECOND, expired);
+    assertTrue(expired.isEmpty());
+    assertNotNull(pointer.timerNext);
+
+    wheel.advance(START + 8 * SECOND - 1, expired);
+    assertTrue(expired.isEmpty());
+
+    wheel.advance(START + 9 * SECOND + 1024, expired);
+    assertEquals(1, expired.size());
+  }
+
+  public void testUseMovesTheDeadlineAcrossLevels()
+  {
+    TimerWheel wheel = new TimerWheel(START);
+    TestPointer pointer = schedule(wheel, START, 10 * MINUTE);
+
+    // used again just before it would expire, so it must last another ten minutes from then
+    long now = START;
+    for (; now < START + 9 * MINUTE; now += SECOND)
+    {
+      wheel.advance(now, expired);
+    }
+    pointer.accessTime = now;
+    long deadline = now + 10 * MINUTE;
+
+    for (; now < deadline; now += SECOND)
+    {
+      wheel.advance(now, expired);
+      assertTrue("expired " + (deadline - now) + " ms early", expired.isEmpty());
+    }
+
+    wheel.advance(deadline + 1024, expired);
+    assertEquals(1, expired.size());
+  }
+
+  public void testAJumpExpiresEveryLevel()
+  {
+    TimerWheel wheel = new TimerWheel(START);
+    long[] timesToLive = { 2 * SECOND, 10 * MINUTE, 2 * HOUR, DAY, 7 * DAY };
+
+    for (int i = 0; i < timesToLive.length; i++)
+    {
+      schedule(wheel, START, timesToLive[i]);
+    }
+
+    wheel.advance(START + 30 * DAY, expired);
+    assertEquals(timesToLive.length, expired.size());
+  }
+
+  public void testAJumpShorterThanTheDeadlineKeepsTheEntry()
+  {
+    TimerWheel wheel = new TimerWheel(START);
+    TestPointer pointer = schedule(wheel, START, 2 * HOUR);
+
+    wheel.advance(START + 2 * HOUR - MINUTE, expired);
+    assertTrue(expired.isEmpty());
+    assertNotNull(pointer.timerNext);
+
+    wheel.advance(START + 2 * HOUR + 1024, expired);
+    assertEquals(1, expired.size());
+  }
+
+  public void testPassedDeadlineExpiresWithTheCurrentBucket()
+  {
+    TimerWheel wheel = new TimerWheel(START);
+    schedule(wheel, START - HOUR, MINUTE);
+
+    wheel.advance(START + 1024, expired);
+    assertEquals(1, expired.size());
+  }
+
+  public void testDescheduledAndFlushedEntriesAreNotReturned()
+  {
+    TimerWheel wheel = new TimerWheel(START);
+    TestPointer descheduled = schedule(wheel, START, SECOND);
+    TestPointer flushed = schedule(wheel, START, SECOND);
+    TestPointer kept = schedule(wheel, START, SECOND);
+
+    wheel.deschedule(descheduled);
+    wheel.deschedule(descheduled);
+    assertNull(descheduled.timerNext);
+    flushed.expire();
+
+    wheel.advance(START + 3 * SECOND, expired);
+    assertEquals(1, expired.size());
+    assertSame(kept, expired.get(0));
+    assertNull(flushed.timerNext);
+  }
+
+  public void testClearUnlinksEverything()
+  {
+    TimerWheel wheel = new TimerWheel(START);
+    TestPointer soon = schedule(wheel, START, SECOND);
+    TestPointer later = schedule(wheel, START, DAY);
+
+    wheel.clear();
+    assertNull(soon.timerNext);
+    assertNull(later.timerPrev);
+
+    wheel.advance(START + 30 * DAY, expired);
+    assertTrue(expired.isEmpty());
+  }
+
+  /**
+   * Advances a wheel in steps of the size given and checks the entry is not expired before its deadline and is
+   * expired no later than one finest-level bucket and one step after it.
+   */
+  private void assertExpiresOnTime(long timeToLive, long step)
+  {
+    TimerWheel wheel = new TimerWheel(START);
+    schedule(wheel, START, timeToLive);
+    long deadline = START + timeToLive;
+    long now = START;
+
+    while (expired.isEmpty())
+    {
+      now += step;
+      wheel.advance(now, expired);
+
+      assertTrue("expired " + (deadline - now) + " ms early", (now >= deadline) || expired.isEmpty());
+      assertTrue("not expired " + (now - deadline) + " ms late", now - deadline <= 1024 + step);
+    }
+
+    assertEquals(1, expired.size());
+    expired.clear();
+  }
+
+  private static TestPointer schedule(TimerWheel wheel, long accessTime, long timeToLive)
+  {
+    TestPointer pointer = new TestPointer(accessTime, timeToLive);
+    wheel.schedule(pointer, accessTime + timeToLive);
+
+    return pointer;
+  }
+
+  /**
+   * A pointer whose access time is set by the test rather than read from the clock.
+   */
+  private static class TestPointer extends CachePointer
+  {
+    long accessTime;
+
+    TestPointer(long accessTime, long timeToLive)
+    {
+      super(new TestObject(1));
+      this.accessTime = accessTime;
+      this.timeToLive = timeToLive;
+    }
+
+    public long getLastAccessTime()
+    {
+      return accessTime;
+    }
+  }
+}
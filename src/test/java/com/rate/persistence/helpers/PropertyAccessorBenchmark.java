@@ -0,0 +1,116 @@
+package com.rate.persistence.helpers;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.sql.Timestamp;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.rate.entity.Stock;
+
+/**
+ * Time to map 100k Stock rows, already read into column values, onto new objects: through the PropertyDescriptor's
+ * write methods with Method.invoke(), as the mapping did before, against the compiled PropertyAccessors. Run main():
+ * <P>
+ * <code>mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt</code>, then
+ * <code>java -cp target/test-classes:target/classes:$(cat cp.txt) com.rate.persistence.helpers.PropertyAccessorBenchmark</code>
+ * </P>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PropertyAccessorBenchmark
+{
+  private static final int ROWS = 100000;
+
+  private static final String[] PROPERTIES = { "stockId", "name", "price", "volume", "high", "low", "added" };
+
+  private Object[][] rows;
+
+  private Method[] methods;
+
+  private PropertyAccessor[] accessors;
+
+  @Setup
+  public void setUp() throws Exception
+  {
+    methods = new Method[PROPERTIES.length];
+    accessors = new PropertyAccessor[PROPERTIES.length];
+
+    for (int i = 0; i < PROPERTIES.length; i++)
+    {
+      PropertyDescriptor pd = new PropertyDescriptor(PROPERTIES[i], Stock.class);
+      methods[i] = pd.getWriteMethod();
+      accessors[i] = PropertyAccessor.compile(pd);
+    }
+
+    rows = new Object[ROWS][];
+    long start = Timestamp.valueOf("2020-01-02 09:30:00").getTime();
+
+    for (int i = 0; i < ROWS; i++)
+    {
+      double price = 10 + (i % 500) / 100.0;
+      rows[i] = new Object[] { Integer.valueOf(i % 50), "S" + (i % 50), Double.valueOf(price),
+          Double.valueOf(100 + i % 900), Double.valueOf(price + 0.5), Double.valueOf(price - 0.5),
+          new Timestamp(start + i * 60000L) };
+    }
+  }
+
+  @Benchmark
+  public Object reflection() throws Exception
+  {
+    Stock last = null;
+
+    for (int i = 0; i < ROWS; i++)
+    {
+      Object[] row = rows[i];
+      last = new Stock();
+
+      for (int j = 0; j < row.length; j++)
+      {
+        methods[j].invoke(last, row[j]);
+      }
+    }
+
+    return last;
+  }
+
+  @Benchmark
+  public Object compiled() throws Exception
+  {
+    Stock last = null;
+
+    for (int i = 0; i < ROWS; i++)
+    {
+      Object[] row = rows[i];
+      last = new Stock();
+
+      for (int j = 0; j < row.length; j++)
+      {
+        accessors[j].set(last, row[j]);
+      }
+    }
+
+    return last;
+  }
+
+  public static void main(String[] args) throws Exception
+  {
+    new Runner(new OptionsBuilder().include(PropertyAccessorBenchmark.class.getSimpleName()).build()).run();
+  }
+}
@@ -0,0 +1,387 @@
+package com.rate.persistence.helpers;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks each accessor against Method.invoke() on the same methods: the same result, or the same exception.
+ */
+public class PropertyAccessorTest extends TestCase
+{
+  public void testReadsAndWritesLikeInvoke() throws Exception
+  {
+    Bean bean = new Bean();
+
+    assertSameOutcome(Bean.class, "name", bean, "abc");
+    assertEquals("abc", accessor(Bean.class, "name").get(bean));
+    assertSameOutcome(Bean.class, "name", bean, null);
+    assertSameOutcome(Bean.class, "count", bean, Integer.valueOf(7));
+    assertEquals(Integer.valueOf(7), accessor(Bean.class, "count").get(bean));
+    assertSameOutcome(Bean.class, "total", bean, Long.valueOf(8));
+    assertSameOutcome(Bean.class, "boxed", bean, null);
+  }
+
+  public void testNullIntoAPrimitive() throws Exception
+  {
+    assertSameOutcome(Bean.class, "count", new Bean(), null);
+    assertSetFails(IllegalArgumentException.class, Bean.class, "count", new Bean(), null);
+  }
+
+  public void testWrongType() throws Exception
+  {
+    assertSameOutcome(Bean.class, "name", new Bean(), Integer.valueOf(1));
+    assertSameOutcome(Bean.class, "boxed", new Bean(), Long.valueOf(1));
+    assertSameOutcome(Bean.class, "count", new Bean(), "1");
+    assertSameOutcome(Bean.class, "count", new Bean(), Long.valueOf(1));
+    assertSameOutcome(Bean.class, "count", new Bean(), Boolean.TRUE);
+    assertSetFails(IllegalArgumentException.class, Bean.class, "name", new Bean(), Integer.valueOf(1));
+  }
+
+  public void testBoxedPrimitivesWidenLikeInvoke() throws Exception
+  {
+    Object[] values = { Byte.valueOf((byte) 1), Short.valueOf((short) 2), Character.valueOf('c'),
+        Integer.valueOf(3), Long.valueOf(4), Float.valueOf(5.5f), Double.valueOf(6.5) };
+    String[] properties = { "count", "total", "ratio", "small", "letter" };
+
+    for (int i = 0; i < properties.length; i++)
+    {
+      for (int j = 0; j < values.length; j++)
+      {
+        assertSameOutcome(Bean.class, properties[i], new Bean(), values[j]);
+      }
+    }
+
+    Bean bean = new Bean();
+    accessor(Bean.class, "total").set(bean, Integer.valueOf(9));
+    assertEquals(9L, bean.getTotal());
+  }
+
+  public void testWrongBean() throws Exception
+  {
+    assertSameOutcome(Bean.class, "name", null, "a");
+    assertSameOutcome(Bean.class, "name", "not a bean", "a");
+    assertSetFails(NullPointerException.class, Bean.class, "name", null, "a");
+
+    try
+    {
+      accessor(Bean.class, "name").get("not a bean");
+      fail("read a string as a bean");
+    }
+    catch (IllegalArgumentException e)
+    {
+      // expected
+    }
+  }
+
+  public void testExceptionsFromTheGetterAndSetter() throws Exception
+  {
+    Bean bean = new Bean();
+    bean.failure = new IllegalStateException("unchecked");
+    assertSameOutcome(Bean.class, "failing", bean, "a");
+
+    bean.failure = new Exception("checked");
+    assertSameOutcome(Bean.class, "failing", bean, "a");
+
+    PropertyAccessor accessor = accessor(Bean.class, "failing");
+    try
+    {
+      accessor.get(bean);
+      fail("the getter's exception was lost");
+    }
+    catch (InvocationTargetException e)
+    {
+      assertSame(bean.failure, e.getCause());
+    }
+
+    // the same through the handle, for a class that is not linked
+    Hidden hidden = new Hidden();
+    hidden.failure = new IllegalStateException("hidden");
+    assertSameOutcome(Hidden.class, "failing", hidden, "a");
+  }
+
+  public void testPublicClassesAreLinkedWithLambdaMetafactory() throws Exception
+  {
+    PropertyAccessor accessor = accessor(Bean.class, "name");
+
+    assertTrue(compiled(accessor, "getter").getClass().isSynthetic());
+    assertTrue(compiled(accessor, "setter").getClass().isSynthetic());
+  }
+
+  public void testPrimitivePropertiesUseTheHandle() throws Exception
+  {
+    PropertyAccessor accessor = accessor(Bean.class, "count");
+
+    assertFalse(compiled(accessor, "getter").getClass().isSynthetic());
+    assertFalse(compiled(accessor, "setter").getClass().isSynthetic());
+  }
+
+  public void testNonPublicClassesFallBackToTheHandle() throws Exception
+  {
+    PropertyAccessor accessor = accessor(Hidden.class, "name");
+    assertFalse(compiled(accessor, "getter").getClass().isSynthetic());
+    assertFalse(compiled(accessor, "setter").getClass().isSynthetic());
+
+    Hidden hidden = new Hidden();
+    assertSameOutcome(Hidden.class, "name", hidden, "abc");
+    assertEquals("abc", accessor.get(hidden));
+    assertSameOutcome(Hidden.class, "name", hidden, Integer.valueOf(1));
+    assertSameOutcome(Hidden.class, "name", new Bean(), "abc");
+    assertSameOutcome(Hidden.class, "name", null, "abc");
+  }
+
+  public void testAMissingMethodIsIllegalAccess() throws Exception
+  {
+    PropertyAccessor accessor = PropertyAccessor.compile(new PropertyDescriptor("readOnly", Bean.class, "getReadOnly",
+        null));
+    assertTrue(accessor.isReadable());
+    assertFalse(accessor.isWritable());
+
+    try
+    {
+      accessor.set(new Bean(), "a");
+      fail("wrote a read-only property");
+    }
+    catch (IllegalAccessException e)
+    {
+      // expected
+    }
+
+    assertNull(PropertyAccessor.compile(null));
+  }
+
+  /**
+   * Sets then gets the value both ways on copies of the bean, and checks the outcomes are the same.
+   */
+  private static void assertSameOutcome(Class type, String property, Object bean, Object value) throws Exception
+  {
+    PropertyDescriptor pd = new PropertyDescriptor(property, type);
+    PropertyAccessor accessor = PropertyAccessor.compile(pd);
+    String call = type.getSimpleName() + "." + property + " = " + describe(value);
+
+    Object expected = outcome(pd.getWriteMethod(), bean, value);
+    Object actual;
+    try
+    {
+      accessor.set(bean, value);
+      actual = null;
+    }
+    catch (Exception e)
+    {
+      actual = e;
+    }
+    assertOutcome(call, expected, actual);
+
+    expected = outcome(pd.getReadMethod(), bean, null);
+    try
+    {
+      actual = accessor.get(bean);
+    }
+    catch (Exception e)
+    {
+      actual = e;
+    }
+    assertOutcome("get " + call, expected, actual);
+  }
+
+  /**
+   * Returns what Method.invoke() returns or throws.
+   */
+  private static Object outcome(Method method, Object bean, Object value)
+  {
+    try
+    {
+      return (method.getParameterTypes().length == 0) ? method.invoke(bean) : method.invoke(bean, value);
+    }
+    catch (Exception e)
+    {
+      return e;
+    }
+  }
+
+  private static void assertOutcome(String call, Object expected, Object actual)
+  {
+    if (expected instanceof Exception)
+    {
+      assertTrue(call + " did not throw " + expected, actual instanceof Exception);
+      assertEquals(call, expected.getClass(), actual.getClass());
+
+      if (expected instanceof InvocationTargetException)
+      {
+        assertSame(call, ((Exception) expected).getCause(), ((Exception) actual).getCause());
+      }
+    }
+    else
+    {
+      assertFalse(call + " threw " + actual, actual instanceof Exception);
+      assertEquals(call, expected, actual);
+    }
+  }
+
+  private static void assertSetFails(Class expected, Class type, String property, Object bean, Object value)
+      throws Exception
+  {
+    try
+    {
+      accessor(type, property).set(bean, value);
+      fail("set " + property + " to " + describe(value));
+    }
+    catch (Exception e)
+    {
+      assertEquals(expected, e.getClass());
+    }
+  }
+
+  private static String describe(Object value)
+  {
+    return (value == null) ? "null" : value.getClass().getSimpleName() + " " + value;
+  }
+
+  private static PropertyAccessor accessor(Class type, String property) throws Exception
+  {
+    return PropertyAccessor.compile(new PropertyDescriptor(property, type));
+  }
+
+  private static Object compiled(PropertyAccessor accessor, String name) throws Exception
+  {
+    Field field = PropertyAccessor.class.getDeclaredField(name);
+    field.setAccessible(true);
+
+    return field.get(accessor);
+  }
+
+  public static class Bean
+  {
+    private String name;
+
+    private int count;
+
+    private long total;
+
+    private double ratio;
+
+    private short small;
+
+    private char letter;
+
+    private Integer boxed;
+
+    Exception failure;
+
+    public String getName()
+    {
+      return name;
+    }
+
+    public void setName(String name)
+    {
+      this.name = name;
+    }
+
+    public int getCount()
+    {
+      return count;
+    }
+
+    public void setCount(int count)
+    {
+      this.count = count;
+    }
+
+    public long getTotal()
+    {
+      return total;
+    }
+
+    public void setTotal(long total)
+    {
+      this.total = total;
+    }
+
+    public double getRatio()
+    {
+      return ratio;
+    }
+
+    public void setRatio(double ratio)
+    {
+      this.ratio = ratio;
+    }
+
+    public short getSmall()
+    {
+      return small;
+    }
+
+    public void setSmall(short small)
+    {
+      this.small = small;
+    }
+
+    public char getLetter()
+    {
+      return letter;
+    }
+
+    public void setLetter(char letter)
+    {
+      this.letter = letter;
+    }
+
+    public Integer getBoxed()
+    {
+      return boxed;
+    }
+
+    public void setBoxed(Integer boxed)
+    {
+      this.boxed = boxed;
+    }
+
+    public String getReadOnly()
+    {
+      return "read only";
+    }
+
+    public String getFailing() throws Exception
+    {
+      throw failure;
+    }
+
+    public void setFailing(String value) throws Exception
+    {
+      throw failure;
+    }
+  }
+
+  /** Not public, so its methods cannot be linked into a generated class. */
+  static class Hidden
+  {
+    private String name;
+
+    Exception failure;
+
+    public String getName()
+    {
+      return name;
+    }
+
+    public void setName(String name)
+    {
+      this.name = name;
+    }
+
+    public String getFailing() throws Exception
+    {
+      throw failure;
+    }
+
+    public void setFailing(String value) throws Exception
+    {
+      throw failure;
+    }
+  }
+}
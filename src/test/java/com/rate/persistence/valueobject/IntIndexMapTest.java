@@ -0,0 +1,149 @@
+package com.rate.persistence.valueobject;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class IntIndexMapTest extends TestCase
+{
+  public void testMissingKeysAreMinusOne()
+  {
+    IntIndexMap map = new IntIndexMap(4);
+
+    assertEquals(-1, map.get(0));
+    assertEquals(-1, map.get(7));
+
+    map.put(7, 0);
+    assertEquals(0, map.get(7));
+    assertEquals(-1, map.get(0));
+    assertEquals(-1, map.get(-7));
+  }
+
+  public void testPutReplacesTheIndex()
+  {
+    IntIndexMap map = new IntIndexMap(4);
+    map.put(7, 1);
+    map.put(7, 2);
+
+    assertEquals(2, map.get(7));
+    assertEquals(1, map.size());
+  }
+
+  public void testExtremeKeys()
+  {
+    IntIndexMap map = new IntIndexMap(4);
+    map.put(0, 10);
+    map.put(Integer.MIN_VALUE, 11);
+    map.put(Integer.MAX_VALUE, 12);
+    map.put(-1, 13);
+
+    assertEquals(10, map.get(0));
+    assertEquals(11, map.get(Integer.MIN_VALUE));
+    assertEquals(12, map.get(Integer.MAX_VALUE));
+    assertEquals(13, map.get(-1));
+  }
+
+  public void testCollidingKeysProbeOnward()
+  {
+    IntIndexMap map = new IntIndexMap(8);
+    int[] keys = colliding(map, map.slot(1), 4);
+
+    for (int i = 0; i < 3; i++)
+    {
+      map.put(keys[i], i);
+    }
+
+    for (int i = 0; i < 3; i++)
+    {
+      assertEquals(i, map.get(keys[i]));
+    }
+
+    // the probe for a missing key stops at the first empty slot after the chain
+    assertEquals(-1, map.get(keys[3]));
+  }
+
+  public void testProbesWrapAroundTheEndOfTheTable()
+  {
+    // room for 8 keys at half load is 16 slots
+    IntIndexMap map = new IntIndexMap(8);
+    int[] keys = colliding(map, 15, 3);
+
+    for (int i = 0; i < keys.length; i++)
+    {
+      map.put(keys[i], i);
+    }
+
+    for (int i = 0; i < keys.length; i++)
+    {
+      assertEquals(i, map.get(keys[i]));
+    }
+  }
+
+  public void testGrowsPastTheExpectedSize()
+  {
+    IntIndexMap map = new IntIndexMap(1);
+    Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+    Random random = new Random(1);
+
+    for (int i = 0; i < 5000; i++)
+    {
+      int key = (i % 2 == 0) ? i : random.nextInt();
+      map.put(key, i);
+      expected.put(Integer.valueOf(key), Integer.valueOf(i));
+    }
+
+    assertEquals(expected.size(), map.size());
+
+    Iterator<Map.Entry<Integer, Integer>> itr = expected.entrySet().iterator();
+    while (itr.hasNext())
+    {
+      Map.Entry<Integer, Integer> entry = itr.next();
+      assertEquals(entry.getValue().intValue(), map.get(entry.getKey().intValue()));
+    }
+
+    for (int i = 1; i < 5000; i += 2)
+    {
+      if (!expected.containsKey(Integer.valueOf(-i)))
+      {
+        assertEquals(-1, map.get(-i));
+      }
+    }
+  }
+
+  public void testKeysSurviveEachResize()
+  {
+    IntIndexMap map = new IntIndexMap(2);
+
+    for (int i = 0; i < 200; i++)
+    {
+      map.put(i * 1024, i);
+
+      for (int j = 0; j <= i; j++)
+      {
+        assertEquals(j, map.get(j * 1024));
+      }
+    }
+  }
+
+  /**
+   * Returns count keys whose probes start at the slot, for a map that has not resized.
+   */
+  private static int[] colliding(IntIndexMap map, int slot, int count)
+  {
+    int[] keys = new int[count];
+    int found = 0;
+
+    for (int key = 0; found < count; key++)
+    {
+      if (map.slot(key) == slot)
+      {
+        keys[found++] = key;
+      }
+    }
+
+    return keys;
+  }
+}
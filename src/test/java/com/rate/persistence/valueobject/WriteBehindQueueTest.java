@@ -0,0 +1,270 @@
+package com.rate.persistence.valueobject;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.rate.persistence.ValueObject;
+import com.rate.persistence.helpers.Attribute;
+
+import junit.framework.TestCase;
+
+public class WriteBehindQueueTest extends TestCase
+{
+  private WriteBehindQueue queue;
+
+  private final Strategy strategy = new Strategy();
+
+  protected void tearDown()
+  {
+    strategy.release.countDown();
+    if (queue != null)
+    {
+      queue.stop();
+    }
+  }
+
+  public void testSavesOfOneObjectAreCoalesced() throws Exception
+  {
+    queue = new WriteBehindQueue(100, 1, 100, 60000);
+    Row row = new Row(5, "a");
+
+    assertTrue(queue.enqueue(row, "save", strategy));
+    row.setValue("b");
+    assertTrue(queue.enqueue(row, "save", strategy));
+    // another instance of the same row replaces the save too
+    assertTrue(queue.enqueue(new Row(5, "c"), "save", strategy));
+    assertEquals(1, queue.getQueueSize());
+
+    queue.flush();
+
+    assertEquals(1, strategy.written.size());
+    assertEquals("5=c", strategy.written.get(0));
+    assertEquals(1, queue.getQueuedCount());
+    assertEquals(2, queue.getCoalescedCount());
+    assertEquals(1, queue.getWrittenCount());
+  }
+
+  public void testChangesAfterTheSaveAreNotWritten() throws Exception
+  {
+    queue = new WriteBehindQueue(100, 1, 100, 60000);
+    Row row = new Row(5, "a");
+
+    queue.enqueue(row, "save", strategy);
+    row.setValue("half");
+    queue.flush();
+
+    assertEquals(Collections.singletonList("5=a"), strategy.written);
+  }
+
+  public void testANewObjectIsGivenItsIdOnceWritten() throws Exception
+  {
+    queue = new WriteBehindQueue(100, 1, 100, 60000);
+    Row row = new Row(0, "a");
+
+    queue.enqueue(row, "save", strategy);
+    assertNull(row.getId());
+    assertTrue(row.isModified());
+
+    queue.flush();
+
+    assertEquals(Integer.valueOf(1000), row.getId());
+    assertFalse(row.isModified());
+  }
+
+  public void testASaveQueuedWhileTheFirstIsWrittenUsesItsId() throws Exception
+  {
+    queue = new WriteBehindQueue(100, 1, 1, 0);
+    strategy.release = new CountDownLatch(1);
+    Row row = new Row(0, "a");
+
+    queue.enqueue(row, "save", strategy);
+    assertTrue(strategy.writing.await(10, TimeUnit.SECONDS));
+
+    row.setValue("b");
+    queue.enqueue(row, "save", strategy);
+    strategy.release.countDown();
+    queue.flush();
+
+    // written once as new, then as an update of the row it became
+    assertEquals(2, strategy.written.size());
+    assertEquals("new=a", strategy.written.get(0));
+    assertEquals("1000=b", strategy.written.get(1));
+    assertEquals(Integer.valueOf(1000), row.getId());
+    assertFalse(row.isModified());
+  }
+
+  public void testAFullQueueMakesTheSaverWait() throws Exception
+  {
+    queue = new WriteBehindQueue(1, 1, 1, 0);
+    strategy.release = new CountDownLatch(1);
+
+    queue.enqueue(new Row(1, "a"), "save", strategy);
+    assertTrue(strategy.writing.await(10, TimeUnit.SECONDS));
+    // fills the queue while the writer is held
+    queue.enqueue(new Row(2, "b"), "save", strategy);
+
+    final Exception[] failure = new Exception[1];
+    Thread saver = new Thread()
+    {
+      public void run()
+      {
+        try
+        {
+          queue.enqueue(new Row(3, "c"), "save", strategy);
+        }
+        catch (Exception e)
+        {
+          failure[0] = e;
+        }
+      }
+    };
+    saver.start();
+
+    long deadline = System.currentTimeMillis() + 10000;
+    while ((saver.getState() != Thread.State.WAITING) && (System.currentTimeMillis() < deadline))
+    {
+      Thread.sleep(1);
+    }
+    assertTrue(saver.isAlive());
+    assertEquals(1, queue.getBlockedCount());
+
+    strategy.release.countDown();
+    saver.join(10000);
+    assertFalse(saver.isAlive());
+    assertNull(failure[0]);
+
+    queue.flush();
+    assertEquals(3, strategy.written.size());
+  }
+
+  public void testStopWritesEverythingQueued() throws Exception
+  {
+    queue = new WriteBehindQueue(100, 2, 100, 60000);
+
+    for (int i = 1; i <= 5; i++)
+    {
+      queue.enqueue(new Row(i, "v" + i), "save", strategy);
+    }
+    assertEquals(0, strategy.written.size());
+
+    queue.stop();
+
+    assertEquals(5, strategy.written.size());
+    assertEquals(0, queue.getQueueSize());
+    assertFalse("queued after stop", queue.enqueue(new Row(6, "v6"), "save", strategy));
+  }
+
+  public void testAFailedSaveLeavesTheObjectModified() throws Exception
+  {
+    queue = new WriteBehindQueue(100, 1, 100, 60000);
+    Row row = new Row(5, "fail");
+
+    queue.enqueue(row, "save", strategy);
+    queue.flush();
+
+    assertEquals(0, strategy.written.size());
+    assertEquals(1, queue.getFailureCount());
+    assertTrue(row.isModified());
+  }
+
+  public static class Row extends ValueObject
+  {
+    private String value;
+
+    public Row()
+    {
+    }
+
+    Row(int id, String value)
+    {
+      setId((id == 0) ? null : Integer.valueOf(id));
+      this.value = value;
+      // as save() only queues a modified object
+      setIsModified(true);
+    }
+
+    public String getValue()
+    {
+      return value;
+    }
+
+    public void setValue(String value)
+    {
+      this.value = value;
+    }
+  }
+
+  /**
+   * Records each row it saves as id=value, giving new rows ids from 1000, and fails rows whose value is "fail". Each
+   * save waits for release, once writing has been counted down.
+   */
+  private static class Strategy extends GenericPersistenceStrategy
+  {
+    final List<String> written = Collections.synchronizedList(new ArrayList<String>());
+
+    final CountDownLatch writing = new CountDownLatch(1);
+
+    volatile CountDownLatch release = new CountDownLatch(0);
+
+    private int nextId = 1000;
+
+    public void save(ValueObject object, String methodName) throws Exception
+    {
+      writing.countDown();
+      release.await(10, TimeUnit.SECONDS);
+
+      String value = ((Row) object).getValue();
+      if ("fail".equals(value))
+      {
+        throw new Exception("cannot save " + value);
+      }
+
+      written.add(((object.getId() == null) ? "new" : object.getId().toString()) + "=" + value);
+      if (object.getId() == null)
+      {
+        object.setId(Integer.valueOf(nextId++));
+      }
+      object.setIsModified(false);
+    }
+
+    public void save(ValueObject object) throws Exception
+    {
+      save(object, "save");
+    }
+
+    public ValueObject loadObject(ValueObjectConfiguration config, Vector keys, String methodName)
+    {
+      return null;
+    }
+
+    public ValueObjectList loadList(ValueObjectConfiguration config, Vector keys, String methodName)
+    {
+      return null;
+    }
+
+    public ValueObjectList loadList(Connection con, ValueObjectConfiguration config, Vector keys, String methodName)
+    {
+      return null;
+    }
+
+    public Integer copy(ValueObjectConfiguration config, Vector criteria)
+    {
+      return null;
+    }
+
+    protected Object convertReadObject(Object value, Attribute attr)
+    {
+      return value;
+    }
+
+    protected Object convertWriteObject(Object value, Attribute attr)
+    {
+      return value;
+    }
+  }
+}
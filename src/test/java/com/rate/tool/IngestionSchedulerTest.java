@@ -0,0 +1,136 @@
+package com.rate.tool;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import junit.framework.TestCase;
+
+public class IngestionSchedulerTest extends TestCase {
+
+	private HttpServer server;
+
+	private String template;
+
+	/** Held by the stub before it answers for the symbol "slow". */
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	private final CountDownLatch slowRequested = new CountDownLatch(1);
+
+	private final List<String> written = Collections.synchronizedList(new ArrayList<String>());
+
+	private final MinuteLineParser.Handler sink = new MinuteLineParser.Handler() {
+		public void tick(String name, long time, double volume, double price) {
+			written.add(name);
+		}
+	};
+
+	protected void setUp() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				String symbol = exchange.getRequestURI().getPath().substring(1);
+
+				if ("missing".equals(symbol)) {
+					exchange.sendResponseHeaders(404, -1);
+					exchange.close();
+					return;
+				}
+
+				if ("slow".equals(symbol)) {
+					slowRequested.countDown();
+					try {
+						release.await(10, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+
+				byte[] body = ("var t1" + symbol + "=(\"2020-01-02 09:30:00,100,x,10.5;2020-01-02 09:31:00,200,x,10.75;"
+						+ "2020-01-02 09:32:00,300,x,11\");").getBytes("US-ASCII");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		});
+		server.start();
+		template = "http://127.0.0.1:" + server.getAddress().getPort() + "/%1$s";
+	}
+
+	protected void tearDown() {
+		release.countDown();
+		server.stop(0);
+	}
+
+	public void testWritesEveryTickFetched() throws Exception {
+		IngestionScheduler scheduler = new IngestionScheduler(template, sink);
+		scheduler.start();
+		scheduler.addSymbol("aaa", 60000);
+		scheduler.addSymbol("bbb", 60000);
+		scheduler.addSymbol("missing", 60000);
+
+		awaitResponses(scheduler, 3);
+		assertTrue(scheduler.stop(10000));
+
+		assertEquals(6, written.size());
+		assertEquals(6, scheduler.getTickCount());
+		assertEquals(2, scheduler.getFetchCount());
+		assertEquals(1, scheduler.getFailureCount());
+	}
+
+	public void testAFetchStillRunningAtStopIsWrittenLater() throws Exception {
+		IngestionScheduler scheduler = new IngestionScheduler(template, sink);
+		scheduler.setWriterThreads(1);
+		scheduler.start();
+		scheduler.addSymbol("aaa", 60000);
+		scheduler.addSymbol("slow", 60000);
+
+		assertTrue(slowRequested.await(10, TimeUnit.SECONDS));
+		awaitResponses(scheduler, 1);
+
+		// the slow fetch outlasts the wait, and its batch arrives after the writers have found the queue empty
+		assertFalse(scheduler.stop(200));
+		Thread.sleep(300);
+		release.countDown();
+
+		long deadline = System.currentTimeMillis() + 10000;
+		while ((written.size() < 6) && (System.currentTimeMillis() < deadline)) {
+			Thread.sleep(10);
+		}
+
+		assertEquals(3, Collections.frequency(written, "slow"));
+		assertEquals(6, scheduler.getTickCount());
+		assertEquals(0, scheduler.getFailureCount());
+	}
+
+	public void testStopBeforeStartIsDone() throws Exception {
+		IngestionScheduler scheduler = new IngestionScheduler(template, sink);
+
+		assertTrue(scheduler.stop(0));
+		scheduler.awaitTermination();
+	}
+
+	/**
+	 * Waits until the number of fetches that have finished, parsed or failed, reaches the count.
+	 */
+	private static void awaitResponses(IngestionScheduler scheduler, long responses) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+
+		while ((scheduler.getFetchCount() + scheduler.getFailureCount() < responses)
+				&& (System.currentTimeMillis() < deadline)) {
+			Thread.sleep(10);
+		}
+	}
+}
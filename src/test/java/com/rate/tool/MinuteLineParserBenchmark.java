@@ -0,0 +1,144 @@
+package com.rate.tool;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Parse time of one minute-line response: the streaming MinuteLineParser against the path it replaced, which read
+ * the whole response into a String, split it on ';' and ',', and parsed each field with SimpleDateFormat and
+ * Double.valueOf. Neither path saves anything. Capture a response first, e.g.
+ * <code>curl -o csbr.txt 'https://stock.finance.sina.com.cn/usstock/api/jsonp_v2.php/var%20t1csbr=/US_MinlineNService.getMinline?symbol=csbr&amp;day=5'</code>,
+ * then pass the file to main():
+ * <P>
+ * <code>mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt</code>, then
+ * <code>java -cp target/test-classes:target/classes:$(cat cp.txt) com.rate.tool.MinuteLineParserBenchmark csbr.txt</code>
+ * </P>
+ * Without a file it writes a generated response of five trading days to a temporary file and reads that instead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MinuteLineParserBenchmark {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** The captured response; empty for a generated one. */
+	@Param({ "" })
+	public String file;
+
+	private byte[] response;
+
+	private MinuteLineParser parser;
+
+	@Setup
+	public void setUp() throws Exception {
+		File source = (file.length() == 0) ? generate() : new File(file);
+		response = Files.readAllBytes(source.toPath());
+		parser = new MinuteLineParser();
+	}
+
+	@Benchmark
+	public Object streaming(final Blackhole blackhole) throws Exception {
+		return parser.parse(new ByteArrayInputStream(response), new MinuteLineParser.Handler() {
+			public void tick(String name, long time, double volume, double price) {
+				blackhole.consume(time);
+				blackhole.consume(volume);
+				blackhole.consume(price);
+			}
+		});
+	}
+
+	@Benchmark
+	public Object splitAndFormat(Blackhole blackhole) throws Exception {
+		BufferedReader rd = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(response), UTF8));
+		StringBuilder sb = new StringBuilder();
+		int cp;
+		while ((cp = rd.read()) != -1) {
+			sb.append((char) cp);
+		}
+		String json = sb.toString();
+		String name = json.substring(6, json.indexOf("="));
+		String body = json.substring(json.indexOf("\"") + 1, json.lastIndexOf("\""));
+
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd hh:mm:ss");
+		for (String data : body.split(";")) {
+			String[] elements = data.split(",");
+			blackhole.consume(Double.valueOf(elements[3]));
+			blackhole.consume(Double.valueOf(elements[1]));
+			blackhole.consume(new java.sql.Timestamp(dateFormat.parse(elements[0]).getTime()));
+		}
+
+		return name;
+	}
+
+	public static void main(String[] args) throws Exception {
+		OptionsBuilder options = new OptionsBuilder();
+		options.include(MinuteLineParserBenchmark.class.getSimpleName());
+		if (args.length > 0) {
+			options.param("file", new File(args[0]).getAbsolutePath());
+		}
+		new Runner(options.build()).run();
+	}
+
+	/**
+	 * Writes five trading days of minutes from 09:30 to 16:00 in the response's format.
+	 */
+	private static File generate() throws Exception {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		StringBuilder sb = new StringBuilder("var t1csbr=(\"");
+		double price = 10.5;
+
+		for (int day = 0; day < 5; day++) {
+			calendar.set(2020, Calendar.JANUARY, 6 + day, 9, 30, 0);
+			for (int minute = 0; minute < 390; minute++) {
+				price += ((minute * 7 + day) % 5 - 2) * 0.01;
+				sb.append(format.format(calendar.getTime())).append(',').append(100 + (minute * 37) % 900).append(",0,")
+						.append(Math.round(price * 100) / 100.0).append(';');
+				calendar.add(Calendar.MINUTE, 1);
+			}
+		}
+		sb.setLength(sb.length() - 1);
+		sb.append("\");");
+
+		File generated = File.createTempFile("minline", ".txt");
+		generated.deleteOnExit();
+		OutputStream out = new FileOutputStream(generated);
+		try {
+			out.write(sb.toString().getBytes(UTF8));
+		}
+		finally {
+			out.close();
+		}
+
+		return generated;
+	}
+}
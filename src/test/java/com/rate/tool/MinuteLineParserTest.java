@@ -0,0 +1,216 @@
+package com.rate.tool;
+
+import java.io.ByteArrayInputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class MinuteLineParserTest extends TestCase {
+
+	private MinuteLineParser parser;
+
+	private Ticks ticks;
+
+	protected void setUp() {
+		parser = new MinuteLineParser();
+		ticks = new Ticks(Long.MIN_VALUE);
+	}
+
+	public void testParsesAResponse() throws Exception {
+		String response = "var t1csbr=(\"2020-01-02 09:30:00,1200,x,10.5;2020-01-02 09:31:00,300,x,10.75\")";
+
+		String name = parser.parse(new ByteArrayInputStream(response.getBytes("US-ASCII")), ticks);
+
+		assertEquals("csbr", name);
+		assertEquals(2, ticks.size());
+		assertEquals("csbr", ticks.names.get(0));
+		assertEquals(time("2020-01-02 09:30:00"), ticks.time(0));
+		assertEquals(1200.0, ticks.volume(0), 0);
+		assertEquals(10.5, ticks.price(0), 0);
+		assertEquals(time("2020-01-02 09:31:00"), ticks.time(1));
+		assertEquals(10.75, ticks.price(1), 0);
+	}
+
+	public void testTrailingSemicolon() throws Exception {
+		parser.parseBody("2020-01-02 09:30:00,1,x,2;2020-01-02 09:31:00,3,x,4;", "a", ticks);
+
+		assertEquals(2, ticks.size());
+		assertEquals(4.0, ticks.price(1), 0);
+	}
+
+	public void testEmptyRecordsAreSkipped() throws Exception {
+		parser.parseBody(";2020-01-02 09:30:00,1,x,2;;", "a", ticks);
+
+		assertEquals(1, ticks.size());
+	}
+
+	public void testRecordWithOnlyATimeIsSkipped() throws Exception {
+		parser.parseBody("2020-01-02 09:30:00,1,x,2;2020-01-02 09:31:00;2020-01-02 09:32:00,3,x,4;2020-01-02 09:33:00",
+				"a", ticks);
+
+		assertEquals(2, ticks.size());
+		assertEquals(time("2020-01-02 09:30:00"), ticks.time(0));
+		assertEquals(time("2020-01-02 09:32:00"), ticks.time(1));
+	}
+
+	public void testRecordMissingFieldsFails() throws Exception {
+		try {
+			parser.parseBody("2020-01-02 09:30:00,1,x", "a", ticks);
+			fail("parsed a record of 3 fields");
+		}
+		catch (Exception e) {
+			assertEquals("Minute-line record has 3 fields, needs 4", e.getMessage());
+		}
+	}
+
+	public void testBadTimeFails() throws Exception {
+		try {
+			parser.parseBody("2020-01-02 9:30:00,1,x,2", "a", ticks);
+			fail("parsed a short time");
+		}
+		catch (Exception e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Unparseable time"));
+		}
+
+		try {
+			parser.parseBody("2020-13-02 09:30:00,1,x,2", "a", ticks);
+			fail("parsed month 13");
+		}
+		catch (Exception e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Unparseable time"));
+		}
+	}
+
+	public void testRecordsUpToTheMarkAreSkipped() throws Exception {
+		ticks = new Ticks(time("2020-01-02 09:31:00"));
+
+		parser.parseBody("2020-01-02 09:30:00,1,x,2;2020-01-02 09:31:00,3,x,4;2020-01-02 09:32:00,5,x,6", "a", ticks);
+
+		assertEquals(1, ticks.size());
+		assertEquals(time("2020-01-02 09:32:00"), ticks.time(0));
+		assertEquals(6.0, ticks.price(0), 0);
+	}
+
+	public void testSkippingTheLastRecordEndsTheBody() throws Exception {
+		ticks = new Ticks(time("2020-01-02 09:31:00"));
+
+		parser.parseBody("2020-01-02 09:30:00,1,x,2;2020-01-02 09:31:00,3,x,4", "a", ticks);
+		assertEquals(0, ticks.size());
+
+		String response = "var t1abcd=(\"2020-01-02 09:30:00,1,x,2\");";
+		assertEquals("abcd", parser.parse(new ByteArrayInputStream(response.getBytes("US-ASCII")), ticks));
+		assertEquals(0, ticks.size());
+	}
+
+	public void testHourRollover() throws Exception {
+		parser.parseBody("2020-01-02 09:59:59,1,x,2;2020-01-02 10:00:00,1,x,2;2020-01-02 23:59:59,1,x,2;"
+				+ "2020-01-03 00:00:00,1,x,2;2020-01-02 09:00:00,1,x,2", "a", ticks);
+
+		assertEquals(5, ticks.size());
+		assertEquals(1000, ticks.time(1) - ticks.time(0));
+		assertEquals(1000, ticks.time(3) - ticks.time(2));
+		assertEquals(time("2020-01-02 09:59:59"), ticks.time(0));
+		assertEquals(time("2020-01-03 00:00:00"), ticks.time(3));
+		// going back to an earlier hour works it out again
+		assertEquals(time("2020-01-02 09:00:00"), ticks.time(4));
+	}
+
+	public void testNoonIsNotMidnight() throws Exception {
+		parser.parseBody("2020-01-02 12:30:00,1,x,2", "a", ticks);
+
+		assertEquals(time("2020-01-02 12:30:00"), ticks.time(0));
+	}
+
+	public void testNumbers() throws Exception {
+		assertEquals(1200.0, number("1200"), 0);
+		assertEquals(10.5, number("10.5"), 0);
+		assertEquals(10.0, number("10."), 0);
+		assertEquals(0.5, number(".5"), 0);
+		assertEquals(0.001, number("0.001"), 0);
+		assertEquals(-3.25, number("-3.25"), 0);
+		assertEquals(2.0, number("+2"), 0);
+		assertEquals(12.5, number(" 12.5 "), 0);
+		assertEquals(0.3, number("0.3"), 0);
+		assertEquals(123456789.012345, number("123456789.012345"), 0);
+	}
+
+	public void testNumbersOutsideThePlainFormFallBack() throws Exception {
+		assertEquals(1000.0, number("1e3"), 0);
+		assertEquals(Double.parseDouble("12345678901234567"), number("12345678901234567"), 0);
+		assertEquals(Double.parseDouble("0.1234567890123456789"), number("0.1234567890123456789"), 0);
+
+		try {
+			number("1.2.3");
+			fail("parsed 1.2.3");
+		}
+		catch (Exception e) {
+			assertEquals("Unparseable number: 1.2.3", e.getMessage());
+		}
+	}
+
+	public void testBodyLongerThanTheReadBuffer() throws Exception {
+		StringBuilder body = new StringBuilder();
+		for (int i = 0; i < 2000; i++) {
+			body.append(String.format("2020-01-02 %02d:%02d:00,%d,x,%d.25;", 9 + (i / 60) % 14, i % 60, i, i));
+		}
+
+		parser.parseBody(body.toString(), "a", ticks);
+
+		assertEquals(2000, ticks.size());
+		assertEquals(1999.25, ticks.price(1999), 0);
+		assertEquals(1999.0, ticks.volume(1999), 0);
+	}
+
+	private double number(String value) throws Exception {
+		Ticks one = new Ticks(Long.MIN_VALUE);
+		parser.parseBody("2020-01-02 09:30:00,1,x," + value, "a", one);
+
+		return one.price(0);
+	}
+
+	private static long time(String time) throws Exception {
+		return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").parse(time).getTime();
+	}
+
+	/**
+	 * Records the ticks it is given, and says ticks up to a mark are stored.
+	 */
+	private static class Ticks implements MinuteLineParser.IncrementalHandler {
+		final long mark;
+
+		final List<String> names = new ArrayList<String>();
+
+		final List<double[]> values = new ArrayList<double[]>();
+
+		Ticks(long mark) {
+			this.mark = mark;
+		}
+
+		public long getLastTime(String name) {
+			return mark;
+		}
+
+		public void tick(String name, long time, double volume, double price) {
+			names.add(name);
+			values.add(new double[] { time, volume, price });
+		}
+
+		int size() {
+			return values.size();
+		}
+
+		long time(int i) {
+			return (long) values.get(i)[0];
+		}
+
+		double volume(int i) {
+			return values.get(i)[1];
+		}
+
+		double price(int i) {
+			return values.get(i)[2];
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package com.rate.tool;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.rate.entity.Stock;
+import com.rate.entity.TwentyMinHighOrLow;
+import com.rate.timeseries.RollingHighLow;
+import com.rate.timeseries.TickStore;
+
+import junit.framework.TestCase;
+
+public class ReadUrlUtilTest extends TestCase {
+
+	private static final String BODY = "2020-01-02 09:30:00,1,x,10;2020-01-02 09:31:00,2,x,11;2020-01-02 09:32:00,3,x,12";
+
+	private File file;
+
+	private HighWaterMarks marks;
+
+	private Saver util;
+
+	/** The times passed to the rolling high and low. */
+	private final List<Long> highLowTicks = new ArrayList<Long>();
+
+	/** A symbol of its own for each test, as the tick store is shared. */
+	private String symbol;
+
+	protected void setUp() throws Exception {
+		file = File.createTempFile("highwater", ".properties");
+		file.delete();
+		marks = new HighWaterMarks(file);
+		symbol = getName() + System.nanoTime();
+
+		util = new Saver();
+		util.setHighWaterMarks(marks);
+		util.setHighLow(new RollingHighLow(new RollingHighLow.Listener() {
+			public void highOrLow(TwentyMinHighOrLow record) {
+			}
+		}) {
+			public TwentyMinHighOrLow tick(String name, Integer stockId, long time, double price) {
+				highLowTicks.add(Long.valueOf(time));
+				return super.tick(name, stockId, time, price);
+			}
+		});
+	}
+
+	protected void tearDown() {
+		file.delete();
+	}
+
+	public void testTheMarkMovesUpToTheLastTickSaved() throws Exception {
+		util.getData(BODY, symbol);
+
+		assertEquals(3, util.saved.size());
+		assertEquals(time("2020-01-02 09:32:00"), marks.get(symbol));
+		assertTrue(file.exists());
+
+		util.getData(BODY, symbol);
+		assertEquals(3, util.saved.size());
+	}
+
+	public void testTicksSavedAfterAFailureAreNotSavedAgain() throws Exception {
+		util.failing.add(Long.valueOf(time("2020-01-02 09:31:00")));
+		try {
+			util.getData(BODY, symbol);
+			fail("the failed save was not reported");
+		} catch (Exception e) {
+			assertEquals("save failed", e.getMessage());
+		}
+
+		// the mark waits at the tick before the failure
+		assertEquals(2, util.saved.size());
+		assertEquals(time("2020-01-02 09:30:00"), marks.get(symbol));
+
+		util.failing.clear();
+		util.getData(BODY, symbol);
+
+		// only the failed tick is saved on the next poll
+		assertEquals(3, util.saved.size());
+		assertEquals(Long.valueOf(time("2020-01-02 09:31:00")), util.saved.get(2));
+		assertEquals(time("2020-01-02 09:31:00"), marks.get(symbol));
+
+		util.getData(BODY + ";2020-01-02 09:33:00,4,x,13", symbol);
+		assertEquals(4, util.saved.size());
+		assertEquals(4, new HashSet<Long>(util.saved).size());
+		assertEquals(time("2020-01-02 09:33:00"), marks.get(symbol));
+	}
+
+	public void testATickReadAgainIsStoredAndWindowedOnce() throws Exception {
+		util.failing.add(Long.valueOf(time("2020-01-02 09:31:00")));
+		try {
+			util.getData(BODY, symbol);
+			fail("the failed save was not reported");
+		} catch (Exception e) {
+			// expected
+		}
+		util.failing.clear();
+		util.getData(BODY, symbol);
+
+		assertEquals(3, TickStore.getInstance().getSeries(symbol).size());
+		assertEquals(3, highLowTicks.size());
+		assertEquals(3, new HashSet<Long>(highLowTicks).size());
+	}
+
+	private static long time(String time) throws Exception {
+		return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").parse(time).getTime();
+	}
+
+	/**
+	 * Saves in place of the database, failing the ticks at the times given.
+	 */
+	private static class Saver extends ReadUrlUtil {
+		final Set<Long> failing = new HashSet<Long>();
+
+		final List<Long> saved = new ArrayList<Long>();
+
+		protected void save(List<Stock> stocks) throws Exception {
+			boolean failed = false;
+			for (int i = 0; i < stocks.size(); i++) {
+				Stock stock = stocks.get(i);
+				Long time = Long.valueOf(stock.getAddedDate().getTime());
+				if (failing.contains(time)) {
+					failed = true;
+				} else {
+					saved.add(time);
+					stock.setIsModified(false);
+				}
+			}
+			if (failed) {
+				throw new Exception("save failed");
+			}
+		}
+	}
+}